@@ -0,0 +1,435 @@
+/* File: AnnotationIndex.java */
+
+import java.awt.*;
+import java.util.*;
+import java.lang.*;
+import java.io.*;
+
+/**
+ * AnnotationIndex class is a local spatial index of the spot annotations
+ * {x, y, Swiss-Prot ID, protein name} of an active map. The full spot
+ * annotation table for the map is imported once from a tab-delimited
+ * file or URL and saved in "DB/AnnIdx-<hash>.txt" where hash is the
+ * SHA-1 of the active map clickCGIbaseURL. After that, click lookups 
+ * and spot list annotation for that map are resolved locally without
+ * any network access.
+ *<P>
+ * The table has one spot per line with tab-delimited fields:
+ *<PRE>
+ *   x  y  Swiss-Prot-ID  protein-name
+ *</PRE>
+ * where (x,y) are the map image coordinates used by the active map
+ * server. Lines starting with "#" and lines with a non-numeric x or y
+ * (e.g., a header line) are ignored.
+ *<P>
+ * The spots are kept in a uniform grid of GRID_CELL_SIZE square cells
+ * stored as a compressed list of spot indices per cell. A lookup only
+ * searches the cells within MAX_LOOKUP_RADIUS of (x,y) and returns 
+ * the nearest spot.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class AnnotationIndex
+{ /* AnnotationIndex */
+  
+  /** Size of the square grid cells in pixels */
+  public static int
+    GRID_CELL_SIZE= 32;
+  /** Max distance in pixels from the clicked (x,y) to an indexed spot */
+  public static int
+    MAX_LOOKUP_RADIUS= 8;
+  
+  /** Loaded indexes. Hashtable of (clickCGIbaseURL, AnnotationIndex) */
+  private static Hashtable
+    indexByURL= new Hashtable();
+  /** Active map URLs without an index file. Hashtable of 
+   * (clickCGIbaseURL, clickCGIbaseURL) so the disk is only checked once.
+   */
+  private static Hashtable
+    noIndexURL= new Hashtable();
+  
+  /** base URL of the active map Web server */
+  public String
+    clickCGIbaseURL;
+  /** # of spots in the index */
+  public int
+    nSpots= 0;
+  /** x coordinates [0:nSpots-1] */
+  private int
+    xList[]= new int[256];
+  /** y coordinates [0:nSpots-1] */
+  private int
+    yList[]= new int[256];
+  /** Swiss-Prot IDs [0:nSpots-1] */
+  private String
+    idList[]= new String[256];
+  /** protein names [0:nSpots-1] */
+  private String
+    nameList[]= new String[256];
+  
+  /** min x of the grid */
+  private int
+    gridX0;
+  /** min y of the grid */
+  private int
+    gridY0;
+  /** # of grid columns */
+  private int
+    gridCols;
+  /** # of grid rows */
+  private int
+    gridRows;
+  /** start of the spots of cell c in cellSpots[] is cellStart[c] and
+   * the end is cellStart[c+1]. Size is gridCols*gridRows+1.
+   */
+  private int
+    cellStart[];
+  /** spot indices sorted by cell */
+  private int
+    cellSpots[];
+  
+  
+  /**
+   * AnnotationIndex() - Constructor
+   * @param clickCGIbaseURL is the active map Web server base URL
+   */
+  public AnnotationIndex(String clickCGIbaseURL)
+  { /* AnnotationIndex */
+    this.clickCGIbaseURL= clickCGIbaseURL;
+  } /* AnnotationIndex */
+  
+  
+  /**
+   * getIndexFile() - get the local index file for the active map
+   * @param flk is the Flicker instance
+   * @param clickCGIbaseURL is the active map Web server base URL
+   * @return "DB/AnnIdx-<hash>.txt" path
+   */
+  public static String getIndexFile(Flicker flk, String clickCGIbaseURL)
+  { /* getIndexFile */
+    return(flk.userDir + "DB" + flk.fileSeparator + "AnnIdx-" +
+           UrlCache.sha1Hex(clickCGIbaseURL.getBytes()) + ".txt");
+  } /* getIndexFile */
+  
+  
+  /**
+   * getIndex() - get the local index for the active map, reading it
+   * from its index file the first time it is used.
+   * @param flk is the Flicker instance
+   * @param clickCGIbaseURL is the active map Web server base URL
+   * @return index else null if there is no local index for the map
+   */
+  public static synchronized AnnotationIndex getIndex(Flicker flk,
+                                                      String clickCGIbaseURL)
+  { /* getIndex */
+    if(clickCGIbaseURL==null || clickCGIbaseURL.length()==0)
+      return(null);
+    AnnotationIndex ai= (AnnotationIndex)indexByURL.get(clickCGIbaseURL);
+    if(ai!=null || noIndexURL.get(clickCGIbaseURL)!=null)
+      return(ai);
+    
+    String indexFile= getIndexFile(flk, clickCGIbaseURL);
+    if(new File(indexFile).exists())
+    { /* read it */
+      ai= new AnnotationIndex(clickCGIbaseURL);
+      String sData= flk.fio.readFileFromDisk(indexFile, false);
+      if(sData!=null && ai.parseTable(sData)>0)
+        indexByURL.put(clickCGIbaseURL, ai);
+      else
+        ai= null;
+    }
+    if(ai==null)
+      noIndexURL.put(clickCGIbaseURL, clickCGIbaseURL);
+    
+    return(ai);
+  } /* getIndex */
+  
+  
+  /**
+   * importTable() - import the spot annotation table for the active map
+   * from a tab-delimited file or URL, and save it as the local index.
+   * URLs are read through the URL cache.
+   * @param flk is the Flicker instance
+   * @param clickCGIbaseURL is the active map Web server base URL
+   * @param tableFile is the table file or http:// URL
+   * @return index else null if failed
+   */
+  public static synchronized AnnotationIndex 
+                           importTable(Flicker flk, String clickCGIbaseURL,
+                                       String tableFile)
+  { /* importTable */
+    String sData= flk.fio.readData(tableFile, 
+                                   "Reading spot annotation table", false);
+    if(sData==null)
+      return(null);
+    AnnotationIndex ai= new AnnotationIndex(clickCGIbaseURL);
+    if(ai.parseTable(sData)==0)
+      return(null);
+    
+    String indexFile= getIndexFile(flk, clickCGIbaseURL);
+    new File(indexFile).getParentFile().mkdirs();
+    if(!flk.fio.writeFileToDisk(indexFile, ai.toTableString()))
+      return(null);
+    
+    indexByURL.put(clickCGIbaseURL, ai);
+    noIndexURL.remove(clickCGIbaseURL);
+    return(ai);
+  } /* importTable */
+  
+  
+  /**
+   * removeIndex() - remove the local index for the active map so lookups
+   * go to the active map server again.
+   * @param flk is the Flicker instance
+   * @param clickCGIbaseURL is the active map Web server base URL
+   * @return true if there was an index
+   */
+  public static synchronized boolean removeIndex(Flicker flk,
+                                                 String clickCGIbaseURL)
+  { /* removeIndex */
+    if(clickCGIbaseURL==null || clickCGIbaseURL.length()==0)
+      return(false);
+    boolean foundFlag= (indexByURL.remove(clickCGIbaseURL)!=null);
+    File f= new File(getIndexFile(flk, clickCGIbaseURL));
+    if(f.exists())
+      foundFlag= f.delete() || foundFlag;
+    noIndexURL.put(clickCGIbaseURL, clickCGIbaseURL);
+    return(foundFlag);
+  } /* removeIndex */
+  
+  
+  /**
+   * parseTable() - parse the tab-delimited table and build the grid
+   * @param sData is the table data
+   * @return # of spots in the index
+   */
+  public int parseTable(String sData)
+  { /* parseTable */
+    nSpots= 0;
+    StringTokenizer lines= new StringTokenizer(sData, "\r\n");
+    while(lines.hasMoreTokens())
+    { /* parse a spot */
+      String line= lines.nextToken();
+      if(line.startsWith("#"))
+        continue;
+      String tok[]= Util.cvs2Array(line, 4, "\t");
+      if(tok==null || tok.length<3)
+        continue;
+      int
+        x= Util.cvs2i(tok[0].trim(), -1),
+        y= Util.cvs2i(tok[1].trim(), -1);
+      if(x<0 || y<0)
+        continue;                  /* header or bad line */
+      addSpot(x, y, tok[2].trim(), 
+              ((tok.length>3 && tok[3]!=null) ? tok[3].trim() : ""));
+    } /* parse a spot */
+    
+    buildGrid();
+    return(nSpots);
+  } /* parseTable */
+  
+  
+  /**
+   * addSpot() - add a spot to the lists. The lists are doubled when full.
+   * The grid must be rebuilt with buildGrid() after adding spots.
+   * @param x coordinate
+   * @param y coordinate
+   * @param id is the Swiss-Prot ID
+   * @param name is the protein name
+   */
+  private void addSpot(int x, int y, String id, String name)
+  { /* addSpot */
+    if(nSpots==xList.length)
+    { /* grow the lists */
+      int newSize= 2*xList.length;
+      int xNew[]= new int[newSize], yNew[]= new int[newSize];
+      String idNew[]= new String[newSize], nameNew[]= new String[newSize];
+      System.arraycopy(xList, 0, xNew, 0, nSpots);
+      System.arraycopy(yList, 0, yNew, 0, nSpots);
+      System.arraycopy(idList, 0, idNew, 0, nSpots);
+      System.arraycopy(nameList, 0, nameNew, 0, nSpots);
+      xList= xNew;
+      yList= yNew;
+      idList= idNew;
+      nameList= nameNew;
+    }
+    xList[nSpots]= x;
+    yList[nSpots]= y;
+    idList[nSpots]= id;
+    nameList[nSpots]= name;
+    nSpots++;
+  } /* addSpot */
+  
+  
+  /**
+   * buildGrid() - build the grid of spot indices by a counting sort
+   * of the spots by their cell.
+   */
+  private void buildGrid()
+  { /* buildGrid */
+    int
+      xMin= Integer.MAX_VALUE,
+      yMin= Integer.MAX_VALUE,
+      xMax= 0,
+      yMax= 0;
+    for(int i=0;i<nSpots;i++)
+    {
+      xMin= Math.min(xMin, xList[i]);
+      yMin= Math.min(yMin, yList[i]);
+      xMax= Math.max(xMax, xList[i]);
+      yMax= Math.max(yMax, yList[i]);
+    }
+    if(nSpots==0)
+      xMin= yMin= 0;
+    gridX0= xMin;
+    gridY0= yMin;
+    gridCols= (xMax-xMin)/GRID_CELL_SIZE + 1;
+    gridRows= (yMax-yMin)/GRID_CELL_SIZE + 1;
+    
+    int nCells= gridCols*gridRows;
+    cellStart= new int[nCells+1];
+    cellSpots= new int[nSpots];
+    for(int i=0;i<nSpots;i++)
+      cellStart[getCell(xList[i],yList[i])+1]++;
+    for(int c=0;c<nCells;c++)
+      cellStart[c+1] += cellStart[c];
+    int fill[]= new int[nCells];
+    for(int i=0;i<nSpots;i++)
+    {
+      int c= getCell(xList[i],yList[i]);
+      cellSpots[cellStart[c] + fill[c]++]= i;
+    }
+  } /* buildGrid */
+  
+  
+  /**
+   * getCell() - get the grid cell of an indexed (x,y)
+   * @param x coordinate
+   * @param y coordinate
+   * @return cell index
+   */
+  private int getCell(int x, int y)
+  { 
+    return(((y-gridY0)/GRID_CELL_SIZE)*gridCols + (x-gridX0)/GRID_CELL_SIZE);
+  }
+  
+  
+  /**
+   * lookupNearestSpot() - find the nearest indexed spot within
+   * maxRadius of (x,y).
+   * @param x coordinate
+   * @param y coordinate
+   * @param maxRadius is the max distance in pixels
+   * @return spot index, else -1 if none within maxRadius
+   */
+  public int lookupNearestSpot(int x, int y, int maxRadius)
+  { /* lookupNearestSpot */
+    if(nSpots==0)
+      return(-1);
+    int
+      c1= Math.max(0, (x-maxRadius-gridX0)/GRID_CELL_SIZE),
+      c2= Math.min(gridCols-1, (x+maxRadius-gridX0)/GRID_CELL_SIZE),
+      r1= Math.max(0, (y-maxRadius-gridY0)/GRID_CELL_SIZE),
+      r2= Math.min(gridRows-1, (y+maxRadius-gridY0)/GRID_CELL_SIZE),
+      bestIdx= -1,
+      bestDist2= maxRadius*maxRadius;
+    if(x+maxRadius<gridX0 || y+maxRadius<gridY0)
+      return(-1);
+    
+    for(int r=r1;r<=r2;r++)
+      for(int c=c1;c<=c2;c++)
+      { /* search the cell */
+        int cell= r*gridCols + c;
+        for(int k=cellStart[cell];k<cellStart[cell+1];k++)
+        {
+          int
+            i= cellSpots[k],
+            dx= xList[i]-x,
+            dy= yList[i]-y,
+            dist2= dx*dx + dy*dy;
+          if(dist2<=bestDist2)
+          {
+            bestDist2= dist2;
+            bestIdx= i;
+          }
+        }
+      } /* search the cell */
+    
+    return(bestIdx);
+  } /* lookupNearestSpot */
+  
+  
+  /**
+   * lookup() - lookup the annotation of the spot at (x,y) as done by
+   * the active map server.
+   * @param x coordinate
+   * @param y coordinate
+   * @return {Swiss-Prot-id, protein-name} if found, null if not found
+   */
+  public String[] lookup(int x, int y)
+  { /* lookup */
+    int i= lookupNearestSpot(x, y, MAX_LOOKUP_RADIUS);
+    if(i==-1)
+      return(null);
+    String sR[]= new String[2];
+    sR[0]= idList[i];
+    sR[1]= nameList[i];
+    return(sR);
+  } /* lookup */
+  
+  
+  /**
+   * annotateSpotList() - update the Spot.id and Spot.name of all of the
+   * spots found in the index. If no match, then no change.
+   * @param spotList is the list of spots
+   * @param nSpotsInList is the # of spots in the list
+   * @return # of spots that were found
+   */
+  public int annotateSpotList(Spot spotList[], int nSpotsInList)
+  { /* annotateSpotList */
+    int nFound= 0;
+    for(int i=0;i<nSpotsInList;i++)
+    {
+      Spot s= spotList[i];
+      if(s==null)
+        continue;
+      String pData[]= lookup(s.xC, s.yC);
+      if(pData!=null)
+      {
+        s.id= pData[0];
+        s.name= pData[1];
+        nFound++;
+      }
+    }
+    return(nFound);
+  } /* annotateSpotList */
+  
+  
+  /**
+   * toTableString() - make the tab-delimited table of the index
+   * @return table
+   */
+  public String toTableString()
+  { /* toTableString */
+    StringBuffer sBuf= new StringBuffer(40*nSpots+100);
+    sBuf.append("# Spot annotation index for "+clickCGIbaseURL+"\n");
+    sBuf.append("# x\ty\tSwiss-Prot-ID\tprotein-name\n");
+    for(int i=0;i<nSpots;i++)
+      sBuf.append(xList[i]+"\t"+yList[i]+"\t"+idList[i]+"\t"+
+                  nameList[i]+"\n");
+    return(sBuf.toString());
+  } /* toTableString */
+  
+} /* End of class AnnotationIndex */
@@ -0,0 +1,367 @@
+/* File: AnnotationLookup.java */
+
+import java.awt.*;
+import java.util.*;
+import java.net.*;
+import java.lang.*;
+import java.io.*;
+
+/**
+ * AnnotationLookup class looks up the Swiss-Prot ID and protein name
+ * for a list of spots from the active map Web server asynchronously.
+ * A bounded number of worker threads issue the HTTP requests. Requests
+ * to the same host are rate limited to at most one every 
+ * MIN_HOST_INTERVAL_MSEC, shared by all lookups. Each request has
+ * connect and read timeouts and is retried with exponential backoff
+ * if it fails to read. HTTP connections are reused between requests
+ * by the Java keep-alive connection pool since each response is read
+ * completely and closed.
+ *<P>
+ * The results are streamed into the spots (Spot.id and Spot.name) as
+ * they arrive. The lookup is cancelled when flk.stopAnnotationUpdateFlag 
+ * is set by typing C-Q. 
+ *<P>
+ * The server is the clickCGIbaseURL so the lookup may be tested
+ * against a local stub HTTP server that returns the active map
+ * protein page for "clickCGIbaseURL+x,y".
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class AnnotationLookup implements Runnable
+{ /* AnnotationLookup */
+  
+  /** Max # of concurrent requests */
+  public static int
+    MAX_CONCURRENT_REQUESTS= 4;
+  /** Min time between the start of requests to the same host (msec) */
+  public static int
+    MIN_HOST_INTERVAL_MSEC= 100;
+  /** Connect and read timeout for each request (msec) */
+  public static int
+    TIMEOUT_MSEC= 15000;
+  /** Max # of retries of a request that failed to read */
+  public static int
+    MAX_RETRIES= 2;
+  /** Initial backoff before a retry (msec), doubled for each retry */
+  public static int
+    RETRY_BACKOFF_MSEC= 500;
+  
+  /** Next time a request may start for each host. This is a 
+   * Hashtable of (host, Long time msec) shared by all lookups.
+   */
+  private static Hashtable
+    hostNextTime= new Hashtable();
+  /** lookup that is running, else null. Only one runs at a time. */
+  private static AnnotationLookup
+    activeLookup= null;
+  
+  /** Flicker instance */
+  private Flicker
+    flk;
+  /** Util instance */
+  private Util
+    util;
+  /** base URL of the active map Web server. Append "x,y" */
+  private String
+    clickCGIbaseURL;
+  /** Spots to lookup */
+  private Spot
+    spots[];
+  /** # of spots to lookup */
+  private int
+    nSpots;
+  /** index of the next spot to lookup */
+  private int
+    nextIdx= 0;
+  /** # of spots processed */
+  private int
+    nDone= 0;
+  /** # of spots found in the active map server */
+  private int
+    nFound= 0;
+  /** # of spots that could not be read after all of the retries */
+  private int
+    nFailed= 0;
+  /** # of worker threads still running */
+  private int
+    nWorkersRunning= 0;
+  /** set if the lookup was cancelled */
+  private boolean
+    cancelledFlag= false;
+  /** time the lookup started (msec) */
+  private long
+    startTime;
+  
+  
+  /**
+   * AnnotationLookup() - Constructor
+   * @param flk is the Flicker instance
+   * @param clickCGIbaseURL is the active map Web server base URL
+   * @param spotList is the spot list to lookup
+   * @param nSpots is the # of spots in spotList[]
+   */
+  public AnnotationLookup(Flicker flk, String clickCGIbaseURL, 
+                          Spot spotList[], int nSpots)
+  { /* AnnotationLookup */
+    this.flk= flk;
+    this.util= flk.util;
+    this.clickCGIbaseURL= clickCGIbaseURL;
+    this.nSpots= nSpots;
+    
+    /* Copy the list so spots added or removed while running are safe */
+    spots= new Spot[nSpots];
+    for(int i=0;i<nSpots;i++)
+      spots[i]= spotList[i];
+  } /* AnnotationLookup */
+  
+  
+  /**
+   * isActive() - test if a lookup is running
+   * @return true if a lookup is running
+   */
+  public static synchronized boolean isActive()
+  { return(activeLookup!=null); }
+  
+  
+  /**
+   * start() - start the worker threads and return immediately. It is
+   * refused if another lookup is still running.
+   * @return false if another lookup is running
+   */
+  public boolean start()
+  { /* start */
+    synchronized(AnnotationLookup.class)
+    { /* claim the active lookup */
+      if(activeLookup!=null)
+        return(false);
+      activeLookup= this;
+    }
+    
+    startTime= System.currentTimeMillis();
+    int nWorkers= Math.max(1, Math.min(MAX_CONCURRENT_REQUESTS, nSpots));
+    synchronized(this)
+    { nWorkersRunning= nWorkers; }
+    for(int i=0;i<nWorkers;i++)
+    {
+      Thread t= new Thread(this, "AnnotationLookup-"+i);
+      t.setDaemon(true);
+      t.start();
+    }
+    return(true);
+  } /* start */
+  
+  
+  /**
+   * waitUntilDone() - wait until all of the worker threads finish
+   */
+  public synchronized void waitUntilDone()
+  { /* waitUntilDone */
+    while(nWorkersRunning>0)
+    {
+      try
+      { wait(); }
+      catch(InterruptedException e)
+      { return; }
+    }
+  } /* waitUntilDone */
+  
+  
+  /**
+   * run() - worker thread. Lookup spots until there are no more 
+   * or the lookup is cancelled.
+   */
+  public void run()
+  { /* run */
+    Spot s;
+    while((s= getNextSpot())!=null)
+    { /* lookup the next spot */
+      String pData[]= null;
+      boolean readFlag= false;
+      int backoffMsec= RETRY_BACKOFF_MSEC;
+      String dataURL= clickCGIbaseURL + s.xC + "," + s.yC;
+      
+      for(int nTries=0; nTries<=MAX_RETRIES && !isCancelled(); nTries++)
+      { /* try to read it */
+        if(nTries>0 && !sleepUnlessCancelled(backoffMsec))
+          break;
+        if(nTries>0)
+          backoffMsec *= 2;
+        if(!waitForHostSlot(dataURL))
+          break;
+        
+        byte uBuf[]= util.readBytesFromURL(dataURL, null, TIMEOUT_MSEC);
+        if(uBuf!=null)
+        {
+          readFlag= true;
+          pData= Util.parseProteinIDdata(new String(uBuf));
+          break;
+        }
+      } /* try to read it */
+      
+      spotDone(s, pData, readFlag);
+    } /* lookup the next spot */
+    
+    workerDone();
+  } /* run */
+  
+  
+  /**
+   * isCancelled() - test if the lookup was cancelled by C-Q
+   * @return true if cancelled
+   */
+  private synchronized boolean isCancelled()
+  { /* isCancelled */
+    if(flk.stopAnnotationUpdateFlag)
+      cancelledFlag= true;
+    return(cancelledFlag);
+  } /* isCancelled */
+  
+  
+  /**
+   * getNextSpot() - get the next spot to lookup
+   * @return spot, null if no more or cancelled
+   */
+  private synchronized Spot getNextSpot()
+  { /* getNextSpot */
+    if(isCancelled() || nextIdx>=nSpots)
+      return(null);
+    return(spots[nextIdx++]);
+  } /* getNextSpot */
+  
+  
+  /**
+   * sleepUnlessCancelled() - sleep but wake up early if cancelled
+   * @param msec is time to sleep
+   * @return false if cancelled
+   */
+  private boolean sleepUnlessCancelled(long msec)
+  { /* sleepUnlessCancelled */
+    long endTime= System.currentTimeMillis()+msec;
+    while(!isCancelled())
+    {
+      long dt= endTime-System.currentTimeMillis();
+      if(dt<=0)
+        return(true);
+      try
+      { Thread.sleep(Math.min(dt, 100)); }
+      catch(InterruptedException e)
+      { return(false); }
+    }
+    return(false);
+  } /* sleepUnlessCancelled */
+  
+  
+  /**
+   * waitForHostSlot() - wait until a request may be sent to the host
+   * of the URL so that requests to a host are at least
+   * MIN_HOST_INTERVAL_MSEC apart.
+   * @param dataURL is the URL to request
+   * @return false if cancelled
+   */
+  private boolean waitForHostSlot(String dataURL)
+  { /* waitForHostSlot */
+    String host;
+    try
+    { host= new URL(dataURL).getHost(); }
+    catch(MalformedURLException e)
+    { return(true); }               /* will fail in readBytesFromURL() */
+    
+    long startAt;
+    synchronized(hostNextTime)
+    { /* reserve the next slot for this host */
+      long now= System.currentTimeMillis();
+      Long nextTime= (Long)hostNextTime.get(host);
+      startAt= (nextTime==null) ? now : Math.max(now, nextTime.longValue());
+      hostNextTime.put(host, Long.valueOf(startAt+MIN_HOST_INTERVAL_MSEC));
+    }
+    
+    return(sleepUnlessCancelled(startAt-System.currentTimeMillis()));
+  } /* waitForHostSlot */
+  
+  
+  /**
+   * spotDone() - stream the result of a spot lookup into the spot
+   * and report progress.
+   * @param s is the spot
+   * @param pData is {Swiss-Prot-id, protein-name} if found, else null
+   * @param readFlag is false if the server could not be read
+   */
+  private synchronized void spotDone(Spot s, String pData[], 
+                                     boolean readFlag)
+  { /* spotDone */
+    nDone++;
+    if(pData!=null)
+    { /* found it */
+      nFound++;
+      s.name= pData[1];
+      s.id= pData[0];
+      util.showMsg2("["+nDone+"/"+nSpots+"] Spot #"+s.nbr+
+                    " Swiss-Prot ID="+s.id+" ["+s.name+"]", Color.black);
+    }
+    else if(!readFlag)
+    {
+      nFailed++;
+      util.showMsg2("["+nDone+"/"+nSpots+"] Spot #"+s.nbr+
+                    " could not be read from active protein DB.", 
+                    Color.red);
+    }
+    else
+      util.showMsg2("["+nDone+"/"+nSpots+"] Spot #"+s.nbr+
+                    " was NOT found in active protein DB.", Color.red);
+  } /* spotDone */
+  
+  
+  /**
+   * workerDone() - a worker thread finished. When the last one 
+   * finishes, report the summary and notify anyone waiting.
+   */
+  private synchronized void workerDone()
+  { /* workerDone */
+    if(--nWorkersRunning>0)
+      return;
+    
+    long dt= System.currentTimeMillis()-startTime;
+    if(cancelledFlag)
+      util.showMsg1(
+          "Stopped lookup of spot annotations from proteomics Web server.",
+                    Color.red);
+    else
+      util.showMsg1(
+            "Updated spot list protein ID and name from active map server.",
+                    Color.black);
+    util.showMsg2("Found "+nFound+" of "+nDone+" spots looked up"+
+                  ((nFailed>0) ? (", "+nFailed+" failed to read") : "")+
+                  " in "+(dt/1000)+" seconds", Color.black);
+    synchronized(AnnotationLookup.class)
+    { activeLookup= null; }
+    notifyAll();
+    flk.repaint();
+  } /* workerDone */
+  
+  
+  /**
+   * toString() - return string representation of this instance
+   * @return string instance
+   */
+  public synchronized String toString()
+  { /* toString */
+    String sR= "AnnotationLookup nSpots="+nSpots+" nDone="+nDone+
+               " nFound="+nFound+" nFailed="+nFailed+
+               " nWorkersRunning="+nWorkersRunning+
+               " cancelledFlag="+cancelledFlag;
+    return(sR);
+  } /* toString */
+  
+} /* End of class AnnotationLookup */
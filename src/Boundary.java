@@ -42,6 +42,9 @@ public class Boundary
   /** gray scale to OD map */
   float
     mapGrayToOD[];	
+  /** full depth OD lookup table [0:pixelMask] if not null */
+  float
+    odLUT[]= null;
   /** Boundary of object */
   public Point 
     bnd[]= null;
@@ -111,6 +114,15 @@ public class Boundary
   public void setMapGrayToOD(float mapGrayToOD[])
   { this.mapGrayToOD= mapGrayToOD; }
   
+  
+  /**
+   * setODlut() - set the full depth OD lookup table used instead of 
+   * mapGrayToOD[] if it matches the pixelMask of the measured pixels.
+   * @param odLUT is the OD lookup table [0:pixelMask] or null
+   */
+  public void setODlut(float odLUT[])
+  { this.odLUT= odLUT; }
+  
 
   /**
    * drawBoundary() - draw boundary backwards
@@ -196,6 +208,8 @@ public class Boundary
     
     this.maxBnd= MAX_BND;
     bnd= new Point[MAX_BND];
+    for(int i=0;i<MAX_BND;i++)
+      bnd[i]= new Point();      /* interpolatePoints() sets them */
     if( "Bkgrd".equals(measType))
       this.mnbackground= 0.0;
     nPoints= 0;
@@ -232,14 +246,19 @@ public class Boundary
    * integrated density, if the PPX grayToNDmap[] is calibrated.
    *<PRE>
    * ALGORITHM:
-   * [1] Given contiguous the convex hull list of points enclosing region.
-   * [2] Define the region by a run length map with one run/line.
-   * [3] When finished measuring, compute features as function of pixel
-   *     data inside of the RLM. (Only count pixels INSIDE of boundary.)
+   * [1] Given the closed list of boundary points enclosing the region.
+   * [2] Define the region by a run length map with an even-odd scanline
+   *     fill of the boundary polygon (SpanMask.fromPolygon()), so rows 
+   *     of concave regions may have several runs. The boundary pixels
+   *     are inside of the region.
+   * [3] Compute features as function of pixel data inside of the runs
+   *     clipped to the image in one pass with a RegionMoments
+   *     accumulator (area, density, min/max, centroid, 2nd moments 
+   *     and density std-dev).
    * [4] Then conditionally print these out with the area, density, etc.
    *
-   * This algorithm is the same used in the FLICKER program described
-   * in:
+   * This algorithm is based on the one used in the FLICKER program 
+   * described in:
    *   Lemkin,P., Merril,C., Lipkin,L., etal. "Software Aids for
    *   the Analysis of 2D Gel Electrophoresis Images", Comp. Biomed.
    *   Res. 12, 517 (1979).
@@ -250,149 +269,71 @@ public class Boundary
   public void measureRegion(int inputPixels[], int pixelMask)
   { /* measureRegion */
     int
-      x, y,
-      minX, maxX,		 /* extent of drawing in X */
-      yTop, yBot,	   /* extent of drawing in Y */
       i,
-      g,
-      area,			      /* area within maximum convex hull */
-      perimeter;		  /* in pixels (i.e. boundar lth) */
-    double
-      minD, maxD,		  /* min and max density */
-      d,			      /* pixel in OD space */
-      dTotPrime= 0.0,	  /* D'= D - Area * mnBkgDens */
-      x0, y0,			  /* Spot centroid (density weighted means)*/
-      sdX, sdY,	     	  /* spot std deviations (density weighted) */
-      dX, dY,			  /* deviations from the mean */
-      sdXY,			      /* cross deviation */
-      sdxxSq, sdyySq,     /* centroids */
-      sdxySq,	
-      dTot,			      /* total density */
-      dMean,			  /* mean density */
-      sdD, sdDSq;		  /* density, mean density, stdDev density */
-    int
-      xEntrance[]= new int[iWidth], /* dynamic. alloc to # rows in image */
-      xExit[]= new int[iWidth];
-        
-    /* [1] Clear out RLM and boundary list */
-    for (y= iWidth - 1; y >= 0; y--)
-    {
-      xEntrance[y]= iWidth + 1;
-      xExit[y]= -1;
-    }
-    
-    yTop= iHeight + 1;		/* set to "infinity" */
-    yBot= -1;
+      y, xa, xb;
     
-    minX= iWidth+1;
-    maxX= -1;    
-    
-    /* [2] Define the region by a run length map with one run/line.
-     * Build the run length map from existing boundary.
-     */
+    /* [1] Get the boundary polygon */
+    int
+      xs[]= new int[nPoints],
+      ys[]= new int[nPoints];
     for (i= 0; i<nPoints; i++)
     {
-      x= bnd[i].x;
-      y= bnd[i].y;
-      
-      xEntrance[y]= Math.min(xEntrance[y], x);
-      xExit[y]= Math.max(xExit[y], x);
-      minX= Math.min(minX, x);
-      maxX= Math.max(maxX, x);
-      
-      yBot= Math.max(yBot, y);
-      yTop= Math.min(yTop, y);
-    }    
-    
-    /* [3] When finished measuring, compute features as function
-     * of pixel data inside of the RLM. (Only count pixels
-     * INSIDE of boundary.
-     */
-    perimeter= nPoints;          /* i.e. the drawn boundary rather
-                                  * than the MAX CONVEX HULL */
-    area= 0;
-    maxD= -10000000.0;
-    minD=  10000000.0;
-    dTot= 0.0;
-    x0= 0;
-    y0= 0;
-    for (y= yTop; y <= yBot; y++)
-    {
-      int yw= y*iWidth;
-      for (x= xEntrance[y]; x <= xExit[y]; x++)
-      { /* compute features under the maximum convex hull */
-        area++;
-        g= (inputPixels[yw + x] & pixelMask);
-        d= ((mapGrayToOD==null)
-              ? (float)g
-              : mapGrayToOD[g]);	/* need OD map if it exists */
-        
-        minD= Math.min(d, minD);
-        maxD= Math.max(d, maxD);
-        dTot += d;
-        x0 += d*x;
-        y0 += d*y;
-      } /* compute features under the maximum convex hull */
+      xs[i]= bnd[i].x;
+      ys[i]= bnd[i].y;
     }
     
-    dMean= dTot / area;		/* compute weighted means */
-    x0= x0 / dTot;
-    y0= y0 / dTot;
+    /* [2] Define the region by a run length map of the filled polygon */
+    SpanMask region= SpanMask.fromPolygon(xs, ys, nPoints);
     
-    /* [4] Compute the rest of the features. */
-    sdDSq= sdxxSq= sdyySq= sdxySq= 0.0;
-    for (y= yTop; y <= yBot; y++)
-    {
-      for (x= xEntrance[y]; x <= xExit[y]; x++)
-      { /* compute 2nd order features */
-        g= (inputPixels[y*iWidth + x] & pixelMask);
-        d= ((mapGrayToOD==null)
-              ? g
-              : mapGrayToOD[g]);	/* need OD map */
-        
-        dX= (x0 - x);
-        dY= (y0 - y);
-        if (dX < 0)
-          dX= -dX;
-        if (dY < 0)
-          dY= -dY;
-        sdDSq += (dMean - d)*(dMean - d);
-        sdxxSq += d*(dX*dX);
-        sdyySq += d*(dY*dY);
-        sdxySq += d*(dX*dY);
-      } /* compute 2nd order features */
+    /* [3] Compute features in one pass over the runs clipped to the
+     * image. Map gray to density with a lookup table.
+     */
+    float lut[]= odLUT;
+    if(lut==null || lut.length!=(pixelMask+1))
+    { /* make it from the 8-bit map, scaling > 8-bit values to it */
+      lut= new float[pixelMask+1];
+      int mapMax= (mapGrayToOD==null) ? 0 : mapGrayToOD.length-1;
+      float scale= (mapGrayToOD!=null && pixelMask>mapMax) 
+                     ? (float)mapMax/pixelMask : 1.0F;
+      for (int g= 0; g<=pixelMask; g++)
+        lut[g]= ((mapGrayToOD==null)
+                   ? (float)g
+                   : mapGrayToOD[Math.min((int)(g*scale + 0.5F), mapMax)]);
     }
     
-    /* [5] Compute std deviations */
-    sdD= (dTot==0.0) ? 0.0 : Math.sqrt((double)(sdDSq/dTot));
-    sdX= (dTot==0.0) ? 0.0 : Math.sqrt((double)(sdxxSq/dTot));
-    sdY= (dTot==0.0) ? 0.0 : Math.sqrt((double)(sdyySq/dTot));
-    sdXY= (dTot==0.0) ? 0.0 : Math.sqrt((double)(sdxySq/dTot));
-    dTotPrime= (dTot - (this.mnbackground * area)); /* could get < 0 */    
-    
-    /* [6] Set object features */
-    this.density=   (double) dTotPrime;
-    this.sx=        (double) sdX;
-    this.sy=        (double) sdY;
-    this.sxy=       (double) sdXY;
-    this.maxd=      (double) maxD;
-    this.mind=      (double) minD;
-    this.area=      area;
-    this.perim=     perimeter;
-    this.xAbs=      (double) x0;
-    this.yAbs=      (double) y0;
-    this.densRaw=   (double) dTot;
-    this.sdDensity= (double) sdD;
-    this.merx1=     minX;
-    this.merx2=     maxX;
-    this.mery1=     yTop;
-    this.mery2=     yBot;
+    RegionMoments rm= new RegionMoments(region.minDx, region.minDy);
+    for (int k= 0; k<region.nSpans; k++)
+    { /* accumulate a run */
+      y= region.dy[k];
+      if (y<0 || y>=iHeight)
+        continue;
+      xa= Math.max(region.dx1[k], 0);
+      xb= Math.min(region.dx2[k], iWidth-1);
+      if (xa<=xb)
+        rm.addRun(inputPixels, y*iWidth, xa, xb, y, pixelMask, lut);
+    } /* accumulate a run */
+    
+    /* [4] Set object features */
+    this.area=      rm.n;
+    this.perim=     nPoints;     /* i.e. the drawn boundary */
+    this.densRaw=   rm.sumD;
+    this.density=   (rm.sumD - (this.mnbackground * rm.n)); /* could get < 0 */
+    this.maxd=      rm.maxD;
+    this.mind=      rm.minD;
+    this.xAbs=      rm.getXmean();
+    this.yAbs=      rm.getYmean();
+    this.sx=        Math.sqrt(rm.getXvar());
+    this.sy=        Math.sqrt(rm.getYvar());
+    this.sxy=       Math.sqrt(Math.abs(rm.getXYcov()));
+    this.sdDensity= rm.getDensitySD();
+    this.merx1=     region.minDx;
+    this.merx2=     region.maxDx;
+    this.mery1=     region.minDy;
+    this.mery2=     region.maxDy;
     
     if(this.measType.equals("Bkgrd"))
       this.mnbackground= this.density;
     
-    xEntrance= null;		      /*  G.C. */
-    xExit= null;	          	  /*  G.C. */
     validFeaturesFlag= true;
   } /* measureRegion */
   
@@ -409,6 +350,8 @@ public class Boundary
     Point newBnd[]= new Point[newSize+1];
     for(int i=0;i<this.nPoints;i++)
       newBnd[i]= this.bnd[i];
+    for(int i=this.nPoints;i<=newSize;i++)
+      newBnd[i]= new Point();   /* interpolatePoints() sets them */
     this.bnd= newBnd;
     this.maxBnd= newSize;
   } /* regrowBoundary */
@@ -701,3 +644,201 @@ public class Boundary
 } /* End class: Boundary */
 
 
+
+/* ====================================================================== */
+/*               C L A S S      R e g i o n M o m e n t s               */
+/* ====================================================================== */
+
+/**
+ * RegionMoments class is a single-pass streaming accumulator of the 
+ * density moments of the pixels of a region: area, total, min and max 
+ * density, density weighted centroid, 2nd moments and density std-dev.
+ * The coordinates are accumulated relative to an origin near the region
+ * and the densities relative to the first density so the variances 
+ * computed from the sums do not lose precision.
+ */
+class RegionMoments
+{ /* RegionMoments */
+  
+  /** coordinate origin */
+  int
+    xOrg,
+    yOrg;
+  /** # of pixels */
+  int
+    n= 0;
+  /** min and max density */
+  double
+    minD= 0.0,
+    maxD= 0.0;
+  /** sum of density, density shifted by d0 and its square */
+  double
+    sumD= 0.0,
+    d0= 0.0,
+    sumDs= 0.0,
+    sumDsSq= 0.0;
+  /** density weighted sums of the relative coordinates */
+  double
+    sumDx= 0.0,
+    sumDy= 0.0,
+    sumDxx= 0.0,
+    sumDyy= 0.0,
+    sumDxy= 0.0;
+  /** unweighted sums of the relative coordinates for centroid if 
+   * the total density is 0
+   */
+  double
+    sumX= 0.0,
+    sumY= 0.0;
+  
+  
+  /**
+   * RegionMoments() - constructor
+   * @param xOrg is the x coordinate origin (e.g., the region min x)
+   * @param yOrg is the y coordinate origin (e.g., the region min y)
+   */
+  RegionMoments(int xOrg, int yOrg)
+  { /* RegionMoments */
+    this.xOrg= xOrg;
+    this.yOrg= yOrg;
+  } /* RegionMoments */
+  
+  
+  /**
+   * addRun() - add the pixels [xa:xb] of row y to the moments
+   * @param pix is the image pixels
+   * @param rowOffset is the index of the start of row y in pix[]
+   * @param xa is first x in the run
+   * @param xb is last x in the run
+   * @param y is the row
+   * @param pixelMask to get the gray value from pix[]
+   * @param lut maps gray value to density
+   */
+  void addRun(int pix[], int rowOffset, int xa, int xb, int y,
+              int pixelMask, float lut[])
+  { /* addRun */
+    double
+      d, ds, dx,
+      dy= y - yOrg,
+      rowD= 0.0,
+      rowDs= 0.0,
+      rowDsSq= 0.0,
+      rowDx= 0.0,
+      rowDxx= 0.0;
+    
+    if(n==0)
+    { /* first pixel sets the shift and the min and max */
+      d0= lut[pix[rowOffset+xa] & pixelMask];
+      minD= d0;
+      maxD= d0;
+    }
+    
+    for(int x=xa;x<=xb;x++)
+    { /* accumulate a pixel */
+      d= lut[pix[rowOffset+x] & pixelMask];
+      if(d<minD)
+        minD= d;
+      if(d>maxD)
+        maxD= d;
+      ds= d - d0;
+      dx= x - xOrg;
+      rowD += d;
+      rowDs += ds;
+      rowDsSq += ds*ds;
+      rowDx += d*dx;
+      rowDxx += d*dx*dx;
+    } /* accumulate a pixel */
+    
+    int nRun= xb - xa + 1;
+    double sumRunX= nRun*((xa - xOrg) + (xb - xOrg))/2.0;
+    n += nRun;
+    sumD += rowD;
+    sumDs += rowDs;
+    sumDsSq += rowDsSq;
+    sumDx += rowDx;
+    sumDy += rowD*dy;
+    sumDxx += rowDxx;
+    sumDyy += rowD*dy*dy;
+    sumDxy += rowDx*dy;
+    sumX += sumRunX;
+    sumY += nRun*dy;
+  } /* addRun */
+  
+  
+  /**
+   * getXmean() - density weighted mean x, or the mean x if the total 
+   * density is 0.
+   * @return x centroid
+   */
+  double getXmean()
+  {
+    if(n==0)
+      return(0.0);
+    return(xOrg + ((sumD!=0.0) ? sumDx/sumD : sumX/n));
+  }
+  
+  
+  /**
+   * getYmean() - density weighted mean y, or the mean y if the total 
+   * density is 0.
+   * @return y centroid
+   */
+  double getYmean()
+  {
+    if(n==0)
+      return(0.0);
+    return(yOrg + ((sumD!=0.0) ? sumDy/sumD : sumY/n));
+  }
+  
+  
+  /**
+   * getXvar() - density weighted variance of x
+   * @return x variance, 0 if total density is 0
+   */
+  double getXvar()
+  {
+    if(sumD==0.0)
+      return(0.0);
+    double mx= sumDx/sumD;
+    return(Math.max(0.0, sumDxx/sumD - mx*mx));
+  }
+  
+  
+  /**
+   * getYvar() - density weighted variance of y
+   * @return y variance, 0 if total density is 0
+   */
+  double getYvar()
+  {
+    if(sumD==0.0)
+      return(0.0);
+    double my= sumDy/sumD;
+    return(Math.max(0.0, sumDyy/sumD - my*my));
+  }
+  
+  
+  /**
+   * getXYcov() - density weighted covariance of x and y
+   * @return xy covariance, 0 if total density is 0
+   */
+  double getXYcov()
+  {
+    if(sumD==0.0)
+      return(0.0);
+    return(sumDxy/sumD - (sumDx/sumD)*(sumDy/sumD));
+  }
+  
+  
+  /**
+   * getDensitySD() - std-dev of the pixel densities
+   * @return density std-dev, 0 if no pixels
+   */
+  double getDensitySD()
+  {
+    if(n==0)
+      return(0.0);
+    double mds= sumDs/n;
+    return(Math.sqrt(Math.max(0.0, sumDsSq/n - mds*mds)));
+  }
+  
+} /* End of class RegionMoments */
@@ -171,8 +171,21 @@ public class BrightnessContrastFilter extends RGBImageFilter
     this.is= is;
   
     maxGray= is.iData.pixelMask;
-    this.minG= is.iData.minG;
-    this.maxG= is.iData.maxG; 
+    
+    /* Get the gray range from the image's cached statistics so it is 
+     * only computed once per iPix[] data and not on each mouse drag.
+     */
+    ImageStats st= is.iData.getStats();
+    if(st!=null && st.nPixels>0)
+    { /* range of the iPix[] data */
+      this.minG= st.minG;
+      this.maxG= st.maxG;
+    }
+    else
+    { /* fall back to the range computed when iPix[] was made */
+      this.minG= is.iData.minG;
+      this.maxG= is.iData.maxG; 
+    }
     
     if(Flicker.NEVER)
     {
@@ -216,7 +229,7 @@ public class BrightnessContrastFilter extends RGBImageFilter
     /* NOTE: 120 was empirically determined as a reasonable interactive
      * range.
      */
-    maxSlopeC= (float)maxGray/((float)(maxG-minG)*120);
+    maxSlopeC= (float)maxGray/((float)Math.max(1,(maxG-minG))*120);
               
     /* Compute the brightness intercept bIntercept to cover the 
      * complete range of [0:maxGray] as follows:
@@ -190,6 +190,9 @@ public class BuildGUI extends JFrame
   /** last fRecent menu tree stub for use if rebuild it */
   public Menu 
     fRecentMenuStub;
+  /** last TIFF page menu tree stub for use if rebuild it */
+  public Menu 
+    fTiffPageMenuStub;
   /** last fUser menu tree stub for use if rebuild it */
   public Menu 
     fUserMenuStub;
@@ -306,6 +309,9 @@ public class BuildGUI extends JFrame
    */
   CheckboxMenuItem
     mi_Quant_UseLeukemiaDemoCalibCB; 
+  /** Fit OD calibrations with a monotone spline item checkbox */
+  CheckboxMenuItem
+    mi_Quant_UseSplineCalibFitCB; 
   /** Quant menu to compute total integrated density for spot
    * else the mean item checkbox 
    */
@@ -361,9 +367,27 @@ public class BuildGUI extends JFrame
   CheckboxMenuItem
     mi_WinDmpRadixODCB;
   
-  /** Use log of TIFF file else scale to 8-bit data */
+  /** Map > 8-bits TIFF files to 8-bits linearly */
+  public CheckboxMenuItem
+   mi_tiffGrayMapLinearCB;
+  /** Map > 8-bits TIFF files to 8-bits by log */
+  public CheckboxMenuItem
+   mi_tiffGrayMapLogCB;
+  /** Map > 8-bits TIFF files to 8-bits by gamma */
+  public CheckboxMenuItem
+   mi_tiffGrayMapGammaCB;
+  /** Map > 8-bits TIFF files to 8-bits by window/level percentiles */
   public CheckboxMenuItem
-   mi_useLogTIFFfilesCB;
+   mi_tiffGrayMapWindowCB;
+  /** Stream large TIFF files by tiles */
+  public CheckboxMenuItem
+   mi_useTiffStreamingCB;
+  /** Prefetch adjacent demo and user image pairs */
+  public CheckboxMenuItem
+   mi_usePrefetchImagesCB;
+  /** Offline mode - use only cached Web data */
+  public CheckboxMenuItem
+   mi_offlineModeCB;
                
   /* "Enable saving transformed image when do a 'Save(As) state'" */  
   public CheckboxMenuItem
@@ -879,6 +903,47 @@ public class BuildGUI extends JFrame
     
     return(true);
   } /* createFlkRecentMenuTree */
+       
+  
+  /**
+   * createTiffPageMenuTree() - create the TIFF page menu tree for the
+   * pages of the left and right multi-page TIFF images. Selecting a page
+   * loads it from the TiffPageCache into that image.
+   * @param smnu to attach the tree
+   * @return true if succeed, false if any problems 
+   */
+  public boolean createTiffPageMenuTree(Menu smnu)
+  { /* createTiffPageMenuTree */
+    if(smnu==null)
+      return(false);
+    smnu.removeAll();
+    
+    String
+      imageFiles[]= {flk.imageFile1, flk.imageFile2},
+      leftRight[]= {"left", "right"};
+    MenuItem mi;
+    for(int j=0;j<2;j++)
+    { /* build the sub menu for left and right images */
+      int nPages= flk.tpc.getNumPages(imageFiles[j]);
+      if(nPages<=1)
+        continue;                  /* not a multi-page TIFF */
+      String baseName= 
+        flk.util.getFileNameFromPath(TiffPageCache.getFileFromSpec(imageFiles[j]));
+      int curPage= TiffPageCache.getPageFromSpec(imageFiles[j]);
+      Menu pmnu= makeSubMenu(smnu, leftRight[j]+" ["+baseName+"]", 
+                             "TiffPages:"+leftRight[j], 0);
+      for(int k=0;k<nPages;k++)
+      { /* add page entry */
+        String entryName= "Page "+(k+1)+((k==curPage) ? "  <current>" : "");
+        mi= makeMenuItem(pmnu, entryName, "TP:"+leftRight[j]+":"+k, 0, 
+                         false);
+        if(mi==null)
+          return(false);
+      }
+    } /* build the sub menu for left and right images */
+    
+    return(true);
+  } /* createTiffPageMenuTree */
  
    
   /**
@@ -892,7 +957,11 @@ public class BuildGUI extends JFrame
     composeXformCheckbox.setSelected(flk.composeXformFlag);
     
     /* Set menu checkbox items */
-    mi_useLogTIFFfilesCB.setState(flk.useLogInputFlag);
+    evMu.setTiffGrayMapCheckbox(flk.tiffGrayMapMode);
+    mi_useTiffStreamingCB.setState(flk.useTiffStreamingFlag);
+    mi_usePrefetchImagesCB.setState(flk.usePrefetchImagesFlag);
+    mi_Quant_UseSplineCalibFitCB.setState(flk.useSplineCalibFitFlag);
+    mi_offlineModeCB.setState(flk.offlineModeFlag);
     
     mi_flickerCB.setState(flk.flickerFlag);
     util.setFlickerGUI(flk.flickerFlag);
@@ -1127,7 +1196,7 @@ public class BuildGUI extends JFrame
     lmsMenu= new Menu("Landmark");
     xformMenu= new Menu("Transform");
     quantMenu= new Menu("Quantify");
-    if(flk.piMgr!=null)
+    if(flk.USE_PLUGINS && flk.piMgr!=null)
       pluginMenu= new Menu("Plugins");
     helpMenu= new Menu("Help");
     
@@ -1196,6 +1265,13 @@ public class BuildGUI extends JFrame
     /* Create the FlkRecent menu tree from the FlkDemoDB.txt database */
     fRecentMenuStub= smnu;              /* save in case rebuild it */
     createFlkRecentMenuTree(smnu); 
+    
+    /* Add a set of submenues in
+     * (File | Open TIFF page | <left or right image> | <page>)
+     */  
+    smnu= makeSubMenu(fileMenu, "Open TIFF page", "openTiffPage",0);
+    fTiffPageMenuStub= smnu;            /* save in case rebuild it */
+    createTiffPageMenuTree(smnu); 
     makeMenuItem(fileMenu, "Assign active URL to image", 
                  "AssignActiveMapURL", 0, true); 
         
@@ -1215,6 +1291,12 @@ public class BuildGUI extends JFrame
     fileMenu.addSeparator();      /* "__________" */
     makeMenuItem(fileMenu, "Save transformed image", "SaveXform_oImg", 0, true);
     makeMenuItem(fileMenu, "SaveAs overlay image", "SaveOverlayImg", 0, true);
+    smnu= makeSubMenu(fileMenu, "Save lossless PNG image", "SavePNG", 0);
+    makeMenuItem(smnu, "Transformed image (8-bit)", "SavePNG:oImg", 0, true);
+    makeMenuItem(smnu, "Input image at full depth (8 or 16-bit)",
+                       "SavePNG:iImg", 0, true);
+    makeMenuItem(fileMenu, "Export overlay images of both images (off-screen)",
+                 "ExportOverlayImgs", 0, true);
     makeMenuItem(fileMenu, "Reset Images", "ResetImages", 0, false);
     makeMenuItem(fileMenu, "Abort Transform", "AbortXform", 0, false);
     
@@ -1299,10 +1381,35 @@ public class BuildGUI extends JFrame
                  "ResizeMem",-1, false);    // to change the lax size
    */
     
-    mi_useLogTIFFfilesCB= makeChkBoxMenuItem(editMenu,
-                                "Use linear else log of TIFF files > 8-bits",
-                                             "useLogTiff",0, 
-                                             !flk.useLogInputFlag);
+    smnu= makeSubMenu(editMenu, "Map TIFF files > 8-bits to 8-bits by",
+                      "tiffGrayMap", 0);
+    mi_tiffGrayMapLinearCB= makeChkBoxMenuItem(smnu, "linear",
+                                               "tiffGrayMap-LINEAR", 0,
+                     flk.tiffGrayMapMode==TiffLoader.GRAY_MAP_LINEAR);
+    mi_tiffGrayMapLogCB= makeChkBoxMenuItem(smnu, "log",
+                                            "tiffGrayMap-LOG", 0,
+                     flk.tiffGrayMapMode==TiffLoader.GRAY_MAP_LOG);
+    mi_tiffGrayMapGammaCB= makeChkBoxMenuItem(smnu, 
+                                            "gamma ("+flk.tiffGrayGamma+")",
+                                              "tiffGrayMap-GAMMA", 0,
+                     flk.tiffGrayMapMode==TiffLoader.GRAY_MAP_GAMMA);
+    mi_tiffGrayMapWindowCB= makeChkBoxMenuItem(smnu, 
+                       "window/level ["+TiffLoader.windowLowPercentile+
+                       ":"+TiffLoader.windowHighPercentile+"] percentiles",
+                                               "tiffGrayMap-WINDOW", 0,
+                     flk.tiffGrayMapMode==TiffLoader.GRAY_MAP_WINDOW);
+    mi_useTiffStreamingCB= makeChkBoxMenuItem(editMenu,
+                                "Stream large TIFF files by tiles",
+                                             "useTiffStreaming",0, 
+                                             flk.useTiffStreamingFlag);
+    mi_usePrefetchImagesCB= makeChkBoxMenuItem(editMenu,
+                         "Prefetch adjacent demo and user image pairs",
+                                             "usePrefetchImages",0, 
+                                             flk.usePrefetchImagesFlag);
+    mi_offlineModeCB= makeChkBoxMenuItem(editMenu,
+                         "Offline mode - use only cached Web data",
+                                             "offlineMode",0, 
+                                             flk.offlineModeFlag);
     mi_saveOimagesWhenSaveStateCB= makeChkBoxMenuItem(editMenu,
                "Enable saving transformed images when do a 'Save(As) state'",
                                                       "useSaveAsOImages",0, 
@@ -1484,6 +1591,19 @@ public class BuildGUI extends JFrame
     makeTransformMenuItem(xformMenu,"Repeat last transform",
                           "Xform:repeatLast", KeyEvent.VK_T, false);
     
+    if(PluginMgr.nTilePlugins>0)
+    { /* add "plugins/" TilePlugins */
+      smnu= makeSubMenu(xformMenu, "Plugins", "Xform:Plugins", 0);
+      for(int i= 1;i<=PluginMgr.nExtFcts; i++)
+        if(PluginMgr.getTilePlugin(i)!=null)
+          makeTransformMenuItem(smnu, PluginMgr.efMnuName[i],
+                                PluginMgr.efName[i], 0, false);
+    }
+    makeTransformMenuItem(xformMenu, "Run chain of transforms", 
+                          "Xform:chain", 0, false);
+    makeMenuItem(xformMenu, "Cancel plugin or chain transform", 
+                 "Xform:cancelPlugin", 0, false);
+    
     mi_thresholdInsideCB= makeChkBoxMenuItem(xformMenu, 
                                       "Use threshold inside filter [T1:T2]",
                                              "UseT1T2insideRange", 0,
@@ -1494,6 +1614,11 @@ public class BuildGUI extends JFrame
     makeMenuItem(smnu,"Capture background", "CircleBkgrd",KeyEvent.VK_B, true);
     makeMenuItem(smnu,"Capture measurement to spot list", "CircleMeas",
                  KeyEvent.VK_M, true);
+    makeMenuItem(smnu,
+       "Detect spots automatically into spot list (in computing window if set)", 
+                 "CircleDetectSpots", 0, true);
+    makeMenuItem(smnu,"Re-measure all spots in the spot list for selected image", 
+                 "CircleRemeasureSpotList", 0, true);
     
     smnu.addSeparator();	/* "__________" */
     makeMenuItem(smnu,"Clear measurement", "CircleClearMeas", 0, true);
@@ -1517,13 +1642,29 @@ public class BuildGUI extends JFrame
     makeMenuItem(smnu,
          "List 'id'-paired annotated spots in both spot lists (tab-delimited)", 
                  "ListPairedAnnSpotList-tab-delim", 0, false); 
+    makeMenuItem(smnu,
+         "List nearest-neighbor paired spots by landmark-warped coordinates (tab-delimited)", 
+                 "ListPairedNearestSpotList-tab-delim", 0, false); 
+    makeMenuItem(smnu,
+         "Save 'id'-paired annotated spots in both spot lists to file (tab-delimited)", 
+                 "SavePairedAnnSpotList-tab-delim", 0, false); 
     
     smnu.addSeparator();	/* "__________" */     
     makeMenuItem(smnu,
        "Lookup Protein IDs and Names in spot list from active map server (selected image)", 
                  "CircleLookupSpotListProtIDs", 0, true);   
+    makeMenuItem(smnu,
+       "Import active map spot annotation table into local index (selected image)", 
+                 "CircleImportAnnotationIndex", 0, true);   
+    makeMenuItem(smnu,
+       "Remove local spot annotation index for active map (selected image)", 
+                 "CircleRemoveAnnotationIndex", 0, true);   
     
     smnu.addSeparator();	/* "__________" */  
+    makeMenuItem(smnu,"Export spot list to text .spt file for selected image", 
+                 "CircleExportSpotListText", 0, true);
+    makeMenuItem(smnu,"Import spot list from text or binary .spt file for selected image", 
+                 "CircleImportSpotList", 0, true);
     makeMenuItem(smnu,"Clear spot list (ask first) for selected image", 
                  "CircleClearSpotList", 0, true);
     
@@ -1571,11 +1712,18 @@ public class BuildGUI extends JFrame
       
     smnu= makeSubMenu(quantMenu, "Calibrate", "Q:calib", 0);    
     makeMenuItem(smnu,"Optical density by step wedge","CalibODstepWedge",0, true);
+    makeMenuItem(smnu,"Optical density by auto-located step wedge (all images)",
+                 "CalibODautoWedge",0, true);
     mi_Quant_UseLeukemiaDemoCalibCB= makeChkBoxMenuItem(smnu,
                       "Use demo leukemia gels ND wedge calibration preloads",
                                                         "UseDemoLeukCalPre",
                                                         0,
                                                flk.useDemoLeukemiaCalPreFlag); 
+    mi_Quant_UseSplineCalibFitCB= makeChkBoxMenuItem(smnu,
+                      "Fit OD calibrations with a monotone spline",
+                                                     "UseSplineCalFit",
+                                                     0,
+                                                  flk.useSplineCalibFitFlag); 
         
     smnu.addSeparator();	/* "__________" */
     makeMenuItem(smnu,"Optical density by spot list","CalibODspotList",0, true);
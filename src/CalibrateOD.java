@@ -1,6 +1,7 @@
 /* File: CalibrateOD.java  */
 
 import java.awt.*;
+import java.util.*;
 
 /**
  * CalibrateOD handles grayscale to OD calibrations for images.
@@ -91,6 +92,9 @@ public class CalibrateOD
   /** histogram of pixel data in ND computing window of [0:255] */
   public int
     hist[]= null;
+  /** ND wedge found by the last autoCalibrateWedge(), else null */
+  public WedgeLocator
+    lastWedge= null;
   /** Had a valid ND wedge ROI when came into the wizard */
   public boolean
     hasPrevCALflag;
@@ -113,6 +117,20 @@ public class CalibrateOD
    */
   public boolean
     hasODmapFlag;
+  /** Fit a monotone spline model through the wedge peaks, else use
+   * piecewise linear extrapolation. New fits take it from
+   * flk.useSplineCalibFitFlag, restored calibrations from the .cal file.
+   */
+  public boolean
+    useSplineFitFlag= false;
+  /** spline model mapGrayToOD[] was made from, else null */
+  public ODCalibrationModel
+    model= null;
+  /** Calibrations shared by images scanned with the same wedge and
+   * scanner settings, key is getCalibCacheKey(), value is CalibrateOD.
+   */
+  private static Hashtable
+    calibCache= new Hashtable();
   /** max gray value found in the image and it is <= 255 */
   public int 
     maxGrayValue;
@@ -210,6 +228,7 @@ public class CalibrateOD
   
     mapGrayToOD= null;
     hasODmapFlag= false;
+    model= null;
     maxGrayValue= 0;
         
     /* Set default */
@@ -272,6 +291,8 @@ public class CalibrateOD
       mapGrayToOD[i]= clone.mapGrayToOD[i]; 
     }
     hasODmapFlag= clone.hasODmapFlag;
+    useSplineFitFlag= clone.useSplineFitFlag;
+    model= clone.model;                 /* not changed so may share */
     maxGrayValue= clone.maxGrayValue;
     
     return(true);
@@ -380,6 +401,7 @@ public class CalibrateOD
   public void setMapGrayToOD(float newGrayToODMap[], int maxGray)
   { /* setMapGrayToOD */
      mapGrayToOD= newGrayToODMap; 
+     model= null;
      maxGrayValue= (newGrayToODMap==null) ? 0 : newGrayToODMap.length-1;
      
      if(mapGrayToOD==null)
@@ -585,6 +607,8 @@ public class CalibrateOD
                                       int ndWedgeGrayValues[],
                                       float ndWedgeODvalues[])
   { /* extrapolateNDwedgeMap */
+    if(flk!=null)
+      useSplineFitFlag= flk.useSplineCalibFitFlag;
     if(this.mapGrayToOD==null)
       this.mapGrayToOD= new float[MAX_GRAY+1];   /* reallocate */
     
@@ -651,6 +675,19 @@ public class CalibrateOD
         return("Bad gray-peak data - all peak data must be monotonically increasing");      
       }
     
+    int nSegments= Math.min(maxNDsteps,maxPeaks);
+    if(useSplineFitFlag)
+    { /* fit the monotone spline model and make the map from it */
+      model= new ODCalibrationModel(ndWedgeGrayValues, ndWedgeODvalues,
+                                    nSegments, MAX_GRAY);
+      float lut[]= model.getODlut(MAX_GRAY+1);
+      System.arraycopy(lut, 0, this.mapGrayToOD, 0, 
+                       Math.min(lut.length, this.mapGrayToOD.length));
+      hasODmapFlag= true;
+      return(null);	           /* return null if no errors */
+    }
+    model= null;
+    
     int
       g,
       peaka, 
@@ -670,7 +707,6 @@ public class CalibrateOD
      * we went back and used the slope for segment 2 to extrapolate 
      * the actual od intercept rather than forcing it to 0.0.
      */
-    int nSegments= Math.min(maxNDsteps,maxPeaks);
     for (int i=0;i<=nSegments;i++)
     { /* Do a piecwise linear section */
       /* Get Grayscale peak values handling the 0 & maxGray endpoints */
@@ -742,7 +778,7 @@ public class CalibrateOD
    * @param maxGray is max gray value in the histogram
    * @param maxPeaksAllowed is max # steps allowed 
    * @param sHist is the smoothed histogram of the data [0:maxGray-1].
-   *        For example, you could use the smoothHistogram() method
+   *        For example, you could use the boxSmoothHistogram() method
    *        to smooth them.
    * @param startRange is 1st gray value to search from. If was 0, 
    *        then we might pick up false noise peaks
@@ -951,103 +987,144 @@ public class CalibrateOD
   
     
   /**
-   * smoothHistogram() - Compute smoothed histogram of hist[0:maxGray]
-   * into hData[0:maxGray] using 'Disaster Analysis'.
-   *<P>
-   * This code was drived from GELLAB-II, Lemkin etal., NCI.
-   * @param hDataOrig histogram  of size [0:maxGray] to be smoothed. 
-   * @param nTimes is number of times to iterate
-   * @param windowWidth smoothing window width
-   * @param noiseThreshold noise threshold to ensure just find the peaks
-   * @return the smoothed histogram [0:maxGray]
+   * getGrayHistogram() - get a copy of the histogram hist[0:pixelMask]
+   * in the [0:MAX_GRAY] gray value domain of the calibration. For > 8-bit
+   * data pixel value i is put in gray value bin i*MAX_GRAY/pixelMask 
+   * rounded, the same scaling getODlut() uses, so the peaks found are 
+   * in the units of the map and of the spline model.
+   * @param hist is the histogram [0:pixelMask]
+   * @return the histogram [0:MAX_GRAY]
+   */
+  public static int[] getGrayHistogram(int hist[])
+  { /* getGrayHistogram */
+    int
+      n= hist.length,
+      sHist[]= new int[MAX_GRAY+1];
+    if(n<=MAX_GRAY+1)
+    { /* already in the gray value domain */
+      System.arraycopy(hist, 0, sHist, 0, n);
+      return(sHist);
+    }
+    
+    float scale= (float)MAX_GRAY/(n-1);
+    for(int i=0;i<n;i++)
+      sHist[(int)(i*scale + 0.5F)] += hist[i];
+    
+    return(sHist);
+  } /* getGrayHistogram */
+  
+  
+  /**
+   * boxSmoothHistogram() - smooth the histogram with a box filter of
+   * the given radius nTimes. The window sums are computed from a 
+   * prefix sum so each pass is O(# gray values) for any radius. The 
+   * ends of the histogram are replicated.
+   * @param hDataOrig is the histogram to be smoothed
+   * @param radius is the box filter radius, the window is 2*radius+1
+   * @param nTimes is number of passes
+   * @return the smoothed histogram
    */
-  public int[] smoothHistogram(int hDataOrig[], int nTimes,
-                               int windowWidth, int noiseThreshold)
-  { /* smoothHistogram */
+  public static int[] boxSmoothHistogram(int hDataOrig[], int radius,
+                                         int nTimes)
+  { /* boxSmoothHistogram */
     if(hDataOrig==null)
       return(null);
-    
     int
-      wSize= 40,
-      wSize2= wSize/2,
-      histGuard= 2*wSize+1,
-      maxGray= hDataOrig.length, 
-      i,
-      j,
-      g,
-      w1,
-      w2;
-    float
-      delta,
-      sum,
-      noise,
+      n= hDataOrig.length,
+      maxG= n-1,
+      nW= 2*radius+1,
+      hData[]= new int[n];
+    long
       sumW,
-      avg;
-    int
-      hData[]= new int[maxGray+histGuard],   /* [0:maxGray] */
-      sHist[]= new int[maxGray+histGuard],   /* [0:maxGray+histGuard] */
-      hist[]= new int[maxGray+histGuard];    /* [0:wSize] */
-    
-    /* [1] Initialize */
-    nTimes= Math.max(1,nTimes);
-    windowWidth= Math.max(1,windowWidth);
-    delta= (int)(0.001F*noiseThreshold);    /* set noise threshold */
-    
-    /* Copy the data into local working arrays */
-    for (i=0;i<maxGray;i++)
-    { /* copy the data */
-      hData[i]= hDataOrig[i];
-      sHist[i]= hDataOrig[i];	                   
-    }    
+      prefix[]= new long[n+1];
     
-    /* [2] Smooth hData[] nTimes */
-    for (int n=1;n<=nTimes;n++)
-    { /* Smooth iteration n */
-      sum= 0;
-      for(i=0;i<maxGray;i++)
-        sum += hData[i+wSize];             /* Sum all histogram */      
-      
-      /* [2.1] Set up endpoint approximations */
-      for (i=0;i<maxGray;i++)
-      {
-        sHist[i]= hData[i];
-        hist[i+wSize]= hData[i];
-      }
-      for (i= -wSize2;i>=1;i++)
-        hist[i+wSize]= hData[0];
-      for (i=maxGray+1;i<maxGray+wSize2;i++)
-        hist[i+wSize]= hData[maxGray];
-      
-      /* [2.2] Compute smoothed histogram and find greatest peak */
-      for (i=0;i<=maxGray;i++)
+    System.arraycopy(hDataOrig, 0, hData, 0, n);
+    if(radius<1 || n==0)
+      return(hData);
+    
+    for(int t=1;t<=nTimes;t++)
+    { /* pass t */
+      for(int i=0;i<n;i++)
+        prefix[i+1]= prefix[i] + hData[i];
+      int
+        first= hData[0],
+        last= hData[maxG];
+      for(int i=0;i<n;i++)
       { /* smooth point */
-        sumW= 0;                           /* Compute average width w */
-        w1= i-windowWidth/2;
-        w2= i+windowWidth/2;
-        for (j=w1;j<=w2;j++)
-          sumW +=  hist[j+wSize];
-        avg= sumW/windowWidth;
-        
-        noise= (int)((100.0*Math.abs(hist[i+wSize]-avg))/sum);
-        
-        if (noise>delta)
-          g= (int)((sumW-hist[i+wSize])/(windowWidth-1));
-        else 
-          g= hist[i+wSize];
-        
-        sHist[i]= g;
-        hData[i]= g;                       /* restore histogram value */
+        int 
+          w1= i-radius,
+          w2= i+radius;
+        sumW= prefix[Math.min(w2,maxG)+1] - prefix[Math.max(w1,0)];
+        if(w1<0)
+          sumW += (long)(-w1)*first;
+        if(w2>maxG)
+          sumW += (long)(w2-maxG)*last;
+        hData[i]= (int)((sumW + nW/2)/nW);
       } /* smooth point */
-    } /* Smooth iteration n */
+    } /* pass t */
+    
+    return(hData);
+  } /* boxSmoothHistogram */
+  
+  
+  /**
+   * findHistPeaks() - find the peaks in the histogram sHist[] in one
+   * pass. A peak is a local maximum (the first bin of a flat top). If 
+   * two peaks are closer than minDist, only the larger one is kept. 
+   * Peaks below the minimum frequency are then dropped, where the 
+   * minimum frequency is the larger of minHistFreqPeakValue and the 
+   * maximum frequency divided by freqStoN.
+   * @param sHist is the (smoothed) histogram
+   * @param startRange is 1st gray value to search from
+   * @param minDist is minimum distance allowed between peaks
+   * @param freqStoN is the frequency signal to noise ratio, 0.0 to not
+   *        use it
+   * @param minHistFreqPeakValue is minimum histogram peak value for it
+   *        to be considered as a peak
+   * @param maxPeaksAllowed is max # of peaks returned
+   * @return list of gray value peaks in increasing gray value order
+   */
+  public int[] findHistPeaks(int sHist[], int startRange, int minDist,
+                             float freqStoN, int minHistFreqPeakValue,
+                             int maxPeaksAllowed)
+  { /* findHistPeaks */
+    int
+      n= sHist.length,
+      peakIdx[]= new int[n/2+1],
+      k= 0,
+      maxFreq= 0,
+      freq;
     
-    /* Return array of exact size k */
-    int tmp[]= new int[maxGray];
-    for(i=0;i<maxGray;i++)
-      tmp[i]= sHist[i];
-    sHist= tmp;
+    startRange= Math.max(1, startRange);
+    minDist= Math.max(1, minDist);
+    for(int i=startRange;i<n;i++)
+    { /* scan */
+      freq= sHist[i];
+      maxFreq= Math.max(maxFreq, freq);
+      if(freq<=sHist[i-1] || (i<n-1 && freq<sHist[i+1]))
+        continue;                        /* not a local maximum */
+      if(k>0 && (i-peakIdx[k-1])<minDist)
+      { /* too close to the last peak - keep the larger */
+        if(freq>sHist[peakIdx[k-1]])
+          peakIdx[k-1]= i;
+      }
+      else
+        peakIdx[k++]= i;
+    } /* scan */
     
-    return(sHist);
-  } /* smoothHistogram */
+    /* Drop the peaks that are too small */
+    int minValue= (freqStoN>0.0F) ? (int)(maxFreq/freqStoN) : 1;
+    minValue= Math.max(minValue, minHistFreqPeakValue);
+    int nPeaks= 0;
+    for(int j=0;j<k && nPeaks<maxPeaksAllowed;j++)
+      if(sHist[peakIdx[j]]>=minValue)
+        peakIdx[nPeaks++]= peakIdx[j];
+    
+    int histPeaksFound[]= new int[nPeaks];
+    System.arraycopy(peakIdx, 0, histPeaksFound, 0, nPeaks);
+    
+    return(histPeaksFound);
+  } /* findHistPeaks */
 
         
  /**
@@ -1071,6 +1148,7 @@ public class CalibrateOD
      maxPeaks= util.getStateValue("maxPeaks", 0);
      maxGrayValue= util.getStateValue("maxGrayValue", 0);
      hasODmapFlag= util.getStateValue("hasODmapFlag", false);
+     useSplineFitFlag= util.getStateValue("useSplineFitFlag", false);
      
      ndWedgeODvalues= new float[MAX_ND_STEPS];
      for(int i=0;i<MAX_ND_STEPS;i++)
@@ -1091,6 +1169,13 @@ public class CalibrateOD
      {
        mapGrayToOD[i]= util.getStateValue("mapGrayToOD["+i+"]", 0.0F);
      }
+     
+     /* Remake the spline model the map was made from */
+     model= null;
+     if(useSplineFitFlag && hasODmapFlag && maxNDsteps>0 && maxPeaks>0)
+       model= new ODCalibrationModel(ndWedgeGrayValues, ndWedgeODvalues,
+                                     Math.min(maxNDsteps,maxPeaks),
+                                     MAX_GRAY);
   } /* readState */
 
     
@@ -1117,6 +1202,7 @@ public class CalibrateOD
     sBuf.append("maxPeaks\t"+maxPeaks+"\n");
     sBuf.append("maxGrayValue\t"+maxGrayValue+"\n");
     sBuf.append("hasODmapFlag\t"+hasODmapFlag+"\n");
+    sBuf.append("useSplineFitFlag\t"+(model!=null)+"\n");
     
     for(int i=0;i<MAX_ND_STEPS;i++)
     {
@@ -1209,111 +1295,247 @@ public class CalibrateOD
       flk.repaint();
     }
                     
-    /* [3] Get fresh data histogram into hist[] for the ND wedge
+    /* [3] Analyze the ND wedge ROI histogram. Only find the peaks
+     * if there was no previous ND wedge ROI.
+     */
+    String sOK= analyzeWedgeROI(iData, (!hasPrevCALflag && hasCWflag),
+                                false);
+    if(sOK!=null)
+    {    
+      if(sOK.startsWith("No ND wedge ROI data"))
+        return(false);
+      String msg= sOK;
+      if(sOK.startsWith("Bad OD data"))
+        msg += ", re-edit the OD values in the table and try again.";
+      else if(sOK.equals("Bad gray-peak data "))
+        msg += ", re-edit the gray-peak values in the table and try again.";
+      else if(sOK.equals("FATAL error"))
+        msg += ", Contact us with this error message.";
+      
+      util.popupAlertMsg(msg, flk.alertColor);
+      return(false);
+    }
+    
+    return(true); 
+  } /* calcHistFindPeaksAndExtrapolate */
+  
+  
+  /**
+   * analyzeWedgeROI() - compute the histogram of the ND wedge ROI, 
+   * optionally find its peaks and put them in the peak table, and 
+   * extrapolate the peak table to the mapGrayToOD[] map. The wizard 
+   * uses the tuned findPeaks() on the unsmoothed histogram. The auto 
+   * located wedge histogram is smoothed with the prefix sum 
+   * boxSmoothHistogram() and the peaks are found in one pass by 
+   * findHistPeaks().
+   * @param iData is the image with the ND wedge
+   * @param findPeaksFlag to find the peaks, else use the peak table
+   * @param autoWedgeFlag to use the one pass peak finder for an auto
+   *        located wedge, else the wizard findPeaks()
+   * @return null if succeed, else the error message. 
+   */
+  private String analyzeWedgeROI(ImageData iData, boolean findPeaksFlag,
+                                 boolean autoWedgeFlag)
+  { /* analyzeWedgeROI */
+    /* [1] Get fresh data histogram into hist[] for the ND wedge
      * ROI region.
      */
     boolean ok= iData.idM.calcHistogram(ndcwx1, ndcwy1, ndcwx2, ndcwy2);      
     if(!ok)
-      return(false);
+      return("No ND wedge ROI data");
     hist= iData.hist;
                     
-    /* [4] Copy hist[] into sHist[] and calculate the 
+    /* [2] Copy hist[] into sHist[] and calculate the 
      * max/min freq and gray values.
      */
-    int sHist[]= new int[MAX_GRAY+1];       /* May smooth the copy */
-    int
-      totFreq= 0,
-      minFreq= 100000000,
-      maxFreq= 0,
-      minG= MAX_GRAY+1,
-      maxG= -1,
-      v,
-      g;
-    for(g= 0;g<=MAX_GRAY;g++)
-    {
-      v= hist[g];
-      sHist[g]= v;
-      if(v!=0)
-      {
-        totFreq += v;
-        minFreq= Math.min(minFreq,v);
-        maxFreq= Math.max(maxFreq,v);
-        minG= Math.min(minG,g);
-        maxG= Math.max(maxG,g);
-      }
-    }    
-    maxGrayValue= maxG;
+    int sHist[]= getGrayHistogram(hist);    /* May smooth the copy */
+    ImageStats hStats= new ImageStats(sHist);
+    maxGrayValue= hStats.maxG;
     
-    /* [5] Define default peak analyser parameters */
-    if(!hasPrevCALflag && hasCWflag)
-    { /* find the peaks and stuff them into the peak table */
+    /* [3] Find the peaks and stuff them into the peak table */
+    if(findPeaksFlag)
+    { /* find the peaks */
       int
-        maxGray= (MAX_GRAY+1),
         maxPeaksAllowed= 50,          /* should be 15 */
         startRange= 5,
         avgDist= 3,
         minDist= 5,                   /* 4? */
         lookBackWidth= 3,
+        smoothRadius= 1,
+        nTimes= 2,                    /* i.e. triangular window */
         minHistFreqPeakValue= 30;
       float freqStoN= 10.0F;
       boolean
-      smoothpeakIdxListFlag= false,
-      useShrinkingMinDistanceFlag= false;
-      int gelHist[]= sHist;
-      /*
-      int
-        nTimes= 1,
-        windowWidth= 2,
-        noiseThreshold= 10;
-      gelHist= smoothHistogram(sHist, nTimes, windowWidth,noiseThreshold);
-      */
+        smoothpeakIdxListFlag= false,
+        useShrinkingMinDistanceFlag= false;
       
-      /* [5.1] Find the peaks in the histogram */
-      int peakList[]= findPeaks(MAX_GRAY, maxPeaksAllowed,
-                                gelHist, startRange,
-                                avgDist, minDist, lookBackWidth,
+      /* [3.1] Find the peaks in the histogram */
+      int peakList[];
+      if(autoWedgeFlag)
+      { /* smooth and find the peaks in one pass */
+        int gelHist[]= boxSmoothHistogram(sHist, smoothRadius, nTimes);
+        peakList= findHistPeaks(gelHist, startRange, minDist, 
                                 freqStoN, minHistFreqPeakValue,
-                                smoothpeakIdxListFlag,
-                                useShrinkingMinDistanceFlag );
+                                maxPeaksAllowed);
+      }
+      else
+        peakList= findPeaks(MAX_GRAY, maxPeaksAllowed,
+                            sHist, startRange,
+                            avgDist, minDist, lookBackWidth,
+                            freqStoN, minHistFreqPeakValue,
+                            smoothpeakIdxListFlag,
+                            useShrinkingMinDistanceFlag );
       int nPeaksFound= peakList.length;
       
-      /* [5.2] Copy peak data to calib state. */
+      /* [3.2] Copy peak data to calib state. */
       maxPeaks= Math.min(MAX_ND_STEPS,nPeaksFound);
       for(int i=0;i<MAX_ND_STEPS;i++)
       { /* copy peaks into working peak table and 0 terminate */
         ndWedgeGrayValues[i]= (i<nPeaksFound) ? peakList[i] : 0;
       }      
-    } /* find the peaks and stuff them into the peak table */
+    } /* find the peaks */
            
-    /* [6] Compute the number of OD values for the step wedge that
+    /* [4] Compute the number of OD values for the step wedge that
      * are > 0.0. Note: can not have an OD value <= 0.0.
      * Find the current maxPeaks and maxNDvalues from non-zero
      * values in the peaks table
      */
     findPeakTableSizes();
          
-    /* [7] Extrapolate the wedge peak table to a mapGrayToOD[] map.
+    /* [5] Extrapolate the wedge peak table to a mapGrayToOD[] map.
      * if(maxNDsteps===0) then we can not extrapolate since no OD values.
      */
     String sOK= extrapolateNDwedgeMap(MAX_GRAY, maxNDsteps, maxPeaks,
                                       ndWedgeGrayValues, ndWedgeODvalues);
-     /* Change the units if successful */
-    if(sOK!=null)
-    {    
-      String msg= sOK;
-      if(sOK.startsWith("Bad OD data"))
-        msg += ", re-edit the OD values in the table and try again.";
-      else if(sOK.equals("Bad gray-peak data "))
-        msg += ", re-edit the gray-peak values in the table and try again.";
-      else if(sOK.equals("FATAL error"))
-        msg += ", Contact us with this error message.";
-      
-      util.popupAlertMsg(msg, flk.alertColor);
-      return(false);
+    return(sOK);
+  } /* analyzeWedgeROI */
+  
+  
+  /**
+   * autoCalibrateWedge() - find the ND step wedge in the image, make it 
+   * the ND wedge ROI, find the histogram peaks and extrapolate the 
+   * mapGrayToOD[] map. The OD values of the steps are inherited from 
+   * the other image if this image does not have any. The user's ROI 
+   * and computing window are not changed. No popups are made so it 
+   * may be used on a batch of images.
+   * @param iData is the image with the ND wedge
+   * @return null if succeed, else the error message. 
+   */
+  public String autoCalibrateWedge(ImageData iData)
+  { /* autoCalibrateWedge */
+    if(iData.iPix==null && !iData.checkAndMakeIpix(false))
+      return("No image data");
+    
+    lastWedge= new WedgeLocator(iData);
+    if(!lastWedge.locate())
+    { /* no wedge, use the calibration of the same wedge and scanner */
+      if(applyCachedCalibration(iData))
+        return(null);
+      return("No ND step wedge found in image");
     }
     
-    return(true); 
-  } /* calcHistFindPeaksAndExtrapolate */
+    initialMaxPeaks= maxPeaks;
+    setWedgeROI(lastWedge.x1, lastWedge.y1, lastWedge.x2, lastWedge.y2);
+    inheritNDwedgeODvalues(iData);
+    
+    String sOK= analyzeWedgeROI(iData, true, true);
+    if(sOK==null)
+    { /* update the ImageData instance */
+      iData.mapGrayToOD= getMapGrayToOD();
+      iData.hasODmapFlag= getHasODmapFlag();
+      cacheCalibration(iData);
+    }
+    
+    return(sOK);
+  } /* autoCalibrateWedge */
+  
+  
+  /**
+   * getODlut() - get the full depth OD lookup table for pixel values
+   * [0:pixelMask] from the spline model. For > 8-bit data the pixel 
+   * values are scaled to the [0:MAX_GRAY] gray value range of the 
+   * calibration. The table is shared, so do not change it.
+   * @param pixelMask is the maximum pixel value, e.g. 255, 4095, 65535
+   * @return lut[0:pixelMask], null if there is no spline calibration.
+   */
+  public float[] getODlut(int pixelMask)
+  { /* getODlut */
+    ODCalibrationModel m= model;
+    if(m==null || !hasODmapFlag)
+      return(null);
+    return(m.getODlut(pixelMask+1));
+  } /* getODlut */
+  
+  
+  /**
+   * getCalibCacheKey() - get the calibration cache key for an image. 
+   * It is the wedge manufacturer part # and the scanner settings: the 
+   * bits/pixel of the scan and if black is gray value 0. A calibration
+   * without a part # is not shared since the wedge is not known.
+   * @param iData is the image
+   * @return key, null if there is no wedge part #.
+   */
+  public String getCalibCacheKey(ImageData iData)
+  { /* getCalibCacheKey */
+    String partNbr= manufacturerPartNbr;
+    if(partNbr==null || partNbr.length()==0 || partNbr.equals("none") ||
+       partNbr.startsWith("<"))
+      return(null);
+    
+    int nBits= iData.nBitsPerPixel;
+    if(iData.tiffStream!=null && iData.tiffStream.sampleSizes!=null &&
+       iData.tiffStream.sampleSizes.length>0)
+      nBits= iData.tiffStream.sampleSizes[0];  /* depth of the scan */
+    
+    String key= partNbr+"|bits="+nBits+"|blackIsZero="+
+                iData.blackIsZeroFlag;
+    return(key);
+  } /* getCalibCacheKey */
+  
+  
+  /**
+   * cacheCalibration() - save a copy of this spline calibration in the
+   * calibration cache so other images scanned with the same wedge and 
+   * scanner settings may share it.
+   * @param iData is the image that was calibrated
+   * @return true if it was cached
+   */
+  public boolean cacheCalibration(ImageData iData)
+  { /* cacheCalibration */
+    if(model==null || !hasODmapFlag)
+      return(false);
+    String key= getCalibCacheKey(iData);
+    if(key==null)
+      return(false);
+    calibCache.put(key, new CalibrateOD(this));
+    return(true);
+  } /* cacheCalibration */
+  
+  
+  /**
+   * applyCachedCalibration() - use the cached calibration of an image
+   * scanned with the same wedge and scanner settings, if any. The ND
+   * wedge ROI is not copied since it is in the other image.
+   * @param iData is the image to calibrate
+   * @return true if a cached calibration was used
+   */
+  public boolean applyCachedCalibration(ImageData iData)
+  { /* applyCachedCalibration */
+    String key= getCalibCacheKey(iData);
+    if(key==null)
+      return(false);
+    CalibrateOD cached= (CalibrateOD)calibCache.get(key);
+    if(cached==null)
+      return(false);
+    
+    restoreFromClone(cached);
+    setWedgeROI(-1, -1, -1, -1);
+    hasPrevCALflag= false;
+    iData.mapGrayToOD= getMapGrayToOD();
+    iData.hasODmapFlag= getHasODmapFlag();
+    
+    return(true);
+  } /* applyCachedCalibration */
   
      
   /**
@@ -1336,7 +1558,8 @@ public class CalibrateOD
      * probably be scanned from the same scanner and wedge. This will
      * save time in re-typing it in.
      */
-    if(!iData.hasODmapFlag && iDataOther.hasODmapFlag && 
+    if(iDataOther!=null && iDataOther.calib!=null &&
+       !iData.hasODmapFlag && iDataOther.hasODmapFlag && 
        iDataOther.calib.maxNDsteps>0)
     { /* use wedge calibration values of other gel copy it */
       CalibrateOD otherCalib= iDataOther.calib;
@@ -1458,28 +1681,14 @@ public class CalibrateOD
     hist= iData.hist;
     maxGrayValue= hist.length-1;  /* value actually found */
     
-    int sHist[]= new int[MAX_GRAY+1];       /* May smooth the copy */
+    int sHist[]= getGrayHistogram(hist);    /* May smooth the copy */
+    ImageStats hStats= new ImageStats(sHist);
     int
-      totFreq= 0,
-      minFreq= 100000000,
-      maxFreq= 0,
-      minG= MAX_GRAY+1,
-      maxG= -1,
-      v,
-      g;
-    for(g= 0;g<=MAX_GRAY;g++)
-    {
-      v= hist[g];
-      sHist[g]= v;
-      if(v!=0)
-      {
-        totFreq += v;
-        minFreq= Math.min(minFreq,v);
-        maxFreq= Math.max(maxFreq,v);
-        minG= Math.min(minG,g);
-        maxG= Math.max(maxG,g);
-      }
-    }
+      totFreq= hStats.nPixels,
+      minFreq= hStats.minFreq,
+      maxFreq= hStats.maxFreq,
+      minG= hStats.minG,
+      maxG= hStats.maxG;
      
     if(DBUG_DEF_DATA)
     {
@@ -1491,14 +1700,6 @@ public class CalibrateOD
     }
     
     int gelHist[]= sHist;
-    /*
-    int
-      nTimes= 1,
-      windowWidth= 2,
-      noiseThreshold= 10;
-    gelHist= smoothHistogram(sHist, nTimes, windowWidth,
-                                 noiseThreshold);
-    */
     
     /* Find the peaks in the histogram */
     DBUG_CALIB= false;
@@ -1690,14 +1891,6 @@ public class CalibrateOD
     }
     
     int gelHist[]= sHist;
-    /*
-    int
-      nTimes= 1,
-      windowWidth= 2,
-      noiseThreshold= 10;
-    gelHist= cal.smoothHistogram(sHist, nTimes, windowWidth,
-                                 noiseThreshold);
-    */
     DBUG_CALIB= true;
     int peakList[]= cal.findPeaks(maxGray, maxPeaksAllowed, 
                                   gelHist, startRange,
@@ -241,9 +241,51 @@ class DrawHistogram extends JFrame
   /** freq hist[0:nHist-1].*/
   private int
     hist[];		  		
-  /** modified freq sHist[0:nHist-1].*/
+  /** number of gray value columns in the histogram plot */
+  final static int
+    PLOT_COLS= 256;
+  /** scaled max freq of the bins in each plot column sHist[0:PLOT_COLS-1].*/
   private int
     sHist[];		
+  /** scaled min freq of the bins in each plot column 
+   * sHistMin[0:PLOT_COLS-1]. Only differs from sHist[] for deep 
+   * histograms with more than PLOT_COLS bins.
+   */
+  private int
+    sHistMin[];
+  /** bin with max freq in each plot column colPeakBin[0:PLOT_COLS-1],
+   * else -1 if no bins map to that column. Used to find the active bin.
+   */
+  private int
+    colPeakBin[];
+  /** # of histogram bins per plot column */
+  private int
+    nBinsPerCol= 1;
+  /** min gray value found in hist[] */
+  private int
+    minGrayVal;
+  /** max gray value found in hist[] */
+  private int
+    maxGrayVal;
+  /** min non-zero frequency found in hist[] */
+  private int
+    minFreqVal;
+  /** max frequency found in hist[] */
+  private int
+    maxFreqVal;
+  /** set if sHist[], sHistMin[] and colPeakBin[] are valid */
+  private boolean
+    plotColsValidFlag= false;
+  /** cached static layer of the plot (histogram, axes, OD map and
+   * labels). The peaks and active bin are drawn over it on each paint.
+   */
+  private Image
+    staticLayerImg= null;
+  /** key of the data drawn in staticLayerImg
+   * @see #getStaticLayerKey
+   */
+  private long
+    staticLayerKey;		
     
   /** set if draw plot to GIF file*/
   private boolean
@@ -281,6 +323,9 @@ class DrawHistogram extends JFrame
   /* histogram top drawing color */
   private Color    
     histTopColor;
+  /* histogram column min drawing color for deep histograms */
+  private Color    
+    histMinColor;
   /* OD curve drawing color */
   private Color    
     odColor; 
@@ -310,12 +355,6 @@ class DrawHistogram extends JFrame
   private Label
     statusLabel;
   
-  /** active hit coordinates */
-  private static int
-    xPainted[];
-  /** active y hit coordinates */
-  private static int
-    yPainted[];
   /** If the Histogram is visible */
   public boolean
     isVisibleFlag;
@@ -414,14 +453,15 @@ class DrawHistogram extends JFrame
     textInputColor= Color.magenta;
     histColor= new Color(140,140,255);     /* lightBlue */
     histTopColor= Color.yellow;
+    histMinColor= histColor.darker();
     labelColor= Color.black;
     peakNbrColor= new Color(255,40,255);
     setExtraInfo(null, null, null);
     
     /* allocate structures */
-    sHist= new int[256];
-    xPainted= new int[256];
-    yPainted= new int[256];
+    sHist= new int[PLOT_COLS];
+    sHistMin= new int[PLOT_COLS];
+    colPeakBin= new int[PLOT_COLS];
     
     fontFamily= "Helvetica";
     smallFont= new Font(fontFamily, Font.PLAIN, 10);
@@ -1074,29 +1114,164 @@ class DrawHistogram extends JFrame
   
     
   /**
-   * drawHistInCanvas() - draw histogram of hist[].
-   * @param g is graphics context
+   * getPlotColumn() - map histogram bin to its plot column
+   * @param bin is histogram bin [0:hist.length-1]
+   * @return plot column [0:PLOT_COLS-1] else -1 if not a valid bin
    */
-  private boolean drawHistInCanvas(Graphics g)
-  { /* drawHistInCanvas */
+  private int getPlotColumn(int bin)
+  { /* getPlotColumn */
+    if(hist==null || bin<0 || bin>=hist.length)
+      return(-1);
+    int col= (int)(((long)bin*PLOT_COLS)/hist.length);
+    return(col);
+  } /* getPlotColumn */
+  
+    
+  /**
+   * cvtBinToGray() - map histogram bin to the [0:MAX_GRAY] gray value
+   * domain of the wedge peaks. Deep histograms are rebinned the same 
+   * way as CalibrateOD.getGrayHistogram().
+   * @param bin is histogram bin [0:hist.length-1]
+   * @return gray value [0:MAX_GRAY] else -1 if not a valid bin
+   */
+  private int cvtBinToGray(int bin)
+  { /* cvtBinToGray */
+    if(hist==null || bin<0 || bin>=hist.length)
+      return(-1);
+    if(hist.length<=MAX_GRAY+1)
+      return(bin);
+    float scale= (float)MAX_GRAY/(hist.length-1);
+    int gray= (int)(bin*scale + 0.5F);
+    return(gray);
+  } /* cvtBinToGray */
+  
+    
+  /**
+   * cvtGrayToBin() - map a [0:MAX_GRAY] wedge peak gray value to the 
+   * histogram bin at the center of the bins it was rebinned from.
+   * @param gray is gray value [0:MAX_GRAY]
+   * @return histogram bin [0:hist.length-1] else -1 if not valid
+   */
+  private int cvtGrayToBin(int gray)
+  { /* cvtGrayToBin */
+    if(hist==null || gray<0)
+      return(-1);
+    if(hist.length<=MAX_GRAY+1)
+      return((gray<hist.length) ? gray : -1);
+    if(gray>MAX_GRAY)
+      return(-1);
+    int bin= (int)(((float)gray*(hist.length-1))/MAX_GRAY + 0.5F);
+    return(bin);
+  } /* cvtGrayToBin */
+  
+  
+  /**
+   * getStaticLayerKey() - compute key of all data drawn in the static
+   * layer of the plot: the histogram, the OD map, the ND wedge values,
+   * the ROI and the labels. If the key changes, the cached static
+   * layer must be redrawn. This is cheap compared to redrawing.
+   * @return key
+   */
+  private long getStaticLayerKey()
+  { /* getStaticLayerKey */
+    long key= 17;
+    int i;
+    
+    key= 31*key + hist.length;
+    for(i=0;i<hist.length;i++)
+      key= 31*key + hist[i];
+    key= 31*key + cWidth;
+    key= 31*key + cHeight;
+    key= 31*key + ((calibHistFlag) ? 1 : 0);
+    key= 31*key + ((getPeaksByMeasFlag) ? 1 : 0);
+    
+    if(calibHistFlag)
+    { /* OD map and ND wedge values */
+      float mapGrayToOD[]= iData.mapGrayToOD;
+      if(mapGrayToOD!=null)
+        for(i=0;i<mapGrayToOD.length;i++)
+          key= 31*key + Float.floatToIntBits(mapGrayToOD[i]);
+      for(i=0;i<calib.ndWedgeODvalues.length;i++)
+        key= 31*key + Float.floatToIntBits(calib.ndWedgeODvalues[i]);
+      for(i=0;i<calib.ndWedgeGrayValues.length;i++)
+        key= 31*key + calib.ndWedgeGrayValues[i];
+      key= 31*key + calib.ndcwx1;
+      key= 31*key + calib.ndcwx2;
+      key= 31*key + calib.ndcwy1;
+      key= 31*key + calib.ndcwy2;
+      key= 31*key + ((calib.unitsAbbrev==null) 
+                       ? 0 : calib.unitsAbbrev.hashCode());
+    } /* OD map and ND wedge values */
+    else
+    { /* computing window ROI */
+      ImageDataROI idROI= iData.idROI;
+      key= 31*key + idROI.cwx1;
+      key= 31*key + idROI.cwx2;
+      key= 31*key + idROI.cwy1;
+      key= 31*key + idROI.cwy2;
+      key= 31*key + ((imageFile==null) ? 0 : imageFile.hashCode());
+    } /* computing window ROI */
+    
+    key= 31*key + ((r1==null) ? 0 : r1.hashCode());
+    key= 31*key + ((r2==null) ? 0 : r2.hashCode());
+    key= 31*key + ((r3==null) ? 0 : r3.hashCode());
+    
+    return(key);
+  } /* getStaticLayerKey */
+  
+  
+  /**
+   * calcPlotColumns() - decimate hist[] into the PLOT_COLS columns of
+   * the plot and compute the histogram extrema. Deep (12- or 16-bit)
+   * histograms have several bins per column, so the min and max
+   * frequency of each column are kept (min/max decimation) and the
+   * bin with the max frequency is the one picked when the column is
+   * selected. The frequencies are scaled so the maximum is 250.
+   * @return false if the histogram is empty
+   */
+  private boolean calcPlotColumns()
+  { /* calcPlotColumns */
     int
-      sumHist= 0,	       /* if sum is zero then no histogram to draw */
+      nBins= hist.length,
       hVal,
-      minGrayVal= 1000000000,  /* min gray value value found in hist[] */
-      maxGrayVal= -1,          /* max gray value value found in hist[] */
-      minFreqVal= 1000000000,  /* min frequency value value found in hist[] */
-      maxFreqVal= -1,          /* max frequency value value found in hist[] */
+      col,
       i;
-        
-    /* [1] Make sure histogram exists */
-    if(hist==null)
-      return(false);                /* no histogram */
-      
-    /* Compute histogram extrema */
-    for (i=0;i<=255;i++)
-    { /* compute histogram extrema */
+    long
+      sumHist= 0;	       /* if sum is zero then no histogram to draw */
+    
+    minGrayVal= 1000000000;
+    maxGrayVal= -1;
+    minFreqVal= 1000000000;
+    maxFreqVal= -1;
+    for(col=0;col<PLOT_COLS;col++)
+    { /* clear columns */
+      sHist[col]= 0;
+      sHistMin[col]= 0;
+      colPeakBin[col]= -1;
+    }
+    
+    /* [1] Compute column min/max and histogram extrema in one pass */
+    for(i=0;i<nBins;i++)
+    { /* decimate histogram */
       hVal= hist[i];
-      sHist[i]= hVal;               /* make a copy */
+      col= (int)(((long)i*PLOT_COLS)/nBins);
+      if(colPeakBin[col]==-1)
+      { /* first bin in this column */
+        sHist[col]= hVal;
+        sHistMin[col]= hVal;
+        colPeakBin[col]= i;
+      }
+      else
+      { /* update column extrema */
+        if(hVal>sHist[col])
+        {
+          sHist[col]= hVal;
+          colPeakBin[col]= i;
+        }
+        if(hVal<sHistMin[col])
+          sHistMin[col]= hVal;
+      }
+      
       if(hVal>0)
       { /* only count non-zero entries in histogram */
         sumHist += hVal;           /* get total of all values */
@@ -1105,16 +1280,52 @@ class DrawHistogram extends JFrame
         minFreqVal= Math.min(minFreqVal,hVal);
         maxFreqVal= Math.max(maxFreqVal,hVal);
       }
-    } /* compute histogram extrema */
+    } /* decimate histogram */
     
     /* [1.1] If sum is zero then no histogram to draw */ 
     if(sumHist==0)
       return(false);               /* no histogram data */
+    nBinsPerCol= Math.max(1, nBins/PLOT_COLS);
     
     /* [1.2] Scale maximum histogram value to 250 so room at top */
     float scaleFactor= (250.0F/maxFreqVal);
-    for(i=0;i<=255;i++)
-      sHist[i]= (int)(sHist[i] * scaleFactor);
+    for(col=0;col<PLOT_COLS;col++)
+    { /* scale columns */
+      sHist[col]= (int)(sHist[col] * scaleFactor);
+      sHistMin[col]= (int)(sHistMin[col] * scaleFactor);
+    }
+    
+    return(true);
+  } /* calcPlotColumns */
+  
+  
+  /**
+   * drawHistInCanvas() - draw histogram of hist[]. The static layer
+   * (histogram, axes, OD map and labels) is rendered once into
+   * staticLayerImg and reused until the data it shows changes, so
+   * selecting bins and peaks only redraws the overlay layer.
+   * @param g is graphics context
+   * @see #drawStaticLayer
+   * @see #drawOverlayLayer
+   */
+  private boolean drawHistInCanvas(Graphics g)
+  { /* drawHistInCanvas */
+    /* [1] Make sure histogram exists */
+    if(hist==null)
+      return(false);                /* no histogram */
+    
+    /* [1.1] Decimate histogram again only if the static data changed */
+    long key= getStaticLayerKey();
+    if(!plotColsValidFlag || key!=staticLayerKey)
+    { /* static data changed */
+      staticLayerImg= null;
+      staticLayerKey= key;
+      plotColsValidFlag= calcPlotColumns();
+    }
+    if(!plotColsValidFlag)
+      return(false);               /* no histogram data */
+    
+    this.setBackground(optBkgrdColor);
     
     /* [2] If draw plot into GIF image file, setup new Graphics g. */
     Image gifImage= null;
@@ -1122,142 +1333,102 @@ class DrawHistogram extends JFrame
     { /* draw into GIF file Image instead of canvas */
       gifImage= createImage(frameSize.width,frameSize.height);
       g= gifImage.getGraphics();
+      drawStaticLayer(g);
     }
+    else
+    { /* use the cached static layer */
+      if(staticLayerImg==null)
+      { /* render static layer off screen */
+        staticLayerImg= createImage(cWidth,cHeight);
+        if(staticLayerImg!=null)
+        {
+          Graphics gS= staticLayerImg.getGraphics();
+          drawStaticLayer(gS);
+          gS.dispose();
+        }
+      } /* render static layer off screen */
+      
+      if(staticLayerImg!=null)
+        g.drawImage(staticLayerImg,0,0,this);
+      else
+        drawStaticLayer(g);      /* not displayable yet, draw directly */
+    } /* use the cached static layer */
     
-    /* [3] Set up blank image with background color. */ 
-    this.setBackground(optBkgrdColor);   /* clear screen */
-    g.clearRect(0,0,cWidth,cHeight);       
+    /* [3] Draw the peaks and active bin on top */
+    drawOverlayLayer(g);
     
-    /* [4] Draw histogram at (100,100) */
-    int 
+    /* [4] Draw in the ND wedge table if the calibration exists*/
+    if(calibHistFlag)
+      updatePeakCalTable();
+    
+    /* [5] If drawing to a GIF file, then cvt Image to Gif stream
+     * and write it out.
+     */
+    if(drawIntoImageFlag && gifImage!=null)
+    { /* write it out */
+      drawIntoImageFlag= false;
+      WriteGifEncoder wge= new WriteGifEncoder(gifImage);
+      gifImage= null;
+      if(wge!=null)
+        wge.writeFile(oGifFileName);
+      
+      repaint();                     /* refresh the actual canvas */
+    } /* write it out */
+    
+    return(true);
+  } /* drawHistInCanvas */
+  
+  
+  /**
+   * drawStaticLayer() - draw the parts of the plot that do not change
+   * when bins or peaks are selected: the decimated histogram, axes,
+   * fiducials, ND wedge OD marks, OD map, labels and legends.
+   * calcPlotColumns() must have been called.
+   * @param g is graphics context
+   */
+  private void drawStaticLayer(Graphics g)
+  { /* drawStaticLayer */
+    int
       x, y,
-      y1, y2,
-      xSelected= 0,
-      ySelected= 0,
-      xCoord[]= new int[calib.maxPeaks],
-      yCoord[]= new int[calib.maxPeaks],
-      currentSelectedPeak= -1;
+      y2,
+      i;
+    
+    /* [1] Set up blank image with background color. */ 
+    g.setColor(optBkgrdColor);
+    g.fillRect(0,0,cWidth,cHeight);       
     
-    /* draw the histogram and related data and and peak coords */
-    for (i=0;i<=255;i++)
+    /* [2] Draw histogram at (100,100) */
+    for (i=0;i<PLOT_COLS;i++)
       if (sHist[i]>0)
       { /* draw histogram pixels */
         x= 100+i;
         y2= (355 - sHist[i]);
         g.setColor( histColor );         /* forground color */
         g.drawLine(x,355,x,y2);        
+        if(nBinsPerCol>1 && sHistMin[i]>0)
+        { /* show min of the bins in this column */
+          g.setColor( histMinColor );
+          g.drawLine(x,355,x,(355 - sHistMin[i]));
+        }
         g.setColor( histTopColor );      /* hist top color */
         g.drawLine(x,y2, x,y2);
-        xPainted[i]= x;                  /* save X coords. so can find bin */
-        
-        /* Save coords for peaks so we can draw the peak tick marks and 
-         * number labels later */
-        for (int j=0;j<calib.maxPeaks;j++)
-        { /* Save coords for peaks */
-           if(i==activeBin)
-           { /* found selected peak (active bin) */
-              currentSelectedPeak= i; 
-              xSelected= x;
-              ySelected= Math.max((355-sHist[i]),0);                  
-           } /* found selected peak (active bin) */
-          if(i==calib.ndWedgeGrayValues[j])
-          { /* found peak */              
-            xCoord[j]= x;
-            yCoord[j]= Math.max((355-sHist[i]),0);              
-          } /* found peak */  
-        } /* Save coords for peaks */
       } /* draw histogram pixels */
-          
-    /* [4.1] Draw Peak markers if histogram exists. */
-    if(calibHistFlag)
-    { /* Draw the peak marks */
-    
-      Font fTmp= new Font("Serif",Font.PLAIN,peakNbrFontSize);                                            
-      boolean drawActiveBinOnceFlag= true;
-      g.setColor(labelColor);
-      
-      for(int j=0;j<calib.maxPeaks;j++) 
-      { /* Draw peak tick mark */
-       
-        boolean activeBinFlag= false;
-        Font defaultFont= g.getFont();
-        
-        /* see if active bin is valid */
-        if(currentSelectedPeak==-1)
-          activeBinFlag= false;
-        else
-        { /* selected peak */
-          if(currentSelectedPeak == calib.ndWedgeGrayValues[j])
-            activeBinFlag= true; /* found peak in list that is selected */
-          else
-          { /* found selected peak that is not be in the list */            
-            activeBinFlag= false;   
-            if(drawActiveBinOnceFlag)
-            { /* draw only once */
-              y2= ySelected;
-              x= xSelected;   
-              y1= Math.max((y2-5),0);    /* find y1 of peak */        
-              g.setColor(labelColor);    /* note this is activeBin in histogram */
-              g.drawLine(x,y1, x,(y2-1)); /* draw actual peak mark from y1 to y2 */
-              g.setColor(calibPeakColor);
-              drawActiveBinOnceFlag= false;
-            } /* draw only once */
-          } /* found selected peak that is not be in the list */
-        } /* selected peak */
-           
-        if(activeBinFlag)
-          g.setColor(labelColor); /* note this is activeBin in histogram */
-        else
-          g.setColor(calibPeakColor);
-             
-        x= xCoord[j];
-        y2= yCoord[j];
-        y1= Math.max((y2-5),0);     /* find y1 of peak */        
-        g.drawLine(x,y1, x,(y2-1)); /* draw actual peak mark from y1 to y2 */        
-        g.setFont(fTmp);        
-        
-        if(activeBinFlag)
-          g.setColor(labelColor);   /* note this is activeBin in histogram */
-        else 
-          g.setColor(peakNbrColor);             
-        
-        int peakNbr= j+1; /* zero one counting */
-        g.drawString(""+peakNbr, x-2, y1-2);  /* Draw peak number label 
-                                               * above tick mark */       
-        
-        /* reset to default font and color */
-        g.setColor(calibPeakColor);       
-        g.setFont(defaultFont);
-                
-      } /* Draw peak tick mark */    
-    } /* Draw the peak marks */
-    
-    else if(!calibHistFlag && activeBin!=-1)
-    { /* draw Peak marker in comp. window ROI if activeBin and hist exists */
-      g.setColor(calibPeakColor);
-      x= 100+activeBin;
-      y2= Math.max((355-sHist[activeBin]),0);
-      /* Draw active peak mark */
-      y1= Math.max((y2-5),0);
-      g.drawLine(x,y1, x,(y2-1));
-    } /* draw Peak marker in comp. window ROI if activeBin and hist exists */
 
-    /* [4.2] Draw the OD fiducial marks on the LEFT */
+    /* [2.1] Draw the OD fiducial marks on the LEFT */
     g.setColor(labelColor);
     g.drawLine(100,355, 100,100);     /* Left side vertical OD */
     g.drawLine(356,355, 356, 100);    /* Right side vertical FREQ */
     g.drawLine(100,355, 355,355);     /* Horizontal axis*/
     
-    /* [4.3] Draw histogram frequency marks on the RIGHT */
+    /* [2.2] Draw histogram frequency marks on the RIGHT */
     int 
       factor= maxFreqVal/5,
-      scaleRt[]= new int[factor],
+      scaleRt[]= new int[6],
       scaleY= 0,
       rtY= 0,
       j= -1,
       tickSize,
-      freqNbr,
-      n;    
+      freqNbr;
      
      for (i=0; i<6; i++)
      {      
@@ -1299,7 +1470,7 @@ class DrawHistogram extends JFrame
       }
     } /* Draw Fiducials */
     
-    /* [4.4] Draw marks for each step of the ND wedge in LEFT OD scale
+    /* [2.3] Draw marks for each step of the ND wedge in LEFT OD scale
      * if the calibrations standard exists 
      */
     if(calibHistFlag)
@@ -1325,7 +1496,7 @@ class DrawHistogram extends JFrame
       } /* Draw NDwedge */
     }  /* the wedge exists */
     
-    /* [4.5] Draw Gray to OD map P.W.L. function at (100,100).
+    /* [2.4] Draw Gray to OD map P.W.L. function at (100,100).
      * If there is no calibration, draw 1:1 line.
      */
     if(calibHistFlag)
@@ -1347,19 +1518,20 @@ class DrawHistogram extends JFrame
       } /* draw ND wedge pixel */
     } /* the wedge exists */
     
-    /* [4.6] Label graph axes with medium lettering */
+    /* [2.5] Label graph axes with medium lettering */
     g.setFont(mediumFont);
     
-    /* [4.6.1] Draw horizontal Grayscale axis values */
+    /* [2.5.1] Draw horizontal Grayscale axis values. Deep histograms
+     * are labeled with the gray value of the bin at that column.
+     */
     g.setColor(labelColor);
-    g.drawString("0", 100,375);
-    g.drawString("50", 150,375); 
-    g.drawString("100", 200,375);  
-    g.drawString("150", 250,375);  
-    g.drawString("200", 300,375);  
-    g.drawString("250", 350,375);  
-    
-    /* [4.6.2] Draw vertical OD axis values */
+    for(x=0; x<=250; x+=50)
+    { /* draw gray value labels */
+      int grayVal= (int)(((long)x*hist.length)/PLOT_COLS);
+      g.drawString((""+grayVal), 100+x,375);
+    }
+    
+    /* [2.5.2] Draw vertical OD axis values */
     if(calibHistFlag)
     { /* the wedge exists */      
       g.setColor(labelColor);
@@ -1371,12 +1543,12 @@ class DrawHistogram extends JFrame
       } /* draw OD labels on vertical axes */
     } /* the wedge exists */
     
-    /* [4.6.3] Draw text under the X axis */
+    /* [2.5.3] Draw text under the X axis */
     g.setFont(largeFont);    
     g.setColor(labelColor);
     g.drawString("GrayScale", 210,390);  
     
-    /* [4.6.4] Draw additional grayscale statistics under X axis */
+    /* [2.5.4] Draw additional grayscale statistics under X axis */
     g.drawString("Grayscale range["+minGrayVal+":"+maxGrayVal+"]",
                  130,410);
     g.drawString("Frequency range["+minFreqVal+":"+maxFreqVal+"]",
@@ -1397,17 +1569,8 @@ class DrawHistogram extends JFrame
                    idROI.cwy1+":"+idROI.cwy2+"]",
                    130,438);
      }
-    
-    /* [4.6.5] Show the active histogram bin if any */
-    if(activeBin!=-1)
-      g.drawString("Active histogram bin ["+activeBin+
-                   "], Frequency ["+hist[activeBin]+"]",
-                   130,460); 
-    else      
-      g.drawString("Active histogram bin ['not selected']",
-                   130,460); 
          
-    /* [FUTURE] [4.6.6] Draw additional info */
+    /* [FUTURE] [2.5.5] Draw additional info */
     g.setFont(mediumFont);    
     g.setColor(labelColor);
     if(r1!=null)
@@ -1417,7 +1580,7 @@ class DrawHistogram extends JFrame
     if(r3!=null)
       g.drawString(r3, 20,480);
         
-    /* [4.7] Draw special "icon" for OD legends */  
+    /* [2.6] Draw special "icon" for OD legends */  
     if(calibHistFlag)
     { /* the wedge exists */      
       g.setFont(largeFont);
@@ -1443,7 +1606,7 @@ class DrawHistogram extends JFrame
                    100,70);
     }
         
-    /* [4.8] Draw special "icon" for WEDGE FREQUENCY legends */
+    /* [2.7] Draw special "icon" for WEDGE FREQUENCY legends */
     g.setFont(largeFont);
     g.setColor(histColor);    
     if(calibHistFlag)
@@ -1460,31 +1623,139 @@ class DrawHistogram extends JFrame
       g.drawString("Histogram", 10,241);
       drawFilledBox(g, 30,254, 8, histColor);  /* draw box */
     }
-        
-    /* [4.9] Draw in the ND wedge table if the calibration exists*/
-    if(calibHistFlag)
-      updatePeakCalTable();
     
-    /* [4.10] Redraw horizonal axis */
+    /* [2.8] Redraw horizonal axis */
     g.setColor(labelColor);
     g.drawLine(100,355, 355,355);     /* Horizontal */
+  } /* drawStaticLayer */
+  
+  
+  /**
+   * drawOverlayLayer() - draw the parts of the plot that change when
+   * bins or peaks are selected: the calibration peak tick marks and
+   * numbers, the active bin mark and the active bin text.
+   * @param g is graphics context
+   */
+  private void drawOverlayLayer(Graphics g)
+  { /* drawOverlayLayer */
+    int 
+      x, 
+      y1, y2,
+      col,
+      xSelected= 0,
+      ySelected= 0,
+      xCoord[]= new int[calib.maxPeaks],
+      yCoord[]= new int[calib.maxPeaks],
+      currentSelectedPeak= -1;
     
-    /* [5] If drawing to a GIF file, then cvt Image to Gif stream
-     * and write it out.
-     */
-    if(drawIntoImageFlag && gifImage!=null)
-    { /* write it out */
-      drawIntoImageFlag= false;
-      WriteGifEncoder wge= new WriteGifEncoder(gifImage);
-      gifImage= null;
-      if(wge!=null)
-        wge.writeFile(oGifFileName);
+    /* [1] Find coords for the active bin and the peaks so we can draw
+     * the peak tick marks and number labels */
+    col= getPlotColumn(activeBin);
+    if(col!=-1 && sHist[col]>0 && calib.maxPeaks>0)
+    { /* found selected peak (active bin) */
+      currentSelectedPeak= cvtBinToGray(activeBin); 
+      xSelected= 100+col;
+      ySelected= Math.max((355-sHist[col]),0);                  
+    } /* found selected peak (active bin) */
+    
+    for (int j=0;j<calib.maxPeaks;j++)
+    { /* Save coords for peaks */
+      col= getPlotColumn(cvtGrayToBin(calib.ndWedgeGrayValues[j]));
+      if(col!=-1 && sHist[col]>0)
+      { /* found peak */              
+        xCoord[j]= 100+col;
+        yCoord[j]= Math.max((355-sHist[col]),0);              
+      } /* found peak */  
+    } /* Save coords for peaks */
+          
+    /* [2] Draw Peak markers if histogram exists. */
+    if(calibHistFlag)
+    { /* Draw the peak marks */
+    
+      Font fTmp= new Font("Serif",Font.PLAIN,peakNbrFontSize);                                            
+      boolean drawActiveBinOnceFlag= true;
+      g.setColor(labelColor);
       
-      repaint();                     /* refresh the actual canvas */
-    } /* write it out */
+      for(int j=0;j<calib.maxPeaks;j++) 
+      { /* Draw peak tick mark */
+       
+        boolean activeBinFlag= false;
+        Font defaultFont= g.getFont();
+        
+        /* see if active bin is valid */
+        if(currentSelectedPeak==-1)
+          activeBinFlag= false;
+        else
+        { /* selected peak */
+          if(currentSelectedPeak == calib.ndWedgeGrayValues[j])
+            activeBinFlag= true; /* found peak in list that is selected */
+          else
+          { /* found selected peak that is not be in the list */            
+            activeBinFlag= false;   
+            if(drawActiveBinOnceFlag)
+            { /* draw only once */
+              y2= ySelected;
+              x= xSelected;   
+              y1= Math.max((y2-5),0);    /* find y1 of peak */        
+              g.setColor(labelColor);    /* note this is activeBin in histogram */
+              g.drawLine(x,y1, x,(y2-1)); /* draw actual peak mark from y1 to y2 */
+              g.setColor(calibPeakColor);
+              drawActiveBinOnceFlag= false;
+            } /* draw only once */
+          } /* found selected peak that is not be in the list */
+        } /* selected peak */
+           
+        if(activeBinFlag)
+          g.setColor(labelColor); /* note this is activeBin in histogram */
+        else
+          g.setColor(calibPeakColor);
+             
+        x= xCoord[j];
+        y2= yCoord[j];
+        y1= Math.max((y2-5),0);     /* find y1 of peak */        
+        g.drawLine(x,y1, x,(y2-1)); /* draw actual peak mark from y1 to y2 */        
+        g.setFont(fTmp);        
+        
+        if(activeBinFlag)
+          g.setColor(labelColor);   /* note this is activeBin in histogram */
+        else 
+          g.setColor(peakNbrColor);             
+        
+        int peakNbr= j+1; /* zero one counting */
+        g.drawString(""+peakNbr, x-2, y1-2);  /* Draw peak number label 
+                                               * above tick mark */       
+        
+        /* reset to default font and color */
+        g.setColor(calibPeakColor);       
+        g.setFont(defaultFont);
+                
+      } /* Draw peak tick mark */    
+    } /* Draw the peak marks */
     
-    return(true);
-  } /* drawHistInCanvas */
+    else if(!calibHistFlag && activeBin!=-1)
+    { /* draw Peak marker in comp. window ROI if activeBin and hist exists */
+      col= getPlotColumn(activeBin);
+      if(col!=-1)
+      { /* draw active peak mark */
+        g.setColor(calibPeakColor);
+        x= 100+col;
+        y2= Math.max((355-sHist[col]),0);
+        y1= Math.max((y2-5),0);
+        g.drawLine(x,y1, x,(y2-1));
+      }
+    } /* draw Peak marker in comp. window ROI if activeBin and hist exists */
+    
+    /* [3] Show the active histogram bin if any */
+    g.setFont(largeFont);    
+    g.setColor(labelColor);
+    if(activeBin!=-1 && activeBin<hist.length)
+      g.drawString("Active histogram bin ["+activeBin+
+                   "], Frequency ["+hist[activeBin]+"]",
+                   130,460); 
+    else      
+      g.drawString("Active histogram bin ['not selected']",
+                   130,460); 
+  } /* drawOverlayLayer */
   
   
   /**
@@ -1559,8 +1830,10 @@ class DrawHistogram extends JFrame
         util.popupAlertMsg(msg, flk.alertColor);
         return;
       }
-      /* if activeBin!=-1, then add the peak to the peak table */
+      /* if activeBin!=-1, then add the peak to the peak table. Peaks 
+       * are kept in the [0:MAX_GRAY] gray value domain of the map. */
       int
+        activeGray= cvtBinToGray(activeBin),
         gI,
         idxJ= 0,
         nSteps= calib.maxPeaks;
@@ -1576,7 +1849,7 @@ class DrawHistogram extends JFrame
       for(int i=0; i<nSteps; i++)
       { /* look for the bin to insert the new peak */
         gI= calib.ndWedgeGrayValues[i];
-        if(activeBin==gI)
+        if(activeGray==gI)
         {
           String msg= "Ignoring this peak since already in the peak list."; 
           setStatusMsg(msg, Color.red);
@@ -1584,14 +1857,14 @@ class DrawHistogram extends JFrame
           return;
         }
         
-        if(activeBin<gI && i==0)
-        { /* insert activeBin in the FONT of the list */
-          tmpGV[idxJ++]= activeBin;
+        if(activeGray<gI && i==0)
+        { /* insert activeGray in the FONT of the list */
+          tmpGV[idxJ++]= activeGray;
           insertFlag= true;
         }
-        else if(!insertFlag && gI>activeBin)
-        { /* insert activeBin in the MIDDLE of the list */
-          tmpGV[idxJ++]= activeBin;
+        else if(!insertFlag && gI>activeGray)
+        { /* insert activeGray in the MIDDLE of the list */
+          tmpGV[idxJ++]= activeGray;
           insertFlag= true;
         }
         /* Always copy the one at the end */
@@ -1603,7 +1876,7 @@ class DrawHistogram extends JFrame
        */
       if(!insertFlag)
       {
-        tmpGV[idxJ++]= activeBin;
+        tmpGV[idxJ++]= activeGray;
         insertFlag= true;
       }
       /* Update the active peak list */
@@ -1634,6 +1907,7 @@ class DrawHistogram extends JFrame
       /* if activeBin!=-1, then remove the peak from the peak table */
       /* Shrink the list */  
       int
+        activeGray= cvtBinToGray(activeBin),
         gI,
         idxJ= 0,
         nSteps= calib.maxPeaks;
@@ -1642,7 +1916,7 @@ class DrawHistogram extends JFrame
       for(int i=0; i<nSteps; i++)
       { /* look for the bin to insert the new peak */
         gI= calib.ndWedgeGrayValues[i];
-        if(activeBin==gI)
+        if(activeGray==gI)
         { /* don't copy the deleted peak to the new list */
           deleteFlag= true;
           continue; 
@@ -1738,19 +2012,19 @@ class DrawHistogram extends JFrame
    * mouseHandler() - search for the active bin if any
    * @param x mouse position
    * @param y mouse position
-   * @return true if found it in the xPainted[] list and set activeBin 
-   *   to the index i in [0:255] else set activeBin to -1.
+   * @return true if x is over a painted plot column and set activeBin 
+   *   to the bin with the max frequency in that column, else set 
+   *   activeBin to -1.
    */
   public boolean mouseHandler(int x, int y)
   { /* mouseHandler */    
+    int col= x-100;
+    
     activeBin= -1;
-    for(int i=0;i<=255;i++)
-      if(x==xPainted[i])
-      { /* find closest point */
-        activeBin= i;
-        return(true);
-      }
-    return(false);
+    if(!plotColsValidFlag || col<0 || col>=PLOT_COLS || sHist[col]<=0)
+      return(false);
+    activeBin= colPeakBin[col];
+    return(true);
   } /* mouseHandler */
   
   
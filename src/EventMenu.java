@@ -8,6 +8,7 @@ import java.awt.event.ActionEvent;
 import java.util.*;
 import java.util.EventListener;
 import java.lang.*; 
+import java.io.*;
 import javax.swing.JComponent.*;
 import javax.swing.*;
 //import javax.swing.event.*;
@@ -186,6 +187,24 @@ public class EventMenu implements ItemListener, ActionListener
    } /* setWindmpRadixCheckbox */
   
   
+  /**
+   * setTiffGrayMapCheckbox() - set checkbox radio button
+   * and process event for TIFF > 8-bits gray mapping checkboxes
+   * @param mode is the mapping to set TiffLoader.GRAY_MAP_XXXX
+   */
+  public void setTiffGrayMapCheckbox(int mode)
+  { /* setTiffGrayMapCheckbox */
+    flk.tiffGrayMapMode= mode;
+    flk.useLogInputFlag= (mode==TiffLoader.GRAY_MAP_LOG);
+    bGui.mi_tiffGrayMapLinearCB.setState(mode==TiffLoader.GRAY_MAP_LINEAR);
+    bGui.mi_tiffGrayMapLogCB.setState(mode==TiffLoader.GRAY_MAP_LOG);
+    bGui.mi_tiffGrayMapGammaCB.setState(mode==TiffLoader.GRAY_MAP_GAMMA);
+    bGui.mi_tiffGrayMapWindowCB.setState(mode==TiffLoader.GRAY_MAP_WINDOW);
+    util.showMsg("Mapping Tiff file data > 8-bits by "+
+                 TiffLoader.getGrayMapName(mode), Color.black);
+  } /* setTiffGrayMapCheckbox */
+  
+  
   /**
    * setAccessServerDBcheckbox() - set checkbox radio button
    * afor server access DB
@@ -240,12 +259,41 @@ public class EventMenu implements ItemListener, ActionListener
 
     /* ............... CheckBoxeMenuItems ................ */
       
-    if(bGui.mi_useLogTIFFfilesCB==cbmItem)
-    { /* "Use linear else log of TIFF files > 8-bits" */
-      flk.useLogInputFlag= !cbmItem.getState();
-      util.showMsg(((flk.useLogInputFlag)
-                     ? "Taking log of Tiff file data > 8-bits"
-                     : "Scaling Tiff file data > 8 bits"),
+    if(bGui.mi_tiffGrayMapLinearCB==cbmItem)
+      setTiffGrayMapCheckbox(TiffLoader.GRAY_MAP_LINEAR);
+    else if(bGui.mi_tiffGrayMapLogCB==cbmItem)
+      setTiffGrayMapCheckbox(TiffLoader.GRAY_MAP_LOG);
+    else if(bGui.mi_tiffGrayMapGammaCB==cbmItem)
+      setTiffGrayMapCheckbox(TiffLoader.GRAY_MAP_GAMMA);
+    else if(bGui.mi_tiffGrayMapWindowCB==cbmItem)
+      setTiffGrayMapCheckbox(TiffLoader.GRAY_MAP_WINDOW);
+    
+    else if(bGui.mi_useTiffStreamingCB==cbmItem)
+    { /* "Stream large TIFF files by tiles" */
+      flk.useTiffStreamingFlag= cbmItem.getState();
+      util.showMsg(((flk.useTiffStreamingFlag)
+                     ? "Streaming large Tiff files by tiles"
+                     : "Reading all of large Tiff files"),
+                  Color.black);
+    }
+    
+    else if(bGui.mi_usePrefetchImagesCB==cbmItem)
+    { /* "Prefetch adjacent demo and user image pairs" */
+      flk.usePrefetchImagesFlag= cbmItem.getState();
+      if(!flk.usePrefetchImagesFlag)
+        flk.imgPrefetch.clear();
+      util.showMsg(((flk.usePrefetchImagesFlag)
+                     ? "Prefetching adjacent image pairs"
+                     : "Not prefetching adjacent image pairs"),
+                  Color.black);
+    }
+    
+    else if(bGui.mi_offlineModeCB==cbmItem)
+    { /* "Offline mode - use only cached Web data" */
+      flk.offlineModeFlag= cbmItem.getState();
+      util.showMsg(((flk.offlineModeFlag)
+                     ? "Offline mode - only using cached Web data"
+                     : "Online mode - reading Web data as needed"),
                   Color.black);
     }
    
@@ -529,6 +577,15 @@ public class EventMenu implements ItemListener, ActionListener
                    Color.black);
     }
     
+    else if(bGui.mi_Quant_UseSplineCalibFitCB==cbmItem)
+    { /* "Fit OD calibrations with a monotone spline" */
+      flk.useSplineCalibFitFlag= cbmItem.getState();
+      util.showMsg(((flk.useSplineCalibFitFlag)
+                     ? "Fitting new OD calibrations with a monotone spline"
+                     : "Fitting new OD calibrations piecewise linearly"),
+                  Color.black);
+    }
+    
     else if(bGui.mi_Quant_UseLeukemiaDemoCalibCB==cbmItem)
     { /* "Use demo leukemia gels ND wedge calibration preloads" */
       flk.useDemoLeukemiaCalPreFlag= cbmItem.getState();
@@ -659,7 +716,7 @@ public class EventMenu implements ItemListener, ActionListener
     flk.imagesToProcess= 0;
     if(extFctNbr>0)
     {
-      flk.xformName= flk.efName[extFctNbr];
+      flk.xformName= PluginMgr.efName[extFctNbr];
     }
     else
       flk.xformName= (String)cmd;   /* set the new xform name */
@@ -938,8 +995,12 @@ public class EventMenu implements ItemListener, ActionListener
         util.showMsg("Changing to two new demos images", Color.black);
         util.showMsg2("Left="+fDemo.imageURL1+", Right="+fDemo.imageURL2, 
                       Color.black);
+        /* Decode left and right in parallel, then install them */
+        flk.imgPrefetch.prefetchPair(fDemo.imageURL1, fDemo.imageURL2,
+                                     Thread.NORM_PRIORITY);
         imgIO.changeImageFromSpec(fDemo.imageURL1, "left", true,true);
         imgIO.changeImageFromSpec(fDemo.imageURL2, "right", true,true);
+        flk.imgPrefetch.prefetchAdjacentDemoPairs(idx);
       }
       else        
         util.showMsg("Illegal FlkDemoDB entry ["+cmd+"]", Color.red);
@@ -959,8 +1020,12 @@ public class EventMenu implements ItemListener, ActionListener
         util.showMsg("Changing to two new user images", Color.black);
         util.showMsg2("Left="+fUser.imageURL1+", Right="+fUser.imageURL2, 
                       Color.black);
+        /* Decode left and right in parallel, then install them */
+        flk.imgPrefetch.prefetchPair(fUser.imageURL1, fUser.imageURL2,
+                                     Thread.NORM_PRIORITY);
         imgIO.changeImageFromSpec(fUser.imageURL1, "left", true,true);
         imgIO.changeImageFromSpec(fUser.imageURL2, "right", true,true); 
+        flk.imgPrefetch.prefetchAdjacentUserPairs(idx);
         flk.activeImage= "both";           /* disable selected image */
         String 
           fmDbName= fUser.flkUsers[idx].subMenuName,
@@ -1075,6 +1140,8 @@ public class EventMenu implements ItemListener, ActionListener
           util.showMsg2("Left="+imageURL1+", Right="+imageURL2,
                         Color.black); 
           shutOffGuardRegion();
+          flk.imgPrefetch.prefetchPair(imageURL1, imageURL2,
+                                       Thread.NORM_PRIORITY);
           imgIO.changeImageFromSpec(imageURL1, "left",true,true);
           imgIO.changeImageFromSpec(imageURL2, "right",true,true);
           flk.activeImage= "both";           /* disable selected image */
@@ -1111,6 +1178,30 @@ public class EventMenu implements ItemListener, ActionListener
     } /* (Open Recent image URL "FR:<i>" to replace current image selected*/   
     
     
+    else if(cmd.startsWith("TP:"))
+    { /* (Open TIFF page "TP:<left or right>:<page>" to replace image */
+      int idx= cmd.lastIndexOf(":");
+      String 
+        leftRightStr= cmd.substring(3,idx),
+        imageFile= ("left".equals(leftRightStr)) 
+                      ? flk.imageFile1 : flk.imageFile2;
+      int page= Util.cvs2i(cmd.substring(idx+1),-1);
+      if(page>=0 && imageFile!=null)
+      { /* Go load the page from the TIFF page cache */
+        String pageSpec= TiffPageCache.makePageSpec(imageFile, page);
+        util.showMsg("Changing ["+leftRightStr+"] to TIFF page "+(page+1),
+                     Color.black);
+        util.showMsg2(pageSpec, Color.black);
+        shutOffGuardRegion();
+        imgIO.changeImageFromSpec(pageSpec,leftRightStr,false,true);
+      }
+      else        
+        util.showMsg("Illegal TIFF page entry ["+cmd+"]", Color.red);
+      flk.doFullRepaint();
+      return;
+    } /* (Open TIFF page "TP:<left or right>:<page>" to replace image */
+    
+    
     else if(cmd.equals("FlkRecent:Clear"))
     { /* (File | Open recent image | Clear all recent entries) */
       flk.fRecent.clear();
@@ -1337,6 +1428,75 @@ public class EventMenu implements ItemListener, ActionListener
       return;
     } /* "Save Transformed image" */ 
         
+    else if(cmd.equals("SavePNG:oImg") || cmd.equals("SavePNG:iImg"))
+    { /* "Save lossless PNG image" */ 
+      boolean saveOImgFlag= cmd.equals("SavePNG:oImg");
+      if(! leftOrRightSelectedFlag)
+      {
+        String msg= "First select right or left image.";
+        util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }
+      if(saveOImgFlag && (iData.oImg==null || !flk.allowXformFlag))
+      {
+        String msg= "You must transform the image first.";
+        util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }  
+      String
+        savePngFile= flk.userDir+"tmp"+flk.fileSeparator+
+                     ((saveOImgFlag) ? "SaveXformImage.png" 
+                                     : "SaveInputImage.png");  
+      if(!lastIS.savePngFile(savePngFile, saveOImgFlag, true))
+      {
+        String msg= "Problem saving lossless PNG image";
+        util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }
+      
+      return;
+    } /* "Save lossless PNG image" */ 
+    
+    else if(cmd.equals("ExportOverlayImgs"))
+    { /* "Export overlay images of both images (off-screen)" */
+      String sScale= flk.bGui.pdq.dialogQuery(
+                       "Enter output scale factor (e.g. 2 is twice image size)",
+                       "2");
+      if(sScale==null)
+        return;
+      float scale= Util.cvs2f(sScale, 0.0F);
+      if(scale<=0.0F || scale>16.0F)
+      {
+        String msg= "Scale factor must be in the range (0:16]";
+        util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }
+      String
+        tmpDir= flk.userDir+"tmp"+flk.fileSeparator,
+        fileNames[]= { tmpDir+"OverlayLeftImage.png",
+                       tmpDir+"OverlayRightImage.png" };
+      ImageData iDataList[]= { flk.iData1, flk.iData2 };
+      int
+        lmXlist[][]= { Landmark.x1, Landmark.x2 },
+        lmYlist[][]= { Landmark.y1, Landmark.y2 };
+      OverlayRenderer or= new OverlayRenderer(flk);
+      int nOK= or.renderFiles(iDataList, flk.allowXformFlag, 
+                              lmXlist, lmYlist, scale, fileNames);
+      if(nOK<iDataList.length)
+      { /* report each image that failed */
+        String msg= "Problem exporting overlay images -";
+        for(int i=0;i<iDataList.length;i++)
+          if(or.errMsgList[i]!=null)
+            msg += " "+((i==0) ? "Left" : "Right")+" image: "+
+                   or.errMsgList[i]+";";
+        util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }
+      util.showMsg("Exported overlay images to "+fileNames[0]+" and "+
+                   fileNames[1], Color.black);
+      return;
+    } /* "Export overlay images of both images (off-screen)" */
+        
     else if(cmd.equals("SaveOverlayImg"))
     { /* "SaveAs overlay image" */   
       String
@@ -1654,12 +1814,52 @@ public class EventMenu implements ItemListener, ActionListener
         util.popupAlertMsg(msg, flk.alertColor);
       }
       else
-      {
+      { /* repeat plugin too */
+        extFctNbr= PluginMgr.lookupFctNbr(flk.xformName);
         processTransform(flk.xformName, lastISName, extFctNbr);
       }
       return;
     }
     
+    else if(cmd.equals("Xform:chain"))
+    { /* Run a chain of transforms streamed tile by tile */
+      if(flk.doingXformFlag)
+      {
+        String msg= "Can't do new transform until "+ flk.xformName +
+                    " finishes.";
+        util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }
+      String spec= flk.bGui.pdq.dialogQuery(
+                     "Enter transforms to chain (e.g. Median, Max 3x3, Threshold)",
+                     TransformChain.lastChainSpec);
+      if(spec==null)
+        return;
+      TransformChain tc= new TransformChain(flk);
+      if(!tc.parse(spec))
+      {
+        util.popupAlertMsg(tc.errMsg, flk.alertColor);
+        return;
+      }
+      TransformChain.lastChainSpec= spec;
+      processTransform(TransformChain.CHAIN_PREFIX+spec, lastISName, 0);
+      return;
+    }
+    
+    else if(cmd.equals("Xform:cancelPlugin"))
+    { /* Cancel the running plugin transform */
+      if(!flk.doingXformFlag || 
+         (PluginMgr.lookupFctNbr(flk.xformName)==0 &&
+          !TransformChain.isChainName(flk.xformName)))
+      {
+        util.showMsg("No plugin or chain transform is running", Color.black);
+        return;
+      }
+      PluginMgr.cancel();
+      util.showMsg("Cancelling [" + flk.xformName + "]", Color.red);
+      return;
+    }
+    
     else if(cmd.equals("AffineWarp") || cmd.equals("PolyWarp"))
     { /* Do Warp transform */
       /*  Warp Affine or Polynomial Transform to I2 image
@@ -1841,6 +2041,128 @@ public class EventMenu implements ItemListener, ActionListener
         iData.idSL.clearSpotList();    
       } 
       
+      else if(cmd.equals("CircleExportSpotListText"))
+      { /* "Export spot list to text .spt file for selected image" */
+        ImageDataSpotList idSL= iData.idSL;
+        if(idSL.nSpots==0)
+        {
+          util.popupAlertMsg("There are no spots to export", flk.alertColor);
+          return;
+        }
+        String
+          iName= (iData==flk.iData1) ? "I1" : "I2",
+          sptFile= popup.popupFileDialog(
+                     util.rmvFileExtension(Spot.getSpotListFile(iData.imageFile))+
+                     "-text.spt",
+                     "Export spot list as text", false);
+        if(sptFile==null)
+          return;
+        if(Spot.writeSpotListFile(sptFile, iData.imageFile, iName, 
+                                  idSL.spotList, idSL.nSpots, true))
+          util.showMsg1("Exported "+idSL.nSpots+" spots to "+sptFile,
+                        Color.black);
+        else
+          util.popupAlertMsg("Problem writing "+sptFile, flk.alertColor);
+      }
+      
+      else if(cmd.equals("CircleDetectSpots"))
+      { /* "Detect spots automatically into spot list (in computing window if set)" */
+        SpotDetector sd= new SpotDetector(iData);
+        String
+          units= (iData.hasODmapFlag) ? iData.calib.unitsAbbrev : "gray-value",
+          msg= "Enter minimum spot peak height above background ("+units+")",
+          sDefault= util.cvf2s(sd.getDefaultMinPeakHeight(),3);
+        PopupTextFieldDialog ptfd= new PopupTextFieldDialog(flk,msg,sDefault);
+        if(!ptfd.okFlag)
+          return;
+        float minPeakHeight= util.cvs2f(ptfd.answer, -1.0F);
+        if(minPeakHeight<0.0F)
+        {
+          util.popupAlertMsg("Illegal peak height ["+ptfd.answer+"]", 
+                             flk.alertColor);
+          return;
+        }
+        Spot tmpSpotList[]= sd.detectSpots(minPeakHeight);
+        if(tmpSpotList==null)
+        {
+          util.popupAlertMsg("Can't detect spots - no image data.", 
+                             flk.alertColor);
+          return;
+        }
+        int nAdded= iData.idSL.addSpotsToSpotList(tmpSpotList,
+                                                   tmpSpotList.length);
+        util.showMsg1("Detected "+tmpSpotList.length+" spots ("+nAdded+
+                      " new) in ["+sd.x1+":"+(sd.x1+sd.w-1)+", "+sd.y1+
+                      ":"+(sd.y1+sd.h-1)+"] in "+sd.runTimeMsec+" msec",
+                      Color.black);
+        flk.repaint();
+      }
+      
+      else if(cmd.equals("CircleRemeasureSpotList"))
+      { /* "Re-measure all spots in the spot list for selected image" */
+        ImageDataSpotList idSL= iData.idSL;
+        if(idSL.nSpots==0)
+        {
+          util.popupAlertMsg("There are no spots to re-measure", 
+                             flk.alertColor);
+          return;
+        }
+        String msg= "Re-measure "+idSL.nSpots+
+                    " spots with circle radius (or 'same' for each spot's radius)";
+        PopupTextFieldDialog ptfd= new PopupTextFieldDialog(flk,msg,"same");
+        if(!ptfd.okFlag)
+          return;
+        int radius= (ptfd.answer.equalsIgnoreCase("same"))
+                      ? -1 : util.cvs2i(ptfd.answer, -2);
+        if(radius<-1 || radius>flk.MAX_CIRCLE_RADIUS)
+        {
+          util.popupAlertMsg("Illegal circle radius ["+ptfd.answer+"]", 
+                             flk.alertColor);
+          return;
+        }
+        long startTime= System.currentTimeMillis();
+        int nMeas= idSL.remeasureSpotList(radius);
+        if(nMeas<0)
+        {
+          util.popupAlertMsg("Can't re-measure spots - no image data.", 
+                             flk.alertColor);
+          return;
+        }
+        util.showMsg1("Re-measured "+nMeas+" of "+idSL.nSpots+" spots in "+
+                      (System.currentTimeMillis()-startTime)+" msec",
+                      Color.black);
+        flk.repaint();
+      }
+      
+      else if(cmd.equals("CircleImportSpotList"))
+      { /* "Import spot list from text or binary .spt file for selected image" */
+        ImageDataSpotList idSL= iData.idSL;
+        String
+          iName= (iData==flk.iData1) ? "I1" : "I2",
+          sptFile= popup.popupFileDialog(Spot.getSpotListFile(iData.imageFile),
+                                         "Import spot list", true);
+        if(sptFile==null)
+          return;
+        Spot tmpSpotList[]= Spot.readSpotListFile(sptFile, iName);
+        if(tmpSpotList==null)
+        {
+          util.popupAlertMsg("Can't read spot list "+sptFile, flk.alertColor);
+          return;
+        }
+        if(idSL.nSpots>0 && !idSL.clearSpotList())
+          return;                    /* did not want to replace the list */
+        int nSpots= tmpSpotList.length;
+        idSL.spotList= new Spot[Math.max(flk.MAX_SPOTS, nSpots)];
+        System.arraycopy(tmpSpotList, 0, idSL.spotList, 0, nSpots);
+        idSL.nSpots= nSpots;
+        for(int i=0;i<nSpots;i++)
+          idSL.measCtr= Math.max(idSL.measCtr, tmpSpotList[i].nbr);
+        idSL.changeSpotList= true;
+        util.showMsg1("Imported "+nSpots+" spots from "+sptFile,
+                      Color.black);
+        flk.repaint();
+      }
+      
       else if(cmd.equals("CircleLookupSpotListProtIDs"))
       { /* "Lookup Protein IDs and Names from active map server (selected image)" */
         if(! leftOrRightSelectedFlag)
@@ -1850,16 +2172,56 @@ public class EventMenu implements ItemListener, ActionListener
           return;
         } 
         boolean ok= iData.idSL.lookupProtIDandNameToSpotList(iData);
-        util.showMsg2("",Color.black);
         if(ok)
           util.showMsg1(
-            "Updated spot list protein ID and name from active map server.",
+            "Looking up spot list protein IDs and names (C-Q to stop).",
                          Color.black);
         else
           util.showMsg1(
             "Failed to update spot list protein ID & names from active map server.",
                          Color.black);
       }                  
+      
+      else if(cmd.equals("CircleImportAnnotationIndex") ||
+              cmd.equals("CircleRemoveAnnotationIndex"))
+      { /* "Import (Remove) active map spot annotation table (local index)" */
+        String clickCGIbaseURL= (iData==flk.iData1)
+                                  ? flk.clickableCGIbaseURL1
+                                  : flk.clickableCGIbaseURL2;
+        if(clickCGIbaseURL==null || clickCGIbaseURL.length()==0)
+        {
+          String msg= "There is no active image map Web server for this image.";
+          util.popupAlertMsg(msg, flk.alertColor);
+          return;
+        }
+        if(cmd.equals("CircleRemoveAnnotationIndex"))
+        {
+          if(AnnotationIndex.removeIndex(flk, clickCGIbaseURL))
+            util.showMsg1("Removed the local spot annotation index.",
+                          Color.black);
+          else
+            util.showMsg1("There is no local spot annotation index.",
+                          Color.black);
+          return;
+        }
+        
+        String
+          msg= "Enter file or http:// URL of tab-delimited (x,y,id,name) table";
+        PopupTextFieldDialog ptfd= new PopupTextFieldDialog(flk,msg,"");
+        if(!ptfd.okFlag || ptfd.answer.length()==0)
+          return;
+        AnnotationIndex ai= AnnotationIndex.importTable(flk, clickCGIbaseURL,
+                                                        ptfd.answer.trim());
+        if(ai==null)
+        {
+          msg= "Failed to import the spot annotation table "+ptfd.answer;
+          util.popupAlertMsg(msg, flk.alertColor);
+        }
+        else
+          util.showMsg1("Imported "+ai.nSpots+
+                        " spot annotations into the local index.", 
+                        Color.black);
+      }
              
       else if(cmd.equals("CircleListSpotsInSpotList"))
       { /* "List spots in the spot list" */
@@ -2017,36 +2379,78 @@ public class EventMenu implements ItemListener, ActionListener
       } /* see if one or both spots are defined */
     } /* Measure by circle | Edit selected spot from spot list */
        
-    else if(cmd.equals("ListPairedAnnMeanNormSpotList-tab-delim"))
-    { /* "List 'id'-paired annotated mean norm. spots in both spot lists (tab-delimited)" */
-      /* Normalize by the mean spot value of spots in each of the
-       * corresponding spot lists.
+    else if(cmd.equals("ListPairedAnnMeanNormSpotList-tab-delim") ||
+            cmd.equals("ListPairedAnnSpotList-tab-delim") ||
+            cmd.equals("ListPairedNearestSpotList-tab-delim") ||
+            cmd.equals("SavePairedAnnSpotList-tab-delim"))
+    { /* "List 'id'-paired annotated [mean norm.] spots in both spot lists 
+       * (tab-delimited)", "List nearest-neighbor paired spots ...", or
+       * "Save 'id'-paired annotated spots ... to file".
+       * Normalize by the mean spot value of spots in each of the
+       * corresponding spot lists only for the mean norm. report.
        */
-      boolean normByMeanSpotListFlag= true;
-      String sR= Spot.listPairedSpotListDataTabDelim(normByMeanSpotListFlag);
-      if(sR==null)
+      boolean normByMeanSpotListFlag= 
+                         cmd.equals("ListPairedAnnMeanNormSpotList-tab-delim");
+      int pairMode= (cmd.equals("ListPairedNearestSpotList-tab-delim"))
+                      ? SpotPairing.PAIR_BY_NEAREST : SpotPairing.PAIR_BY_ID;
+      
+      /* Pair the spots first so no file is made if there are no pairs */
+      SpotPairing sp= Spot.pairSpotLists(pairMode);
+      if(sp==null || sp.nPairs==0)
       {
-        String msg= "No paired spots with matching id's to report - check spot lists.";
+        String msg= (pairMode==SpotPairing.PAIR_BY_ID)
+          ? "No paired spots with matching id's to report - check spot lists."
+          : "No nearest-neighbor paired spots to report - check spot lists.";
         util.popupAlertMsg(msg, flk.alertColor);
+        return;
+      }
+      String zeroMeanMsg= "Can't normalize the paired spots table since "+
+                          "a spot list has a mean density of 0.";
+      if(normByMeanSpotListFlag && sp.getNormMeans()==null)
+      {
+        util.popupAlertMsg(zeroMeanMsg, flk.alertColor);
+        return;
+      }
+      
+      Writer w;
+      String saveFile= null;
+      if(cmd.equals("SavePairedAnnSpotList-tab-delim"))
+      { /* stream it to a file */
+        saveFile= popup.popupFileDialog(flk.userDir+"PairedSpots.txt",
+                                        "Save paired spots table", false);
+        if(saveFile==null)
+          return;
+        try
+        { w= new BufferedWriter(new FileWriter(saveFile)); }
+        catch(IOException ioe)
+        {
+          util.popupAlertMsg("Can't write "+saveFile, flk.alertColor);
+          return;
+        }
       }
       else
-        flk.util.appendReportMsg(sR);      
-      util.forceReportWindowPopup(); /* force append Report Window to popup*/
-    } /* "List paired annotated spots in the spot list - tab-delim" */
-       
-    else if(cmd.equals("ListPairedAnnSpotList-tab-delim"))
-    { /* "List 'id'-paired annotated spots in both spot lists (tab-delimited)" */
-      /* Do NOT normalize spot lists.  */
-      boolean normByMeanSpotListFlag= false;
-      String sR= Spot.listPairedSpotListDataTabDelim(normByMeanSpotListFlag);
-      if(sR==null)
-      {
-        String msg= "No paired spots with matching id's to report - check spot lists.";
+        w= new ReportWriter();      /* stream it to the report window */
+      
+      int nPairs= Spot.writePairedSpotListDataTabDelim(w, sp,
+                                                       normByMeanSpotListFlag);
+      try
+      { w.close(); }
+      catch(IOException ioe)
+      { nPairs= -1; }
+      
+      if(nPairs==SpotPairing.ZERO_NORM_MEAN)
+        util.popupAlertMsg(zeroMeanMsg, flk.alertColor);
+      else if(nPairs<=0)
+      {
+        String msg= "Problem writing the paired spots table"+
+                    ((saveFile!=null) ? (" to "+saveFile) : "");
         util.popupAlertMsg(msg, flk.alertColor);
       }
-      else
-        flk.util.appendReportMsg(sR);      
-      util.forceReportWindowPopup(); /* force append Report Window to popup*/
+      else if(saveFile!=null)
+        util.showMsg("Saved "+nPairs+" paired spots in "+saveFile, 
+                     Color.black);
+      if(saveFile==null)
+        util.forceReportWindowPopup(); /* force append Report Window to popup*/
     } /* "List paired annotated spots in the spot list - tab-delim" */
     
     /*  ......... QUANTIFY Menu | Measure by boundary submenu ....... */
@@ -2181,6 +2585,46 @@ public class EventMenu implements ItemListener, ActionListener
       return;
     } /* Calibrate OD step wedge*/
     
+    else if (cmd.equals("CalibODautoWedge"))
+    { /* Calibrate OD by auto-located step wedge in all images */
+      ImageData iDataList[]= {flk.iData1, flk.iData2};
+      int nCalibrated= 0;
+      String sR= "Calibrate by auto-located step wedge\n";
+      for(int i=0;i<iDataList.length;i++)
+      { /* calibrate image i */
+        ImageData id= iDataList[i];
+        if(id==null || id.iImg==null || id.calib==null)
+          continue;
+        long startTime= System.currentTimeMillis();
+        String 
+          sOK= id.calib.autoCalibrateWedge(id),
+          fileName= util.getFileNameFromPath(id.imageFile);
+        long runTime= System.currentTimeMillis() - startTime;
+        
+        sR += "  "+fileName+": ";
+        if(id.calib.lastWedge!=null && id.calib.lastWedge.nSteps>0)
+          sR += id.calib.lastWedge.toString()+
+                ", "+id.calib.maxPeaks+" peaks";
+        if(sOK==null)
+        { /* save the new calibration */
+          nCalibrated++;
+          boolean flag= util.writeCalibrationFile(id);
+          sR += (flag) ? ", calibrated and saved" 
+                       : ", calibrated but not saved";
+        }
+        else
+          sR += ", "+sOK;
+        sR += " ("+runTime+" msec)\n";
+      } /* calibrate image i */
+      
+      flk.util.appendReportMsg(sR+"\n");
+      util.showMsg("Calibrated "+nCalibrated+
+                   " image(s) by auto-located step wedge", Color.black);
+      flk.viewRoiFlag= true;
+      flk.repaint();
+      return;
+    } /* Calibrate OD by auto-located step wedge in all images */
+    
     else if (cmd.equals("CalibODspotList"))
     { /* Calibrate OD spot list */       
       if(! leftOrRightSelectedFlag)
@@ -642,6 +642,15 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
   /** Tiff image reader */
   public TiffLoader
     tr;
+  /** LRU cache of decoded TIFF pages */
+  public TiffPageCache
+    tpc;
+  /** Background image decoder and cache of decoded images */
+  public ImagePrefetcher
+    imgPrefetch;
+  /** Persistent on-disk cache of data read from Web URLs */
+  public UrlCache
+    urlCache;
   /** misc utility methods */
   public Util
     util;
@@ -804,9 +813,10 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
   public boolean
     abortFlag= false;
   /** Flag to stop spot list annotation lookup from proteomics Web server.
-   * The flag is set by typing C-Q and tested in the lookup loop.
+   * The flag is set by typing C-Q and tested by the AnnotationLookup
+   * worker threads.
    */
-  public boolean
+  public volatile boolean
     stopAnnotationUpdateFlag= false;
 
   /* ++++++ GUI view flags++++++ */
@@ -1029,9 +1039,37 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
   public int
    maxColsToPrint= 20;
   
-  /** "Use log of pixels if > 8-bits grayscale image" */
+  /** "Use log of pixels if > 8-bits grayscale image". This is the same
+   * as tiffGrayMapMode==TiffLoader.GRAY_MAP_LOG.
+   */
   public boolean
     useLogInputFlag= false;
+  /** Mapping of > 8-bits grayscale TIFF data to 8-bits, 
+   * TiffLoader.GRAY_MAP_xxxx
+   */
+  public int
+    tiffGrayMapMode= TiffLoader.GRAY_MAP_LINEAR;
+  /** gamma for the TiffLoader.GRAY_MAP_GAMMA mapping */
+  public float
+    tiffGrayGamma= 0.5F;
+  /** "Stream large TIFF files by tiles" rather than reading the whole
+   * raster. See TiffLoader.TIFF_STREAM_MIN_PIXELS.
+   */
+  public boolean
+    useTiffStreamingFlag= true;
+  /** "Prefetch adjacent demo and user image pairs" in the background */
+  public boolean
+    usePrefetchImagesFlag= true;
+  /** "Fit OD calibrations with a monotone spline" through the wedge
+   * peaks, else use piecewise linear extrapolation.
+   */
+  public boolean
+    useSplineCalibFitFlag= false;
+  /** "Offline mode - use only cached Web data" in the URL cache and
+   * don't access the network.
+   */
+  public boolean
+    offlineModeFlag= false;
   
   /** "Use sum density else mean" in measurements */
   public boolean
@@ -1228,6 +1266,12 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
     measCircleColor= Color.red;
     
     useLogInputFlag= false;
+    tiffGrayMapMode= TiffLoader.GRAY_MAP_LINEAR;
+    tiffGrayGamma= 0.5F;
+    useTiffStreamingFlag= true;
+    usePrefetchImagesFlag= true;
+    useSplineCalibFitFlag= false;
+    offlineModeFlag= false;
   
     viewLMSflag= true;
     viewTargetFlag= true;
@@ -1345,10 +1389,13 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
     startupDate= new Date(); /* for timing and data logging purposes */	
             
     /* [2.1] Setup other class instances */ 
+    urlCache= new UrlCache(this, userDir+"cache");
     cal= new CalibrateOD(this,0);
     windmp= new Windump(this);
     imgIO= new ImageIO(this,null); 
     tr= new TiffLoader(false);
+    tpc= new TiffPageCache();
+    imgPrefetch= new ImagePrefetcher(this);
     spt= new Spot(this);
         
     /* [3] Setup new list of landmarks for Image 1 and Image 2.
@@ -1371,9 +1418,10 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
     fUser= new FlkUser(this);      /* analyze Images/* directories and
                                     * setup the database of user images */
     
-    /* [5] Setup the Plugin Manager */
-    if(USE_PLUGINS)
-      piMgr= new PluginMgr(this);
+    /* [5] Setup the Plugin Manager. The builtin plugins are only
+     * used if USE_PLUGINS, the "plugins/" TilePlugins are always used.
+     */
+    piMgr= new PluginMgr(this);
         
     /* [6] Create empty ImageData objects */
     Dimension xyDim= new Dimension(0,0);
@@ -1799,6 +1847,10 @@ public class Flicker extends JFrame implements Runnable, ImageObserver,
     if(fRecent.flkRecentChangedFlag)
       fRecent.write();
     
+    /* Write out "cache/UrlCacheIndex.txt" with the access times */
+    if(urlCache!=null)
+      urlCache.saveIndex();
+    
     runT= null; /* use null this instead of Thread.stop(); */
     ixf1= null;
     ixf2= null;
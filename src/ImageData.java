@@ -166,6 +166,15 @@ public class ImageData
   public boolean 
     isClickableDBflag;
   
+  /** Tiff loader if the input image was streamed by tiles from a large
+   * TIFF file, else null. Then iImg is subsampled by 
+   * tiffStream.streamSubsample and full resolution pixels may be 
+   * gotten from tiffStream.sampleStreamRegion(). Set it with 
+   * setTiffStream() so the old stream is released.
+   */
+  public TiffLoader
+    tiffStream= null;
+  
   /** Index Color map */
   private IndexColorModel
     icm;		
@@ -219,6 +228,9 @@ public class ImageData
   /** Histogram of data [0:maxGray] */
   public int
     hist[];
+  /** cached whole image statistics, see getStats() */
+  private ImageStats
+    stats= null;
   
   /** generic ROI popup histogram for image */ 
   public DrawHistogram
@@ -392,6 +404,7 @@ public class ImageData
     
     bnd= null;	  	              /* will make it if and when need it */ 
     iPix= null;		                /* input image pixel data */
+    invalidateStats();
     flk.util.gcAndMemoryStats("Cleaned up old ImageData state"); 
     
     /* [2.1] Clear landmarks in the Image Scroller */
@@ -410,7 +423,7 @@ public class ImageData
     /* Set the image type */
     if(imageFile!=null)
     { /* set file type */
-      String nameLC= imageFile.toLowerCase();
+      String nameLC= TiffPageCache.getFileFromSpec(imageFile).toLowerCase();
       if(nameLC.endsWith(".gif"))
         imgType= IMG_TYPE_GIF;
       else if(nameLC.endsWith(".jpg"))
@@ -491,6 +504,8 @@ public class ImageData
     calib= null;	              /* will make it if and when need it */ 
     bnd= null;	  	              /* will make it if and when need it */ 
     iPix= null;		              /* input image pixel data */
+    invalidateStats();
+    setTiffStream(null);          /* set by loader if streamed */
     flk.util.gcAndMemoryStats("Cleaned up old ImageData state"); 
      
     /* [2] Copy new params */
@@ -511,7 +526,7 @@ public class ImageData
     yObj= -1;    
     errStr= "";		                 /* nothing */
     /* Set the image type */
-    String nameLC= iName.toLowerCase();
+    String nameLC= TiffPageCache.getFileFromSpec(iName).toLowerCase();
     if(nameLC.endsWith(".gif"))
       imgType= IMG_TYPE_GIF;
     else if(nameLC.endsWith(".jpg"))
@@ -547,6 +562,42 @@ public class ImageData
   } /* changeImageData */
    
   
+  /**
+   * getTargetScale() - get the scale factor to resize an image to target
+   * size if the w or h is outside the range [minTargetSize : 
+   * maxTargetSize] and (targetSize!=0). The (h/w) aspect ratio is kept.
+   * @param w is actual width
+   * @param h is actual height
+   * @param minTargetSize allowed 
+   * @param maxTargetSize allowed
+   * @param targetSize to set the image to if resizing and it is not 0
+   * @return scale factor, else 1.0 if no resizing is needed
+   */
+  public static float getTargetScale(int w, int h, int minTargetSize,
+                                     int maxTargetSize, int targetSize)
+  { /* getTargetScale */
+    if(targetSize==0 || /* do NOT allow resizing if this is 0 !!!! */
+       (w>=minTargetSize && h>=minTargetSize &&
+        w<=maxTargetSize && h<=maxTargetSize))
+      return(1.0F);
+    
+    float
+      f,
+      fH= (float)targetSize/(float)h,
+      fW= (float)targetSize/(float)w;
+    
+    if(fH>1.0 && fW>1.0)
+      f= Math.max(fH,fW);
+    else if(fH<1.0 && fW<1.0)
+      f= Math.min(fH,fW);
+    else if(fH<1.0 && fW>1.0)
+      f= (fH>1.0/fW) ? fH : fW;
+    else f= (fW>1.0/fW) ? fW : fH;
+    
+    return(f);
+  } /* getTargetScale */
+  
+  
   /**
    * resizeImageToTargetSize() - resize image to target size if the
    * w or h is outside the range [minTargetSize : maxTargetSize].
@@ -568,26 +619,13 @@ public class ImageData
     Image rImg= img;  /* The default is original image if no resizing */
     
     /* [TODO] test this code */
-    if(targetSize!=0 && /* do NOT allow resizing if this is 0 !!!! */
-       (w<minTargetSize || h<minTargetSize ||
-        w>maxTargetSize || h>maxTargetSize))
+    float f= getTargetScale(w, h, minTargetSize, maxTargetSize, 
+                            targetSize);
+    if(f!=1.0F)
     { /* resize it proportionately */
       int
         h1= h,
         w1= w;
-      float
-        f,
-        fH= (float)targetSize/(float)h1,
-        fW= (float)targetSize/(float)w1;
-      
-      if(fH>1.0 && fW>1.0)
-        f= Math.max(fH,fW);
-      else if(fH<1.0 && fW<1.0)
-        f= Math.min(fH,fW);
-      else if(fH<1.0 && fW>1.0)
-        f= (fH>1.0/fW) ? fH : fW;
-      else f= (fW>1.0/fW) ? fW : fH;
-      
       float fI= (float)1.0/f;
       int
         x2, y2,
@@ -754,6 +792,7 @@ public class ImageData
         iPix= null;
         flk.util.gcAndMemoryStats("checkAndMakeIpix(): before new iPix");         
         iPix= getPixelDataFromImage(useImage, iWidth, iHeight);   
+        invalidateStats();
         flk.util.gcAndMemoryStats("checkAndMakeIpix(): after new iPix");   
       }
     } /* try to allocate and populate iPix */   
@@ -922,11 +961,61 @@ public class ImageData
     }
     
     boolean flag= (isColorImgFlag && flk.useNTSCrgbTograyCvtFlag);
+    if(flag)
+      invalidateStats();                /* iPix[] changed in place */
     
     return(flag);
   } /* applyNTSCrgb2grayTransform */
   
   
+  /**
+   * getStats() - get the whole image statistics of the iPix[] data.
+   * They are computed once (in parallel) and kept until the iPix[] 
+   * data or pixelMask change or invalidateStats() is called.
+   * @return the statistics, null if there is no iPix[] data.
+   */
+  public synchronized ImageStats getStats()
+  { /* getStats */
+    int pix[]= iPix;
+    if(pix==null || pix.length<(iWidth*iHeight))
+      return(null);
+    if(stats==null || !stats.isValidFor(pix, pixelMask))
+      stats= ImageStats.computeStats(pix, iWidth, iHeight, pixelMask);
+    return(stats);
+  } /* getStats */
+  
+  
+  /**
+   * invalidateStats() - force the image statistics and the ROI 
+   * histogram to be recomputed. Call it when the iPix[] data is 
+   * changed in place.
+   */
+  public void invalidateStats()
+  { /* invalidateStats */
+    stats= null;
+    if(idM!=null && idM.roiHist!=null)
+      idM.roiHist.invalidate();
+  } /* invalidateStats */
+  
+  
+  /**
+   * setTiffStream() - set the streamed TIFF page of the image. ImageData
+   * is an owner of the page, so the old page is released (and closed if
+   * no cache still holds it) and the new one is retained.
+   * @param ts is the streamed TIFF page, null if none
+   */
+  public void setTiffStream(TiffLoader ts)
+  { /* setTiffStream */
+    if(ts==tiffStream)
+      return;
+    if(ts!=null)
+      ts.retain();
+    if(tiffStream!=null)
+      tiffStream.release();
+    tiffStream= ts;
+  } /* setTiffStream */
+  
+  
   /**
    * getImageForXformInput() - get the image for input to image transform.
    * If are not allowing image transforms (i.e. !flk.allowXformFlag), then
@@ -1039,6 +1128,7 @@ public class ImageData
     this.iPix= null;
     flk.util.gcAndMemoryStats("new iPix from origInputPixels"); 
     this.iPix= origInputPixels;
+    invalidateStats();
     this.nBitsPerPixel= 8;
     
     this.blackIsZeroFlag= blackIsZeroFlag;
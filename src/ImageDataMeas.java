@@ -59,6 +59,9 @@ public class ImageDataMeas
   /** List of total weights under each mask index by the mask radius */
   public static int
     maskTotWeight[];
+  /** Span (run-length) masks [0:nMasks] of the circle masks in maskNxN[] */
+  public static SpanMask
+    maskSpans[];
   
   /** Capture max pixel gray or OD value within mask */
   public float
@@ -66,6 +69,14 @@ public class ImageDataMeas
   /** Capture min pixel gray or OD value within mask */
   public float
     minGrayValue;
+  /** # of pixels measured by the last mask measurement. It is less
+   * than the mask area if the mask was clipped by the image edge.
+   */
+  public int
+    lastMaskArea= 0;
+  /** Set if the last mask measurement was clipped by the image edge */
+  public boolean
+    maskClippedFlag= false;
   
   /* ----  Current Spot ---- */
   /** Current spot set with showMeasValue if being measured. */
@@ -115,6 +126,30 @@ public class ImageDataMeas
   public float 
     minMeasGrayValue= -1.0F;
     
+  /** ROI histogram engine used by calcHistogram() */
+  public RoiHistogram
+    roiHist= null;
+  /** density LUT last made by getDensityLUT(), else null */
+  private float
+    densityLUT[]= null;
+  /** map densityLUT[] was made from */
+  private float
+    densityLUTmap[]= null;
+  /** hash of the map contents densityLUT[] was made from since the 
+   * 8-bit mapGrayToOD[] may be edited in place
+   */
+  private long
+    densityLUTmapKey;
+  /** pixelMask densityLUT[] was made with */
+  private int
+    densityLUTpixelMask;
+  /** blackIsZeroFlag densityLUT[] was made with */
+  private boolean
+    densityLUTblackIsZeroFlag;
+  
+  /** Capture "measurement" area in pixels, -1 if not measured */
+  public int 
+    measArea= -1;
   /** Capture "background" X coordinate */
   public int 
     bkgrdObjX= 0;
@@ -178,6 +213,7 @@ public class ImageDataMeas
     maxMeasGrayValue= -1.0F;
     minBkgrdGrayValue= -1.0F;
     minMeasGrayValue= -1.0F;
+    measArea= -1;
   } /* clean */
   
   
@@ -199,6 +235,7 @@ public class ImageDataMeas
     maskRadius= new int[nMasks+1];  
     maskArea= new int[nMasks+1]; 
     maskTotWeight= new int[nMasks+1]; 
+    maskSpans= new SpanMask[nMasks+1];
     
     int
       nR,
@@ -283,6 +320,7 @@ public class ImageDataMeas
        * for now
        */
       maskTotWeight[r]= calcMaskTotWeight(mask);
+      maskSpans[r]= SpanMask.fromDenseMask(mask, r, r);
       
       //if(flk.NEVER) System.out.println(cvMaskToStr(mask,"1.2 After fill"));
     } /* make the r'th mask */
@@ -405,7 +443,9 @@ public class ImageDataMeas
    * calcSumValuesUnderMask() - compute sum of pixel values under the mask
    * corresponding to the mask set by the current radius.
    * If the gray to OD map exists, then map it and return integrated OD.
-   * eturn -1 if mask intersects the edge of the image.
+   * If the mask intersects the edge of the image, only the part of the
+   * mask inside of the image is measured and lastMaskArea is the 
+   * partial area.
    * @param radius is mask radius to use (2*radius+1)
    * @param x0 center of the mask'ed data
    * @param y0 center of the mask'ed data 
@@ -417,90 +457,293 @@ public class ImageDataMeas
                                       int x0, int y0,
                                       boolean useTotDensityFlag)
   { /* calcSumValuesUnderMask */
-    int
-      nTot= 1,                    /* # of pixels in sum */
-      g= getPixelValue(x0,y0);
-    /* [TODO]: g is -1 then crashes. Only when viewDispGrayValuesFlag is set 
-     * to true in the .flk file. Need to add more code through out to check
-     * for -1 in indexes and other bad stuff. */
-    float
-      gMapped= (g>=0) ? id.mapGrayToOD[g] : 0, /* protect it */
-      tot= gMapped;    
-    
-    maxGrayValue= gMapped;        /* default max and min */
-    minGrayValue= gMapped;
-      
-    /* Compute the integrated intensity under the mask.
-     * May need to revise this if doing non-linear OD
-     * gray to OD mapping.
-     */
+    radius= Math.max(0, Math.min(radius, nMasks));
     if(radius>=1)
-    { /* compute tot intensity in the area under the circle */
       setCircleMaskRadius(radius, id);
-      
-      int
-        x= 0, 
-        y= 0,
-        xP, yP,
-        xM, yM,        
-        pixHeight,
-        pixWidth,        
-        nCirMask= flk.nCirMask,
-        nCirMaskSq= nCirMask*nCirMask,
-        circleMask[][]= flk.circleMask,
-        circleMaskRow[];     
-      
-      /* new w & h if zoomed otherwise orig img size */
-      if(id.mag!=1.0)
-      {
-        pixHeight= id.zoomedHeight;
-        pixWidth= id.zoomedWidth;
-      }
-      else
-      {
-        pixHeight= id.iWidth;
-        pixWidth= id.iHeight;
-      }
-      
-      /* return -1.0 if mask intersects the edge of the image */
-      if(x0-radius<0 || y0-radius<0 || 
-         (x0+radius)>=pixWidth|| (y0+radius)>=pixHeight)
-        return(-1.0F);
-      
-      nTot= 0;
-      tot= 0;
-      for(y=-radius;y<radius;y++)
-      { /* process a row */
-        yP= y+y0;
-        yM= y+radius;
-        circleMaskRow= circleMask[yM];
-        for(x= -radius; x<radius; x++)
-        { /* process a pixel */
-          xP= x+x0;
-          xM= x+radius;
-          if(circleMaskRow[xM]==0)
-            continue;                  /* ignore this pixel */
-          g= getPixelValue(xP, yP);    /* get gray(xP,yP) */
-          gMapped= id.mapGrayToOD[g];
-          
-          maxGrayValue= Math.max(gMapped, maxGrayValue);
-          minGrayValue= Math.min(gMapped, minGrayValue);
-          
-          tot += gMapped;              /* sum gray values */
-          nTot++;                      /* only count valid pixels */
-        } /* process a pixel */
-      } /* process a row */      
-    } /* compute tot intensity in the area under the circle */
-    
-    totGrayValue= tot;                 /* Always compute mean value */    
-    meanGrayValue= totGrayValue/nTot;  /* Always compute mean value */
-    if(! useTotDensityFlag)
-      tot= meanGrayValue;              /* return mean gray values */
-        
-    return(tot);
+    
+    return(calcSumValuesUnderSpanMask(maskSpans[radius], x0, y0,
+                                      useTotDensityFlag));
   } /* calcSumValuesUnderMask */
   
   
+  /**
+   * calcSumValuesUnderSpanMask() - compute sum of pixel values under 
+   * the span mask (circle or user-drawn mask) centered at 
+   * (x0,y0) in zoomed coordinates. If the gray to OD map exists, then 
+   * map it and return integrated OD. If the mask intersects the edge of
+   * the image, only the part of the mask inside of the image is measured.
+   * Sets totGrayValue, meanGrayValue, minGrayValue, maxGrayValue, 
+   * lastMaskArea and maskClippedFlag.
+   * @param sm is the span mask to use
+   * @param x0 center of the mask'ed data
+   * @param y0 center of the mask'ed data 
+   * @param useTotFlag to return total gray values else mean gray values.
+   * @return sum of pixels values, mapped to OD if map exists, else
+   *         return -1.0 if the mask is outside of the image or there 
+   *         is no image data.
+   */
+  public float calcSumValuesUnderSpanMask(SpanMask sm, int x0, int y0,
+                                          boolean useTotDensityFlag)
+  { /* calcSumValuesUnderSpanMask */
+    int
+      nTot,
+      iPix[]= id.iPix,
+      iWidth= id.iWidth,
+      iHeight= id.iHeight;
+    float 
+      lut[]= getDensityLUT(),
+      result[]= new float[4];
+    
+    lastMaskArea= 0;
+    maskClippedFlag= false;
+    if(iPix==null || lut==null || iPix.length<(iWidth*iHeight))
+      return(-1.0F);
+    
+    double
+      mag= Math.max(id.magVal, SliderState.MIN_ZOOM_MAG_VAL);
+      mag= Math.min(mag, SliderState.MAX_ZOOM_MAG_VAL);
+    if(mag==1.0)
+      nTot= sm.measure(iPix, iWidth, iHeight, id.pixelMask, lut, 
+                       x0, y0, result);
+    else
+      nTot= measureZoomedSpanMask(sm, x0, y0, mag, lut, result);
+    if(nTot==0)
+      return(-1.0F);                   /* mask is outside of the image */
+    
+    lastMaskArea= nTot;
+    maskClippedFlag= (nTot<sm.area);
+    minGrayValue= result[2];
+    maxGrayValue= result[3];
+    
+    totGrayValue= result[0];           /* Always compute mean value */    
+    meanGrayValue= totGrayValue/nTot;  /* Always compute mean value */
+    
+    return((useTotDensityFlag) ? totGrayValue : meanGrayValue);
+  } /* calcSumValuesUnderSpanMask */
+  
+  
+  /**
+   * measureZoomedSpanMask() - compute the density statistics under the
+   * span mask centered at (x0,y0) in zoomed coordinates. Each zoomed 
+   * pixel is mapped to the state pixel the same way as getPixelValue()
+   * but without allocating a Point per pixel. The mask is clipped to 
+   * the zoomed image.
+   * @param sm is the span mask to use
+   * @param x0 center of the mask in zoomed coordinates
+   * @param y0 center of the mask in zoomed coordinates
+   * @param mag is the zoom magnification
+   * @param lut is the density map from getDensityLUT()
+   * @param result is [0:3] set to {total, # pixels, min, max} density
+   * @return # of mask pixels inside of the image, 0 if none.
+   */
+  private int measureZoomedSpanMask(SpanMask sm, int x0, int y0, 
+                                    double mag, float lut[], 
+                                    float result[])
+  { /* measureZoomedSpanMask */
+    int
+      iPix[]= id.iPix,
+      iWidth= id.iWidth,
+      iHeight= id.iHeight,
+      pixelMask= id.pixelMask,
+      zWidth= (id.zoomedWidth>0) ? id.zoomedWidth : iWidth,
+      zHeight= (id.zoomedHeight>0) ? id.zoomedHeight : iHeight,
+      n= 0,
+      y, xa, xb, xS, row;
+    double
+      tot= 0.0;
+    float
+      v,
+      mn= Float.MAX_VALUE,
+      mx= -Float.MAX_VALUE;
+    
+    for(int k=0;k<sm.nSpans;k++)
+    { /* sum a span clipped to the image */
+      y= y0 + sm.dy[k];
+      if(y<0 || y>=zHeight)
+        continue;
+      row= Math.min((int)Math.round(y/mag), iHeight-1)*iWidth;
+      xa= Math.max(x0 + sm.dx1[k], 0);
+      xb= Math.min(x0 + sm.dx2[k], zWidth-1);
+      for(int x=xa;x<=xb;x++)
+      { /* process a pixel */
+        xS= Math.min((int)Math.round(x/mag), iWidth-1);
+        v= lut[iPix[row+xS] & pixelMask];
+        tot += v;
+        if(v<mn)
+          mn= v;
+        if(v>mx)
+          mx= v;
+        n++;
+      } /* process a pixel */
+    } /* sum a span clipped to the image */
+    
+    result[0]= (float)tot;
+    result[1]= n;
+    result[2]= (n>0) ? mn : 0.0F;
+    result[3]= (n>0) ? mx : 0.0F;
+    
+    return(n);
+  } /* measureZoomedSpanMask */
+  
+  
+  /**
+   * getDensityLUT() - get the lookup table mapping raw iPix[] pixel 
+   * values (masked by pixelMask) to density. It folds in the 
+   * blackIsZeroFlag complement done by getPixelValue() and the 
+   * mapGrayToOD[] map, so density= lut[iPix[idx] & pixelMask].
+   * If the calibration is a spline model, the full depth OD table
+   * for pixelMask is used instead of the 8-bit mapGrayToOD[]. Otherwise
+   * > 8-bit pixel values are scaled to the gray value range of the map
+   * the same way, see CalibrateOD.getGrayHistogram().
+   * The table is made again only if the map, its contents, pixelMask 
+   * or blackIsZeroFlag changed since the last call, so it is shared 
+   * and must not be changed.
+   * @return lut[0:pixelMask], null if there is no gray to OD map
+   */
+  public synchronized float[] getDensityLUT()
+  { /* getDensityLUT */
+    float map[]= id.mapGrayToOD;
+    if(map==null || map.length==0)
+      return(null);
+    long mapKey= 0;
+    float odLUT[]= (id.calib!=null && id.calib.mapGrayToOD==map)
+                     ? id.calib.getODlut(id.pixelMask) : null;
+    if(odLUT!=null)
+      map= odLUT;                     /* full depth spline table */
+    else
+    { /* the 8-bit map may be changed in place, so key its contents */
+      mapKey= 17;
+      for(int i=0;i<map.length;i++)
+        mapKey= 31*mapKey + Float.floatToIntBits(map[i]);
+    }
+    if(densityLUT!=null && map==densityLUTmap && 
+       mapKey==densityLUTmapKey &&
+       id.pixelMask==densityLUTpixelMask &&
+       id.blackIsZeroFlag==densityLUTblackIsZeroFlag)
+      return(densityLUT);
+    
+    int
+      g,
+      pixelMask= id.pixelMask,
+      mapMax= map.length-1;
+    float 
+      lut[]= new float[pixelMask+1],
+      scale= (pixelMask>mapMax) ? (float)mapMax/pixelMask : 1.0F;
+    for(int i=0;i<=pixelMask;i++)
+    {
+      g= (id.blackIsZeroFlag) ? (pixelMask - i) : i;
+      g= (int)(g*scale + 0.5F);
+      lut[i]= map[Math.min(g, mapMax)];
+    }
+    
+    densityLUT= lut;
+    densityLUTmap= map;
+    densityLUTmapKey= mapKey;
+    densityLUTpixelMask= pixelMask;
+    densityLUTblackIsZeroFlag= id.blackIsZeroFlag;
+    
+    return(lut);
+  } /* getDensityLUT */
+  
+  
+  /**
+   * measureMaskAt() - compute the density statistics under the circle
+   * mask of the radius centered at (x0,y0) in image (unzoomed) 
+   * coordinates by reading iPix[] directly. Unlike 
+   * calcSumValuesUnderMask(), it does not change the current mask or
+   * the measurement state so it may be called from several threads.
+   * If the mask intersects the edge of the image, only the part of the
+   * mask inside of the image is measured and result[1] is the partial
+   * area.
+   * @param radius is mask radius to use (2*radius+1)
+   * @param x0 center of the mask in image coordinates
+   * @param y0 center of the mask in image coordinates
+   * @param lut is the density map from getDensityLUT()
+   * @param result is [0:3] set to {total, # pixels, min, max} density
+   * @return false if the mask is outside of the image or there is no 
+   *         image data.
+   */
+  public boolean measureMaskAt(int radius, int x0, int y0, float lut[],
+                               float result[])
+  { /* measureMaskAt */
+    radius= Math.max(0, Math.min(radius, nMasks));
+    return(measureMaskAt(maskSpans[radius], x0, y0, lut, result));
+  } /* measureMaskAt */
+  
+  
+  /**
+   * measureMaskAt() - compute the density statistics under the span
+   * mask centered at (x0,y0) in image (unzoomed) coordinates by 
+   * reading iPix[] directly. It may be called from several threads.
+   * @param sm is the span mask to use
+   * @param x0 center of the mask in image coordinates
+   * @param y0 center of the mask in image coordinates
+   * @param lut is the density map from getDensityLUT()
+   * @param result is [0:3] set to {total, # pixels, min, max} density
+   * @return false if the mask is outside of the image or there is no 
+   *         image data.
+   */
+  public boolean measureMaskAt(SpanMask sm, int x0, int y0, float lut[],
+                               float result[])
+  { /* measureMaskAt */
+    int iPix[]= id.iPix;
+    if(iPix==null || lut==null || iPix.length<(id.iWidth*id.iHeight))
+      return(false);
+    
+    int n= sm.measure(iPix, id.iWidth, id.iHeight, id.pixelMask, lut,
+                      x0, y0, result);
+    return(n>0);
+  } /* measureMaskAt */
+  
+  
+  /**
+   * measureBkgrdAt() - estimate the local background density at 
+   * (x0,y0) in image (unzoomed) coordinates the way SpotDetector does:
+   * the SpotDetector.BKGRD_PERCENTILE of the density in the square 
+   * SpotDetector.BKGRD_TILE_SIZE tile centered at (x0,y0), clipped 
+   * to the image. It reads iPix[] directly and may be called from
+   * several threads.
+   * @param x0 center of the tile in image coordinates
+   * @param y0 center of the tile in image coordinates
+   * @param lut is the density map from getDensityLUT()
+   * @param buf is a work buffer of at least BKGRD_TILE_SIZE^2 
+   *        entries, or null to allocate one
+   * @return background density, Float.NaN if the tile is outside
+   *         of the image or there is no image data.
+   */
+  public float measureBkgrdAt(int x0, int y0, float lut[], float buf[])
+  { /* measureBkgrdAt */
+    int iPix[]= id.iPix;
+    if(iPix==null || lut==null || iPix.length<(id.iWidth*id.iHeight))
+      return(Float.NaN);
+    
+    int
+      w= id.iWidth,
+      h= id.iHeight,
+      pixelMask= id.pixelMask,
+      tileSize= Math.max(1, SpotDetector.BKGRD_TILE_SIZE),
+      x1= Math.max(0, x0 - tileSize/2),
+      y1= Math.max(0, y0 - tileSize/2),
+      x2= Math.min(w, x0 - tileSize/2 + tileSize),
+      y2= Math.min(h, y0 - tileSize/2 + tileSize),
+      n= 0;
+    if(x1>=x2 || y1>=y2)
+      return(Float.NaN);
+    if(buf==null || buf.length<(tileSize*tileSize))
+      buf= new float[tileSize*tileSize];
+    
+    for(int y=y1;y<y2;y++)
+      for(int idx=y*w+x1, end=y*w+x2;idx<end;idx++)
+        buf[n++]= lut[iPix[idx] & pixelMask];
+    
+    java.util.Arrays.sort(buf, 0, n);
+    int k= (int)(SpotDetector.BKGRD_PERCENTILE*(n-1));
+    k= Math.max(0, Math.min(k, n-1));
+    
+    return(buf[k]);
+  } /* measureBkgrdAt */
+  
+  
   /**
    * getPixelValue() - get the pixel value for the image at (x,y). 
    * Do not map grayscale to OD. That should be done by the caller.
@@ -793,6 +1036,7 @@ public class ImageDataMeas
     idM2.minMeasGrayValue= minGrayValue; 
     idM2.meanMeasGrayValue= meanGrayValue;  /* in case needed */
     idM2.totMeasGrayValue= totGrayValue;  /* in case needed */
+    idM2.measArea= (tot>=0) ? lastMaskArea : -1;
     
     return(idM2.measGrayValue);
   } /* captureMeasValue */
@@ -954,7 +1198,8 @@ public class ImageDataMeas
       bkgrd= 0,
       meas= 0,
       measPrime= 0;    
-    int area= maskArea[flk.measCircleRadius];
+    int area= (idM2.measArea>0) ? idM2.measArea : maskArea[flk.measCircleRadius];
+    boolean clippedFlag= (area<maskArea[flk.measCircleRadius]);
     
     boolean 
      oldUseTotDensityFlag= flk.useTotDensityFlag,
@@ -966,6 +1211,13 @@ public class ImageDataMeas
       bkgrdI= idM2.meanBkgrdGrayValue*size;     
       flk.useTotDensityFlag= true;
     }
+    else if(measMode.equals("circleMask") && flk.useTotDensityFlag &&
+            bkgrdI>=0)
+    { /* Total background over the measured, possibly edge clipped, area
+       * rather than over the background circle's own area.
+       */
+      bkgrdI= idM2.meanBkgrdGrayValue*area;
+    }
     
     /* Compute the measurement corrected for background or measPrime */
     if(hasValidODmap)
@@ -1027,7 +1279,8 @@ public class ImageDataMeas
                   util.cvf2s(idM2.meanBkgrdGrayValue,3)) + " "+
                   unitsAbbrev+"\n";
       sT += "   CircleMask: " + flk.nCirMask + "X" + flk.nCirMask +
-            " area: "+area+" pixels\n";
+            " area: "+area+" pixels" + 
+            ((clippedFlag) ? " (clipped by image edge)" : "") + "\n";
     }
     
     else if(measMode.equals("compROI"))
@@ -1077,8 +1330,10 @@ public class ImageDataMeas
        
   /**
    * calcHistogram() - compute grayscale histogram under the specified 
-   * computing window [x1:x2, y1:y2].
-   * The result is in this.hist[] which is created here.
+   * computing window [x1:x2, y1:y2] (inclusive, in image coordinates).
+   * The result is in id.hist[] which is created here. The histogram is
+   * computed by roiHist from the iPix[] data, incrementally if the 
+   * window overlaps the previous window.
    * @param x1 - ULHC x coordinate
    * @param y1 - ULHC y coordinate
    * @param x2 - LRHC x coordinate
@@ -1091,17 +1346,12 @@ public class ImageDataMeas
     if(! validCW)
       return(false);
     
-    id.hist= new int[id.pixelMask+1];    /* Create new zeroed histogram */
-    int 
-     x, 
-     g;
-    
-    for(int y=y1;y<y2;y++)
-      for(x=x1;x<x2;x++)
-      {
-        g= getPixelValue(x,y);
-        id.hist[g]++;
-      }
+    if(roiHist==null)
+      roiHist= new RoiHistogram(id);
+    int h[]= roiHist.getHistogram(x1, y1, x2, y2);
+    if(h==null)
+      return(false);
+    id.hist= h;
 
     return(true);
   } /* calcHistogram */
@@ -66,6 +66,19 @@ public class ImageDataSpotList
   /** # of measured spots used in SpotListBkup[] */
   public int
     nSpotsBackup= 0;  
+  
+  /** Spatial index of spotList[0:nSpots-1] by (xC,yC). It is rebuilt 
+   * by getSpotIndex() if spotList[] or nSpots were changed by other 
+   * than addUniqueSpotToSpotList().
+   */
+  private SpotIndex
+    spotIdx= null;
+  /** spotList[] that spotIdx indexes */
+  private Spot
+    indexedSpotList[]= null;
+  /** nSpots that spotIdx indexes */
+  private int
+    indexedNSpots= 0;
      
    
   /**
@@ -255,10 +268,130 @@ public class ImageDataSpotList
     /* take it out of the list */
     spotList[--nSpots]= null;
     
+    spotIdx= null;                  /* the list indices changed */
     changeSpotList= true;           /* we changed the spot list */
     
     return(true);
   } /* rmvSpotFromSpotList */
+  
+  
+  /**
+   * remeasureSpotList() - re-measure all of the spots in 
+   * spotList[0:nSpots-1] in one parallel pass using the current gray
+   * to OD map and flk.useTotDensityFlag. Each spot is measured under 
+   * the circle mask at (xC,yC) and its background under the same mask 
+   * at (xB,yB), reading iPix[] directly in image (unzoomed) coordinates.
+   * The values are computed the same way as showMeasValue(). Spots 
+   * without a separate background position (e.g., from SpotDetector) 
+   * have their background re-estimated at (xC,yC) under the current
+   * map with ImageDataMeas.measureBkgrdAt() so the spot and background
+   * densities are always in the same units. Masks crossing the edge 
+   * of the image are clipped to it and the spot area is the partial
+   * area inside of the image. Spots whose mask is outside of the 
+   * image are not changed.
+   * @param radius is the circle mask radius to use, or -1 to use 
+   *        each spot's circleRadius
+   * @return # of spots re-measured, -1 if there is no image data
+   */
+  public int remeasureSpotList(final int radius)
+  { /* remeasureSpotList */
+    final ImageDataMeas idM= id.idM;
+    final float lut[]= idM.getDensityLUT();
+    if(spotList==null || nSpots==0)
+      return(0);
+    if(id.iPix==null || lut==null)
+      return(-1);
+    
+    final Spot sList[]= spotList;
+    final int 
+      nBands= ParallelBands.getNbrBands(nSpots),
+      bandCnt[]= new int[nBands];
+    final boolean
+      hasODmapFlag= id.hasODmapFlag,
+      useTotDensityFlag= flk.useTotDensityFlag;
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int i1, int i2)
+        { /* re-measure spots [i1:i2-1] */
+          float
+            meas[]= new float[4],
+            bk[]= new float[4],
+            bkBuf[]= null;
+          for(int i=i1;i<i2;i++)
+          { /* re-measure a spot */
+            Spot s= sList[i];
+            int r= (radius>=0) ? radius : s.circleRadius;
+            r= Math.max(0, Math.min(r, Flicker.MAX_CIRCLE_RADIUS));
+            if(!idM.measureMaskAt(r, s.xC, s.yC, lut, meas))
+              continue;
+            
+            float
+              area= meas[1],
+              totDens= meas[0],
+              mnDens= totDens/area,
+              mnBkgrd= s.mnBkgrd,
+              dMaxBkgrd= s.dMaxBkgrd,
+              dMinBkgrd= s.dMinBkgrd;
+            boolean
+              hasBkgrdFlag= ((s.xB>0 || s.yB>0) && 
+                             (s.xB!=s.xC || s.yB!=s.yC));
+            if(hasBkgrdFlag)
+            { /* measure the background */
+              if(!idM.measureMaskAt(r, s.xB, s.yB, lut, bk))
+                continue;
+              mnBkgrd= bk[0]/bk[1];
+              dMinBkgrd= bk[2];
+              dMaxBkgrd= bk[3];
+            }
+            else if(s.xB<=0 && s.yB<=0)
+            { /* there is no background */
+              mnBkgrd= 0.0F;
+              dMinBkgrd= 0.0F;
+              dMaxBkgrd= 0.0F;
+            }
+            else
+            { /* re-estimate the local background under the new map */
+              if(bkBuf==null)
+                bkBuf= new float[SpotDetector.BKGRD_TILE_SIZE*
+                                 SpotDetector.BKGRD_TILE_SIZE];
+              float b= idM.measureBkgrdAt(s.xC, s.yC, lut, bkBuf);
+              if(Float.isNaN(b))
+                continue;
+              mnBkgrd= b;
+              dMinBkgrd= b;
+              dMaxBkgrd= b;
+            }
+            
+            float
+              density= (useTotDensityFlag) ? totDens : mnDens,
+              bkgrd= (useTotDensityFlag) ? mnBkgrd*area : mnBkgrd,
+              densPrime= density - bkgrd;
+            if(!hasODmapFlag)
+            { /* Grayscale - clip negative values as showMeasValue() */
+              density= Math.max(density, 0.0F);
+              bkgrd= Math.max(bkgrd, 0.0F);
+              densPrime= density - bkgrd;
+            }
+            
+            s.set(s.nGel, s.nbr, s.id, s.name, r, r, s.xC, s.yC, s.xB, s.yB,
+                  area, hasODmapFlag, useTotDensityFlag,
+                  density, densPrime, bkgrd,
+                  mnDens, totDens, (mnDens - mnBkgrd), mnBkgrd,
+                  meas[3], meas[2], dMaxBkgrd, dMinBkgrd);
+            bandCnt[band]++;
+          } /* re-measure a spot */
+        } /* re-measure spots [i1:i2-1] */
+      }.run(nSpots);
+    
+    int nMeas= 0;
+    for(int b=0;b<nBands;b++)
+      nMeas += bandCnt[b];
+    if(nMeas>0)
+      changeSpotList= true;
+    
+    return(nMeas);
+  } /* remeasureSpotList */
         
   
   /**
@@ -287,8 +420,11 @@ public class ImageDataSpotList
        {
          String pData[]= util.getProteinIDdataByXYurl(clickCGIbaseURL,
                                                       s.xC,s.yC,null);
-         s.id= pData[0];
-         s.name= pData[1];
+         if(pData!=null)
+         {
+           s.id= pData[0];
+           s.name= pData[1];
+         }
        }
        dataURL= flk.currentPRIbaseURL+s.id;
      } /* Map Swiss-Prot ID or name to PIR URL */
@@ -302,16 +438,26 @@ public class ImageDataSpotList
    * enabled the clickable DB checkbox, then search the clickableCGIbaseURL 
    * protein database for all spots in the spot list and for those
    * that have matches, update the Spot.id and Spot.name. If no
-   * match,then no change.
+   * match,then no change. The lookup is done asynchronously by an
+   * AnnotationLookup and the spots are updated as the results arrive.
    * @param iData is the gel image to update
-   * @return true if updated it, false if failed
+   * @return true if started the lookup, false if failed
    */
   public boolean lookupProtIDandNameToSpotList(ImageData iData)
   { /* lookupProtIDandNameToSpotList */    
-    /* [1] Clear flag to stop spot list annotation lookup from
+    /* [1] Only one lookup may run at a time since C-Q stops it. Then
+     * clear flag to stop spot list annotation lookup from
      * proteomics Web server. The flag is set by typing C-Q and 
      * tested in the lookup loop.
      */
+    if(AnnotationLookup.isActive())
+    {
+      util.showMsg1("A spot annotation lookup is already running.",
+                    Color.red);
+      util.showMsg2("Wait for it to finish or type Control/Q to stop it.",
+                    Color.black);
+      return(false);
+    }
     flk.stopAnnotationUpdateFlag= false;
     if(!flk.isClickableDBflag )
     {
@@ -353,42 +499,38 @@ public class ImageDataSpotList
       util.showMsg2("associated with this image.",Color.black);
       return(false);            /* there is no URL */
     }
+    
+    /* [3.1] If the map has a local spot annotation index, then
+     * annotate the whole list from it without any network access.
+     */
+    AnnotationIndex ai= AnnotationIndex.getIndex(flk, clickCGIbaseURL);
+    if(ai!=null)
+    {
+      int nFound= ai.annotateSpotList(spotList, nSpots);
+      util.showMsg1("Annotated "+nFound+" of "+nSpots+
+                    " spots from the local annotation index", Color.black);
+      util.showMsg2("", Color.black);
+      flk.repaint();
+      return(true);
+    }
        
     util.showMsg1("Type Control/Q to stop lookup of spot",
                    Color.black);
     util.showMsg2("annotations from proteomics Web server.",
                    Color.black);
     
-    /* [4] Process all of the spots in the spot list */
-    Spot s;
+    /* [4] Process all of the spots in the spot list in the background.
+     * The results are put into the spots as they arrive.
+     */
     flk.stopAnnotationUpdateFlag= false;
-    for(int i=0;i<nSpots;i++)
-    { /* get data from protein server */
-      if(flk.stopAnnotationUpdateFlag)
-      {
-        util.showMsg1(
-           "Stopping lookup of spot annotations from proteomics Web server.",
+    AnnotationLookup al= new AnnotationLookup(flk, clickCGIbaseURL,
+                                              spotList, nSpots);
+    if(!al.start())
+    {
+      util.showMsg1("A spot annotation lookup is already running.",
                     Color.red);
-        util.showMsg2("",Color.black);
-        break;
-      }
-      
-      s= spotList[i];
-      util.showMsg2("Processing spot #"+s.nbr+" at ("+s.xC+","+s.yC+")",
-                    Color.black);
-      String pData[]= util.getProteinIDdataByXYurl(clickCGIbaseURL,
-                                                   s.xC,s.yC,null);
-      if(pData!=null)
-      { /* found it */
-        s.name= pData[1];
-        s.id= pData[0];
-        util.showMsg2(" Spot #"+s.nbr+" Swiss-Prot ID="+s.id+" ["+s.name+"]", 
-                      Color.black);
-      }
-      else
-        util.showMsg2(" Spot #"+s.nbr+" was NOT found in active protein DB.",
-                      Color.red);
-    } /* get data from protein server */
+      return(false);
+    }
   
     return(true);
   } /* lookupProtIDandNameToSpotList */
@@ -448,9 +590,12 @@ public class ImageDataSpotList
     }
     else
     { /* search the spot list to see if spot is in the list */   
-      s= lookupSpotInSpotListByXY(xC, yC);
+      int e= lookupSpotEntryByXY(xC, yC);
+      s= spotIdx.getSpot(e);
       if(s!=null)
       { /* update an existing spot if +- 1 pixel in x and/or y */
+        if(!spotIdx.move(spotIdx.getIdx(e), xC, yC, s.xC, s.yC))
+          spotIdx= null;
         s.set(nGel, s.nbr, null, null, nCirMask, circleRadius, xC, yC, xB, yB, 
               area, isCalibFlag, useTotDensityFlag,
               density, densPrime, bkgrd,
@@ -471,24 +616,91 @@ public class ImageDataSpotList
       changeSpotList= true;
     }
     
-    /* Save spot in spotList. Create or grow the list if need be. */    
-    if(spotList==null)
-      spotList= new Spot[flk.MAX_SPOTS];
-    if(spotList.length>=(nSpots+1))
+    /* Save spot in spotList. Create or grow the list if need be.
+     * The list is doubled when full so adding spots is amortized O(1).
+     */    
+    SpotIndex sIdx= getSpotIndex();
+    if(nSpots>=spotList.length)
     { /* regrow list */
-      Spot tmp[]= new Spot[nSpots+flk.MAX_SPOTS];
-      for(int i=0;i<nSpots;i++)
-        tmp[i]= spotList[i];
+      Spot tmp[]= new Spot[Math.max(2*spotList.length, flk.MAX_SPOTS)];
+      System.arraycopy(spotList, 0, tmp, 0, nSpots);
       spotList= tmp;
     } /* regrow list */
     
-    /* Add new spot to the list */
+    /* Add new spot to the list and to its index */
     spotList[nSpots++]= s;
+    sIdx.add(s, s.xC, s.yC, nSpots-1);
+    indexedSpotList= spotList;
+    indexedNSpots= nSpots;
     
     return(s);
   } /* addUniqueSpotToSpotList */
   
   
+  /**
+   * addSpotsToSpotList() - merge a list of measured spots (e.g., from 
+   * SpotDetector) into the spot list. A spot within +- 2 pixels in x 
+   * and y (image coordinates) of an existing spot updates that spot's 
+   * measurements but keeps its spot number, id and name. Otherwise it
+   * is added as a new spot numbered with the next measurement counter.
+   * @param sList is the list of spots [0:n-1] to merge
+   * @param n is the # of spots in sList[]
+   * @return # of new spots added to the spot list
+   */
+  public int addSpotsToSpotList(Spot sList[], int n)
+  { /* addSpotsToSpotList */
+    int
+      minPixelDist= 2,
+      nAdded= 0;
+    Spot s, sOld;
+    
+    if(spotList==null)
+    { /* create initial spot list */
+      spotList= new Spot[Math.max(flk.MAX_SPOTS, n)];
+      nSpots= 0;
+    }
+    
+    for(int i=0;i<n;i++)
+    { /* merge spot i */
+      s= sList[i];
+      SpotIndex sIdx= getSpotIndex();
+      int e= sIdx.lookupInBox(s.xC, s.yC, minPixelDist);
+      sOld= sIdx.getSpot(e);
+      if(sOld!=null)
+      { /* update the existing spot */
+        if(!sIdx.move(sIdx.getIdx(e), s.xC, s.yC, sOld.xC, sOld.yC))
+          spotIdx= null;
+        sOld.set(s.nGel, sOld.nbr, sOld.id, sOld.name, s.nCirMask, 
+                 s.circleRadius, s.xC, s.yC, s.xB, s.yB, s.area, 
+                 s.isCalibFlag, s.useTotDensityFlag,
+                 s.density, s.densPrime, s.bkgrd,
+                 s.mnDens, s.totDens, s.mnDensPrime, s.mnBkgrd,
+                 s.dMax, s.dMin, s.dMaxBkgrd, s.dMinBkgrd);
+        continue;
+      }
+      
+      /* Add it as a new spot */
+      if(nSpots>=spotList.length)
+      { /* regrow list */
+        Spot tmp[]= new Spot[Math.max(2*spotList.length, flk.MAX_SPOTS)];
+        System.arraycopy(spotList, 0, tmp, 0, nSpots);
+        spotList= tmp;
+      } /* regrow list */
+      s.nbr= ++measCtr;
+      spotList[nSpots++]= s;
+      sIdx.add(s, s.xC, s.yC, nSpots-1);
+      indexedSpotList= spotList;
+      indexedNSpots= nSpots;
+      nAdded++;
+    } /* merge spot i */
+    
+    if(n>0)
+      changeSpotList= true;
+    
+    return(nAdded);
+  } /* addSpotsToSpotList */
+  
+  
   /**
    * lookupSpotInSpotListByXY() - lookup the spot in the spotList[0:nSpots-1]
    * if the (xC,yC) are +- 1 pixel in x and/or y.
@@ -498,7 +710,23 @@ public class ImageDataSpotList
    */
   public Spot lookupSpotInSpotListByXY(int xC, int yC)
   { /* lookupSpotInSpotListByXY */
-    Spot sTmp;
+    SpotIndex sIdx= getSpotIndex();
+    if(sIdx==null)
+      return(null);
+    return(sIdx.getSpot(lookupSpotEntryByXY(xC, yC)));
+  }  /* lookupSpotInSpotListByXY */
+  
+  
+  /**
+   * lookupSpotEntryByXY() - lookup the spot index entry of the first
+   * spot in the spotList[0:nSpots-1] if the (xC,yC) are +- 1 pixel in
+   * x and/or y.
+   * @param xC to test
+   * @param yC to test
+   * @return SpotIndex entry if found, else -1
+   */
+  private int lookupSpotEntryByXY(int xC, int yC)
+  { /* lookupSpotEntryByXY */
     int 
       minPixelDist= 2,
       tmpX= xC,
@@ -517,16 +745,76 @@ public class ImageDataSpotList
        tmpY= (int) Math.round(yDb);
     }      
     
-    for(int i=0;i<nSpots;i++)
-    { /* see if in current DB */
-      sTmp= spotList[i];
-      if(Math.abs(sTmp.xC-tmpX)<=minPixelDist && 
-         Math.abs(sTmp.yC-tmpY)<=minPixelDist)
-        return(sTmp);  /* found it */
+    /* Find the first spot in the list within the box */
+    SpotIndex sIdx= getSpotIndex();
+    if(sIdx==null)
+      return(-1);
+    return(sIdx.lookupInBox(tmpX, tmpY, minPixelDist));
+  }  /* lookupSpotEntryByXY */
+  
+  
+  /**
+   * lookupNearestSpotInSpotList() - lookup the nearest spot in the 
+   * spotList[0:nSpots-1] within maxDist pixels of (x,y) in image
+   * coordinates.
+   * @param x image coordinate
+   * @param y image coordinate
+   * @param maxDist is the max distance in pixels
+   * @return Spot if found, else null
+   */
+  public Spot lookupNearestSpotInSpotList(int x, int y, int maxDist)
+  { /* lookupNearestSpotInSpotList */
+    SpotIndex sIdx= getSpotIndex();
+    if(sIdx==null)
+      return(null);
+    return(sIdx.getSpot(sIdx.lookupNearest(x, y, maxDist)));
+  } /* lookupNearestSpotInSpotList */
+  
+  
+  /**
+   * lookupSpotsInSpotListByRadius() - lookup all spots in the 
+   * spotList[0:nSpots-1] within radius pixels of (x,y) in image
+   * coordinates.
+   * @param x image coordinate
+   * @param y image coordinate
+   * @param radius is the max distance in pixels
+   * @return Spot[] in spotList order, may be of length 0
+   */
+  public Spot[] lookupSpotsInSpotListByRadius(int x, int y, int radius)
+  { /* lookupSpotsInSpotListByRadius */
+    SpotIndex sIdx= getSpotIndex();
+    Vector v= (sIdx==null) ? new Vector() : sIdx.lookupRadius(x, y, radius);
+    Spot sR[]= new Spot[v.size()];
+    v.copyInto(sR);
+    return(sR);
+  } /* lookupSpotsInSpotListByRadius */
+  
+  
+  /**
+   * getSpotIndex() - get the spatial index of spotList[0:nSpots-1]. 
+   * Rebuild it if the list was replaced or changed since it was built.
+   * @return index, null if there is no spot list
+   */
+  public SpotIndex getSpotIndex()
+  { /* getSpotIndex */
+    if(spotList==null)
+      return(null);
+    if(spotIdx==null || indexedSpotList!=spotList || indexedNSpots!=nSpots)
+    { /* rebuild it */
+      spotIdx= new SpotIndex(spotList, nSpots);
+      indexedSpotList= spotList;
+      indexedNSpots= nSpots;
     }
-    
-    return(null);     /* not found */
-  }  /* lookupSpotInSpotListByXY */
+    return(spotIdx);
+  } /* getSpotIndex */
+  
+  
+  /**
+   * invalidateSpotIndex() - force the spatial index to be rebuilt when 
+   * next used. Call this after moving spots in spotList[].
+   */
+  public void invalidateSpotIndex()
+  { spotIdx= null; }
 
   
 } /* class ImageDataSpotList */
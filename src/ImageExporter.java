@@ -0,0 +1,590 @@
+/* File: ImageExporter.java */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+/**
+ * ImageExporter class writes a grayscale image as a lossless 8 or 16-bit
+ * PNG file. Unlike WriteGifEncoder, it is not limited to a 256 color
+ * palette so gray values deeper than 8-bits are preserved.
+ * The pixels are streamed from the pixel store a stripe of rows at a time
+ * (iPix[], the ImageProducer of an Image, or the tiles of a streamed 
+ * TIFF) so no full size intermediate Image is made. Each stripe is split
+ * into bands of rows that are filtered and deflated in parallel as 
+ * independent chunks of the zlib stream. The chunks end on a byte 
+ * boundary (Deflater.SYNC_FLUSH) so they may simply be concatenated,
+ * and their Adler-32 checksums are combined. E.g.,
+ *<PRE>
+ *   ImageExporter ie= new ImageExporter(iData.iPix, width, height, 8);
+ *   if(!ie.writePngFile(fileName))
+ *     ... ie.errMsg ...
+ *</PRE>
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class ImageExporter
+{ /* ImageExporter */
+  
+  /** # of rows in each band of a stripe, i.e. in each deflate chunk */
+  public static int
+    ROWS_PER_BAND= 128;
+  /** deflate compression level [1:9]. Higher levels are much slower
+   * on noisy 16-bit gels for only a few percent smaller files.
+   */
+  public static int
+    compressionLevel= 3;
+  /** max # of bytes in a PNG IDAT chunk */
+  private static final int
+    IDAT_SIZE= 262144;
+  /** size of the file output buffer */
+  private static final int
+    OUT_BUFFER_SIZE= 65536;
+  /** Adler-32 modulus */
+  private static final int
+    ADLER_BASE= 65521;
+  /** PNG file signature */
+  private static final byte
+    PNG_SIGNATURE[]= { (byte)137, 80, 78, 71, 13, 10, 26, 10 };
+  /** PNG row filter type Sub */
+  private static final int
+    FILTER_SUB= 1;
+  
+  /** width of the image */
+  public int
+    width;
+  /** height of the image */
+  public int
+    height;
+  /** # of significant bits/pixel, e.g. 8, 12 or 16 */
+  public int
+    nBits;
+  /** PNG bit depth, 8 or 16 */
+  public int
+    bitDepth;
+  /** error message if the write failed, else null */
+  public String
+    errMsg= null;
+  /** # of milliseconds of the last write */
+  public int
+    runTimeMsec= 0;
+  /** # of bytes in the last file written */
+  public long
+    nBytesWritten= 0;
+  
+  /** source gray pixels [width*height] if not null */
+  private int
+    srcPix[]= null;
+  /** source Image, streamed by stripes of rows, if not null */
+  private Image
+    srcImg= null;
+  /** source streamed TIFF, read by stripes of rows, if not null */
+  private TiffLoader
+    srcTiff= null;
+  /** mask for the gray value of the source pixels */
+  private int
+    grayMask;
+  /** left shift of the gray values to the PNG bit depth, the sBIT 
+   * chunk gives the # of significant bits for a reader to shift back
+   */
+  private int
+    sampleShift;
+  
+  /** rows of gray values from fetchRows() */
+  private int
+    rowBuf[];
+  /** offset of the first row in rowBuf[] */
+  private int
+    rowBufOffset;
+  
+  /** PNG output stream for the current write */
+  private OutputStream
+    out;
+  /** IDAT data not written yet */
+  private byte
+    idatBuf[];
+  /** # of bytes in idatBuf[] */
+  private int
+    idatLth;
+  
+  
+  /**
+   * ImageExporter() - Constructor for pixel array with the gray value 
+   * in the low nBits bits, e.g. iData.iPix[]. 
+   * After creating the class, use writePngFile() to write the file.
+   * @param pix is the pixel data [width*height]
+   * @param width of the image
+   * @param height of the image
+   * @param nBits is the # of bits/pixel [1:16]
+   */
+  public ImageExporter(int pix[], int width, int height, int nBits)
+  { /* ImageExporter */
+    srcPix= pix;
+    setSize(width, height, nBits);
+  } /* ImageExporter */
+  
+  
+  /**
+   * ImageExporter() - Constructor for 8-bit grayscale Image. The
+   * gray value is taken from the blue channel as with iPix[].
+   * The image is assumed to be fully loaded. Stripes of rows are 
+   * grabbed from its ImageProducer as they are written.
+   * After creating the class, use writePngFile() to write the file.
+   * @param img is the image
+   */
+  public ImageExporter(Image img)
+  { /* ImageExporter */
+    srcImg= img;
+    setSize(img.getWidth(null), img.getHeight(null), 8);
+  } /* ImageExporter */
+  
+  
+  /**
+   * ImageExporter() - Constructor for the full resolution, full depth
+   * gray values of a streamed TIFF page. Stripes of rows are decoded 
+   * from its tiles as they are written.
+   * After creating the class, use writePngFile() to write the file.
+   * @param ts is the streamed TiffLoader with 1 sample/pixel
+   */
+  public ImageExporter(TiffLoader ts)
+  { /* ImageExporter */
+    srcTiff= ts;
+    setSize(ts.nCols, ts.nRows, ts.nBitsPerPixel);
+  } /* ImageExporter */
+  
+  
+  /**
+   * setSize() - set the image size, depth and gray value mask
+   * @param width of the image
+   * @param height of the image
+   * @param nBits is the # of bits/pixel 
+   */
+  private void setSize(int width, int height, int nBits)
+  { /* setSize */
+    this.width= width;
+    this.height= height;
+    this.nBits= Math.max(1, Math.min(16, nBits));
+    bitDepth= (this.nBits<=8) ? 8 : 16;
+    grayMask= (1 << this.nBits)-1;
+    sampleShift= bitDepth - this.nBits;
+  } /* setSize */
+  
+  
+  /**
+   * writePngFile() - write the image as a lossless grayscale PNG file
+   * @param fileName is full path of file name to be written
+   * @return true if succeed, else false and errMsg is set.
+   */
+  public boolean writePngFile(String fileName)
+  { /* writePngFile */
+    long startTime= System.currentTimeMillis();
+    FileOutputStream fos= null;
+    errMsg= null;
+    
+    if(width<=0 || height<=0 ||
+       (srcPix==null && srcImg==null && srcTiff==null))
+    {
+      errMsg= "No image to save";
+      return(false);
+    }
+    
+    try
+    { /* do it */
+      fos= new FileOutputStream(fileName);
+      out= new BufferedOutputStream(Channels.newOutputStream(fos.getChannel()),
+                                    OUT_BUFFER_SIZE);
+      writePng();
+      out.flush();
+      nBytesWritten= fos.getChannel().size();
+      fos.close();
+    } /* do it */
+    catch (Exception e)
+    {
+      errMsg= "Can't write PNG file ["+fileName+"] "+e;
+      try
+      {
+        if(fos!=null)
+          fos.close();
+      }
+      catch (IOException e2)
+      {
+      }
+    }
+    
+    out= null;
+    rowBuf= null;
+    idatBuf= null;
+    runTimeMsec= (int)(System.currentTimeMillis()-startTime);
+    
+    return(errMsg==null);
+  } /* writePngFile */
+  
+  
+  /**
+   * writePng() - write the PNG stream to out
+   * @throws IOException if error
+   */
+  private void writePng() throws IOException
+  { /* writePng */
+    /* [1] Write the signature and header chunks */
+    out.write(PNG_SIGNATURE);
+    
+    ByteArrayOutputStream hdr= new ByteArrayOutputStream(13);
+    DataOutputStream dos= new DataOutputStream(hdr);
+    dos.writeInt(width);
+    dos.writeInt(height);
+    dos.writeByte(bitDepth);
+    dos.writeByte(0);               /* grayscale */
+    dos.writeByte(0);               /* deflate */
+    dos.writeByte(0);               /* adaptive filtering */
+    dos.writeByte(0);               /* not interlaced */
+    dos.flush();
+    writeChunk("IHDR", hdr.toByteArray(), 0, hdr.size());
+    
+    if(nBits!=bitDepth)
+    { /* save the # of significant bits, e.g. 12-bit data */
+      byte sBIT[]= { (byte)nBits };
+      writeChunk("sBIT", sBIT, 0, 1);
+    }
+    
+    /* [2] Write the zlib stream in IDAT chunks. The header is 
+     * followed by the deflated stripes and the Adler-32 of all 
+     * the filtered rows.
+     */
+    idatBuf= new byte[IDAT_SIZE];
+    idatLth= 0;
+    writeIDAT(getZlibHeader(), 0, 2);
+    
+    final int
+      bytesPerPixel= bitDepth/8,
+      rowLth= 1 + width*bytesPerPixel,
+      stripeRows= ROWS_PER_BAND*ParallelBands.maxThreads;
+    long
+      adler= 1;                     /* Adler-32 of an empty stream */
+    
+    for(int yS=0; yS<height; yS+=stripeRows)
+    { /* process a stripe */
+      final int
+        nRows= Math.min(stripeRows, height-yS),
+        nBands= ParallelBands.getNbrBands(nRows);
+      final boolean
+        lastStripeFlag= ((yS+nRows)==height);
+      final byte
+        zBand[][]= new byte[nBands][];
+      final long
+        bandAdler[]= new long[nBands];
+      final int
+        bandLth[]= new int[nBands];
+      
+      if(!fetchRows(yS, yS+nRows))
+        throw(new IOException("Can't get image rows ["+yS+":"+
+                              (yS+nRows-1)+"]"));
+      
+      /* [2.1] Filter and deflate the bands of the stripe in parallel */
+      new ParallelBands()
+        {
+          public void doBand(int band, int y1, int y2)
+          { /* doBand */
+            byte raw[]= filterRows(y1, y2, bytesPerPixel, rowLth);
+            Adler32 a32= new Adler32();
+            a32.update(raw, 0, raw.length);
+            bandAdler[band]= a32.getValue();
+            bandLth[band]= raw.length;
+            
+            boolean lastBandFlag= (lastStripeFlag && y2==nRows);
+            zBand[band]= deflateChunk(raw, lastBandFlag);
+          } /* doBand */
+        }.run(nRows);
+      
+      /* [2.2] Write the chunks in order */
+      for(int band=0;band<nBands;band++)
+      {
+        writeIDAT(zBand[band], 0, zBand[band].length);
+        adler= combineAdler32(adler, bandAdler[band], bandLth[band]);
+        zBand[band]= null;
+      }
+    } /* process a stripe */
+    
+    byte trailer[]= { (byte)(adler >> 24), (byte)(adler >> 16),
+                      (byte)(adler >> 8), (byte)adler };
+    writeIDAT(trailer, 0, 4);
+    flushIDAT();
+    
+    /* [3] Write the end chunk */
+    writeChunk("IEND", new byte[0], 0, 0);
+  } /* writePng */
+  
+  
+  /**
+   * getZlibHeader() - get the 2 byte zlib header. The FLEVEL bits 
+   * note the compression level used.
+   * @return zlib header
+   */
+  private static byte[] getZlibHeader()
+  { /* getZlibHeader */
+    int flg;
+    if(compressionLevel<=1)
+      flg= 0x01;                    /* fastest */
+    else if(compressionLevel<=5)
+      flg= 0x5e;                    /* fast */
+    else if(compressionLevel==6)
+      flg= 0x9c;                    /* default */
+    else
+      flg= 0xda;                    /* maximum */
+    byte zHdr[]= { (byte)0x78, (byte)flg };
+    return(zHdr);
+  } /* getZlibHeader */
+  
+  
+  /**
+   * fetchRows() - get the gray values of rows [y1:y2-1] into rowBuf[]
+   * starting at rowBufOffset.
+   * @param y1 is first row
+   * @param y2 is one past the last row
+   * @return true if succeed
+   */
+  private boolean fetchRows(int y1, int y2)
+  { /* fetchRows */
+    int nRows= y2-y1;
+    
+    if(srcPix!=null)
+    { /* use the pixels in place */
+      rowBuf= srcPix;
+      rowBufOffset= y1*width;
+      return(true);
+    }
+    
+    rowBufOffset= 0;
+    if(rowBuf==null || rowBuf.length<width*nRows)
+      rowBuf= new int[width*nRows];
+    
+    if(srcTiff!=null)
+    { /* decode the full depth samples of the rows */
+      int pix[]= srcTiff.getStreamGrayRows(y1, y2, rowBuf);
+      return(pix!=null);
+    }
+    
+    /* Grab the rows from the Image's producer */
+    PixelGrabber pg= new PixelGrabber(srcImg, 0, y1, width, nRows,
+                                      rowBuf, 0, width);
+    try
+    {
+      if(!pg.grabPixels())
+        return(false);
+    }
+    catch (InterruptedException e)
+    {
+      return(false);
+    }
+    return((pg.status() & ImageObserver.ABORT)==0);
+  } /* fetchRows */
+  
+  
+  /**
+   * filterRows() - make the PNG filtered scan lines for stripe rows 
+   * [y1:y2-1] of rowBuf[]. Each row uses the Sub filter which only 
+   * depends on the same row so the bands are independent. Gray values
+   * with fewer bits than the bit depth are shifted to the high bits as
+   * required by the sBIT chunk.
+   * @param y1 is first row relative to the stripe
+   * @param y2 is one past the last row relative to the stripe
+   * @param bytesPerPixel is 1 or 2
+   * @param rowLth is # of bytes in a filtered row including filter type
+   * @return filtered rows
+   */
+  private byte[] filterRows(int y1, int y2, int bytesPerPixel, int rowLth)
+  { /* filterRows */
+    byte raw[]= new byte[(y2-y1)*rowLth];
+    int
+      mask= grayMask,
+      shift= sampleShift,
+      w= width,
+      src,
+      dst= 0,
+      g,
+      prevG,
+      x;
+    
+    for(int y=y1;y<y2;y++)
+    { /* filter a row */
+      src= rowBufOffset + y*w;
+      raw[dst++]= (byte)FILTER_SUB;
+      prevG= 0;
+      if(bytesPerPixel==1)
+        for(x=0;x<w;x++)
+        { /* 8-bit Sub */
+          g= (rowBuf[src++] & mask) << shift;
+          raw[dst++]= (byte)(g - prevG);
+          prevG= g;
+        }
+      else
+        for(x=0;x<w;x++)
+        { /* 16-bit Sub, each byte minus the same byte of prev. pixel */
+          g= (rowBuf[src++] & mask) << shift;
+          raw[dst++]= (byte)((g >> 8) - (prevG >> 8));
+          raw[dst++]= (byte)(g - prevG);
+          prevG= g;
+        }
+    } /* filter a row */
+    
+    return(raw);
+  } /* filterRows */
+  
+  
+  /**
+   * deflateChunk() - deflate a chunk of the zlib stream. A chunk
+   * ends with an empty stored block so it ends on a byte boundary 
+   * and the next chunk may follow it. The last chunk ends the stream.
+   * @param raw is the data to deflate
+   * @param lastChunkFlag is set for the last chunk
+   * @return the raw deflate data (no zlib header or trailer)
+   */
+  private static byte[] deflateChunk(byte raw[], boolean lastChunkFlag)
+  { /* deflateChunk */
+    Deflater def= new Deflater(compressionLevel, true /* nowrap */);
+    ByteArrayOutputStream bos= new ByteArrayOutputStream(raw.length/2+64);
+    byte buf[]= new byte[65536];
+    int n;
+    
+    def.setInput(raw, 0, raw.length);
+    if(lastChunkFlag)
+    { /* end the stream */
+      def.finish();
+      while(!def.finished())
+      {
+        n= def.deflate(buf, 0, buf.length);
+        bos.write(buf, 0, n);
+      }
+    }
+    else
+    { /* flush to a byte boundary */
+      do
+      {
+        n= def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+        bos.write(buf, 0, n);
+      }
+      while(n==buf.length);
+    }
+    def.end();
+    
+    return(bos.toByteArray());
+  } /* deflateChunk */
+  
+  
+  /**
+   * combineAdler32() - combine the Adler-32 of two consecutive 
+   * sequences of data as zlib's adler32_combine().
+   * @param adler1 is Adler-32 of the first sequence
+   * @param adler2 is Adler-32 of the second sequence
+   * @param len2 is the length of the second sequence
+   * @return Adler-32 of the concatenated sequences
+   */
+  static long combineAdler32(long adler1, long adler2, long len2)
+  { /* combineAdler32 */
+    long
+      rem= len2 % ADLER_BASE,
+      sum1= (adler1 & 0xffff),
+      sum2= (rem*sum1) % ADLER_BASE;
+    
+    sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) +
+            ADLER_BASE - rem;
+    if(sum1>=ADLER_BASE)
+      sum1 -= ADLER_BASE;
+    if(sum1>=ADLER_BASE)
+      sum1 -= ADLER_BASE;
+    if(sum2>=(ADLER_BASE << 1))
+      sum2 -= (ADLER_BASE << 1);
+    if(sum2>=ADLER_BASE)
+      sum2 -= ADLER_BASE;
+    
+    return(sum1 | (sum2 << 16));
+  } /* combineAdler32 */
+  
+  
+  /**
+   * writeIDAT() - add zlib stream data to the IDAT chunks, writing
+   * full IDAT chunks as they fill.
+   * @param data to write
+   * @param off is offset in data
+   * @param lth is # of bytes to write
+   * @throws IOException if error
+   */
+  private void writeIDAT(byte data[], int off, int lth) throws IOException
+  { /* writeIDAT */
+    while(lth>0)
+    {
+      int n= Math.min(lth, IDAT_SIZE-idatLth);
+      System.arraycopy(data, off, idatBuf, idatLth, n);
+      idatLth += n;
+      off += n;
+      lth -= n;
+      if(idatLth==IDAT_SIZE)
+        flushIDAT();
+    }
+  } /* writeIDAT */
+  
+  
+  /**
+   * flushIDAT() - write the pending IDAT data if any as a chunk
+   * @throws IOException if error
+   */
+  private void flushIDAT() throws IOException
+  { /* flushIDAT */
+    if(idatLth>0)
+      writeChunk("IDAT", idatBuf, 0, idatLth);
+    idatLth= 0;
+  } /* flushIDAT */
+  
+  
+  /**
+   * writeChunk() - write a PNG chunk: length, type, data and CRC
+   * @param type is the 4 character chunk type
+   * @param data of the chunk
+   * @param off is offset in data
+   * @param lth is # of bytes of data
+   * @throws IOException if error
+   */
+  private void writeChunk(String type, byte data[], int off, int lth)
+    throws IOException
+  { /* writeChunk */
+    byte typeBytes[]= type.getBytes("ISO-8859-1");
+    CRC32 crc= new CRC32();
+    crc.update(typeBytes, 0, 4);
+    crc.update(data, off, lth);
+    
+    writeInt(lth);
+    out.write(typeBytes, 0, 4);
+    out.write(data, off, lth);
+    writeInt((int)crc.getValue());
+  } /* writeChunk */
+  
+  
+  /**
+   * writeInt() - write a 32-bit big endian integer
+   * @param v is value to write
+   * @throws IOException if error
+   */
+  private void writeInt(int v) throws IOException
+  { /* writeInt */
+    out.write((v >> 24) & 0xff);
+    out.write((v >> 16) & 0xff);
+    out.write((v >> 8) & 0xff);
+    out.write(v & 0xff);
+  } /* writeInt */
+  
+} /* End of class ImageExporter */
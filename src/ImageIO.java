@@ -116,10 +116,21 @@ public class ImageIO
                                         int imgNbr,
                                         boolean reportErrorMsgsFlag)
   { /* loadPixIntoImageData */
+    /* [0] Use the image if it was already decoded by the ImagePrefetcher.
+     * If it is still being decoded, this waits for it.
+     */
+    PrefetchedImage pfi= (flk.imgPrefetch==null)
+                            ? null 
+                            : flk.imgPrefetch.getDecodedImage(imageFile);
+    if(pfi!=null)
+      return(loadPrefetchedImageIntoImageData(pfi, oldImageData, imgNbr,
+                                              reportErrorMsgsFlag));
+    
     /* [1] Test if process a TIFF file  */
     ImageData idn= null;
-    int idxDot= imageFile.lastIndexOf(".");
-    String fileExt= (idxDot>0) ? imageFile.substring(idxDot) : null;
+    String fileName= TiffPageCache.getFileFromSpec(imageFile);
+    int idxDot= fileName.lastIndexOf(".");
+    String fileExt= (idxDot>0) ? fileName.substring(idxDot) : null;
     
     if(fileExt==null) 
       return(null);
@@ -160,9 +171,45 @@ public class ImageIO
   } /* loadPixIntoImageData */ 
   
   
+  /**
+   * loadPrefetchedImageIntoImageData() - set an image decoded ahead of
+   * time by the ImagePrefetcher into the ImageData object and make
+   * its iPix[] of the data.
+   * @param pfi is the decoded image
+   * @param oldImageData is old ImageData
+   * @param imgNbr for debugging
+   * @param reportErrorMsgsFlag to report error it it occurs on load
+   * @return ImageData for the picture else null if a problem.
+   */
+  public synchronized ImageData 
+           loadPrefetchedImageIntoImageData(PrefetchedImage pfi,
+                                            ImageData oldImageData,
+                                            int imgNbr,
+                                            boolean reportErrorMsgsFlag)
+  { /* loadPrefetchedImageIntoImageData */
+    float mapGrayToOD[]= null;     /* could overide if read it from file */
+    ImageData iDataNew= setImageToImageData(pfi.imageFile, pfi.img, 
+                                            pfi.blackIsZeroFlag,
+                                            oldImageData, mapGrayToOD,
+                                            imgNbr);
+    if(pfi.tiffStream!=null)
+    { /* keep the page so can get full resolution tiles later */
+      iDataNew.setTiffStream(pfi.tiffStream);
+      util.showMsg2("Streaming TIFF ["+pfi.tiffStream.nCols+"x"+
+                    pfi.tiffStream.nRows+"] subsampled by "+
+                    pfi.tiffStream.streamSubsample, Color.black);
+    }
+    iDataNew.checkAndMakeIpix(reportErrorMsgsFlag);          /* Make iPix */ 
+    
+    return(iDataNew);
+  } /* loadPrefetchedImageIntoImageData */
+  
+  
   /**
    * loadTiffPixIntoImageData() - read Tiff pix file into ImageData
-   * object which includes a iPix[] of the data.
+   * object which includes a iPix[] of the data. The imageFile may
+   * specify a page of a multi-page TIFF file as "file#page". Decoded
+   * pages are kept in the flk.tpc TiffPageCache.
    * If overloading a new image into an existing ImageData structure
    * then specify the oldImageData structure else set it to null.
    * @param imageURL url for the image file
@@ -183,10 +230,13 @@ public class ImageIO
     
     /* [1] Get iImg from TiffLoader */    
     flk.readyFlag= false;
-    TiffLoader tr= new TiffLoader(flk.dbugFlag);
-    
-    tr.setUseLogFlag(flk.useLogInputFlag);
-    String fatalMsg= tr.doTiffLoad(imageFile,true);  /* get the image */
+    TiffLoader tr= flk.tpc.getPage(TiffPageCache.getFileFromSpec(imageFile),
+                                   TiffPageCache.getPageFromSpec(imageFile),
+                                   flk.tiffGrayMapMode,
+                                   flk.tiffGrayGamma,
+                                   flk.useTiffStreamingFlag,
+                                   flk.dbugFlag);    /* get the image */
+    String fatalMsg= (tr.getImage()==null) ? tr.fatalMsg : null;
     if(fatalMsg!=null)
     {
       if(fatalMsg.startsWith("java.lang.RuntimeException:"))
@@ -196,6 +246,7 @@ public class ImageIO
       }
       util.showMsg1("Can't read TIFF image", Color.red);
       util.showMsg2(fatalMsg, Color.red);
+      tr.release();
       tr= null;                    /* set for G.C. */
       return(null);
     }    
@@ -204,6 +255,7 @@ public class ImageIO
     flk.readyFlag= true;
     if(iImg==null)
     {
+      tr.release();
       tr= null;                    /* set for G.C. */
       return(oldImageData);
     }
@@ -218,10 +270,13 @@ public class ImageIO
      * We resize if we DO need to resize AND (DEFAULT_TARGET_SIZE!=0).
      * Also keep the (h/w) aspect ratio the same.
      */
-    Image rImg= ImageData.resizeImageToTargetSize(iImg, tr.nCols, tr.nRows,
-                                                  flk.MIN_TARGET_SIZE,
-                                                  flk.MAX_TARGET_SIZE,
-                                                  flk.DEFAULT_TARGET_SIZE);   
+    Image rImg= (tr.isStreamedFlag)
+                  ? iImg    /* already subsampled to display size */
+                  : ImageData.resizeImageToTargetSize(iImg, tr.nCols, 
+                                                      tr.nRows,
+                                                      flk.MIN_TARGET_SIZE,
+                                                      flk.MAX_TARGET_SIZE,
+                                                   flk.DEFAULT_TARGET_SIZE);
         
     /* [3] set the rImg and associated parameters to the oldImageData
      * object. If oldImageData does not exist (i.e. null), then 
@@ -229,9 +284,16 @@ public class ImageIO
      */ 
     iDataNew= setImageToImageData(imageFile, rImg, tr.blackIsZeroFlag,  
                                   oldImageData, mapGrayToOD, imgNbr);
+    if(tr.isStreamedFlag)
+    { /* keep the page so can get full resolution tiles later */
+      iDataNew.setTiffStream(tr);
+      util.showMsg2("Streaming TIFF ["+tr.nCols+"x"+tr.nRows+
+                    "] subsampled by "+tr.streamSubsample, Color.black);
+    }
     if(rImg!=null)
       iDataNew.checkAndMakeIpix(reportErrorMsgsFlag);       /* Make iPix */ 
           
+    tr.release();                        /* iDataNew or tpc owns it now */
     tr= null;                            /* set for G.C. */
     
      return(iDataNew);
@@ -260,15 +322,24 @@ public class ImageIO
     flk.readyFlag= false;
     Toolkit toolkit= Toolkit.getDefaultToolkit(); 
     
-    /* [1] Get the iImg from PpxLoader */
+    /* [1] Get the iImg from PpxLoader. Local files are memory-mapped
+     * and URLs are mapped from their copy in the URL cache.
+     */
     PpxLoader ppx= new PpxLoader();
-    if(! ppx.readPPXfile(imageFile))
+    if(! ppx.mapPPXfile(flk.urlCache.mapToLocalFile(imageFile)))
     {
       ppx= null;                   /* set for G.C. */
       return(oldImageData);
     }
     
-    iImg= ppx.getImage();   
+    /* [2] Resize image to target size if the image size is outside the range
+     * [minTargetSize : maxTargetSize].
+     * We resize if we DO need to resize AND (DEFAULT_TARGET_SIZE!=0).
+     * Also keep the (h/w) aspect ratio the same. A mapped file is 
+     * resampled from its gray pixel store.
+     */
+    iImg= ppx.getResizedImage(flk.MIN_TARGET_SIZE, flk.MAX_TARGET_SIZE,
+                              flk.DEFAULT_TARGET_SIZE);
              
     flk.readyFlag= true;
     if(iImg==null)
@@ -280,25 +351,14 @@ public class ImageIO
     if(flk.dbugFlag)
       System.out.println("ppx="+ppx.toString());
     
-    /* [2] Resize image to target size if the image size is outside the range
-     * [minTargetSize : maxTargetSize].
-     * We resize if we DO need to resize AND (DEFAULT_TARGET_SIZE!=0).
-     * Also keep the (h/w) aspect ratio the same.
-     */
-    Image rImg= ImageData.resizeImageToTargetSize(iImg, ppx.ncols, ppx.nrows,
-                                                  flk.MIN_TARGET_SIZE,
-                                                  flk.MAX_TARGET_SIZE,
-                                                  flk.DEFAULT_TARGET_SIZE);
-    
-    /* [3] set the rImg and associated parameters to the oldImageData
+    /* [3] set the iImg and associated parameters to the oldImageData
      * object. If oldImageData does not exist (i.e. null), then 
      * create a new one.
      */ 
     float mapGrayToOD[]= null;   /* could overide IF read it from file */    
-    iDataNew= setImageToImageData(imageFile, rImg, ppx.blackIsZeroFlag,  
+    iDataNew= setImageToImageData(imageFile, iImg, ppx.blackIsZeroFlag,  
                                   oldImageData, mapGrayToOD, imgNbr);
-    if(rImg!=null)
-      iDataNew.checkAndMakeIpix(reportErrorMsgsFlag);       /* Make iPix */           
+    iDataNew.checkAndMakeIpix(reportErrorMsgsFlag);         /* Make iPix */           
           
     ppx= null;                           /* set for G.C. */
     
@@ -371,13 +431,16 @@ public class ImageIO
     if(flk.CONSOLE_FLAG)
       flk.util.gcAndMemoryStats("Begining of loadGifOrJpegPixIntoImageData()");
     
-    /* [2] Try to create a URL if image file starts with a URL prefix */
+    /* [2] Try to create a URL if image file starts with a URL prefix.
+     * http:// URLs are read from their copy in the URL cache.
+     */
     URL imageURL= null;
-    if(imageFile.indexOf("://")>0)
+    String localFile= flk.urlCache.mapToLocalFile(imageFile);
+    if(localFile.indexOf("://")>0)
     { /* try to build the URL */
       try 
       {   
-        imageURL= new URL(imageFile);
+        imageURL= new URL(localFile);
       }
       catch (Exception e) 
       {
@@ -391,7 +454,7 @@ public class ImageIO
      { /* File */       
        try 
        {   
-         iImg= toolkit.getImage(imageFile);
+         iImg= toolkit.getImage(localFile);
        }
        catch (Exception e) 
        {
@@ -755,6 +818,7 @@ public class ImageIO
         flk.i1IS.drawImageTitle(); 
                
         flk.i1IS.paintSiCanvas();
+        flk.bGui.createTiffPageMenuTree(flk.bGui.fTiffPageMenuStub);
         flk.repaint();
       } /* replace image */
         
@@ -824,6 +888,7 @@ public class ImageIO
         flk.i2IS.title= flk.imageFile2;
         flk.i2IS.drawImageTitle();
         flk.i2IS.paintSiCanvas();
+        flk.bGui.createTiffPageMenuTree(flk.bGui.fTiffPageMenuStub);
         flk.repaint();
       } /* replace image */
         
@@ -0,0 +1,480 @@
+/* File: ImagePrefetcher.java */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.net.*;
+import java.lang.*;
+import java.io.*;
+
+/**
+ * ImagePrefetcher class decodes images in background threads into a
+ * size bounded least recently used (LRU) cache of decoded images. 
+ * ImageIO.loadPixIntoImageData() first looks in this cache so that
+ * images that were decoded ahead of time are just installed into the
+ * ImageData. 
+ *<P>
+ * It is used to decode the left and right images of a pair in parallel
+ * and to speculatively prefetch the adjacent image pairs of the
+ * (File | Open demo images) and (File | Open user images) menus so that
+ * stepping through a series of gels does not wait on decoding each time.
+ *<P>
+ * A decoded image has already been read, mapped to 8-bits (TIFF), 
+ * resized to the target size and converted to packed ARGB pixels. 
+ * Since how an image is decoded depends on the TIFF gray mapping, 
+ * streaming and the target size, these are part of the cache key. So
+ * is the last modified time and length of a local file, so an image 
+ * that was changed on disk is decoded again.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class ImagePrefetcher
+{ /* ImagePrefetcher */
+  
+  /** Max # of decoded images kept in the cache */
+  public static int
+    MAX_CACHED_IMAGES= 8;
+  /** Max total # of pixels of decoded images kept in the cache */
+  public static long
+    MAX_CACHED_PIXELS= 16L*1024L*1024L;
+  /** Flicker instance */
+  private Flicker
+    flk;
+  /** Decoded images in LRU order, most recently used last */
+  private Vector
+    imageList= new Vector();
+  /** Images being decoded. Hashtable of (key, PrefetchedImage) */
+  private Hashtable
+    pendingTable= new Hashtable();
+  /** Total # of pixels in imageList */
+  private long
+    nCachedPixels= 0;
+  /** # of cache hits for debugging */
+  private int
+    nHits= 0;
+  /** # of images decoded for debugging */
+  private int
+    nDecoded= 0;
+  
+  
+  /**
+   * ImagePrefetcher() - Constructor
+   * @param flk is the Flicker instance
+   */
+  public ImagePrefetcher(Flicker flk)
+  { /* ImagePrefetcher */
+    this.flk= flk;
+  } /* ImagePrefetcher */
+  
+  
+  /**
+   * makeKey() - make the cache key for the image file spec using the
+   * current version of the file and decoding options.
+   * @param imageFile is the image file spec
+   * @return key
+   */
+  private String makeKey(String imageFile)
+  { /* makeKey */
+    String key= imageFile+"|"+TiffPageCache.getFileStamp(imageFile)+
+                "|"+flk.tiffGrayMapMode+":"+flk.tiffGrayGamma+
+                ":"+flk.useTiffStreamingFlag+
+                "|"+flk.MIN_TARGET_SIZE+":"+flk.MAX_TARGET_SIZE+
+                ":"+flk.DEFAULT_TARGET_SIZE;
+    return(key);
+  } /* makeKey */
+  
+  
+  /**
+   * isDecodable() - test if the image file can be decoded here
+   * @param imageFile is the image file spec
+   * @return true if a .tif, .tiff, .ppx, .gif or .jpg file
+   */
+  public static boolean isDecodable(String imageFile)
+  { /* isDecodable */
+    if(imageFile==null || imageFile.length()==0)
+      return(false);
+    String nameLC= TiffPageCache.getFileFromSpec(imageFile).toLowerCase();
+    return(nameLC.endsWith(".tif") || nameLC.endsWith(".tiff") ||
+           nameLC.endsWith(".ppx") || nameLC.endsWith(".gif") ||
+           nameLC.endsWith(".jpg"));
+  } /* isDecodable */
+  
+  
+  /**
+   * prefetch() - start decoding the image in a background thread if it 
+   * is not already in the cache or being decoded.
+   * @param imageFile is the image file spec
+   * @param priority is the thread priority
+   */
+  public void prefetch(String imageFile, int priority)
+  { /* prefetch */
+    if(!isDecodable(imageFile))
+      return;
+    final PrefetchedImage pfi;
+    String key= makeKey(imageFile);
+    synchronized(this)
+    {
+      if(lookup(key, false)!=null || pendingTable.get(key)!=null)
+        return;                    /* already have it or getting it */
+      pfi= new PrefetchedImage(imageFile, key);
+      pendingTable.put(key, pfi);
+    }
+    
+    Thread t= new Thread("ImagePrefetcher")
+      {
+        public void run()
+        { decodeAndAdd(pfi); }
+      };
+    t.setPriority(priority);
+    t.setDaemon(true);
+    t.start();
+  } /* prefetch */
+  
+  
+  /**
+   * prefetchPair() - start decoding both images of a pair in parallel
+   * @param imageFile1 is the left image file spec
+   * @param imageFile2 is the right image file spec
+   * @param priority is the thread priority
+   */
+  public void prefetchPair(String imageFile1, String imageFile2, 
+                           int priority)
+  { /* prefetchPair */
+    prefetch(imageFile1, priority);
+    prefetch(imageFile2, priority);
+  } /* prefetchPair */
+  
+  
+  /**
+   * prefetchAdjacentDemoPairs() - prefetch the demo image pairs before
+   * and after the demo pair just selected.
+   * @param idx is the FlkDemo.flkDemos[] index selected
+   */
+  public void prefetchAdjacentDemoPairs(int idx)
+  { /* prefetchAdjacentDemoPairs */
+    if(!flk.usePrefetchImagesFlag)
+      return;
+    int prio= Thread.MIN_PRIORITY;
+    if(idx+1<FlkDemo.nMaps)
+      prefetchPair(FlkDemo.flkDemos[idx+1].imageURL1,
+                   FlkDemo.flkDemos[idx+1].imageURL2, prio);
+    if(idx-1>=0)
+      prefetchPair(FlkDemo.flkDemos[idx-1].imageURL1,
+                   FlkDemo.flkDemos[idx-1].imageURL2, prio);
+  } /* prefetchAdjacentDemoPairs */
+  
+  
+  /**
+   * prefetchAdjacentUserPairs() - prefetch the user image pairs before
+   * and after the user pair just selected.
+   * @param idx is the FlkUser.flkUsers[] index selected
+   */
+  public void prefetchAdjacentUserPairs(int idx)
+  { /* prefetchAdjacentUserPairs */
+    if(!flk.usePrefetchImagesFlag)
+      return;
+    int prio= Thread.MIN_PRIORITY;
+    if(idx+1<FlkUser.nMaps)
+      prefetchPair(FlkUser.flkUsers[idx+1].imageURL1,
+                   FlkUser.flkUsers[idx+1].imageURL2, prio);
+    if(idx-1>=0)
+      prefetchPair(FlkUser.flkUsers[idx-1].imageURL1,
+                   FlkUser.flkUsers[idx-1].imageURL2, prio);
+  } /* prefetchAdjacentUserPairs */
+  
+  
+  /**
+   * getDecodedImage() - get the decoded image from the cache. If it is
+   * being decoded, then wait for it to finish rather than decoding it 
+   * again in parallel. The decode always finishes, if only with an 
+   * error.
+   * @param imageFile is the image file spec
+   * @return decoded image, else null if not prefetched or it failed
+   */
+  public PrefetchedImage getDecodedImage(String imageFile)
+  { /* getDecodedImage */
+    if(imageFile==null)
+      return(null);
+    String key= makeKey(imageFile);
+    PrefetchedImage pfi;
+    synchronized(this)
+    {
+      pfi= lookup(key, true);
+      if(pfi!=null)
+      {
+        nHits++;
+        return(pfi);
+      }
+      pfi= (PrefetchedImage)pendingTable.get(key);
+    }
+    if(pfi==null)
+      return(null);
+    
+    if(!pfi.waitUntilDone())           /* decode in progress */
+      return(null);                    /* interrupted */
+    if(pfi.img==null)
+      return(null);
+    synchronized(this)
+    { nHits++; }
+    return(pfi);
+  } /* getDecodedImage */
+  
+  
+  /**
+   * lookup() - lookup a decoded image in the cache and optionally make
+   * it the most recently used.
+   * @param key is the cache key
+   * @param touchFlag to make it the most recently used
+   * @return decoded image, else null if not in the cache
+   */
+  private synchronized PrefetchedImage lookup(String key, boolean touchFlag)
+  { /* lookup */
+    for(int i=imageList.size()-1; i>=0; i--)
+    { /* search from most recent */
+      PrefetchedImage pfi= (PrefetchedImage)imageList.elementAt(i);
+      if(key.equals(pfi.key))
+      {
+        if(touchFlag)
+        {
+          imageList.removeElementAt(i);
+          imageList.addElement(pfi);             /* most recently used */
+        }
+        return(pfi);
+      }
+    } /* search from most recent */
+    
+    return(null);
+  } /* lookup */
+  
+  
+  /**
+   * decodeAndAdd() - decode the image, add it to the cache and then
+   * notify anyone waiting for it.
+   * @param pfi is the image to decode
+   */
+  private void decodeAndAdd(PrefetchedImage pfi)
+  { /* decodeAndAdd */
+    try
+    { decode(pfi); }
+    catch(Throwable e)
+    {
+      pfi.img= null;
+      pfi.errMsg= e.toString();
+    }
+    
+    synchronized(this)
+    { /* move it from pending to the cache */
+      pendingTable.remove(pfi.key);
+      if(pfi.img==null)
+      { /* failed, don't keep its streamed page open */
+        releaseStream(pfi);
+        pfi.tiffStream= null;
+      }
+      else
+      {
+        nDecoded++;
+        imageList.addElement(pfi);
+        nCachedPixels += pfi.getNbrPixels();
+        while(imageList.size()>1 &&
+              (imageList.size()>MAX_CACHED_IMAGES || 
+               nCachedPixels>MAX_CACHED_PIXELS))
+        { /* remove least recently used */
+          PrefetchedImage pfiOld= (PrefetchedImage)imageList.elementAt(0);
+          imageList.removeElementAt(0);
+          nCachedPixels -= pfiOld.getNbrPixels();
+          releaseStream(pfiOld);
+        }
+      }
+    } /* move it from pending to the cache */
+    
+    if(flk.dbugFlag)
+      System.out.println("IP-DAA "+pfi.imageFile+
+                         ((pfi.img==null) ? (" failed: "+pfi.errMsg) : ""));
+    pfi.setDone();
+  } /* decodeAndAdd */
+  
+  
+  /**
+   * decode() - decode the image into packed ARGB pixels at the display
+   * target size in the same way as the ImageIO loaders. This does not
+   * touch the GUI.
+   * @param pfi is the image to decode. It sets pfi.img, pfi.width,
+   *        pfi.height, pfi.blackIsZeroFlag and pfi.tiffStream.
+   */
+  private void decode(PrefetchedImage pfi)
+  { /* decode */
+    String 
+      imageFile= pfi.imageFile,
+      nameLC= TiffPageCache.getFileFromSpec(imageFile).toLowerCase();
+    Image iImg= null;
+    int
+      w= 0,
+      h= 0;
+    boolean resizeFlag= true;
+    
+    if(nameLC.endsWith(".tif") || nameLC.endsWith(".tiff"))
+    { /* TIFF page */
+      TiffLoader tr= flk.tpc.getPage(TiffPageCache.getFileFromSpec(imageFile),
+                                     TiffPageCache.getPageFromSpec(imageFile),
+                                     flk.tiffGrayMapMode, flk.tiffGrayGamma,
+                                     flk.useTiffStreamingFlag, false);
+      iImg= tr.getImage();
+      if(iImg==null)
+      {
+        pfi.errMsg= tr.fatalMsg;
+        tr.release();
+        return;
+      }
+      pfi.blackIsZeroFlag= tr.blackIsZeroFlag;
+      if(tr.isStreamedFlag)
+      { /* already subsampled to display size */
+        pfi.tiffStream= tr;          /* released when pfi is removed */
+        resizeFlag= false;
+        w= tr.streamCols;
+        h= tr.streamRows;
+      }
+      else
+      {
+        w= tr.nCols;
+        h= tr.nRows;
+        tr.release();
+      }
+    } /* TIFF page */
+    
+    else if(nameLC.endsWith(".ppx"))
+    { /* PPX */
+      PpxLoader ppx= new PpxLoader();
+      if(!ppx.mapPPXfile(flk.urlCache.mapToLocalFile(imageFile)) ||
+         (iImg= ppx.getResizedImage(flk.MIN_TARGET_SIZE,
+                                    flk.MAX_TARGET_SIZE,
+                                    flk.DEFAULT_TARGET_SIZE))==null)
+      {
+        pfi.errMsg= "Can't read PPX file";
+        return;
+      }
+      pfi.blackIsZeroFlag= ppx.blackIsZeroFlag;
+      resizeFlag= false;           /* resampled from the mapped file */
+      float f= ImageData.getTargetScale(ppx.ncols, ppx.nrows,
+                                        flk.MIN_TARGET_SIZE,
+                                        flk.MAX_TARGET_SIZE,
+                                        flk.DEFAULT_TARGET_SIZE);
+      w= (int)(f*ppx.ncols);
+      h= (int)(f*ppx.nrows);
+    } /* PPX */
+    
+    else
+    { /* GIF or JPEG file or URL */
+      Toolkit toolkit= Toolkit.getDefaultToolkit();
+      String localFile= flk.urlCache.mapToLocalFile(imageFile);
+      try
+      {
+        iImg= (localFile.indexOf("://")>0)
+                ? toolkit.createImage(new URL(localFile))
+                : toolkit.createImage(localFile);
+      }
+      catch(MalformedURLException e)
+      {
+        pfi.errMsg= "Illegal URL: '" + imageFile + "'";
+        return;
+      }
+      PixelGrabber pg= new PixelGrabber(iImg, 0, 0, -1, -1, true);
+      try
+      { /* waits until the image is completely produced */
+        if(!pg.grabPixels() || (pg.getStatus() & ImageObserver.ABORT)!=0)
+        {
+          pfi.errMsg= "Can't load image: '" + imageFile + "'";
+          return;
+        }
+      }
+      catch(InterruptedException e)
+      {
+        pfi.errMsg= "Interrupted loading image: '" + imageFile + "'";
+        return;
+      }
+      w= pg.getWidth();
+      h= pg.getHeight();
+      iImg.flush();
+      iImg= toolkit.createImage(new MemoryImageSource(w, h, 
+                                                      (int[])pg.getPixels(),
+                                                      0, w));
+      pg= null;
+    } /* GIF or JPEG file or URL */
+    
+    if(resizeFlag)
+    { /* resize to target size as ImageIO does */
+      Image rImg= ImageData.resizeImageToTargetSize(iImg, w, h,
+                                                    flk.MIN_TARGET_SIZE,
+                                                    flk.MAX_TARGET_SIZE,
+                                                    flk.DEFAULT_TARGET_SIZE);
+      if(rImg!=iImg)
+      {
+        iImg= rImg;
+        w= iImg.getWidth(null);
+        h= iImg.getHeight(null);
+      }
+    }
+    
+    pfi.width= w;
+    pfi.height= h;
+    pfi.img= iImg;
+  } /* decode */
+  
+  
+  /**
+   * clear() - remove all of the decoded images from the cache.
+   * Images being decoded are not affected.
+   */
+  public synchronized void clear()
+  { /* clear */
+    for(int i=0;i<imageList.size();i++)
+      releaseStream((PrefetchedImage)imageList.elementAt(i));
+    imageList.removeAllElements();
+    nCachedPixels= 0;
+  } /* clear */
+  
+  
+  /**
+   * releaseStream() - release the streamed TIFF page of an image that 
+   * was removed from the cache. The file is closed if no one else (e.g.
+   * ImageData or the TiffPageCache) still uses it.
+   * @param pfi is the removed image
+   */
+  private static void releaseStream(PrefetchedImage pfi)
+  { /* releaseStream */
+    if(pfi.tiffStream!=null)
+      pfi.tiffStream.release();
+  } /* releaseStream */
+  
+  
+  /**
+   * toString() - return string representation of this instance
+   * @return string instance
+   */
+  public synchronized String toString()
+  { /* toString */
+    String sR= "ImagePrefetcher nImages="+imageList.size()+
+               " nPending="+pendingTable.size()+
+               " nCachedPixels="+nCachedPixels+
+               " nHits="+nHits+" nDecoded="+nDecoded;
+    for(int i=0;i<imageList.size();i++)
+    {
+      PrefetchedImage pfi= (PrefetchedImage)imageList.elementAt(i);
+      sR += "\n  "+pfi.imageFile+" ["+pfi.width+"x"+pfi.height+"]";
+    }
+    sR += "\n";
+    return(sR);
+  } /* toString */
+  
+} /* End of class ImagePrefetcher */
@@ -827,6 +827,42 @@ public class ImageScroller extends Panel
   }
   
     
+   /**
+    * getZoomedViewport() - get the part of a zoomed canvas of size 
+    * (newWidth X newHeight) that will be visible after 
+    * resizeImageCanvas(). The scroll position keeps the same relative
+    * position as the current one, the same way resizeImageCanvas() 
+    * sets it.
+    * @param newWidth of the zoomed canvas
+    * @param newHeight of the zoomed canvas
+    * @return visible rectangle in zoomed canvas coordinates
+    */
+   public Rectangle getZoomedViewport(int newWidth, int newHeight)
+   { /* getZoomedViewport */
+     Rectangle bounds= new Rectangle(0, 0, newWidth, newHeight);
+     if(sp==null)
+       return(bounds);
+     
+     Dimension vs= sp.getViewportSize();
+     Point pt= sp.getScrollPosition();
+     if(vs.width<=0 || vs.height<=0)
+       return(bounds);
+     int
+       oldMaxX= Math.max(0, isWidth - vs.width),
+       oldMaxY= Math.max(0, isHeight - vs.height),
+       newMaxX= Math.max(0, newWidth - vs.width),
+       newMaxY= Math.max(0, newHeight - vs.height);
+     double
+       xRatio= (oldMaxX>0) ? (double)pt.x/oldMaxX : 0.5,
+       yRatio= (oldMaxY>0) ? (double)pt.y/oldMaxY : 0.5;
+     Rectangle r= new Rectangle((int)Math.round(newMaxX*xRatio),
+                                (int)Math.round(newMaxY*yRatio),
+                                vs.width, vs.height);
+     
+     return(r.intersection(bounds));
+   } /* getZoomedViewport */
+   
+   
    /**
     * getScrollPosition() - return scroll positions
     * @return Point of scroll position
@@ -930,6 +966,9 @@ public class ImageScroller extends Panel
   public void finishMeasurement()
   {  /* finishMeasurement */
     iData.bnd.setMapGrayToOD(iData.mapGrayToOD); /* set up anyways. */
+    iData.bnd.setODlut((iData.calib!=null && 
+                        iData.calib.mapGrayToOD==iData.mapGrayToOD)
+                         ? iData.calib.getODlut(iData.pixelMask) : null);
     iData.bnd.finishMeasurement(isWidth, isHeight,iData.iPix,
                                 iData.pixelMask);
   } /* finishMeasurement */
@@ -1243,6 +1282,75 @@ public class ImageScroller extends Panel
   } /* saveOImgAsGifFile */
   
     
+  /**
+   * savePngFile() - save the image as a lossless grayscale PNG file.
+   * If saveOImgFlag is set, save the 8-bit transformed image oImg. Else
+   * save the input image at its full depth: the full resolution 
+   * 12 or 16-bit samples if it is a streamed TIFF, else iPix[].
+   * The pixels are streamed to the file by ImageExporter.
+   * @param defPngFile is the full path PNG output file
+   * @param saveOImgFlag to save oImg else the input image
+   * @param promptForFileFlag if want to have user overide file name
+   * @return true if successful, false if unable to generate image file.
+   * @see ImageExporter
+   */
+  boolean savePngFile(String defPngFile, boolean saveOImgFlag,
+                      boolean promptForFileFlag)
+  { /* savePngFile */
+    ImageExporter ie;
+    TiffLoader ts= iData.tiffStream;
+    
+    /* [1] Set up the exporter for the pixel source */
+    if(saveOImgFlag)
+    { /* transformed image */
+      if(iData.oImg==null || !flk.allowXformFlag)
+        return(false);
+      ie= new ImageExporter(iData.oImg);
+    }
+    else if(ts!=null && ts.isStreamedFlag && ts.nBands==1)
+      ie= new ImageExporter(ts);     /* full res. & depth samples */
+    else if(iData.iPix!=null)
+      ie= new ImageExporter(iData.iPix, iData.iWidth, iData.iHeight, 
+                            iData.nBitsPerPixel);
+    else
+      return(false);
+     
+    /* [2] Get the file name to save it as */
+    String
+      name= flk.util.getFileNameFromPath(iData.imageFile);
+    int idx= name.lastIndexOf("."); /* remove file extension if any */
+    if(idx!=-1)
+      name= name.substring(0,idx);
+    String
+      initialPngPath= ((defPngFile!=null)
+                         ? defPngFile
+                         : flk.userTmpDir +
+                           ((saveOImgFlag) ? "oImg-" : "iImg-")+ 
+                           name+".png");
+    String oPngFileName= initialPngPath;
+    if(promptForFileFlag)
+    {                            
+      Popup popup= new Popup(flk);      /* Open the directory browser */
+      oPngFileName= popup.popupFileDialog(initialPngPath,
+                                          "Enter PNG file name",
+                                          false /* SAVE file */);    
+    }
+    if(oPngFileName==null)
+      return(false);
+    
+    /* [3] Write it */
+    if(!ie.writePngFile(oPngFileName))
+    {
+      util.showMsg(ie.errMsg, Color.red);
+      return(false);
+    }
+    util.showMsg("Saved "+ie.bitDepth+"-bit PNG image ["+oPngFileName+
+                 "] in "+ie.runTimeMsec+" msec", Color.black); 
+        
+    return(true);
+  } /* savePngFile */
+  
+    
   /**
     * paintSiCanvas() - paint the scrollable canvas using thread safe method in
     * one place.
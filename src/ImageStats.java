@@ -0,0 +1,272 @@
+/* File: ImageStats.java */
+
+import java.lang.*;
+
+/**
+ * ImageStats class holds the grayscale statistics of a whole image or
+ * of a histogram: the histogram and its cumulative histogram, the 
+ * (min,max) gray values, mean, standard deviation, mode, percentiles
+ * and the histogram equalization table.
+ *<P>
+ * The image statistics are computed once from the iPix[] pixel store 
+ * in parallel bands of rows, each band with its own partial histogram
+ * which are then summed. Every other statistic is then derived from 
+ * the histogram. The instance is cached by ImageData.getStats() and 
+ * is recomputed when the iPix[] data or pixelMask change or 
+ * ImageData.invalidateStats() is called. Gray values are the raw iPix[]
+ * values masked by pixelMask (i.e. NOT complemented), which is what the
+ * image transforms and the brightness/contrast filter use. So they do 
+ * not depend on the blackIsZeroFlag or the OD calibration, which can
+ * change in place.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class ImageStats
+{ /* ImageStats */
+  
+  /** Histogram [0:nBins-1] */
+  public int
+    hist[];
+  /** Cumulative histogram, cumHist[g] is # of pixels <= g */
+  public int
+    cumHist[];
+  /** # of bins in the histogram, i.e. pixelMask+1 */
+  public int
+    nBins;
+  /** # of pixels (total frequency) in the histogram */
+  public int
+    nPixels;
+  /** minimum gray value with a non-zero frequency, -1 if none */
+  public int
+    minG= -1;
+  /** maximum gray value with a non-zero frequency, -1 if none */
+  public int
+    maxG= -1;
+  /** minimum non-zero frequency */
+  public int
+    minFreq= 0;
+  /** maximum frequency */
+  public int
+    maxFreq= 0;
+  /** gray value with the maximum frequency */
+  public int
+    mode= -1;
+  /** median gray value */
+  public int
+    median= -1;
+  /** mean gray value */
+  public float
+    mean= 0.0F;
+  /** standard deviation of the gray values */
+  public float
+    sd= 0.0F;
+  /** time in msec to compute the statistics from the pixels */
+  public long
+    runTimeMsec= 0;
+  
+  /** iPix[] the statistics were computed from, null if from a hist */
+  private int
+    statsPix[]= null;
+  /** pixelMask the statistics were computed with */
+  private int
+    statsPixelMask;
+  
+  
+  /**
+   * ImageStats() - Constructor from a histogram. The histogram is 
+   * copied.
+   * @param hData is the histogram [0:nBins-1]
+   */
+  public ImageStats(int hData[])
+  { /* ImageStats */
+    hist= new int[hData.length];
+    System.arraycopy(hData, 0, hist, 0, hData.length);
+    calcHistStatistics();
+  } /* ImageStats */
+  
+  
+  /**
+   * computeStats() - compute the statistics of the image pixel data
+   * pix[0:nPixels-1] masked by pixelMask. The histogram is computed 
+   * in parallel bands of rows.
+   * @param pix is the iPix[] pixel data
+   * @param width is the width of the image
+   * @param height is the height of the image
+   * @param pixelMask is the gray value mask, e.g. 255 for 8-bits
+   * @return the statistics
+   */
+  public static ImageStats computeStats(final int pix[], 
+                                        final int width, int height,
+                                        final int pixelMask)
+  { /* computeStats */
+    long startTime= System.currentTimeMillis();
+    final int
+      nBands= ParallelBands.getNbrBands(height),
+      bandHist[][]= new int[nBands][];
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int y1, int y2)
+        { /* histogram a band of rows */
+          int
+            h[]= new int[pixelMask+1],
+            iEnd= y2*width;
+          for(int i=y1*width;i<iEnd;i++)
+            h[pix[i] & pixelMask]++;
+          bandHist[band]= h;
+        } /* histogram a band of rows */
+      }.run(height);
+    
+    int hData[]= bandHist[0];
+    for(int b=1;b<nBands;b++)
+    { /* merge the partial histograms */
+      int h[]= bandHist[b];
+      for(int g=0;g<=pixelMask;g++)
+        hData[g] += h[g];
+    }
+    
+    ImageStats st= new ImageStats(hData);
+    st.statsPix= pix;
+    st.statsPixelMask= pixelMask;
+    st.runTimeMsec= System.currentTimeMillis() - startTime;
+    
+    return(st);
+  } /* computeStats */
+  
+  
+  /**
+   * isValidFor() - test if the statistics are still valid for the
+   * image pixel data state.
+   * @param pix is the iPix[] pixel data
+   * @param pixelMask is the gray value mask
+   * @return true if computed from the same data
+   */
+  public boolean isValidFor(int pix[], int pixelMask)
+  { /* isValidFor */
+    return(statsPix!=null && pix==statsPix && 
+           pixelMask==statsPixelMask);
+  } /* isValidFor */
+  
+  
+  /**
+   * calcHistStatistics() - compute the statistics derived from hist[]
+   */
+  private void calcHistStatistics()
+  { /* calcHistStatistics */
+    int v;
+    double
+      sum= 0.0,
+      sumSq= 0.0;
+    
+    nBins= hist.length;
+    cumHist= new int[nBins];
+    nPixels= 0;
+    minFreq= Integer.MAX_VALUE;
+    maxFreq= 0;
+    
+    for(int g=0;g<nBins;g++)
+    { /* accumulate */
+      v= hist[g];
+      nPixels += v;
+      cumHist[g]= nPixels;
+      if(v==0)
+        continue;
+      if(minG==-1)
+        minG= g;
+      maxG= g;
+      minFreq= Math.min(minFreq, v);
+      if(maxFreq<v)
+      {
+        maxFreq= v;
+        mode= g;
+      }
+      sum += (double)g*v;
+      sumSq += (double)g*g*v;
+    } /* accumulate */
+    
+    if(nPixels==0)
+    { /* empty */
+      minFreq= 0;
+      return;
+    }
+    
+    double 
+      avg= sum/nPixels,
+      var= sumSq/nPixels - avg*avg;
+    mean= (float)avg;
+    sd= (float)Math.sqrt(Math.max(0.0, var));
+    median= getPercentile(50.0F);
+  } /* calcHistStatistics */
+  
+  
+  /**
+   * getPercentile() - get the gray value at a percentile of the pixels
+   * @param percent is the percentile [0:100]
+   * @return smallest gray value g where cumHist[g] >= percent of the
+   *         pixels, -1 if no pixels.
+   */
+  public int getPercentile(float percent)
+  { /* getPercentile */
+    if(nPixels==0)
+      return(-1);
+    long target= (long)Math.ceil((percent*(double)nPixels)/100.0);
+    target= Math.max(1, Math.min(target, nPixels));
+    
+    int
+      lo= 0,
+      hi= nBins-1,
+      mid;
+    while(lo<hi)
+    { /* binary search the cumulative histogram */
+      mid= (lo+hi)>>>1;
+      if(cumHist[mid]>=target)
+        hi= mid;
+      else
+        lo= mid+1;
+    }
+    return(lo);
+  } /* getPercentile */
+  
+  
+  /**
+   * getEqualizationLUT() - get the histogram equalization table 
+   * mapping gray value g to (maxOut*cumHist[g])/nPixels.
+   * @param maxOut is the maximum output gray value, e.g. 255
+   * @return lut[0:nBins-1]
+   */
+  public int[] getEqualizationLUT(int maxOut)
+  { /* getEqualizationLUT */
+    int lut[]= new int[nBins];
+    if(nPixels==0)
+      return(lut);
+    for(int g=0;g<nBins;g++)
+      lut[g]= (int)(((long)maxOut*cumHist[g])/nPixels);
+    return(lut);
+  } /* getEqualizationLUT */
+  
+  
+  /**
+   * toString() - summary of the statistics
+   */
+  public String toString()
+  { /* toString */
+    String s= "ImageStats [minG:maxG]=["+minG+":"+maxG+"] mean="+
+              Util.cvf2s(mean,2)+" sd="+Util.cvf2s(sd,2)+
+              " mode="+mode+" median="+median+" nPixels="+nPixels;
+    return(s);
+  } /* toString */
+  
+  
+} /* End of class ImageStats */
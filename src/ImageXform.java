@@ -1418,19 +1418,19 @@ public class ImageXform extends Thread
         gO= i0;
         if(gO<i1)
           gO= i1;
-        else if(gO<i2)
+        if(gO<i2)
           gO= i2;
-        else if(gO<i3)
+        if(gO<i3)
           gO= i3;
-        else if(gO<i4)
+        if(gO<i4)
           gO= i4;
-        else if(gO<i5)
+        if(gO<i5)
           gO= i5;
-        else if(gO<i6)
+        if(gO<i6)
           gO= i6;
-        else if(gO<i7)
+        if(gO<i7)
           gO= i7;
-        else if(gO<i8)
+        if(gO<i8)
           gO= i8;
         
         oPix[p]= gToRGB[gO]; /* save output pixel */
@@ -1467,19 +1467,19 @@ public class ImageXform extends Thread
         gO= i0;
         if(gO>i1)
           gO= i1;
-        else if(gO>i2)
+        if(gO>i2)
           gO= i2;
-        else if(gO>i3)
+        if(gO>i3)
           gO= i3;
-        else if(gO>i4)
+        if(gO>i4)
           gO= i4;
-        else if(gO>i5)
+        if(gO>i5)
           gO= i5;
-        else if(gO>i6)
+        if(gO>i6)
           gO= i6;
-        else if(gO>i7)
+        if(gO>i7)
           gO= i7;
-        else if(gO>i8)
+        if(gO>i8)
           gO= i8;
         
         /* Clip it */
@@ -1580,7 +1580,7 @@ public class ImageXform extends Thread
     for (int p= nPixels-1; p>=0; p--)
     {
       gI= (iPix[p] & 0Xff);      /* input pixel as 8-bit */      
-      oPix[p]= histEq[gI];
+      oPix[p]= gToRGB[histEq[gI]];  /* save output pixel as RGB */
     }
   } /* histogramEqualization*/
     
@@ -1679,9 +1679,20 @@ public class ImageXform extends Thread
     /* get image to be dezoomed/zoomed */  
     Image inputImage= iData.getImageForZoomInput();   
     
-    /* Zoom image based on newWidth & newHeight */    
-    final Image newImage= inputImage.getScaledInstance(newWidth, newHeight,
-                                                       Image.SCALE_FAST);
+    /* Zoom image based on newWidth & newHeight. If the input is a 
+     * subsampled streamed TIFF page and we are magnifying, then 
+     * only the visible viewport is resampled from the full resolution
+     * tiles.
+     */    
+    Image zoomImage= null;
+    TiffLoader ts= iData.tiffStream;
+    if(ts!=null && inputImage==iData.iImg && mag>1.0 && 
+       ts.streamSubsample>1)
+      zoomImage= createZoomedStreamImage(ts);
+    if(zoomImage==null)
+      zoomImage= inputImage.getScaledInstance(newWidth, newHeight,
+                                              Image.SCALE_FAST);
+    final Image newImage= zoomImage;
     
     /* Rebuild ImageScroller since we need different sized canvas. */      
     /* Note: Swing needs the below code to be thread safe, needs to be 
@@ -1744,6 +1755,64 @@ public class ImageXform extends Thread
   } /* createZoomedImage */   
           
         
+  /**
+   * createZoomedStreamImage() - create the zoomed image of a subsampled
+   * streamed TIFF page. The subsampled iPix[] is replicated to the 
+   * zoomed size and then the part of it that will be visible in the 
+   * scroller is resampled from the full resolution tiles, so only the 
+   * tiles on the screen are decoded.
+   * @param ts is the streamed TIFF page of iData
+   * @return zoomed image, null if there is no subsampled iPix[]
+   */
+  private Image createZoomedStreamImage(TiffLoader ts)
+  { /* createZoomedStreamImage */
+    int 
+      srcPix[]= iData.iPix,
+      srcW= origWidth,
+      srcH= origHeight;
+    if(srcPix==null || srcPix.length<srcW*srcH || curIS==null)
+      return(null);
+    
+    /* [1] Replicate the subsampled pixels to the zoomed size */
+    BufferedImage bi= new BufferedImage(newWidth, newHeight,
+                                        BufferedImage.TYPE_INT_RGB);
+    int
+      zPix[]= ((DataBufferInt)bi.getRaster().getDataBuffer()).getData(),
+      srcX[]= new int[newWidth];
+    for(int x=0;x<newWidth;x++)
+      srcX[x]= Math.min(srcW-1, (int)(((long)x*srcW)/newWidth));
+    for(int y=0;y<newHeight;y++)
+    {
+      int 
+        srcRow= Math.min(srcH-1, (int)(((long)y*srcH)/newHeight))*srcW,
+        dst= y*newWidth;
+      for(int x=0;x<newWidth;x++)
+        zPix[dst+x]= srcPix[srcRow+srcX[x]];
+    }
+    
+    /* [2] Resample the visible viewport from full resolution tiles */
+    Rectangle vz= curIS.getZoomedViewport(newWidth, newHeight);
+    if(!vz.isEmpty())
+    {
+      int
+        x1= ts.minX + (int)(((long)vz.x*ts.nCols)/newWidth),
+        y1= ts.minY + (int)(((long)vz.y*ts.nRows)/newHeight),
+        x2= ts.minX + (int)(((long)(vz.x+vz.width)*ts.nCols)/newWidth),
+        y2= ts.minY + (int)(((long)(vz.y+vz.height)*ts.nRows)/newHeight);
+      int vPix[]= ts.sampleStreamRegion(new Rectangle(x1, y1, 
+                                                      Math.max(1, x2-x1),
+                                                      Math.max(1, y2-y1)),
+                                        vz.width, vz.height);
+      if(vPix!=null)
+        for(int y=0;y<vz.height;y++)
+          System.arraycopy(vPix, y*vz.width, 
+                           zPix, (vz.y+y)*newWidth+vz.x, vz.width);
+    }
+    
+    return(bi);
+  } /* createZoomedStreamImage */
+  
+  
   /**
    * createZoomedImage() - convert pixel array argument into zoomed image 
    * using getScaledInstance.
@@ -2130,46 +2199,31 @@ public class ImageXform extends Thread
     
   /**
    * computeGrayHistStatistics() - compute grayscale histogram statistics
+   * of the 8-bit iPix[] data. They are gotten from the image's cached 
+   * statistics (see ImageData.getStats()) so they are only computed 
+   * once for the iPix[] data.
   */
   final synchronized private void computeGrayHistStatistics()
   { /* computeGrayHistStatistics */
-    gMax= 0;
-    gMin= 255;
-    gMode= 0;
-    hist= new int[256];   /* ASSUMES!!!! 8-bit data */
-    histEq= new int[256];
-    int
-      g,
-      size= (width*height),
-      halfSize= size/2;
-    
-    for(int i=(size-1); i>=0; i--)
-    { /* compute gMax and gMin  of pPix[] */
-      g= (iPix[i] & 0Xff);      
-      if(gMax<g)
-        gMax= g;
-      if(gMin>g)
-        gMin= g;
-      hist[g]++;
-    }
-    
-    for(int i=gMin; i<=gMax; i++)
-      if((gMode+hist[i]) < halfSize)
-        gMode += hist[i];
+    ImageStats st= (iData.pixelMask==0Xff && iPix==iData.iPix)
+                     ? iData.getStats()
+                     : null;
+    if(st==null)
+      st= ImageStats.computeStats(iPix, width, height, 0Xff);
+    
+    hist= st.hist;
+    histEq= st.getEqualizationLUT(255);
+    gMax= Math.max(st.maxG, 0);
+    gMin= Math.max(st.minG, 0);
+    gMean= (int)(st.mean+0.5F);
+    gMode= st.mode;
     
     /* Solve:  g'= ((g - gMin)*255) / (gMax-gMin)
      *           = mCE*g + bCE
     */
-    mCE= 255 / (gMax - gMin);
-    bCE= - 255*gMin / (gMax - gMin);
-    
-    /* Compute equalized histogram */
-    int sum= 0;
-    for(int i=0; i<256; i++)
-    {
-      sum += hist[i];
-      histEq[i]= (255*sum)/size;
-    }
+    float gRange= (float)Math.max(1, (gMax - gMin));
+    mCE= 255.0F / gRange;
+    bCE= - 255.0F*gMin / gRange;
   } /* computeGrayHistStatistics */
     
   
@@ -2209,10 +2263,41 @@ public class ImageXform extends Thread
       /* Pass down additional parameters from flk state since the 
        * Plugin's may not know about the Flicker internal state.
       */
-      flk.piMgr.fctCalc(flk, externFctNbr, iData, oPix);
       iOpr= PLUGIN_FCT;               /* protection */
+      if(!flk.piMgr.fctCalc(flk, externFctNbr, iData, oPix))
+      { /* failed or cancelled */
+        iData.errStr= (PluginMgr.errMsg!=null) 
+                        ? PluginMgr.errMsg
+                        : "Plugin transform [" + useXform + "] failed";
+        this.oPix= null;        /* Clean up local pointers */
+        this.iPix= null;
+        abortTransform();
+        return;
+      }
+      if(PluginMgr.getTilePlugin(externFctNbr)!=null)
+        util.showMsg2("Plugin [" + PluginMgr.efMnuName[externFctNbr] + 
+                      "] " + PluginMgr.lastNbrTiles + " tiles on " +
+                      PluginMgr.lastNbrThreads + " threads in " +
+                      PluginMgr.lastRunMsec + " msec", Color.black);
     }
     
+    else if(TransformChain.isChainName(useXform))
+    { /* Stream the image through a chain of transforms */
+      iOpr= PLUGIN_FCT;
+      TransformChain tc= new TransformChain(flk);
+      if(!tc.parse(useXform) || !tc.run(iData, oPix))
+      { /* failed or cancelled */
+        iData.errStr= tc.errMsg;
+        this.oPix= null;        /* Clean up local pointers */
+        this.iPix= null;
+        abortTransform();
+        return;
+      }
+      util.showMsg2("Chain of " + tc.nStages + " transforms, " + 
+                    tc.lastNbrTiles + " tiles on " + tc.lastNbrThreads +
+                    " threads in " + tc.lastRunMsec + " msec", Color.black);
+    } /* Stream the image through a chain of transforms */
+    
     else if ("SharpenGrad".equals(useXform))
     {
       iOpr= SHARPENGRAD;
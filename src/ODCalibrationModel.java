@@ -0,0 +1,224 @@
+/* File: ODCalibrationModel.java */
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * ODCalibrationModel class is a gray value to optical density (OD) 
+ * calibration model fit through the ND step wedge (gray peak, OD) 
+ * points with a monotone cubic spline (Fritsch-Carlson tangents), so 
+ * the map is smooth between the wedge steps and never decreases. It is 
+ * extrapolated linearly with the end tangents outside of the wedge
+ * steps and OD is clipped to be positive. If the first peak is not at
+ * gray value 0, the point (0, 0.0) is added as for the piecewise linear
+ * extrapolation.
+ *<P>
+ * The model is defined on the gray value range [0:maxGray] of the wedge
+ * histogram and may be materialized as a float lookup table for any
+ * pixel depth (e.g., 8, 12 or 16 bits) by scaling the 
+ * pixel values to that range. Tables are kept once made so the model 
+ * may be shared by all gels scanned with the same wedge and scanner 
+ * settings (see CalibrateOD.getCalibCacheKey()). The model is not 
+ * changed after it is made.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class ODCalibrationModel
+{ /* ODCalibrationModel */
+  
+  /** maximum gray value of the model domain */
+  public int
+    maxGray;
+  /** # of spline knots */
+  public int
+    nKnots;
+  /** knot gray values [0:nKnots-1], strictly increasing */
+  private float
+    knotGray[];
+  /** knot OD values [0:nKnots-1] */
+  private float
+    knotOD[];
+  /** knot tangents dOD/dGray [0:nKnots-1] */
+  private float
+    knotSlope[];
+  
+  /** float lookup tables made so far, key is the # of levels */
+  private Hashtable
+    floatLUTs= new Hashtable();
+  
+  
+  /**
+   * ODCalibrationModel() - Constructor, fit the model through the 
+   * wedge points. Points with the same gray value as the previous point
+   * (saturated steps) are ignored.
+   * @param grayPeaks is the gray value peaks [0:nPoints-1], increasing
+   * @param odValues is the OD values [0:nPoints-1], increasing
+   * @param nPoints is the # of points
+   * @param maxGray is the maximum gray value of the domain
+   */
+  public ODCalibrationModel(int grayPeaks[], float odValues[], 
+                            int nPoints, int maxGray)
+  { /* ODCalibrationModel */
+    this.maxGray= maxGray;
+    knotGray= new float[nPoints+1];
+    knotOD= new float[nPoints+1];
+    
+    /* [1] Make the knots */
+    int n= 0;
+    if(nPoints==0 || grayPeaks[0]>0)
+    { /* start at (0, 0.0) */
+      knotGray[0]= 0.0F;
+      knotOD[0]= 0.0F;
+      n= 1;
+    }
+    for(int i=0;i<nPoints;i++)
+      if(n==0 || grayPeaks[i]>knotGray[n-1])
+      {
+        knotGray[n]= grayPeaks[i];
+        knotOD[n]= odValues[i];
+        n++;
+      }
+    nKnots= n;
+    
+    /* [2] Fritsch-Carlson monotone tangents */
+    knotSlope= new float[Math.max(n,1)];
+    if(n<2)
+      return;
+    float delta[]= new float[n-1];
+    for(int k=0;k<n-1;k++)
+      delta[k]= (knotOD[k+1]-knotOD[k])/(knotGray[k+1]-knotGray[k]);
+    knotSlope[0]= delta[0];
+    knotSlope[n-1]= delta[n-2];
+    for(int k=1;k<n-1;k++)
+      knotSlope[k]= (delta[k-1]*delta[k]<=0.0F) 
+                      ? 0.0F : (delta[k-1]+delta[k])/2.0F;
+    for(int k=0;k<n-1;k++)
+    { /* limit the tangents so the segment is monotone */
+      if(delta[k]==0.0F)
+      {
+        knotSlope[k]= 0.0F;
+        knotSlope[k+1]= 0.0F;
+        continue;
+      }
+      float
+        a= knotSlope[k]/delta[k],
+        b= knotSlope[k+1]/delta[k],
+        s= a*a + b*b;
+      if(s>9.0F)
+      {
+        float t= 3.0F/(float)Math.sqrt(s);
+        knotSlope[k]= t*a*delta[k];
+        knotSlope[k+1]= t*b*delta[k];
+      }
+    } /* limit the tangents so the segment is monotone */
+  } /* ODCalibrationModel */
+  
+  
+  /**
+   * getOD() - evaluate the model at a gray value
+   * @param g is the gray value in [0:maxGray]
+   * @return OD value >= 0.0
+   */
+  public float getOD(float g)
+  { /* getOD */
+    if(nKnots==0)
+      return(Math.max(0.0F, g));
+    int
+      lo= 0,
+      hi= nKnots-1,
+      mid;
+    while(hi-lo>1)
+    { /* find the segment */
+      mid= (lo+hi)>>>1;
+      if(knotGray[mid]<=g)
+        lo= mid;
+      else
+        hi= mid;
+    }
+    return(evalSegment(lo, g));
+  } /* getOD */
+  
+  
+  /**
+   * evalSegment() - evaluate the Hermite cubic of segment k at g. 
+   * Outside of the knots it is the linear extrapolation of the end
+   * tangent.
+   * @return OD value >= 0.0
+   */
+  private float evalSegment(int k, float g)
+  { /* evalSegment */
+    float od;
+    if(nKnots==1 || g<=knotGray[0])
+      od= knotOD[0] + knotSlope[0]*(g-knotGray[0]);
+    else if(g>=knotGray[nKnots-1])
+      od= knotOD[nKnots-1] + knotSlope[nKnots-1]*(g-knotGray[nKnots-1]);
+    else
+    { /* Hermite cubic */
+      float
+        h= knotGray[k+1]-knotGray[k],
+        t= (g-knotGray[k])/h,
+        t2= t*t,
+        t3= t2*t;
+      od= (2*t3 - 3*t2 + 1)*knotOD[k] + (t3 - 2*t2 + t)*h*knotSlope[k] +
+          (-2*t3 + 3*t2)*knotOD[k+1] + (t3 - t2)*h*knotSlope[k+1];
+    }
+    return(Math.max(0.0F, od));
+  } /* evalSegment */
+  
+  
+  /**
+   * getODlut() - get the float OD lookup table for nLevels pixel 
+   * values. Pixel value i is scaled to gray value i*maxGray/(nLevels-1)
+   * of the model. The table is made once and then shared, so do not 
+   * change it.
+   * @param nLevels is the # of pixel values, e.g. 256, 4096 or 65536
+   * @return lut[0:nLevels-1]
+   */
+  public synchronized float[] getODlut(int nLevels)
+  { /* getODlut */
+    Integer key= Integer.valueOf(nLevels);
+    float lut[]= (float[])floatLUTs.get(key);
+    if(lut!=null)
+      return(lut);
+    
+    lut= new float[nLevels];
+    float scale= (nLevels>1) ? (float)maxGray/(nLevels-1) : 0.0F;
+    int k= 0;
+    for(int i=0;i<nLevels;i++)
+    { /* walk the segments in step with the pixel values */
+      float g= i*scale;
+      while(k<nKnots-2 && knotGray[k+1]<=g)
+        k++;
+      lut[i]= (nKnots==0) ? g : evalSegment(k, g);
+    }
+    floatLUTs.put(key, lut);
+    
+    return(lut);
+  } /* getODlut */
+  
+  
+  /**
+   * toString() - summary of the model
+   */
+  public String toString()
+  { /* toString */
+    String s= "ODCalibrationModel nKnots="+nKnots+" maxGray="+maxGray+
+              " OD(0)="+Util.cvf2s(getOD(0),3)+
+              " OD(maxGray)="+Util.cvf2s(getOD(maxGray),3);
+    return(s);
+  } /* toString */
+  
+  
+} /* End of class ODCalibrationModel */
@@ -0,0 +1,592 @@
+/* File: OverlayRenderer.java */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * OverlayRenderer class draws an image with its overlays (landmarks,
+ * boundary, ROI, measurement circles and spot list circles and labels)
+ * into an off-screen BufferedImage at any resolution. Unlike
+ * ImageScroller.saveAsOverlayFile(), it does not depend on the AWT 
+ * repaint cycle, the canvas size, the scroll position or a display, so
+ * it may be used headless and for many gels in parallel. 
+ * The overlays are drawn in image coordinates scaled to the output size.
+ * The view options and colors are copied from Flicker when it is 
+ * created so they don't change during a batch export. E.g.,
+ *<PRE>
+ *   OverlayRenderer or= new OverlayRenderer(flk);
+ *   BufferedImage bi= or.render(iData, false, Landmark.x1, Landmark.y1,
+ *                               2*iData.iWidth, 2*iData.iHeight);
+ *</PRE>
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class OverlayRenderer
+{ /* OverlayRenderer */
+  
+  /** ROI corner tic mark size in image pixels */
+  final static int
+    ROI_TIC_SIZE= 10;
+  /** Max # of pixels of a rendered output image */
+  public static long
+    MAX_OUT_PIXELS= 64L*1024L*1024L;
+  
+  /* --- view options copied from Flicker --- */
+  /** draw the landmarks */
+  public boolean
+    drawLandmarksFlag;
+  /** draw the boundary */
+  public boolean
+    drawBoundaryFlag;
+  /** draw the ROI */
+  public boolean
+    drawRoiFlag;
+  /** draw the measurement and background circles */
+  public boolean
+    drawMeasCircleFlag;
+  /** draw the spot list instead of the measurement circle */
+  public boolean
+    drawSpotListFlag;
+  /** draw spot location as a circle */
+  public boolean
+    spotLocCircleFlag;
+  /** draw spot location as a '+' */
+  public boolean
+    spotLocPlusFlag;
+  /** annotate spots with spot # */
+  public boolean
+    spotAnnNbrFlag;
+  /** annotate spots with spot id */
+  public boolean
+    spotAnnIdFlag;
+  
+  /** landmark color */
+  public Color
+    lmsColor;
+  /** ROI color */
+  public Color
+    roiColor;
+  /** measurement circle color */
+  public Color
+    measCircleColor;
+  /** background circle color */
+  public Color
+    bkgrdCircleColor;
+  /** measurement circle radius in image pixels */
+  public int
+    measCircleRadius;
+  /** background circle radius in image pixels */
+  public int
+    bkgrdCircleRadius;
+  /** font for landmarks without a font and for labels */
+  public Font
+    labelFont;
+  
+  /** last error message, else null */
+  public String
+    errMsg= null;
+  /** error message of each image of the last renderFiles(), null 
+   * entries if the image was written
+   */
+  public String
+    errMsgList[]= null;
+  
+  
+  /**
+   * OverlayRenderer() - Constructor, copies the current view options
+   * and colors from Flicker.
+   * @param flk is the Flicker instance
+   */
+  public OverlayRenderer(Flicker flk)
+  { /* OverlayRenderer */
+    drawLandmarksFlag= flk.viewLMSflag;
+    drawBoundaryFlag= flk.viewBoundaryFlag;
+    drawRoiFlag= flk.viewRoiFlag;
+    drawMeasCircleFlag= flk.viewMeasCircleFlag;
+    drawSpotListFlag= flk.spotsListModeFlag;
+    spotLocCircleFlag= flk.viewDrawSpotLocCircleFlag;
+    spotLocPlusFlag= flk.viewDrawSpotLocPlusFlag;
+    spotAnnNbrFlag= flk.viewDrawSpotAnnNbrFlag;
+    spotAnnIdFlag= flk.viewDrawSpotAnnIdFlag;
+    
+    lmsColor= flk.lmsColor;
+    roiColor= flk.roiColor;
+    measCircleColor= flk.measCircleColor;
+    bkgrdCircleColor= flk.bkgrdCircleColor;
+    measCircleRadius= flk.measCircleRadius;
+    bkgrdCircleRadius= flk.bkgrdCircleRadius;
+    labelFont= new Font("Helvetica", Font.PLAIN, 12);
+  } /* OverlayRenderer */
+  
+  
+  /**
+   * render() - draw the image and its overlays into a new BufferedImage
+   * of size (outWidth X outHeight).
+   * @param iData is the image data
+   * @param useOImgFlag to draw the transformed image oImg if it exists,
+   *        else the input image
+   * @param lmX is the landmark X image coordinates, e.g. Landmark.x1,
+   *        else null if no landmarks
+   * @param lmY is the landmark Y image coordinates
+   * @param outWidth is the width of the output image
+   * @param outHeight is the height of the output image
+   * @return the rendered image, else null if no image data
+   */
+  public BufferedImage render(ImageData iData, boolean useOImgFlag,
+                              int lmX[], int lmY[], 
+                              int outWidth, int outHeight)
+  { /* render */
+    int
+      w= iData.iWidth,
+      h= iData.iHeight;
+    if(w<=0 || h<=0 || outWidth<=0 || outHeight<=0)
+      return(null);
+    
+    /* [1] Get the source pixels without using the canvas */
+    int pix[]= null;
+    if(useOImgFlag && iData.oImg!=null)
+      pix= grabPixels(iData.oImg, w, h);
+    if(pix==null)
+      pix= iData.iPix;
+    if(pix==null && iData.iImg!=null)
+      pix= grabPixels(iData.iImg, w, h);
+    if(pix==null)
+      return(null);
+    
+    BufferedImage src= new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    src.getRaster().setDataElements(0, 0, w, h, pix);
+    
+    /* [2] Draw it scaled to the output size */
+    BufferedImage out= new BufferedImage(outWidth, outHeight, 
+                                         BufferedImage.TYPE_INT_RGB);
+    Graphics2D g2= out.createGraphics();
+    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g2.drawImage(src, 0, 0, outWidth, outHeight, null);
+    src= null;
+    
+    /* [3] Draw the overlays on top */
+    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                        RenderingHints.VALUE_ANTIALIAS_ON);
+    g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                        RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    drawOverlays(g2, iData, lmX, lmY, 
+                 (double)outWidth/w, (double)outHeight/h);
+    g2.dispose();
+    
+    return(out);
+  } /* render */
+  
+  
+  /**
+   * drawOverlays() - draw the overlays in image coordinates scaled by
+   * (sx,sy). Line positions scale with the image. Circle radii, tic 
+   * marks and fonts are scaled by min(sx,sy) as the canvas scales 
+   * them by the zoom magnification.
+   * @param g is graphics context
+   * @param iData is the image data
+   * @param lmX is the landmark X image coordinates, else null
+   * @param lmY is the landmark Y image coordinates
+   * @param sx is the X scale factor
+   * @param sy is the Y scale factor
+   */
+  public void drawOverlays(Graphics g, ImageData iData, 
+                           int lmX[], int lmY[], double sx, double sy)
+  { /* drawOverlays */
+    double mag= Math.min(sx, sy);
+    int x, y, r;
+    Font lblFont= labelFont.deriveFont((float)(labelFont.getSize()*mag));
+    
+    /* [1] Landmarks "+<letter>" */
+    if(drawLandmarksFlag && lmX!=null && lmY!=null)
+    { /* draw landmarks */
+      int nLM= Math.min(Landmark.nLM, Math.min(lmX.length, lmY.length));
+      for(int i=0;i<nLM;i++)
+      { /* draw a landmark */
+        String name= (Landmark.nameLM!=null) ? Landmark.nameLM[i] : null;
+        if(name==null || name.equals(""))
+          continue;
+        Font f= (Landmark.fontLM!=null && Landmark.fontLM[i]!=null)
+                  ? Landmark.fontLM[i] : labelFont;
+        g.setColor(lmsColor);
+        g.setFont(f.deriveFont((float)(f.getSize()*mag)));
+        x= (int)Math.round(lmX[i]*sx - 3*mag);
+        y= (int)Math.round(lmY[i]*sy + 4*mag);
+        g.drawString(name, x, y);
+      } /* draw a landmark */
+    } /* draw landmarks */
+    
+    /* [2] Boundary */
+    Boundary bnd= iData.bnd;
+    if(drawBoundaryFlag && bnd!=null && bnd.nPoints>0 && bnd.bnd!=null)
+    { /* draw boundary */
+      int
+        xP[]= new int[bnd.nPoints],
+        yP[]= new int[bnd.nPoints];
+      for(int i=0;i<bnd.nPoints;i++)
+      {
+        xP[i]= (int)Math.round(bnd.bnd[i].x*sx);
+        yP[i]= (int)Math.round(bnd.bnd[i].y*sy);
+      }
+      g.setColor(bnd.bndColor);
+      g.drawPolyline(xP, yP, bnd.nPoints);
+    } /* draw boundary */
+    
+    /* [3] Region Of Interest */
+    ImageDataROI idROI= iData.idROI;
+    if(drawRoiFlag && idROI!=null)
+      drawRoi(g, idROI, sx, sy, mag);
+    
+    /* [4] Measurement "circle-M" and background "circle-B" */
+    ImageDataMeas idM= iData.idM;
+    g.setFont(lblFont);
+    if(drawMeasCircleFlag && idM!=null)
+    { /* draw measurement circles */
+      if(idM.bkgrdGrayValue>=0 && idM.bkgrdObjX>0 && idM.bkgrdObjY>0)
+      {
+        x= (int)Math.round(idM.bkgrdObjX*sx);
+        y= (int)Math.round(idM.bkgrdObjY*sy);
+        r= (int)Math.round(bkgrdCircleRadius*mag);
+        drawCircle(g, x, y, r, bkgrdCircleColor);
+        g.drawString("B", x+r+(int)(2*mag), y+(int)(4*mag));
+      }
+      if(!drawSpotListFlag && idM.measGrayValue>=0 && 
+         idM.measObjX>0 && idM.measObjY>0)
+      {
+        x= (int)Math.round(idM.measObjX*sx);
+        y= (int)Math.round(idM.measObjY*sy);
+        r= (int)Math.round(measCircleRadius*mag);
+        drawCircle(g, x, y, r, measCircleColor);
+        g.drawString("M", x+r+(int)(2*mag), y+(int)(4*mag));
+      }
+    } /* draw measurement circles */
+    
+    /* [5] Spot list circles and annotations */
+    ImageDataSpotList idSL= iData.idSL;
+    if(drawSpotListFlag && idSL!=null && idSL.spotList!=null)
+      drawSpotList(g, idSL, sx, sy, mag);
+  } /* drawOverlays */
+  
+  
+  /**
+   * drawRoi() - draw the ROI rectangle or the corner tic marks of the
+   * ROI corners that are defined.
+   * @param g is graphics context
+   * @param idROI is the ROI data
+   * @param sx is the X scale factor
+   * @param sy is the Y scale factor
+   * @param mag is the tic mark scale factor
+   */
+  private void drawRoi(Graphics g, ImageDataROI idROI, 
+                       double sx, double sy, double mag)
+  { /* drawRoi */
+    int
+      tic= (int)Math.round(ROI_TIC_SIZE*mag),
+      x1= (int)Math.round(idROI.roiX1*sx),
+      y1= (int)Math.round(idROI.roiY1*sy),
+      x2= (int)Math.round(idROI.roiX2*sx),
+      y2= (int)Math.round(idROI.roiY2*sy);
+    boolean
+      ulhcFlag= (idROI.roiX1>=0 && idROI.roiY1>=0),
+      lrhcFlag= (idROI.roiX2>=0 && idROI.roiY2>=0);
+    
+    g.setColor(roiColor);
+    if(ulhcFlag && lrhcFlag)
+      g.drawRect(Math.min(x1,x2), Math.min(y1,y2), 
+                 Math.abs(x2-x1), Math.abs(y2-y1));
+    else if(ulhcFlag)
+    { /* ULHC tic */
+      g.drawLine(x1,y1, x1+tic,y1);
+      g.drawLine(x1,y1, x1,y1+tic);
+    }
+    else if(lrhcFlag)
+    { /* LRHC tic */
+      g.drawLine(x2,y2, x2-tic,y2);
+      g.drawLine(x2,y2, x2,y2-tic);
+    }
+  } /* drawRoi */
+  
+  
+  /**
+   * drawSpotList() - draw the spots as <location><annotation> as
+   * ImageScroller draws them on the canvas.
+   * @param g is graphics context
+   * @param idSL is the spot list
+   * @param sx is the X scale factor
+   * @param sy is the Y scale factor
+   * @param mag is the radius and label offset scale factor
+   */
+  private void drawSpotList(Graphics g, ImageDataSpotList idSL,
+                            double sx, double sy, double mag)
+  { /* drawSpotList */
+    Spot spotList[]= idSL.spotList;
+    int
+      nSpots= Math.min(idSL.nSpots, spotList.length),
+      x, y, 
+      xLbl, yLbl;
+    
+    g.setColor(measCircleColor);
+    for(int i=0;i<nSpots;i++)
+    { /* draw each spot */
+      Spot s= spotList[i];
+      if(s==null || s.xC<=0 || s.yC<=0)
+        continue;
+      x= (int)Math.round(s.xC*sx);
+      y= (int)Math.round(s.yC*sy);
+      String
+        sId= (s.id==null || s.id.length()==0) ? "<none>" : s.id,
+        ann= "";
+      if(spotAnnNbrFlag && spotAnnIdFlag)
+        ann= s.nbr+" "+sId;
+      else if(spotAnnNbrFlag)
+        ann= ""+s.nbr;
+      else if(spotAnnIdFlag)
+        ann= sId;
+      
+      if(spotLocCircleFlag)
+      { /* circle of size s.nCirMask with {ann} to the right */
+        int r= (int)Math.round(Math.max(1,s.nCirMask)*mag);
+        drawCircle(g, x, y, r, measCircleColor);
+        xLbl= x + r + (int)(2*mag);
+        yLbl= y + (int)(3*mag);
+      }
+      else if(spotLocPlusFlag)
+      { /* "+"{ann} */
+        ann= "+"+ann;
+        xLbl= x - (int)(3*mag);
+        yLbl= y + (int)(3*mag);
+      }
+      else
+      { /* just the annotation */
+        xLbl= x;
+        yLbl= y;
+      }
+      if(ann.length()>0)
+        g.drawString(ann, xLbl, yLbl);
+    } /* draw each spot */
+  } /* drawSpotList */
+  
+  
+  /**
+   * drawCircle() - draw a circle of radius r centered at (xC,yC)
+   * @param g is graphics context
+   * @param xC is center of circle
+   * @param yC is center of circle
+   * @param r is the radius
+   * @param color to use
+   */
+  private static void drawCircle(Graphics g, int xC, int yC, int r,
+                                 Color color)
+  { /* drawCircle */
+    r= Math.max(1, r);
+    g.setColor(color);
+    g.drawOval(xC-r, yC-r, 2*r, 2*r);
+  } /* drawCircle */
+  
+  
+  /**
+   * grabPixels() - get the pixels of an Image from its producer
+   * without drawing it.
+   * @param img is the image
+   * @param w is the width
+   * @param h is the height
+   * @return pixels [w*h], else null if failed
+   */
+  private static int[] grabPixels(Image img, int w, int h)
+  { /* grabPixels */
+    int pix[]= new int[w*h];
+    PixelGrabber pg= new PixelGrabber(img, 0, 0, w, h, pix, 0, w);
+    try
+    {
+      if(!pg.grabPixels() || (pg.status() & ImageObserver.ABORT)!=0)
+        return(null);
+    }
+    catch (InterruptedException e)
+    {
+      return(null);
+    }
+    return(pix);
+  } /* grabPixels */
+  
+  
+  /**
+   * renderFile() - render the image and its overlays scaled by scale 
+   * and save it. If the file name ends in ".gif" it is saved as a GIF,
+   * else as a PNG file.
+   * @param iData is the image data
+   * @param useOImgFlag to draw the transformed image if it exists
+   * @param lmX is the landmark X image coordinates, else null
+   * @param lmY is the landmark Y image coordinates
+   * @param scale is the output size / image size
+   * @param fileName is the full path of the file to write
+   * @return true if succeed, else see errMsg
+   */
+  public boolean renderFile(ImageData iData, boolean useOImgFlag,
+                            int lmX[], int lmY[], double scale,
+                            String fileName)
+  { /* renderFile */
+    errMsg= renderAndWriteFile(iData, useOImgFlag, lmX, lmY, scale, 
+                               fileName);
+    return(errMsg==null);
+  } /* renderFile */
+  
+  
+  /**
+   * renderAndWriteFile() - render the image and its overlays scaled 
+   * by scale and save it as for renderFile(). It does not change the
+   * instance state so it may be called from several threads. Output
+   * images larger than MAX_OUT_PIXELS are refused, and running out of
+   * memory is reported as an error for the image.
+   * @param iData is the image data
+   * @param useOImgFlag to draw the transformed image if it exists
+   * @param lmX is the landmark X image coordinates, else null
+   * @param lmY is the landmark Y image coordinates
+   * @param scale is the output size / image size
+   * @param fileName is the full path of the file to write
+   * @return null if succeed, else the error message
+   */
+  private String renderAndWriteFile(ImageData iData, boolean useOImgFlag,
+                                    int lmX[], int lmY[], double scale,
+                                    String fileName)
+  { /* renderAndWriteFile */
+    try
+    {
+      long
+        outW= Math.max(1L, Math.round(iData.iWidth*scale)),
+        outH= Math.max(1L, Math.round(iData.iHeight*scale));
+      if(outW*outH>MAX_OUT_PIXELS)
+        return("Output image ["+outW+"x"+outH+"] is too large for ["+
+               fileName+"]");
+      int
+        outWidth= (int)outW,
+        outHeight= (int)outH;
+      BufferedImage bi= render(iData, useOImgFlag, lmX, lmY, 
+                               outWidth, outHeight);
+      if(bi==null)
+        return("No image data for ["+iData.imageFile+"]");
+      
+      if(fileName.toLowerCase().endsWith(".gif"))
+      { /* GIF */
+        WriteGifEncoder wge= new WriteGifEncoder(bi);
+        if(!wge.writeFile(fileName))
+          return("Can't write ["+fileName+"]");
+      }
+      else if(!javax.imageio.ImageIO.write(bi, "png", new File(fileName)))
+        return("Can't write ["+fileName+"]");
+    }
+    catch (OutOfMemoryError e)
+    {
+      return("Out of memory rendering ["+fileName+"]");
+    }
+    catch (Throwable e)
+    {
+      return("Can't write ["+fileName+"] "+e);
+    }
+    
+    return(null);
+  } /* renderAndWriteFile */
+  
+  
+  /**
+   * renderFiles() - render and save a list of images in parallel.
+   * Each worker thread takes the next image from the list until all
+   * are done. The error message of each image is put in errMsgList[]
+   * and errMsg is set to the first one.
+   * @param iDataList is the list of images [0:nImages-1]
+   * @param useOImgFlag to draw the transformed images if they exist
+   * @param lmXlist is the landmark X coordinates of each image, 
+   *        entries may be null. The list may be null.
+   * @param lmYlist is the landmark Y coordinates of each image
+   * @param scale is the output size / image size
+   * @param fileNames is the list of files to write [0:nImages-1]
+   * @return # of images successfully written
+   */
+  public int renderFiles(final ImageData iDataList[], 
+                         final boolean useOImgFlag,
+                         final int lmXlist[][], final int lmYlist[][],
+                         final double scale, final String fileNames[])
+  { /* renderFiles */
+    final int
+      nImages= iDataList.length,
+      nextImage[]= new int[1];
+    final String
+      msgList[]= new String[nImages];
+    int
+      nThreads= Math.max(1, Math.min(ParallelBands.maxThreads, nImages)),
+      nOK= 0;
+    Thread threads[]= new Thread[nThreads];
+    
+    /* An image is only counted as written if its worker cleared this */
+    for(int i=0;i<nImages;i++)
+      msgList[i]= "Not written ["+fileNames[i]+"]";
+    
+    for(int t=0;t<nThreads;t++)
+    { /* start workers */
+      threads[t]= new Thread("OverlayRenderer-"+t)
+        {
+          public void run()
+          {
+            int i;
+            while((i= getNextImage(nextImage, nImages))!=-1)
+            { /* render next image */
+              int
+                lmX[]= (lmXlist==null) ? null : lmXlist[i],
+                lmY[]= (lmYlist==null) ? null : lmYlist[i];
+              msgList[i]= renderAndWriteFile(iDataList[i], useOImgFlag, 
+                                             lmX, lmY, scale, fileNames[i]);
+            }
+          }
+        };
+      threads[t].start();
+    } /* start workers */
+    
+    for(int t=0;t<nThreads;t++)
+    { /* wait for workers */
+      try
+      { threads[t].join(); }
+      catch(InterruptedException e)
+      { Thread.currentThread().interrupt(); }
+    }
+    
+    errMsg= null;
+    for(int i=0;i<nImages;i++)
+      if(msgList[i]==null)
+        nOK++;
+      else if(errMsg==null)
+        errMsg= msgList[i];
+    errMsgList= msgList;
+    
+    return(nOK);
+  } /* renderFiles */
+  
+  
+  /**
+   * getNextImage() - get the index of the next image to render
+   * @param nextImage is the shared next image counter
+   * @param nImages is the # of images
+   * @return index of image, else -1 if all taken
+   */
+  private static int getNextImage(int nextImage[], int nImages)
+  { /* getNextImage */
+    synchronized(nextImage)
+    {
+      if(nextImage[0]>=nImages)
+        return(-1);
+      return(nextImage[0]++);
+    }
+  } /* getNextImage */
+  
+} /* End of class OverlayRenderer */
@@ -0,0 +1,208 @@
+/* File: ParallelBands.java */
+
+import java.lang.*;
+
+/**
+ * ParallelBands class splits an image into horizontal bands of rows and
+ * processes the bands in parallel, one thread per band. The calling thread
+ * processes the first band and then waits for the other bands to finish.
+ * Subclass it and define doBand() for the work done on a band of rows.
+ * E.g.,
+ *<PRE>
+ *   ParallelBands pb= new ParallelBands() {
+ *       public void doBand(int band, int y1, int y2)
+ *       { ... process rows [y1:y2-1] ... }
+ *     };
+ *   pb.run(nRows);
+ *</PRE>
+ * Bands must only write to their own rows or to their own partial 
+ * results (e.g., a per-band histogram indexed by band #) that are 
+ * merged after run() returns.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public abstract class ParallelBands
+{ /* ParallelBands */
+  
+  /** Minimum # of rows in a band so small images are not split */
+  public static int
+    MIN_ROWS_PER_BAND= 32;
+  /** Maximum # of threads (i.e. bands) to use */
+  public static int
+    maxThreads= Math.max(1, Runtime.getRuntime().availableProcessors());
+  
+  /** First error thrown by a band, else null */
+  public Throwable
+    bandError= null;
+  
+  
+  /**
+   * ParallelBands() - Constructor
+   */
+  public ParallelBands()
+  { /* ParallelBands */
+  } /* ParallelBands */
+  
+  
+  /**
+   * doBand() - process the band of rows [y1:y2-1]. This is called 
+   * once for each band # [0:nBands-1], in parallel.
+   * @param band is the band # 
+   * @param y1 is the first row in the band
+   * @param y2 is one past the last row in the band
+   */
+  public abstract void doBand(int band, int y1, int y2);
+  
+  
+  /**
+   * getNbrBands() - get the # of bands run() will use for nRows
+   * so callers can allocate per band partial results.
+   * @param nRows is the # of rows to process
+   * @return # of bands, at least 1
+   */
+  public static int getNbrBands(int nRows)
+  { /* getNbrBands */
+    int nBands= Math.min(maxThreads, nRows/MIN_ROWS_PER_BAND);
+    return(Math.max(1, nBands));
+  } /* getNbrBands */
+  
+  
+  /**
+   * getBandStart() - get the first row of a band
+   * @param band is the band # [0:nBands]
+   * @param nBands is the # of bands
+   * @param nRows is the # of rows to process
+   * @return first row of the band. For band==nBands it is nRows.
+   */
+  public static int getBandStart(int band, int nBands, int nRows)
+  { return((int)(((long)band*nRows)/nBands)); }
+  
+  
+  /**
+   * run() - process rows [0:nRows-1] by bands in parallel and wait for
+   * all of the bands to finish. If a band threw an error, it is rethrown
+   * as a RuntimeException after all of the bands finish.
+   * @param nRows is the # of rows to process
+   * @return # of bands used
+   */
+  public int run(final int nRows)
+  { return(run(nRows, getNbrBands(nRows))); }
+  
+  
+  /**
+   * run() - process rows [0:nRows-1] in a fixed # of bands and wait for
+   * all of the bands to finish. Use this when the result depends on 
+   * where the bands split the rows, so it must not depend on the # of 
+   * processors. Up to maxThreads threads each take the next band until
+   * all are done. Errors are rethrown as for run(nRows).
+   * @param nRows is the # of rows to process
+   * @param nBandsWanted is the # of bands to use, at most nRows
+   * @return # of bands used
+   */
+  public int run(final int nRows, int nBandsWanted)
+  { /* run */
+    bandError= null;
+    if(nRows<=0)
+      return(0);
+    final int
+      nBands= Math.max(1, Math.min(nBandsWanted, nRows)),
+      nextBand[]= new int[1];
+    int nThreads= Math.min(maxThreads, nBands);
+    
+    Thread threads[]= new Thread[nThreads];
+    for(int t=1;t<nThreads;t++)
+    { /* start the other workers */
+      threads[t]= new Thread("ParallelBands-"+t)
+        {
+          public void run()
+          { doBands(nextBand, nBands, nRows); }
+        };
+      threads[t].start();
+    } /* start the other workers */
+    
+    doBands(nextBand, nBands, nRows);
+    
+    for(int t=1;t<nThreads;t++)
+    { /* wait for the other workers */
+      try
+      { threads[t].join(); }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        setBandError(e);
+      }
+    }
+    
+    if(bandError instanceof RuntimeException)
+      throw((RuntimeException)bandError);
+    else if(bandError instanceof Error)
+      throw((Error)bandError);
+    else if(bandError!=null)
+      throw(new RuntimeException(bandError.toString()));
+    
+    return(nBands);
+  } /* run */
+  
+  
+  /**
+   * doBands() - process the next band not yet taken until all of the
+   * bands are done.
+   * @param nextBand is the shared next band counter
+   * @param nBands is the # of bands
+   * @param nRows is the # of rows to process
+   */
+  private void doBands(int nextBand[], int nBands, int nRows)
+  { /* doBands */
+    while(true)
+    {
+      int band;
+      synchronized(nextBand)
+      {
+        band= nextBand[0]++;
+      }
+      if(band>=nBands)
+        return;
+      doBandSafe(band, getBandStart(band, nBands, nRows),
+                 getBandStart(band+1, nBands, nRows));
+    }
+  } /* doBands */
+  
+  
+  /**
+   * doBandSafe() - process a band and save the error if any
+   * @param band is the band #
+   * @param y1 is the first row in the band
+   * @param y2 is one past the last row in the band
+   */
+  private void doBandSafe(int band, int y1, int y2)
+  { /* doBandSafe */
+    try
+    { doBand(band, y1, y2); }
+    catch(Throwable e)
+    { setBandError(e); }
+  } /* doBandSafe */
+  
+  
+  /**
+   * setBandError() - save the first band error
+   * @param e is the error
+   */
+  private synchronized void setBandError(Throwable e)
+  { /* setBandError */
+    if(bandError==null)
+      bandError= e;
+  } /* setBandError */
+  
+} /* End of class ParallelBands */
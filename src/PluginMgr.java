@@ -1,9 +1,18 @@
 /* File: PluginMgr.java  */
 
 import java.lang.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
 
 /**
  * PluginMgr base class is used for managing user Plugin{n}'s for Flicker.
+ * It also finds the TilePlugin transforms in the jar files in the 
+ * "plugins/" directory using java.util.ServiceLoader and runs them tile
+ * by tile in parallel. These are numbered after the Plugin{n}'s and 
+ * appear in the (Transform | Plugins) menu. A running tile plugin may 
+ * be cancelled from the Transform menu and its run time is reported
+ * when it finishes.
  *<P>
  * This work was produced by Peter Lemkin of the National Cancer
  * Institute, an agency of the United States Government.  As a work of
@@ -25,9 +34,16 @@ public class PluginMgr
   static Flicker
     flk;
   
-  /** max # of external functions alloc'ed*/
+  /** max # of builtin Plugin{n} external functions */
   final static int 
     MAX_EXTERN_FCTS= 3; 
+  /** directory under user.dir with the TilePlugin jar files */
+  final static String
+    PLUGINS_DIR= "plugins";
+  /** # of rows in a tile. Each thread runs its band as a sequence of
+   * tiles of this size so it can be cancelled between tiles. */
+  public static int
+    ROWS_PER_TILE= 64;
   /** name of external function command */
   public static String
     efName[]= new String[MAX_EXTERN_FCTS+1]; 
@@ -49,6 +65,28 @@ public class PluginMgr
   /** # of active plugins found */ 
   public static int
     nPluginsFound= 0;			      
+  /** TilePlugin of external function [1:nExtFcts], null if it is a
+   * Plugin{n} */
+  public static TilePlugin
+    tilePlugins[]= new TilePlugin[MAX_EXTERN_FCTS+1];
+  /** # of TilePlugins found */
+  public static int
+    nTilePlugins= 0;
+  /** set to cancel the running tile plugins */
+  public static volatile boolean
+    cancelFlag= false;
+  /** last tile plugin error message, else null */
+  public static String
+    errMsg= null;
+  /** run time of the last tile plugin in msec */
+  public static long
+    lastRunMsec= 0;
+  /** # of tiles processed by the last tile plugin */
+  public static int
+    lastNbrTiles= 0;
+  /** # of threads used by the last tile plugin */
+  public static int
+    lastNbrThreads= 0;
   
   /* Add more when add more plugins */
   public static Plugin1 
@@ -86,36 +124,151 @@ public class PluginMgr
   
   
   /**
-   * PluginMgr() - constructor called from main to initialize things
+   * PluginMgr() - constructor called from main to initialize things.
+   * The builtin Plugin{n}'s are only setup if flk.USE_PLUGINS is set.
+   * The TilePlugins in the "plugins/" directory are always setup.
    */
   public PluginMgr(Flicker flkS)
   { /* PluginMgr */
     flk= flkS;
     
-    /* Init the plugin database */
+    /* [1] Find the TilePlugins */
+    Vector tpList= loadTilePlugins(flk.userDir+PLUGINS_DIR);
+    
+    /* [2] Init the plugin database */
+    int maxFcts= MAX_EXTERN_FCTS + tpList.size();
+    
     nPluginsFound= 0;
     nExtFcts= 0;
+    nTilePlugins= 0;
+    
+    efName= new String[maxFcts+1];
+    efInfo= new String[maxFcts+1];
+    efMnuName= new String[maxFcts+1];
+    efIsActive= new boolean[maxFcts+1];
+    efNbr= new int[maxFcts+1];    
+    tilePlugins= new TilePlugin[maxFcts+1];
+    
+    /* [3] Setup the plugins in case we need to call them later...*/
+    if(flk.USE_PLUGINS)
+    { /* builtin plugins */
+      ef1= new Plugin1();
+      pushEFentry(ef1.name, ef1.mnuName, ef1.info, ef1.isActive,
+                  ef1.extFctNbr);
+      
+      ef2= new Plugin2();
+      pushEFentry(ef2.name, ef2.mnuName, ef2.info, ef2.isActive,
+                  ef2.extFctNbr);
+      
+      ef3= new Plugin3();
+      pushEFentry(ef3.name, ef3.mnuName, ef3.info, ef3.isActive,
+                  ef3.extFctNbr);
+      /* ... add more ... */
+    } /* builtin plugins */
     
-    efName= new String[MAX_EXTERN_FCTS+1];
-    efInfo= new String[MAX_EXTERN_FCTS+1];
-    efMnuName= new String[MAX_EXTERN_FCTS+1];
-    efIsActive= new boolean[MAX_EXTERN_FCTS+1];
-    efNbr= new int[MAX_EXTERN_FCTS+1];    
-    
-    /* Setup the plugins in case we need to call them later...*/
-    ef1= new Plugin1();
-    pushEFentry(ef1.name, ef1.mnuName, ef1.info, ef1.isActive,
-                ef1.extFctNbr);
-    
-    ef2= new Plugin2();
-    pushEFentry(ef2.name, ef2.mnuName, ef2.info, ef2.isActive,
-                ef2.extFctNbr);
-    
-    ef3= new Plugin3();
-    pushEFentry(ef3.name, ef3.mnuName, ef3.info, ef3.isActive,
-                ef3.extFctNbr);
-    /* ... add more ... */
+    /* [4] Add the TilePlugins numbered after the builtin plugins.
+     * The command name must be "Plugin<nbr>" for EventMenu.
+     */
+    for(int i=0;i<tpList.size();i++)
+    { /* push TilePlugin */
+      TilePlugin tp= (TilePlugin)tpList.elementAt(i);
+      int nbr= nExtFcts+1;
+      pushEFentry("Plugin"+nbr, tp.getMenuName(), tp.getInfo(), true, nbr);
+      tilePlugins[nbr]= tp;
+      nTilePlugins++;
+    } /* push TilePlugin */
   } /* PluginMgr */
+  
+  
+  /**
+   * loadTilePlugins() - find the TilePlugins in the jar files in the
+   * plugins directory using ServiceLoader. Plugins that fail to load
+   * are reported and skipped.
+   * @param pluginsDir is the directory with the jar files
+   * @return list of TilePlugin instances, may be empty
+   */
+  private static Vector loadTilePlugins(String pluginsDir)
+  { /* loadTilePlugins */
+    Vector tpList= new Vector();
+    File dir= new File(pluginsDir);
+    File files[]= (dir.isDirectory()) ? dir.listFiles() : null;
+    if(files==null)
+      return(tpList);
+    
+    Vector urlList= new Vector();
+    for(int i=0;i<files.length;i++)
+      if(files[i].getName().toLowerCase().endsWith(".jar"))
+        try
+        { urlList.addElement(files[i].toURI().toURL()); }
+        catch(MalformedURLException e)
+        { }
+    if(urlList.size()==0)
+      return(tpList);
+    
+    URL urls[]= new URL[urlList.size()];
+    urlList.copyInto(urls);
+    ClassLoader cl= new URLClassLoader(urls, 
+                                       TilePlugin.class.getClassLoader());
+    Iterator it= ServiceLoader.load(TilePlugin.class, cl).iterator();
+    while(true)
+    { /* instantiate each plugin */
+      try
+      {
+        if(!it.hasNext())
+          break;
+        TilePlugin tp= (TilePlugin)it.next();
+        if(tp.getName()!=null && tp.getMenuName()!=null)
+          tpList.addElement(tp);
+      }
+      catch(Throwable e)
+      { /* ServiceConfigurationError, LinkageError, etc. */
+        System.out.println("Can't load plugin from ["+pluginsDir+"] "+e);
+        if(e instanceof Error && !(e instanceof LinkageError) &&
+           !(e instanceof ServiceConfigurationError))
+          break;
+      }
+    } /* instantiate each plugin */
+    
+    return(tpList);
+  } /* loadTilePlugins */
+  
+  
+  /**
+   * getTilePlugin() - get the TilePlugin for external function number
+   * @param nbr is the external function number
+   * @return TilePlugin, else null if not a TilePlugin
+   */
+  public static TilePlugin getTilePlugin(int nbr)
+  { /* getTilePlugin */
+    if(nbr<=0 || nbr>=tilePlugins.length)
+      return(null);
+    return(tilePlugins[nbr]);
+  } /* getTilePlugin */
+  
+  
+  /**
+   * lookupFctNbr() - lookup the external function number of a command
+   * name "Plugin<nbr>"
+   * @param cmd is the command name
+   * @return the external function number, else 0 if not found
+   */
+  public static int lookupFctNbr(String cmd)
+  { /* lookupFctNbr */
+    for(int i=1;cmd!=null && i<=nExtFcts;i++)
+      if(cmd.equals(efName[i]))
+        return(efNbr[i]);
+    return(0);
+  } /* lookupFctNbr */
+  
+  
+  /**
+   * cancel() - cancel the running tile plugins. The tiles in progress
+   * finish and the remaining tiles are skipped.
+   */
+  public static void cancel()
+  { /* cancel */
+    cancelFlag= true;
+  } /* cancel */
     
   
   /**
@@ -152,14 +305,22 @@ public class PluginMgr
                                 ImageData iData, int oPix[])
   { /* fctCalc */
     boolean flag= false;
+    TilePlugin tp= getTilePlugin(efNbr);
+    if(tp!=null)
+      return(runTilePlugin(tp, flk, iData, oPix));
+    
+    errMsg= null;
     switch(efNbr)
     {
       case 1:
-        flag= ef1.fctCalc(flk, iData,oPix);
+        flag= (ef1!=null && ef1.fctCalc(flk, iData,oPix));
+        break;
       case 2:
-        flag= ef2.fctCalc(flk, iData,oPix);
+        flag= (ef2!=null && ef2.fctCalc(flk, iData,oPix));
+        break;
       case 3:
-        flag= ef3.fctCalc(flk, iData,oPix);
+        flag= (ef3!=null && ef3.fctCalc(flk, iData,oPix));
+        break;
         /* ... add more ... */
       default:
         flag= false;                	/* failed */
@@ -169,4 +330,84 @@ public class PluginMgr
   } /* fctCalc */
   
   
+  /**
+   * runTilePlugin() - run a TilePlugin on iData.iPix[] into oPix[].
+   * The image is split into ParallelBands bands, one per thread, and 
+   * each band is processed as a sequence of tiles of ROWS_PER_TILE rows
+   * plus the plugin's halo rows. The cancelFlag is tested between tiles.
+   * The run time, # of tiles and # of threads are saved in lastRunMsec,
+   * lastNbrTiles and lastNbrThreads.
+   * @param tp is the plugin
+   * @param flk is instance of flicker
+   * @param iData image data to process
+   * @param oPix is output pixel array to put results
+   * @return false if failed or cancelled, errMsg has the reason.
+   */
+  public static boolean runTilePlugin(final TilePlugin tp, Flicker flk,
+                                      ImageData iData, final int oPix[])
+  { /* runTilePlugin */
+    final int
+      width= iData.iWidth,
+      height= iData.iHeight,
+      iPix[]= iData.iPix,
+      halo= Math.max(0, tp.getHaloSize()),
+      nBands= ParallelBands.getNbrBands(height),
+      bandTiles[]= new int[nBands];
+    long startTime= System.currentTimeMillis();
+    
+    errMsg= null;
+    cancelFlag= false;
+    lastNbrTiles= 0;
+    lastNbrThreads= 0;
+    lastRunMsec= 0;
+    if(iPix==null || oPix==null || iPix.length<width*height ||
+       oPix.length<width*height)
+    {
+      errMsg= "No image data for plugin ["+tp.getName()+"]";
+      return(false);
+    }
+    
+    try
+    {
+      if(!tp.init(flk, iData))
+      {
+        errMsg= "Plugin ["+tp.getName()+"] failed to initialize";
+        return(false);
+      }
+      
+      lastNbrThreads= new ParallelBands()
+        {
+          public void doBand(int band, int y1, int y2)
+          { /* doBand */
+            for(int ty1= y1; ty1<y2 && !cancelFlag; ty1+= ROWS_PER_TILE)
+            { /* process tile */
+              int ty2= Math.min(y2, ty1+ROWS_PER_TILE);
+              tp.processTile(new PluginTile(width, height, ty1, ty2, halo,
+                                            iPix, 0, oPix, 0));
+              bandTiles[band]++;
+            }
+          } /* doBand */
+        }.run(height);
+    }
+    catch(Throwable e)
+    { /* error in plugin */
+      errMsg= "Plugin ["+tp.getName()+"] failed - "+e;
+      return(false);
+    }
+    
+    for(int b=0;b<nBands;b++)
+      lastNbrTiles+= bandTiles[b];
+    lastRunMsec= System.currentTimeMillis() - startTime;
+    
+    if(cancelFlag)
+    {
+      errMsg= "Plugin ["+tp.getName()+"] was cancelled";
+      cancelFlag= false;
+      return(false);
+    }
+    
+    return(true);
+  } /* runTilePlugin */
+  
+  
 } /* End of PluginMgr */
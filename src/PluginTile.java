@@ -0,0 +1,141 @@
+/* File: PluginTile.java */
+
+import java.lang.*;
+
+/**
+ * PluginTile class describes a tile passed to TilePlugin.processTile().
+ * The tile is the band of output rows [y1:y2-1] of the full image width
+ * and its input rows [hy1:hy2-1] which include the halo rows. All row 
+ * numbers are in image coordinates. The input and output pixel arrays
+ * may either be the full image arrays or smaller buffers just holding 
+ * the tile rows, so plugins should access pixels with getIn() and
+ * setOut() or with the inOffset() and outOffset() row offsets.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ * @see TilePlugin
+ */
+
+public class PluginTile
+{ /* PluginTile */
+  
+  /** image width, also the width of the tile */
+  public int
+    width;
+  /** image height */
+  public int
+    height;
+  /** first output row */
+  public int
+    y1;
+  /** one past the last output row */
+  public int
+    y2;
+  /** first input row including the halo */
+  public int
+    hy1;
+  /** one past the last input row including the halo */
+  public int
+    hy2;
+  /** input pixels, row inY0 is at inPix[0] */
+  public int
+    inPix[];
+  /** image row of inPix[0] */
+  public int
+    inY0;
+  /** output pixels, row outY0 is at outPix[0] */
+  public int
+    outPix[];
+  /** image row of outPix[0] */
+  public int
+    outY0;
+  
+  
+  /**
+   * PluginTile() - Constructor
+   * @param width is the image width
+   * @param height is the image height
+   * @param y1 is the first output row
+   * @param y2 is one past the last output row
+   * @param halo is the # of halo rows
+   * @param inPix is the input pixels 
+   * @param inY0 is the image row of inPix[0]
+   * @param outPix is the output pixels
+   * @param outY0 is the image row of outPix[0]
+   */
+  public PluginTile(int width, int height, int y1, int y2, int halo,
+                    int inPix[], int inY0, int outPix[], int outY0)
+  { /* PluginTile */
+    this.width= width;
+    this.height= height;
+    this.y1= y1;
+    this.y2= y2;
+    this.hy1= Math.max(0, y1-halo);
+    this.hy2= Math.min(height, y2+halo);
+    this.inPix= inPix;
+    this.inY0= inY0;
+    this.outPix= outPix;
+    this.outY0= outY0;
+  } /* PluginTile */
+  
+  
+  /**
+   * inOffset() - get the inPix[] index of the start of input row y
+   * @param y is the image row [hy1:hy2-1]
+   * @return index
+   */
+  public final int inOffset(int y)
+  { return((y-inY0)*width); }
+  
+  
+  /**
+   * outOffset() - get the outPix[] index of the start of output row y
+   * @param y is the image row [y1:y2-1]
+   * @return index
+   */
+  public final int outOffset(int y)
+  { return((y-outY0)*width); }
+  
+  
+  /**
+   * getIn() - get input pixel (x,y). Coordinates outside of the image
+   * are clamped to the nearest edge pixel so filters don't need special
+   * edge code. The halo must be large enough for y.
+   * @param x is the column
+   * @param y is the image row
+   * @return packed ARGB pixel
+   */
+  public final int getIn(int x, int y)
+  { /* getIn */
+    if(x<0)
+      x= 0;
+    else if(x>=width)
+      x= width-1;
+    if(y<hy1)
+      y= hy1;
+    else if(y>=hy2)
+      y= hy2-1;
+    return(inPix[(y-inY0)*width + x]);
+  } /* getIn */
+  
+  
+  /**
+   * setOut() - set output pixel (x,y)
+   * @param x is the column
+   * @param y is the image row [y1:y2-1]
+   * @param pixel is packed ARGB pixel
+   */
+  public final void setOut(int x, int y, int pixel)
+  { outPix[(y-outY0)*width + x]= pixel; }
+  
+} /* End of class PluginTile */
@@ -8,6 +8,8 @@ import java.net.*;
 import java.lang.*;
 import java.io.*;
 import java.io.FileReader;
+import java.nio.*;
+import java.nio.channels.FileChannel;
 
 /* Class PpxLoader is used to read PPX portable picture format .ppx images 
  * used by GELLAB-II. Note: you don't get the pixels from this class. 
@@ -282,6 +284,20 @@ public class PpxLoader
   private int
     pixels[]= null;
   
+  /** Memory-mapped local PPX file if it was opened with mapPPXfile().
+   * The mapping stays valid after the file channel is closed.
+   */
+  private MappedByteBuffer
+    mappedPPX= null;
+  /** 8-bit gray pixel store [0:nPixels-1] as a read-only view into 
+   * mappedPPX. It is null if the file was read with readPPXfile().
+   */
+  private ByteBuffer
+    grayPixels= null;
+  /** # of rows/tile delivered by the PpxImageProducer */
+  public static int
+    PPX_TILE_ROWS= 64;
+  
   /** # of pixels for the image is (nrows*ncols) */
   public int
     nPixels= 0;
@@ -329,7 +345,7 @@ public class PpxLoader
    */
   final private int cvByte2Int(byte b)
   { /* cvByte2Int */ 
-    int i= (b>=0) ? b : (128-b-1);
+    int i= (b & 0377);
     return(i);
     
     /* TEST the byte conversion around boundary conditions for signed byte.
@@ -547,10 +563,168 @@ public class PpxLoader
   public Image getImage()
   { /* getImage */
     if(img==null)
-      makePPXimage();  /* make img and pixels[] from byte bPixels[] data */
+    { /* make the image */
+      if(grayPixels!=null)
+        makeMappedPPXimage(); /* tiles are converted on demand from the map */
+      else
+        makePPXimage();  /* make img and pixels[] from byte bPixels[] data */
+    }
     return(img);
   } /* getImage */
   
+  
+  /**
+   * getResizedImage() - get the image resized to target size in the 
+   * same way as ImageData.resizeImageToTargetSize(). A memory-mapped 
+   * file is sampled directly from the gray pixel store so only the 
+   * resized ARGB pixels are allocated, never a full size copy.
+   * @param minTargetSize allowed 
+   * @param maxTargetSize allowed
+   * @param targetSize to set the image to if resizing and it is not 0
+   * @return image else null if there is no pixel data
+   */
+  public Image getResizedImage(int minTargetSize, int maxTargetSize,
+                               int targetSize)
+  { /* getResizedImage */
+    float f= ImageData.getTargetScale(ncols, nrows, minTargetSize,
+                                      maxTargetSize, targetSize);
+    if(f==1.0F)
+      return(getImage());
+    if(grayPixels==null)
+      return(ImageData.resizeImageToTargetSize(getImage(), ncols, nrows,
+                                               minTargetSize, 
+                                               maxTargetSize, targetSize));
+    
+    float fI= (float)1.0/f;
+    int
+      alpha= (255<<24),
+      g,
+      h2= (int)(f*nrows),
+      w2= (int)(f*ncols),
+      outPix[]= new int[h2*w2];
+    
+    for(int y2=0; y2<h2; y2++)
+    { /* sample and copy pixels from the map to the new image */
+      int
+        y1ncols= ((int)(fI*y2))*ncols,
+        y2w2= y2*w2;
+      for(int x2= 0; x2<w2; x2++)
+      {
+        g= getGrayPixel(y1ncols + (int)(fI*x2));
+        if(!blackIsZeroFlag)
+          g= 255 - g;
+        outPix[y2w2 + x2]= (alpha | (g<<16) | (g<<8) | g);
+      }
+    } /* sample and copy pixels from the map to the new image */
+    
+    Toolkit dtk= Toolkit.getDefaultToolkit();
+    Image rImg= dtk.createImage(new MemoryImageSource(w2, h2, outPix, 0, w2));
+    return(rImg);
+  } /* getResizedImage */
+  
+  
+  /**
+   * getGrayPixels() - get the 8-bit gray pixel store of a memory-mapped
+   * PPX file. The buffer is a read-only view of the file data with
+   * (nrows*ncols) bytes in raster order. Note that the bytes are the 
+   * raw file values and are NOT corrected for blackIsZeroFlag.
+   * @return duplicate of the gray pixel store else null if not mapped.
+   */
+  public ByteBuffer getGrayPixels()
+  { /* getGrayPixels */
+    if(grayPixels==null)
+      return(null);
+    return(grayPixels.duplicate());
+  } /* getGrayPixels */
+  
+  
+  /**
+   * getGrayPixel() - get the unsigned raw gray value at (x,y) from the
+   * memory-mapped gray pixel store.
+   * @param x is column [0:ncols-1]
+   * @param y is row [0:nrows-1]
+   * @return gray value [0:255], else -1 if not mapped or out of bounds
+   */
+  public int getGrayPixel(int x, int y)
+  { /* getGrayPixel */
+    if(grayPixels==null || x<0 || y<0 || x>=ncols || y>=nrows)
+      return(-1);
+    return(getGrayPixel(y*ncols + x));
+  } /* getGrayPixel */
+  
+  
+  /**
+   * getGrayPixel() - get the unsigned raw gray value at raster index i
+   * of the memory-mapped gray pixel store. There is no bounds check.
+   * @param i is index [0:nrows*ncols-1]
+   * @return gray value [0:255]
+   */
+  private int getGrayPixel(int i)
+  { return(grayPixels.get(i) & 0377); }
+  
+  
+  /**
+   * mapPPXfile() - memory-map a local PPX file. The 512 byte header is
+   * parsed from the mapped buffer and the raster data following it is 
+   * exposed as the 8-bit gray pixel store without copying it into the
+   * Java heap. If the file is a URL, or is not an uncompressed single 
+   * band 8-bit raster, then fall back to readPPXfile().
+   * @param ppxFileName is the full path file name to be read
+   * @return true if succeed and the data is in the class instance.
+   */
+  boolean mapPPXfile(String ppxFileName)
+  { /* mapPPXfile */
+    this.ppxFileName= ppxFileName;
+    
+    boolean isURL= (ppxFileName.indexOf("://")>0);
+    if(isURL)
+      return(readPPXfile(ppxFileName));   /* can't map a remote file */
+    
+    try
+    { /* map the file and set up the state */
+      RandomAccessFile raf= new RandomAccessFile(new File(ppxFileName), "r");
+      FileChannel fc= raf.getChannel();
+      long fileSize= fc.size();
+      if(fileSize<512)
+      {
+        raf.close();
+        return(false);                       /* bad data */
+      }
+      MappedByteBuffer mbb= fc.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   fileSize);
+      raf.close();                 /* the mapping remains valid */
+      
+      /* Parse the header from the head of the mapping */
+      byte hdrBuf[]= new byte[512];
+      mbb.get(hdrBuf, 0, 512);
+      if(!cvP2Ihdr(hdrBuf))
+        return(false);
+      
+      if(imEncode!=0 || bytpp>1 || nbands>1 || 
+         fileSize<(512L+nPixels))
+      { /* not a simple 8-bit raster - use the stream reader */
+        return(readPPXfile(ppxFileName));
+      }
+      
+      /* The pixel store is the raster data following the header */
+      mbb.position(512);
+      ByteBuffer gp= mbb.slice();
+      gp.limit(nPixels);
+      
+      this.mappedPPX= mbb;
+      this.grayPixels= gp.asReadOnlyBuffer();
+      this.bPixels= null;
+    } /* map the file and set up the state */
+    
+    catch(Exception e)
+    { /* just fail if any problems at all! */
+      e.printStackTrace();
+      return(false);
+    }
+    
+    return(true);
+  } /* mapPPXfile */
+  
     
   /**
    * readPPXfile() - read loca PPX file or PPX file URL.
@@ -672,7 +846,7 @@ public class PpxLoader
     for(int i=0;i<nPixels;i++)
     { /* create RGB cm with 0 being black & force bPixels to 0 being black*/
       g= (!blackIsZeroFlag)
-            ? (255 - bPixels[i]) : bPixels[i]; 
+            ? (255 - (bPixels[i] & 0377)) : (bPixels[i] & 0377); 
       bPixels[i]= (byte)g;
       pixels[i]= (alpha | (g<<16) | (g<<8) | g);
     }
@@ -691,6 +865,33 @@ public class PpxLoader
     
     return(true);
   } /* makePPXimage */
+  
+  
+  /**
+   * makeMappedPPXimage() - make img from the memory-mapped gray pixel 
+   * store. No full-size pixel array is built. Instead, the 
+   * PpxImageProducer delivers PPX_TILE_ROWS row tiles of 8-bit pixels
+   * with a gray IndexColorModel so the ARGB conversion is only done by
+   * the image consumer for each tile as it is requested.
+   * @return true if generate the Image instance and colorModel
+   */
+  public boolean makeMappedPPXimage()
+  { /* makeMappedPPXimage */
+    if(grayPixels==null)
+      return(false);
+    
+    /* Map gray to display with black as 0 */
+    byte lut[]= new byte[256];
+    for(int i=0;i<256;i++)
+      lut[i]= (byte)((!blackIsZeroFlag) ? (255-i) : i);
+    cm= new IndexColorModel(8, 256, lut, lut, lut);
+    
+    Toolkit dtk= Toolkit.getDefaultToolkit();
+    img= dtk.createImage(new PpxImageProducer(ncols, nrows,
+                                              (IndexColorModel)cm,
+                                              grayPixels, PPX_TILE_ROWS));
+    return(true);
+  } /* makeMappedPPXimage */
     
   
   /**
@@ -716,6 +917,8 @@ public class PpxLoader
           ((bPixels==null) ? "bPixels is null" : (""+bPixels.length));
     sR += "\n pixels.length="+
           ((pixels==null) ? "pixels is null" : (""+pixels.length));
+    sR += "\n grayPixels="+
+          ((grayPixels==null) ? "not mapped" : (""+grayPixels.limit()));
           
     sR += "\n x0="+x0+" y0="+y0;
     sR += "\n filtyp=" + filtyp+" cMapMode="+cMapMode+" imEncode="+imEncode;
@@ -738,4 +941,124 @@ public class PpxLoader
     return(sR);
   } /* toString */
   
-} /* End of PpxLoader.java */
+} /* End of class PpxLoader */
+
+
+
+/* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
+/*                 CLASS  PpxImageProducer                        */
+/* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
+
+
+/**
+ * PpxImageProducer delivers an 8-bit gray pixel store to image consumers
+ * in tiles of rows. Only one tile buffer is allocated per production so
+ * a memory-mapped PPX file is never copied as a whole into the heap.
+ */
+
+class PpxImageProducer implements ImageProducer
+{
+  /** image width */
+  private int
+    width;
+  /** image height */
+  private int
+    height;
+  /** # of rows per tile */
+  private int
+    tileRows;
+  /** gray to display color model */
+  private IndexColorModel
+    icm;
+  /** 8-bit gray pixel store [0:width*height-1] */
+  private ByteBuffer
+    grayPixels;
+  /** list of active ImageConsumers */
+  private Vector
+    consumers= new Vector();
+  
+  
+  /**
+   * PpxImageProducer() - Constructor
+   * @param width of image
+   * @param height of image
+   * @param icm is gray to display color model
+   * @param grayPixels is the 8-bit pixel store
+   * @param tileRows is the # of rows/tile
+   */
+  PpxImageProducer(int width, int height, IndexColorModel icm,
+                   ByteBuffer grayPixels, int tileRows)
+  { /* PpxImageProducer */
+    this.width= width;
+    this.height= height;
+    this.icm= icm;
+    this.grayPixels= grayPixels;
+    this.tileRows= Math.max(1, tileRows);
+  } /* PpxImageProducer */
+  
+  
+  /** addConsumer() - register an ImageConsumer */
+  public synchronized void addConsumer(ImageConsumer ic)
+  {
+    if(!consumers.contains(ic))
+      consumers.addElement(ic);
+  }
+  
+  
+  /** isConsumer() - test if ImageConsumer is registered */
+  public synchronized boolean isConsumer(ImageConsumer ic)
+  { return(consumers.contains(ic)); }
+  
+  
+  /** removeConsumer() - remove an ImageConsumer */
+  public synchronized void removeConsumer(ImageConsumer ic)
+  { consumers.removeElement(ic); }
+  
+  
+  /** startProduction() - register and send the image to the consumer */
+  public void startProduction(ImageConsumer ic)
+  {
+    addConsumer(ic);
+    produce(ic);
+  }
+  
+  
+  /** requestTopDownLeftRightResend() - data is always sent that way */
+  public void requestTopDownLeftRightResend(ImageConsumer ic)
+  { produce(ic); }
+  
+  
+  /**
+   * produce() - send the pixel store to the consumer a tile at a time.
+   * @param ic is the image consumer
+   */
+  private void produce(ImageConsumer ic)
+  { /* produce */
+    if(!isConsumer(ic))
+      return;
+    
+    ic.setDimensions(width, height);
+    ic.setColorModel(icm);
+    ic.setHints(ImageConsumer.TOPDOWNLEFTRIGHT |
+                ImageConsumer.COMPLETESCANLINES |
+                ImageConsumer.SINGLEPASS | ImageConsumer.SINGLEFRAME);
+    
+    ByteBuffer src= grayPixels.duplicate();  /* private position */
+    byte tile[]= new byte[width*Math.min(tileRows, height)];
+    for(int y=0; y<height && isConsumer(ic); y += tileRows)
+    { /* send a tile of rows */
+      int nRows= Math.min(tileRows, height-y);
+      src.position(y*width);
+      src.get(tile, 0, nRows*width);
+      ic.setPixels(0, y, width, nRows, icm, tile, 0, width);
+    } /* send a tile of rows */
+    
+    if(isConsumer(ic))
+    {
+      ic.imageComplete(ImageConsumer.STATICIMAGEDONE);
+      removeConsumer(ic);
+    }
+  } /* produce */
+  
+}    /* End of class PpxImageProducer */
+
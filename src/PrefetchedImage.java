@@ -0,0 +1,104 @@
+/* File: PrefetchedImage.java */
+
+import java.awt.*;
+
+/**
+ * PrefetchedImage class holds an image decoded by the ImagePrefetcher.
+ * ImageIO.loadPixIntoImageData() installs it into the ImageData. The 
+ * decode may still be running in a background thread, so use 
+ * waitUntilDone() before looking at the decoded image.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class PrefetchedImage
+{ /* PrefetchedImage */
+  
+  /** image file spec */
+  String
+    imageFile;
+  /** cache key */
+  String
+    key;
+  /** decoded image at the display target size, null if not decoded */
+  Image
+    img= null;
+  /** size of img */
+  int
+    width= 0,
+    height= 0;
+  /** Black is Zero flag */
+  boolean
+    blackIsZeroFlag= true;
+  /** TiffLoader if the image is a streamed TIFF page, else null */
+  TiffLoader
+    tiffStream= null;
+  /** why decode failed if not null */
+  String
+    errMsg= null;
+  /** set when the decode is finished */
+  private boolean
+    doneFlag= false;
+  
+  
+  /**
+   * PrefetchedImage() - Constructor
+   * @param imageFile is the image file spec
+   * @param key is the cache key
+   */
+  PrefetchedImage(String imageFile, String key)
+  { /* PrefetchedImage */
+    this.imageFile= imageFile;
+    this.key= key;
+  } /* PrefetchedImage */
+  
+  
+  /**
+   * getNbrPixels() - get the # of pixels in the decoded image
+   * @return # of pixels
+   */
+  long getNbrPixels()
+  { return((long)width*height); }
+  
+  
+  /**
+   * setDone() - mark the decode finished and wake up the waiters
+   */
+  synchronized void setDone()
+  { /* setDone */
+    doneFlag= true;
+    notifyAll();
+  } /* setDone */
+  
+  
+  /**
+   * waitUntilDone() - wait until the decode is finished
+   * @return true if finished, false if interrupted
+   */
+  synchronized boolean waitUntilDone()
+  { /* waitUntilDone */
+    while(!doneFlag)
+    {
+      try
+      { wait(); }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return(doneFlag);
+  } /* waitUntilDone */
+  
+} /* End of class PrefetchedImage */
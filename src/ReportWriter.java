@@ -0,0 +1,67 @@
+/* File: ReportWriter.java */
+
+import java.io.*;
+
+/**
+ * ReportWriter class is a Writer that appends to the report window in 
+ * chunks of CHUNK_SIZE characters so large reports are streamed into 
+ * the window rather than built as one String. E.g., the paired spot
+ * table of SpotPairing is written to it.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class ReportWriter extends Writer
+{ /* ReportWriter */
+  
+  /** # of characters to buffer before appending to the report window */
+  final static int
+    CHUNK_SIZE= 65536;
+  
+  /** buffered characters not yet appended */
+  private StringBuffer
+    sBuf= new StringBuffer(CHUNK_SIZE);
+  
+  
+  /**
+   * write() - buffer the characters, appending to the report window
+   * when the buffer is full.
+   */
+  public void write(char cbuf[], int off, int len)
+  { /* write */
+    sBuf.append(cbuf, off, len);
+    if(sBuf.length()>=CHUNK_SIZE)
+      flush();
+  } /* write */
+  
+  
+  /**
+   * flush() - append the buffered characters to the report window
+   */
+  public void flush()
+  { /* flush */
+    if(sBuf.length()==0)
+      return;
+    Util.appendReportMsg(sBuf.toString());
+    sBuf.setLength(0);
+  } /* flush */
+  
+  
+  /**
+   * close() - flush the buffered characters
+   */
+  public void close()
+  { flush(); }
+  
+} /* End of class ReportWriter */
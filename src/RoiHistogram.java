@@ -0,0 +1,241 @@
+/* File: RoiHistogram.java */
+
+import java.lang.*;
+
+/**
+ * RoiHistogram class computes the grayscale histogram of a rectangular
+ * region of interest (ROI) of an image directly from the iPix[] pixel 
+ * store. Gray values are the same as ImageDataMeas.getPixelValue()
+ * (masked by pixelMask and complemented if blackIsZeroFlag) and the ROI
+ * is in image (unzoomed) coordinates.
+ *<P>
+ * A full computation is done in parallel bands of rows, each band with
+ * its own partial histogram which are then summed. When the ROI changes
+ * and the new ROI overlaps the previous one, the histogram is updated 
+ * incrementally by subtracting the strips that left the ROI and adding
+ * the strips that entered it, so moving or resizing the ROI (e.g., the 
+ * step wedge ROI) only costs the pixels that changed.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class RoiHistogram
+{ /* RoiHistogram */
+  
+  /** Image whose histogram is computed */
+  private ImageData
+    id;
+  /** Histogram [0:pixelMask] of the current ROI */
+  private int
+    hist[]= null;
+  /** current ROI [x1:x2, y1:y2] (inclusive), valid if hist!=null */
+  private int
+    rx1, 
+    ry1, 
+    rx2, 
+    ry2;
+  /** iPix[] the histogram was computed from */
+  private int
+    histPix[]= null;
+  /** pixelMask the histogram was computed with */
+  private int
+    histPixelMask;
+  /** blackIsZeroFlag the histogram was computed with */
+  private boolean
+    histBlackIsZeroFlag;
+  
+  /** # of pixels added or subtracted by the last update */
+  public int
+    nPixelsLastUpdate= 0;
+  /** Set if the last update was incremental */
+  public boolean
+    incrementalFlag= false;
+  
+  
+  /**
+   * RoiHistogram() - Constructor
+   * @param id is the image
+   */
+  public RoiHistogram(ImageData id)
+  { /* RoiHistogram */
+    this.id= id;
+  } /* RoiHistogram */
+  
+  
+  /**
+   * invalidate() - force a full computation next time, e.g., when the
+   * iPix[] pixel data changes.
+   */
+  public void invalidate()
+  { hist= null; }
+  
+  
+  /**
+   * getHistogram() - compute the histogram of the ROI [x1:x2, y1:y2] 
+   * (inclusive, clipped to the image). It is updated incrementally from
+   * the previous ROI if they overlap and the pixel data is the same.
+   * @param x1 - ULHC x coordinate
+   * @param y1 - ULHC y coordinate
+   * @param x2 - LRHC x coordinate
+   * @param y2 - LRHC y coordinate
+   * @return copy of the histogram [0:pixelMask], null if the ROI is 
+   *         empty or there is no image data.
+   */
+  public synchronized int[] getHistogram(int x1, int y1, int x2, int y2)
+  { /* getHistogram */
+    int pix[]= id.iPix;
+    
+    x1= Math.max(x1, 0);
+    y1= Math.max(y1, 0);
+    x2= Math.min(x2, id.iWidth-1);
+    y2= Math.min(y2, id.iHeight-1);
+    if(pix==null || pix.length<(id.iWidth*id.iHeight) || x1>x2 || y1>y2)
+      return(null);
+    
+    if(pix!=histPix || id.pixelMask!=histPixelMask ||
+       id.blackIsZeroFlag!=histBlackIsZeroFlag)
+      hist= null;                           /* pixel data changed */
+    
+    long 
+      newArea= (long)(x2-x1+1)*(y2-y1+1),
+      diffArea= (hist==null) 
+                  ? newArea+1 
+                  : getDiffArea(rx1, ry1, rx2, ry2, x1, y1, x2, y2) +
+                    getDiffArea(x1, y1, x2, y2, rx1, ry1, rx2, ry2);
+    
+    if(diffArea>=newArea)
+    { /* full computation */
+      hist= new int[id.pixelMask+1];
+      histPix= pix;
+      histPixelMask= id.pixelMask;
+      histBlackIsZeroFlag= id.blackIsZeroFlag;
+      accumRect(x1, y1, x2, y2, 1);
+      nPixelsLastUpdate= (int)newArea;
+      incrementalFlag= false;
+    }
+    else
+    { /* incremental: remove old-new strips, add new-old strips */
+      accumDiff(rx1, ry1, rx2, ry2, x1, y1, x2, y2, -1);
+      accumDiff(x1, y1, x2, y2, rx1, ry1, rx2, ry2, 1);
+      nPixelsLastUpdate= (int)diffArea;
+      incrementalFlag= true;
+    }
+    
+    rx1= x1;
+    ry1= y1;
+    rx2= x2;
+    ry2= y2;
+    
+    int hR[]= new int[hist.length];
+    System.arraycopy(hist, 0, hR, 0, hist.length);
+    return(hR);
+  } /* getHistogram */
+  
+  
+  /**
+   * getDiffArea() - get the area of rectangle A minus rectangle B
+   * @return area of A-B
+   */
+  private static long getDiffArea(int ax1, int ay1, int ax2, int ay2,
+                                  int bx1, int by1, int bx2, int by2)
+  { /* getDiffArea */
+    long
+      aArea= (long)(ax2-ax1+1)*(ay2-ay1+1),
+      ox= Math.min(ax2,bx2) - Math.max(ax1,bx1) + 1,
+      oy= Math.min(ay2,by2) - Math.max(ay1,by1) + 1;
+    if(ox<=0 || oy<=0)
+      return(aArea);
+    return(aArea - ox*oy);
+  } /* getDiffArea */
+  
+  
+  /**
+   * accumDiff() - add sign times the histogram of rectangle A minus 
+   * rectangle B as up to four strips: the rows of A above and below B 
+   * and the columns of A left and right of B in the rows they share.
+   * @param sign is 1 to add, -1 to subtract
+   */
+  private void accumDiff(int ax1, int ay1, int ax2, int ay2,
+                         int bx1, int by1, int bx2, int by2, int sign)
+  { /* accumDiff */
+    int
+      my1= Math.max(ay1, by1),
+      my2= Math.min(ay2, by2);
+    
+    accumRect(ax1, ay1, ax2, Math.min(ay2, by1-1), sign);  /* above */
+    accumRect(ax1, Math.max(ay1, by2+1), ax2, ay2, sign);  /* below */
+    accumRect(ax1, my1, Math.min(ax2, bx1-1), my2, sign);  /* left */
+    accumRect(Math.max(ax1, bx2+1), my1, ax2, my2, sign);  /* right */
+  } /* accumDiff */
+  
+  
+  /**
+   * accumRect() - add sign times the histogram of the rectangle 
+   * [x1:x2, y1:y2] (inclusive) to hist[]. Large rectangles are done in 
+   * parallel bands with per band partial histograms.
+   * @param sign is 1 to add, -1 to subtract
+   */
+  private void accumRect(final int x1, final int y1, final int x2, 
+                         final int y2, final int sign)
+  { /* accumRect */
+    if(x1>x2 || y1>y2)
+      return;
+    
+    final int
+      pix[]= histPix,
+      iWidth= id.iWidth,
+      pixelMask= histPixelMask,
+      nRows= y2-y1+1,
+      nBands= ParallelBands.getNbrBands(nRows),
+      bandHist[][]= new int[nBands][];
+    final boolean
+      complementFlag= histBlackIsZeroFlag;
+    
+    if(nBands==1)
+      bandHist[0]= hist;                  /* accumulate directly */
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* histogram a band of rows */
+          int h[]= bandHist[band];
+          if(h==null)
+            h= bandHist[band]= new int[pixelMask+1];
+          int g;
+          for(int y=y1+by1;y<y1+by2;y++)
+          { /* do a row */
+            int
+              i= y*iWidth + x1,
+              iEnd= y*iWidth + x2;
+            if(complementFlag)
+              for(;i<=iEnd;i++)
+                h[pixelMask - (pix[i] & pixelMask)] += sign;
+            else
+              for(;i<=iEnd;i++)
+                h[pix[i] & pixelMask] += sign;
+          } /* do a row */
+        } /* histogram a band of rows */
+      }.run(nRows);
+    
+    if(nBands>1)
+      for(int b=0;b<nBands;b++)
+      { /* merge the partial histograms */
+        int h[]= bandHist[b];
+        for(int g=0;g<h.length;g++)
+          hist[g] += h[g];
+      }
+  } /* accumRect */
+  
+  
+} /* End of class RoiHistogram */
@@ -0,0 +1,380 @@
+/* File: SpanMask.java */
+
+import java.util.*;
+import java.lang.*;
+
+/**
+ * SpanMask class is a run-length (span) representation of a measurement
+ * mask. Each span is a row offset dy and an inclusive column range 
+ * [dx1:dx2] relative to the mask center, so a row may have several 
+ * spans (e.g., for a user-drawn concave mask). Measuring under the mask
+ * is then a sum over contiguous runs of a row of iPix[] rather than a 
+ * test of every cell in the bounding square, and the runs are clipped 
+ * to the image so masks crossing the image edge are measured over the 
+ * part of the mask inside the image (the partial area).
+ *<P>
+ * Circle masks are made from ImageDataMeas.maskNxN[][][] so they have 
+ * exactly the same pixels and area as maskArea[]. Masks from a 
+ * user-drawn raster and masks from a user-drawn boundary polygon are
+ * made with fromDenseMask() and fromPolygon().
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class SpanMask
+{ /* SpanMask */
+  
+  /** # of spans */
+  public int
+    nSpans;
+  /** row offset of each span from the mask center [0:nSpans-1] */
+  public int
+    dy[];
+  /** first column offset of each span from the mask center */
+  public int
+    dx1[];
+  /** last column offset (inclusive) of each span from the mask center */
+  public int
+    dx2[];
+  /** total # of pixels in the mask */
+  public int
+    area;
+  /** bounding box of the mask offsets */
+  public int
+    minDx,
+    maxDx,
+    minDy,
+    maxDy;
+  
+  
+  /**
+   * SpanMask() - Constructor from span lists. Spans must not overlap.
+   * @param dy is row offset of each span [0:nSpans-1] 
+   * @param dx1 is first column offset of each span
+   * @param dx2 is last column offset (inclusive) of each span
+   * @param nSpans is # of spans
+   */
+  public SpanMask(int dy[], int dx1[], int dx2[], int nSpans)
+  { /* SpanMask */
+    this.nSpans= nSpans;
+    this.dy= new int[nSpans];
+    this.dx1= new int[nSpans];
+    this.dx2= new int[nSpans];
+    System.arraycopy(dy, 0, this.dy, 0, nSpans);
+    System.arraycopy(dx1, 0, this.dx1, 0, nSpans);
+    System.arraycopy(dx2, 0, this.dx2, 0, nSpans);
+    
+    area= 0;
+    minDx= minDy= Integer.MAX_VALUE;
+    maxDx= maxDy= Integer.MIN_VALUE;
+    for(int k=0;k<nSpans;k++)
+    { /* get the area and bounding box */
+      area += (dx2[k] - dx1[k] + 1);
+      minDx= Math.min(minDx, dx1[k]);
+      maxDx= Math.max(maxDx, dx2[k]);
+      minDy= Math.min(minDy, dy[k]);
+      maxDy= Math.max(maxDy, dy[k]);
+    }
+    if(nSpans==0)
+      minDx= maxDx= minDy= maxDy= 0;
+  } /* SpanMask */
+  
+  
+  /**
+   * fromDenseMask() - make a span mask from a dense mask[row][col]
+   * where non-zero cells are in the mask, e.g., from a user-drawn mask.
+   * @param mask is the dense mask [0:nRows-1][0:nCols-1]
+   * @param xC is the column of the mask center
+   * @param yC is the row of the mask center
+   * @return span mask
+   */
+  public static SpanMask fromDenseMask(int mask[][], int xC, int yC)
+  { /* fromDenseMask */
+    int 
+      nRows= mask.length,
+      nMax= 0,
+      n= 0,
+      x, 
+      row[];
+    for(int y=0;y<nRows;y++)
+      nMax += (mask[y].length+1)/2;        /* worst case # of spans */
+    
+    int
+      dy[]= new int[nMax],
+      dx1[]= new int[nMax],
+      dx2[]= new int[nMax];
+    for(int y=0;y<nRows;y++)
+    { /* find the runs in a row */
+      row= mask[y];
+      x= 0;
+      while(x<row.length)
+      { /* find a run */
+        if(row[x]==0)
+        {
+          x++;
+          continue;
+        }
+        dy[n]= y - yC;
+        dx1[n]= x - xC;
+        while(x<row.length && row[x]!=0)
+          x++;
+        dx2[n]= (x-1) - xC;
+        n++;
+      } /* find a run */
+    } /* find the runs in a row */
+    
+    return(new SpanMask(dy, dx1, dx2, n));
+  } /* fromDenseMask */
+  
+  
+  /**
+   * fromPolygon() - make a span mask from a closed polygon (e.g., a 
+   * traced Boundary) with an even-odd scanline fill, so concave and 
+   * self-intersecting boundaries may have several spans per row. The
+   * polygon vertices themselves are also in the mask, so a traced 
+   * boundary includes its boundary pixels. The mask center is (0,0), 
+   * i.e., the spans are in the polygon's coordinates.
+   *<PRE>
+   * Each edge (xa,ya)-(xb,yb) with ya &lt; yb crosses the rows 
+   * [ya:yb-1] (half-open so a vertex shared by two edges is counted 
+   * once) at x= xa + (y-ya)*(xb-xa)/(yb-ya). The sorted crossings of 
+   * a row are paired to give the interior spans [ceil(x1):floor(x2)], 
+   * which are merged with the vertex pixels on that row.
+   *</PRE>
+   * @param xs is the x coordinates of the vertices [0:n-1]
+   * @param ys is the y coordinates of the vertices [0:n-1]
+   * @param n is # of vertices. The polygon is closed from n-1 to 0.
+   * @return span mask, with no spans if n is 0
+   */
+  public static SpanMask fromPolygon(int xs[], int ys[], int n)
+  { /* fromPolygon */
+    if(n<=0)
+      return(new SpanMask(new int[0], new int[0], new int[0], 0));
+    
+    int
+      yMin= ys[0],
+      yMax= ys[0];
+    for(int i=1;i<n;i++)
+    {
+      yMin= Math.min(yMin, ys[i]);
+      yMax= Math.max(yMax, ys[i]);
+    }
+    
+    /* [1] Count the crossings and vertices per row */
+    int
+      nRows= yMax-yMin+1,
+      rowStart[]= new int[nRows+1],
+      xa, ya, xb, yb, y, j;
+    for(int i=0;i<n;i++)
+    {
+      j= (i+1<n) ? i+1 : 0;
+      ya= Math.min(ys[i], ys[j]);
+      yb= Math.max(ys[i], ys[j]);
+      for(y=ya;y<yb;y++)
+        rowStart[y-yMin+1]++;            /* crossing */
+      rowStart[ys[i]-yMin+1]++;          /* vertex */
+    }
+    for(int r=0;r<nRows;r++)
+      rowStart[r+1] += rowStart[r];
+    
+    /* [2] Save the crossing x's and the vertex x's of each row in the
+     * row's block of cross[] and vert[] respectively.
+     */
+    int
+      fill[]= new int[nRows],
+      nVert[]= new int[nRows];
+    double
+      cross[]= new double[rowStart[nRows]];
+    int
+      vert[]= new int[rowStart[nRows]];
+    for(int i=0;i<n;i++)
+    {
+      j= (i+1<n) ? i+1 : 0;
+      if(ys[i]<ys[j])
+      { xa= xs[i]; ya= ys[i]; xb= xs[j]; yb= ys[j]; }
+      else
+      { xa= xs[j]; ya= ys[j]; xb= xs[i]; yb= ys[i]; }
+      for(y=ya;y<yb;y++)
+      {
+        int r= y-yMin;
+        cross[rowStart[r] + fill[r]++]= 
+          xa + (double)(y-ya)*(xb-xa)/(yb-ya);
+      }
+      int r= ys[i]-yMin;
+      vert[rowStart[r] + nVert[r]++]= xs[i];
+    }
+    
+    /* [3] Make the spans of each row as the union of the interior 
+     * spans and the vertex pixels.
+     */
+    int
+      nMax= 0,
+      nS= 0;
+    for(int r=0;r<nRows;r++)
+      nMax += fill[r]/2 + nVert[r];
+    int
+      dy[]= new int[nMax],
+      dx1[]= new int[nMax],
+      dx2[]= new int[nMax],
+      runX1[]= new int[nMax],
+      runX2[]= new int[nMax];
+    for(int r=0;r<nRows;r++)
+    { /* make the spans of row r */
+      int
+        s= rowStart[r],
+        nC= fill[r],
+        nRuns= 0;
+      Arrays.sort(cross, s, s+nC);
+      for(int k=0;k+1<nC;k += 2)
+      { /* interior span */
+        runX1[nRuns]= (int)Math.ceil(cross[s+k]);
+        runX2[nRuns]= (int)Math.floor(cross[s+k+1]);
+        if(runX1[nRuns]<=runX2[nRuns])
+          nRuns++;
+      }
+      for(int k=0;k<nVert[r];k++)
+      { /* vertex pixel */
+        runX1[nRuns]= vert[s+k];
+        runX2[nRuns]= vert[s+k];
+        nRuns++;
+      }
+      
+      /* Sort the runs by start and merge the overlapping or touching 
+       * runs. The runs are short lists so use an insertion sort.
+       */
+      for(int a=1;a<nRuns;a++)
+      {
+        int 
+          t1= runX1[a],
+          t2= runX2[a],
+          b= a-1;
+        while(b>=0 && runX1[b]>t1)
+        {
+          runX1[b+1]= runX1[b];
+          runX2[b+1]= runX2[b];
+          b--;
+        }
+        runX1[b+1]= t1;
+        runX2[b+1]= t2;
+      }
+      for(int a=0;a<nRuns;a++)
+      {
+        if(nS>0 && dy[nS-1]==r+yMin && runX1[a]<=dx2[nS-1]+1)
+        {
+          dx2[nS-1]= Math.max(dx2[nS-1], runX2[a]);
+          continue;
+        }
+        dy[nS]= r+yMin;
+        dx1[nS]= runX1[a];
+        dx2[nS]= runX2[a];
+        nS++;
+      }
+    } /* make the spans of row r */
+    
+    return(new SpanMask(dy, dx1, dx2, nS));
+  } /* fromPolygon */
+  
+  
+  /**
+   * isInside() - test if the whole mask centered at (x0,y0) is inside
+   * of an image of size width X height.
+   * @param x0 is the mask center
+   * @param y0 is the mask center
+   * @param width of the image
+   * @param height of the image
+   * @return true if it is not clipped by the image edge
+   */
+  public boolean isInside(int x0, int y0, int width, int height)
+  { 
+    return(x0+minDx>=0 && y0+minDy>=0 && 
+           x0+maxDx<width && y0+maxDy<height); 
+  }
+  
+  
+  /**
+   * measure() - compute the density statistics of the pixels under
+   * the mask centered at (x0,y0) that are inside of the image. The 
+   * density of a pixel is lut[pix[y*width+x] & pixelMask].
+   * @param pix is the image pixel data [0:width*height-1]
+   * @param width of the image
+   * @param height of the image
+   * @param pixelMask to mask the pixel value
+   * @param lut is the pixel to density map [0:pixelMask]
+   * @param x0 is the mask center
+   * @param y0 is the mask center
+   * @param result is [0:3] set to {total, # pixels, min, max} density
+   * @return # of mask pixels inside of the image (the partial area if
+   *         less than area), 0 if none.
+   */
+  public int measure(int pix[], int width, int height, int pixelMask,
+                     float lut[], int x0, int y0, float result[])
+  { /* measure */
+    int
+      n= 0,
+      y, xa, xb, i, iEnd;
+    double 
+      tot= 0.0;
+    float
+      v,
+      mn= Float.MAX_VALUE,
+      mx= -Float.MAX_VALUE;
+    
+    for(int k=0;k<nSpans;k++)
+    { /* sum a span clipped to the image */
+      y= y0 + dy[k];
+      if(y<0 || y>=height)
+        continue;
+      xa= Math.max(x0 + dx1[k], 0);
+      xb= Math.min(x0 + dx2[k], width-1);
+      if(xa>xb)
+        continue;
+      i= y*width + xa;
+      iEnd= y*width + xb;
+      for(;i<=iEnd;i++)
+      {
+        v= lut[pix[i] & pixelMask];
+        tot += v;
+        if(v<mn)
+          mn= v;
+        if(v>mx)
+          mx= v;
+      }
+      n += (xb - xa + 1);
+    } /* sum a span clipped to the image */
+    
+    result[0]= (float)tot;
+    result[1]= n;
+    result[2]= (n>0) ? mn : 0.0F;
+    result[3]= (n>0) ? mx : 0.0F;
+    
+    return(n);
+  } /* measure */
+  
+  
+  /**
+   * toString() - convert the mask to a printable string
+   * @return string of the spans
+   */
+  public String toString()
+  { /* toString */
+    StringBuffer sBuf= new StringBuffer();
+    sBuf.append("SpanMask[nSpans="+nSpans+" area="+area+
+                " dx=["+minDx+":"+maxDx+"] dy=["+minDy+":"+maxDy+"]]\n");
+    for(int k=0;k<nSpans;k++)
+      sBuf.append("  dy="+dy[k]+" dx=["+dx1[k]+":"+dx2[k]+"]\n");
+    return(sBuf.toString());
+  } /* toString */
+  
+  
+} /* End of class SpanMask */
@@ -42,6 +42,28 @@ public class Spot implements ActionListener, WindowListener
     util;
   
                
+  /** Header of the binary .spt spot list file format */
+  final static String
+    SPT_MAGIC= "FLKSPT";
+  /** Version of the binary .spt spot list file format */
+  final static int
+    SPT_VERSION= 1;
+  /** binary .spt spot flags bit: has an id */
+  final static int
+    SPT_HAS_ID= 1;
+  /** binary .spt spot flags bit: has a name */
+  final static int
+    SPT_HAS_NAME= 2;
+  /** binary .spt spot flags bit: isCalibFlag */
+  final static int
+    SPT_IS_CALIB= 4;
+  /** binary .spt spot flags bit: useTotDensityFlag */
+  final static int
+    SPT_USE_TOT_DENS= 8;
+  /** Min # of bytes of a spot in the binary .spt format */
+  final static int
+    SPT_MIN_SPOT_BYTES= 4+4+1+6*4+12*4;
+               
   /** default frame size width of popup */
   final static int
     POPUP_WIDTH= 300;      
@@ -342,6 +364,7 @@ public class Spot implements ActionListener, WindowListener
     this.bkgrd= bkgrd;
     
     this.mnDens= mnDens;
+    this.totDens= totDens;
     this.mnDensPrime= mnDensPrime;
     this.mnBkgrd= mnBkgrd;
     
@@ -369,7 +392,23 @@ public class Spot implements ActionListener, WindowListener
   
     
  /**
-  * readState() - Read spotList[] "spt/<gelFile>.spt" file
+  * getSpotListFile() - get the "spt/<gelFile>.spt" file name
+  * @param gelFile is the file base name. We strip off the image type
+  *        and add ".spt" 
+  * @return spot list file path
+  */ 
+  static String getSpotListFile(String gelFile)
+  { /* getSpotListFile */   
+    String baseName= util.getFileNameFromPath(gelFile);
+    baseName= util.rmvFileExtension(baseName);
+    return(flk.userDir + flk.fileSeparator + 
+           "spt"+flk.fileSeparator+ baseName+".spt");
+  } /* getSpotListFile */
+  
+    
+ /**
+  * readState() - Read spotList[] "spt/<gelFile>.spt" file. It may be 
+  * either the binary or the text format.
   * @param gelFile is the file base name. We strip off the image type
   *        and add ".spt" 
   * @param iName of the image to read (e.g., "I1", or "I2")
@@ -377,55 +416,199 @@ public class Spot implements ActionListener, WindowListener
   */ 
   static Spot[] readState(String gelFile, String iName)
   { /* readState */   
-    String baseName= util.getFileNameFromPath(gelFile);
-    baseName= util.rmvFileExtension(baseName);
-    String 
-      sptFile= flk.userDir + flk.fileSeparator + 
-               "spt"+flk.fileSeparator+ baseName+".spt",
-      sMsg= "Reading Flicker ["+sptFile+"] Spot file";
+    String sptFile= getSpotListFile(gelFile);
     File fd= new File(sptFile);
     if(!fd.isFile())
       return(null);                       /* avoid error message */
-    Hashtable 
-      ht= util.readNameValuesHashTableFromFile(sptFile,sMsg,100101);
-    if(ht==null)
-      return(null);    
-    else
-      util.setStateHashtableForGetValue(ht,util.nEntries);
-          
-    baseName= util.getStateValue(iName+"-baseName", (String)null);    
-    int nSpots= util.getStateValue(iName+"-nSpots", 0); 
-    Spot spotList[]= new Spot[nSpots];    /* list maximum allowed size */
+    util.showMsg("Reading Flicker ["+sptFile+"] Spot file", Color.black);
+    return(readSpotListFile(sptFile, iName));
+  } /* readState */
+  
+    
+ /**
+  * readSpotListFile() - Read spotList[] from a binary or text .spt file.
+  * The format is determined from the SPT_MAGIC header.
+  * @param sptFile is the .spt file to read
+  * @param iName of the image in the text format (e.g., "I1", or "I2").
+  *        If the file has no spots for iName, then the spots of the 
+  *        image name found in the file are used.
+  * @return spot list array if succeed, else null
+  */ 
+  static Spot[] readSpotListFile(String sptFile, String iName)
+  { /* readSpotListFile */
+    InputStream is= null;
+    long nBytes= new File(sptFile).length();
+    try
+    {
+      is= new BufferedInputStream(new FileInputStream(sptFile), 65536);
+      byte magic[]= new byte[SPT_MAGIC.length()];
+      is.mark(magic.length);
+      int nRead= is.read(magic);
+      if(nRead==magic.length && SPT_MAGIC.equals(new String(magic,"ISO-8859-1")))
+        return(readBinarySpotList(new DataInputStream(is), 
+                                  nBytes-magic.length));
+      is.reset();
+      return(readTextSpotList(new BufferedReader(new InputStreamReader(is)),
+                              iName, nBytes));
+    }
+    catch(IOException e)
+    {
+      System.out.println("readSpotListFile("+sptFile+") e="+e);
+      return(null);
+    }
+    finally
+    {
+      if(is!=null)
+      {
+        try
+        { is.close(); }
+        catch(IOException e)
+        { }
+      }
+    }
+  } /* readSpotListFile */
+  
+  
+ /**
+  * readBinarySpotList() - Read spotList[] from the binary .spt format
+  * after the SPT_MAGIC header. 
+  *<PRE>
+  * int version, UTF baseName, int nSpots, then for each spot:
+  *   int nGel, nbr, byte flags (SPT_HAS_ID, SPT_HAS_NAME, SPT_IS_CALIB,
+  *   SPT_USE_TOT_DENS), [UTF id], [UTF name], int nCirMask, circleRadius,
+  *   xC, yC, xB, yB, float area, density, densPrime, bkgrd, mnDens,
+  *   totDens, mnDensPrime, mnBkgrd, dMax, dMin, dMaxBkgrd, dMinBkgrd
+  *</PRE>
+  * @param dis is the input stream
+  * @param nBytes is the # of bytes left in the stream. A spot count
+  *        that could not fit in it is rejected as bad data.
+  * @return spot list array if succeed, else null
+  * @throws IOException if read failed
+  */ 
+  static Spot[] readBinarySpotList(DataInputStream dis, long nBytes)
+    throws IOException
+  { /* readBinarySpotList */
+    int version= dis.readInt();
+    if(version<1 || version>SPT_VERSION)
+    {
+      System.out.println("readBinarySpotList() unsupported version "+version);
+      return(null);
+    }
+    dis.readUTF();                      /* baseName */
+    int nSpots= dis.readInt();
+    if(nSpots<0 || (long)nSpots*SPT_MIN_SPOT_BYTES>nBytes)
+    {
+      System.out.println("readBinarySpotList() bad # of spots "+nSpots);
+      return(null);
+    }
+    Spot spotList[]= new Spot[nSpots];
     
     for(int i=0;i<nSpots;i++)
-    { /* read spot i from the hash table */
+    { /* read spot i */
       Spot s= new Spot();
-      s.nGel= util.getStateValue(iName+"-nGel-"+i, 0);
-      s.nbr= util.getStateValue(iName+"-nbr-"+i, 0);
-      s.id= util.getStateValue(iName+"-id-"+i, null);
-      s.name= util.getStateValue(iName+"-name-"+i, null);
-      s.nCirMask= util.getStateValue(iName+"-nCirMask-"+i, 0);
-      s.circleRadius= util.getStateValue(iName+"-circleRadius-"+i, 0);
-      s.xC= util.getStateValue(iName+"-xC-"+i, 0);
-      s.yC= util.getStateValue(iName+"-yC-"+i, 0);
-      s.xB= util.getStateValue(iName+"-xB-"+i, 0);
-      s.yB= util.getStateValue(iName+"-yB-"+i, 0);
-      s.area= util.getStateValue(iName+"-area-"+i, 0.0F);
-      s.isCalibFlag= util.getStateValue(iName+"-isCalibFlag-"+i,false);
-      s.useTotDensityFlag= util.getStateValue(iName+"-useTotDensityFlag-"+i,false);
-      s.density= util.getStateValue(iName+"-density-"+i, 0.0F);
-      s.densPrime= util.getStateValue(iName+"-densPrime-"+i, 0.0F);
-      s.bkgrd= util.getStateValue(iName+"-bkgrd-"+i, 0.0F);
-      s.mnDens= util.getStateValue(iName+"-mnDens-"+i, 0.0F);
-      s.totDens= util.getStateValue(iName+"-totDens-"+i, 0.0F);
-      s.mnDensPrime= util.getStateValue(iName+"-mnDensPrime-"+i, 0.0F);
-      s.mnBkgrd= util.getStateValue(iName+"-mnBkgrd-"+i, 0.0F);
-      s.dMax= util.getStateValue(iName+"-dMax-"+i, 0.0F);
-      s.dMin= util.getStateValue(iName+"-dMin-"+i, 0.0F);
-      s.dMaxBkgrd= util.getStateValue(iName+"-dMaxBkgrd-"+i, 0.0F);
-      s.dMinBkgrd= util.getStateValue(iName+"-dMinBkgrd-"+i, 0.0F);
+      s.nGel= dis.readInt();
+      s.nbr= dis.readInt();
+      int flags= dis.readByte();
+      s.id= ((flags & SPT_HAS_ID)!=0) ? dis.readUTF() : null;
+      s.name= ((flags & SPT_HAS_NAME)!=0) ? dis.readUTF() : null;
+      s.isCalibFlag= ((flags & SPT_IS_CALIB)!=0);
+      s.useTotDensityFlag= ((flags & SPT_USE_TOT_DENS)!=0);
+      s.nCirMask= dis.readInt();
+      s.circleRadius= dis.readInt();
+      s.xC= dis.readInt();
+      s.yC= dis.readInt();
+      s.xB= dis.readInt();
+      s.yB= dis.readInt();
+      s.area= dis.readFloat();
+      s.density= dis.readFloat();
+      s.densPrime= dis.readFloat();
+      s.bkgrd= dis.readFloat();
+      s.mnDens= dis.readFloat();
+      s.totDens= dis.readFloat();
+      s.mnDensPrime= dis.readFloat();
+      s.mnBkgrd= dis.readFloat();
+      s.dMax= dis.readFloat();
+      s.dMin= dis.readFloat();
+      s.dMaxBkgrd= dis.readFloat();
+      s.dMinBkgrd= dis.readFloat();
+      spotList[i]= s;
+    } /* read spot i */
+    
+    return(spotList);
+  } /* readBinarySpotList */
+  
+  
+ /**
+  * readTextSpotList() - Read spotList[] from the text .spt format of
+  * tab-delimited "<iName>-<field>-<spot#>\t<value>" lines. The lines
+  * are parsed as they are read rather than through a hash table.
+  * Fields that are missing default to 0 or null. 
+  * @param br is the reader
+  * @param iName of the image to read (e.g., "I1", or "I2")
+  * @param nBytes is the # of bytes in the file. A spot count larger 
+  *        than this is rejected as bad data.
+  * @return spot list array if succeed, else null
+  * @throws IOException if read failed
+  */ 
+  static Spot[] readTextSpotList(BufferedReader br, String iName,
+                                 long nBytes)
+    throws IOException
+  { /* readTextSpotList */
+    Spot spotList[]= null;
+    String
+      line,
+      prefix= iName+"-",
+      filePrefix= null;
+    int nSpots= -1;
+    
+    while((line= br.readLine())!=null)
+    { /* parse a name-value line */
+      int idxTab= line.indexOf('\t');
+      if(idxTab<=0 || idxTab==line.length()-1)
+        continue;
+      String
+        name= line.substring(0,idxTab),
+        value= line.substring(idxTab+1);
+      int idxTab2= value.indexOf('\t');
+      if(idxTab2!=-1)
+        value= value.substring(0,idxTab2);
+      
+      if(name.endsWith("-nSpots"))
+      { /* start of a spot list */
+        String p= name.substring(0,name.length()-6);
+        if(spotList!=null && !p.equals(prefix))
+          continue;                 /* keep the list we found for iName */
+        nSpots= Util.cvs2i(value, 0);
+        if(nSpots<0 || nSpots>nBytes)
+        {
+          System.out.println("readTextSpotList() bad # of spots "+nSpots);
+          return(null);
+        }
+        spotList= new Spot[nSpots];
+        for(int i=0;i<nSpots;i++)
+          spotList[i]= new Spot();
+        filePrefix= p;
+        continue;
+      }
+      if(spotList==null || !name.startsWith(filePrefix))
+        continue;
+      int idxNbr= name.lastIndexOf('-');
+      if(idxNbr<=filePrefix.length())
+        continue;
+      int i= Util.cvs2i(name.substring(idxNbr+1), -1);
+      if(i<0 || i>=nSpots)
+        continue;
+      setTextField(spotList[i], name.substring(filePrefix.length(),idxNbr),
+                   value);
+    } /* parse a name-value line */
+    
+    if(spotList==null)
+      return(null);
+    for(int i=0;i<nSpots;i++)
+    { /* backwards compatible */
+      Spot s= spotList[i];
       if(s.area==0)
-      { /* backwards compatible */
+      { 
         /* Test if data was acquired before added s.area & s.circleRadius
          * and then compute it from s.nCirMask.
          */
@@ -433,21 +616,79 @@ public class Spot implements ActionListener, WindowListener
           s.circleRadius= (s.nCirMask/2)-1;
         s.area= ImageDataMeas.maskArea[s.circleRadius];
       }
-      
-      spotList[i]= s;        /* push the spot into the spot list */
-    } /* read spot i from the hash table */
+    } /* backwards compatible */
     
     return(spotList);
-  } /* readState */
+  } /* readTextSpotList */
+  
+  
+ /**
+  * setTextField() - set a spot field from the text .spt format
+  * @param s is the spot
+  * @param field is the field name
+  * @param value is the field value
+  */ 
+  private static void setTextField(Spot s, String field, String value)
+  { /* setTextField */
+    if(field.equals("nGel"))
+      s.nGel= Util.cvs2i(value, 0);
+    else if(field.equals("nbr"))
+      s.nbr= Util.cvs2i(value, 0);
+    else if(field.equals("id"))
+      s.id= value;
+    else if(field.equals("name"))
+      s.name= value;
+    else if(field.equals("nCirMask"))
+      s.nCirMask= Util.cvs2i(value, 0);
+    else if(field.equals("circleRadius"))
+      s.circleRadius= Util.cvs2i(value, 0);
+    else if(field.equals("xC"))
+      s.xC= Util.cvs2i(value, 0);
+    else if(field.equals("yC"))
+      s.yC= Util.cvs2i(value, 0);
+    else if(field.equals("xB"))
+      s.xB= Util.cvs2i(value, 0);
+    else if(field.equals("yB"))
+      s.yB= Util.cvs2i(value, 0);
+    else if(field.equals("area"))
+      s.area= Util.cvs2f(value, 0.0F);
+    else if(field.equals("isCalibFlag"))
+      s.isCalibFlag= value.equalsIgnoreCase("true");
+    else if(field.equals("useTotDensityFlag"))
+      s.useTotDensityFlag= value.equalsIgnoreCase("true");
+    else if(field.equals("density"))
+      s.density= Util.cvs2f(value, 0.0F);
+    else if(field.equals("densPrime"))
+      s.densPrime= Util.cvs2f(value, 0.0F);
+    else if(field.equals("bkgrd"))
+      s.bkgrd= Util.cvs2f(value, 0.0F);
+    else if(field.equals("mnDens"))
+      s.mnDens= Util.cvs2f(value, 0.0F);
+    else if(field.equals("totDens"))
+      s.totDens= Util.cvs2f(value, 0.0F);
+    else if(field.equals("mnDensPrime"))
+      s.mnDensPrime= Util.cvs2f(value, 0.0F);
+    else if(field.equals("mnBkgrd"))
+      s.mnBkgrd= Util.cvs2f(value, 0.0F);
+    else if(field.equals("dMax"))
+      s.dMax= Util.cvs2f(value, 0.0F);
+    else if(field.equals("dMin"))
+      s.dMin= Util.cvs2f(value, 0.0F);
+    else if(field.equals("dMaxBkgrd"))
+      s.dMaxBkgrd= Util.cvs2f(value, 0.0F);
+    else if(field.equals("dMinBkgrd"))
+      s.dMinBkgrd= Util.cvs2f(value, 0.0F);
+  } /* setTextField */
     
   
  /**
   * writeState() - Write the spotlist[] to "spt/<gelFile>.spt" file
+  * in the binary format.
   * @param gelFile is the file base name. We strip off the image type
   *        and add ".spt" 
   * @param iName of the image to read (e.g., "I1", or "I2")
   * @param spotList is list of spots to write out
-  * @param sBuf is the string buffer to write to.
+  * @param nSpots is the # of spots to write out
   * @return true if succeed
   */ 
   static boolean writeState(String gelFile, String iName, 
@@ -456,18 +697,175 @@ public class Spot implements ActionListener, WindowListener
     if(spotList==null || nSpots==0)
       return(false);
     
+    String sptFile= getSpotListFile(gelFile);
+    if(!writeSpotListFile(sptFile, gelFile, iName, spotList, nSpots, false))
+    {
+      String msg= "Problem writing "+sptFile+" file - aborted";
+      util.popupAlertMsg(msg, flk.alertColor);
+      return(false);
+    }
+    
+    return(true);
+  } /* writeState */
+  
+  
+ /**
+  * writeSpotListFile() - stream the spotlist[] to a .spt file in either
+  * the binary or the text format. It is written to a ".tmp" file that 
+  * is then renamed over the .spt file, so a failed write does not
+  * destroy the previous spot list.
+  * @param sptFile is the .spt file to write
+  * @param gelFile is the gel file name
+  * @param iName of the image (e.g., "I1", or "I2")
+  * @param spotList is list of spots to write out
+  * @param nSpots is the # of spots to write out
+  * @param textFormatFlag to write the text format, else binary
+  * @return true if succeed
+  * @see #readBinarySpotList
+  */ 
+  static boolean writeSpotListFile(String sptFile, String gelFile,
+                                   String iName, Spot spotList[], 
+                                   int nSpots, boolean textFormatFlag)
+  { /* writeSpotListFile */
     String baseName= util.getFileNameFromPath(gelFile);
     baseName= util.rmvFileExtension(baseName);
-    String sptFile= flk.userDir + flk.fileSeparator + 
-                    "spt"+flk.fileSeparator+ baseName+".spt";
+    File tmpFile= new File(sptFile+".tmp");
+    OutputStream os= null;
+    try
+    {
+      os= new BufferedOutputStream(new FileOutputStream(tmpFile), 65536);
+      if(textFormatFlag)
+      {
+        Writer w= new OutputStreamWriter(os);
+        writeTextSpotList(w, baseName, iName, spotList, nSpots);
+        w.flush();
+      }
+      else
+      {
+        DataOutputStream dos= new DataOutputStream(os);
+        writeBinarySpotList(dos, baseName, spotList, nSpots);
+        dos.flush();
+      }
+      os.close();
+      os= null;
+    }
+    catch(IOException e)
+    {
+      System.out.println("writeSpotListFile("+sptFile+") e="+e);
+      return(false);
+    }
+    finally
+    {
+      if(os!=null)
+      { /* failed, don't leave a partial file */
+        try
+        { os.close(); }
+        catch(IOException e)
+        { }
+        tmpFile.delete();
+      }
+    }
     
-    StringBuffer sBuf= new StringBuffer(nSpots*200);
+    /* Replace the .spt file. Some platforms can't rename over an 
+     * existing file, so then delete it first.
+     */
+    File fd= new File(sptFile);
+    if(!tmpFile.renameTo(fd))
+    {
+      fd.delete();
+      if(!tmpFile.renameTo(fd))
+      {
+        System.out.println("writeSpotListFile("+sptFile+") can't rename "+
+                           tmpFile);
+        tmpFile.delete();
+        return(false);
+      }
+    }
     
-    sBuf.append(iName+"-baseName\t"+baseName+"\n");
-    sBuf.append(iName+"-nSpots\t"+nSpots+"\n");
+    return(true);
+  } /* writeSpotListFile */
+  
+  
+ /**
+  * writeBinarySpotList() - write spotList[] in the binary .spt format
+  * @param dos is the output stream
+  * @param baseName is the gel base name
+  * @param spotList is list of spots to write out
+  * @param nSpots is the # of spots to write out
+  * @throws IOException if write failed
+  * @see #readBinarySpotList
+  */ 
+  static void writeBinarySpotList(DataOutputStream dos, String baseName,
+                                  Spot spotList[], int nSpots)
+    throws IOException
+  { /* writeBinarySpotList */
+    dos.writeBytes(SPT_MAGIC);
+    dos.writeInt(SPT_VERSION);
+    dos.writeUTF(baseName);
+    dos.writeInt(nSpots);
+    for(int i=0;i<nSpots;i++)
+    { /* write spot i */
+      Spot s= spotList[i];
+      int flags= 0;
+      if(s.id!=null)
+        flags |= SPT_HAS_ID;
+      if(s.name!=null)
+        flags |= SPT_HAS_NAME;
+      if(s.isCalibFlag)
+        flags |= SPT_IS_CALIB;
+      if(s.useTotDensityFlag)
+        flags |= SPT_USE_TOT_DENS;
+      dos.writeInt(s.nGel);
+      dos.writeInt(s.nbr);
+      dos.writeByte(flags);
+      if(s.id!=null)
+        dos.writeUTF(s.id);
+      if(s.name!=null)
+        dos.writeUTF(s.name);
+      dos.writeInt(s.nCirMask);
+      dos.writeInt(s.circleRadius);
+      dos.writeInt(s.xC);
+      dos.writeInt(s.yC);
+      dos.writeInt(s.xB);
+      dos.writeInt(s.yB);
+      dos.writeFloat(s.area);
+      dos.writeFloat(s.density);
+      dos.writeFloat(s.densPrime);
+      dos.writeFloat(s.bkgrd);
+      dos.writeFloat(s.mnDens);
+      dos.writeFloat(s.totDens);
+      dos.writeFloat(s.mnDensPrime);
+      dos.writeFloat(s.mnBkgrd);
+      dos.writeFloat(s.dMax);
+      dos.writeFloat(s.dMin);
+      dos.writeFloat(s.dMaxBkgrd);
+      dos.writeFloat(s.dMinBkgrd);
+    } /* write spot i */
+  } /* writeBinarySpotList */
+  
+  
+ /**
+  * writeTextSpotList() - write spotList[] in the text .spt format of
+  * tab-delimited "<iName>-<field>-<spot#>\t<value>" lines. 
+  * @param w is the writer
+  * @param baseName is the gel base name
+  * @param iName of the image (e.g., "I1", or "I2")
+  * @param spotList is list of spots to write out
+  * @param nSpots is the # of spots to write out
+  * @throws IOException if write failed
+  */ 
+  static void writeTextSpotList(Writer w, String baseName, String iName,
+                                Spot spotList[], int nSpots)
+    throws IOException
+  { /* writeTextSpotList */
+    StringBuffer sBuf= new StringBuffer(1000);
+    
+    w.write(iName+"-baseName\t"+baseName+"\n");
+    w.write(iName+"-nSpots\t"+nSpots+"\n");
     for(int i=0;i<nSpots;i++)
     {
       Spot s= spotList[i];
+      sBuf.setLength(0);
       sBuf.append(iName+"-nGel-"+i+"\t"+s.nGel+"\n");
       sBuf.append(iName+"-nbr-"+i+"\t"+s.nbr+"\n");
       if(s.id!=null)
@@ -494,18 +892,9 @@ public class Spot implements ActionListener, WindowListener
       sBuf.append(iName+"-dMin-"+i+"\t"+s.dMin+"\n");
       sBuf.append(iName+"-dMaxBkgrd-"+i+"\t"+s.dMaxBkgrd+"\n");
       sBuf.append(iName+"-dMinBkgrd-"+i+"\t"+s.dMinBkgrd+"\n");
+      w.write(sBuf.toString());
     }
-    
-    String dataStr= new String(sBuf);
-    if(!flk.fio.writeFileToDisk(sptFile,dataStr))
-    {
-      String msg= "Problem writing "+sptFile+" file - aborted";
-      util.popupAlertMsg(msg, flk.alertColor);
-      return(false);
-    }
-    
-    return(true);
-  } /* writeState */
+  } /* writeTextSpotList */
   
       
  /**
@@ -724,9 +1113,27 @@ public class Spot implements ActionListener, WindowListener
    * @param normByMeanSpotListFlag normalize by the mean spot value of spots 
    *          in each of the corresponding spot lists.
    * @return the table as string, else null if no data
+   * @see SpotPairing
    */
   public static String listPairedSpotListDataTabDelim(boolean normByMeanSpotListFlag)
   { /* listPairedSpotListDataTabDelim */ 
+    StringWriter sw= new StringWriter();
+    int nPairs= writePairedSpotListDataTabDelim(sw, normByMeanSpotListFlag,
+                                                SpotPairing.PAIR_BY_ID);
+    return((nPairs>0) ? sw.toString() : null);
+  } /* listPairedSpotListDataTabDelim */
+  
+  
+  /**
+   * pairSpotLists() - pair the spots in the left and right spot lists.
+   * Both spot lists must have the same calibration abbreviation units.
+   * @param pairMode is SpotPairing.PAIR_BY_ID to pair by annotation id's 
+   *        or SpotPairing.PAIR_BY_NEAREST to pair by nearest neighbor of
+   *        the landmark-warped left spot coordinates.
+   * @return the pairing, see its nPairs, else null if bad data
+   */
+  public static SpotPairing pairSpotLists(int pairMode)
+  { /* pairSpotLists */ 
     ImageData
       iData1= flk.iData1,
       iData2= flk.iData2;
@@ -737,147 +1144,83 @@ public class Spot implements ActionListener, WindowListener
       unitsAbbrev1= iData1.calib.unitsAbbrev,
       unitsAbbrev2= iData2.calib.unitsAbbrev;
     if(nSpots1==0 || nSpots2==0 || !unitsAbbrev1.equals(unitsAbbrev2))
+      return(null);               /* no data */
+    
+    SpotPairing sp= new SpotPairing(iData1.idSL.spotList, nSpots1,
+                                    iData2.idSL.spotList, nSpots2);
+    if(pairMode==SpotPairing.PAIR_BY_NEAREST)
     {
-      return(null);      /* no data */
+      sp.setWarpFromLandmarks();
+      sp.pairByNearest(SpotPairing.DEFAULT_MAX_PAIR_DIST);
     }
+    else
+      sp.pairById();
     
-    int foundPairsInSpotLists= 0;
-    Spot
-      spotList1[]= iData1.idSL.spotList,
-      spotList2[]= iData2.idSL.spotList;
-    String
-      imageName1= flk.util.getFileNameFromPath(iData1.imageFile),
-      imageName2= flk.util.getFileNameFromPath(iData2.imageFile),
-      idList1[]= new String[nSpots1],
-      idList2[]= new String[nSpots2];
-     
-     int
-       nbr= 0,
-       xLbl= 0,
-       yLbl= 0;
-     
-     String
-       sR= "",
-       id1,
-       id2,
-       sFields= "Image1\tImage2\tSpotNbr1\tSpotNbr2\tID\tName"+
-                "\tDensityMode\tUnits"+
-                "\tD1\tD2\t(D1/D2)"+
-                "\t(D1-B1)\t(D2-B2)\t(D1-B1)/(D2-B2)"+
-                "\tCircleMask1\tCircleMask2\n";
-     float
-       sumD1= 0.0F,
-       sumD2= 0.0F,
-       sumDB1= 0.0F,
-       sumDB2= 0.0F,
-       mnD1= 1.0F,
-       mnD2= 1.0F,
-       mnDB1= 1.0F,
-       mnDB2= 1.0F,
-       v;
-    
-     /* Compute mean spotList spot density for all spots in each list */
-     for(int i=0;i<nSpots1;i++)
-     { /* Check image 1 spots */
-       Spot s1= spotList1[i];
-       idList1[i]= s1.id;
-       sumD1 += s1.density;
-       sumDB1 += s1.densPrime;
-     }
-     
-     for(int j=0;j<nSpots2;j++)
-     { /* Check image 2 spots */
-       Spot s2= spotList2[j];
-       idList2[j]= s2.id;
-       sumD2 += s2.density;
-       sumDB2 += s2.densPrime;
-     }
-       
-     if(normByMeanSpotListFlag)
-     { /* use the mean spot list normalzations */
-       sFields= "Image1\tImage2\tSpotNbr1\tSpotNbr2\tID\tName"+
-                "\tDensityMode\tUnits"+
-                "\tDm1\tDm2\t(Dm1/Dm2)"+
-                "\t(Dm1-Bm1)\t(Dm2-Bm2)\t(Dm1-Bm1)/(Dm2-Bm2)"+
-                "\tCircleMask1\tCircleMask2"+
-                "\tMnDspotList1\tMnDspotList2\tMnDBspotList1\tMnDBspotList2\n";
-       mnD1= sumD1/nSpots1;
-       mnDB1= sumDB1/nSpots1;
-       mnD2= sumD2/nSpots2;
-       mnDB2= sumDB2/nSpots2;
-       if(mnD1==0.0F || mnD2==0.0F || mnDB1==0.0F || mnDB2==0.0F)
-         return(null);                      /* Bad data */
-     }  /* use the mean spot list normalzations */
-       
-     /* Generate the spot list */
-     for(int i=0;i<nSpots1;i++)
-     { /* Check image 1 spots */
-       Spot s1= spotList1[i];
-       id1= idList1[i];
-       if(id1==null)
-         continue;
-       
-       for(int j=0;j<nSpots2;j++)
-       { /* find matching spot in spot list 2 */         
-         Spot s2= spotList2[j];
-         id2= idList2[j];
-         if(id2==null || !id1.equals(id2))
-           continue;              /* must have same spot id */
-         if(s1.useTotDensityFlag!=s2.useTotDensityFlag)
-           continue;              /* must both be either Total or Mean */
-         
-         foundPairsInSpotLists++;  /* Count spots passing the test */
-         
-         /* found spots with the same annotation */
-         sR += imageName1;
-         sR += "\t" + imageName2;
-         
-         sR += "\t" + s1.nbr;
-         sR += "\t" + s2.nbr;
-         sR += "\t" + (String)((s1.id==null) ? ""  : s1.id);
-         sR += "\t" + (String)((s1.name==null) ? ""  : s1.name);
-         
-         sR += "\t" + (String)((s1.useTotDensityFlag) ? "Total" : "Mean");
-         sR += "\t" + unitsAbbrev1;
-       
-         sR += "\t" + util.cvf2s(s1.density/mnD1,3);
-         sR += "\t" + util.cvf2s(s2.density/mnD2,3);         
-         v= (s2.density==0.0F)
-               ? 0.0F : ((s1.density/mnD1)/(s2.density/mnD2));
-         sR += "\t" + util.cvf2s(v,3);
-               
-         sR += "\t" + util.cvf2s(s1.densPrime/mnDB1,3);
-         sR += "\t" + util.cvf2s(s2.densPrime/mnDB2,3); 
-         v= (s2.densPrime==0.0F)
-               ? 0.0F : ((s1.densPrime/mnDB1)/(s2.densPrime/mnDB2));
-         sR += "\t" + util.cvf2s(v,3);
-                  
-         sR += "\t" + s1.nCirMask + "X" + s1.nCirMask;
-         sR += "\t" + s2.nCirMask + "X" + s2.nCirMask;
-                           
-         if(normByMeanSpotListFlag)
-         { /* use the mean spot list normalzations */
-           sR += "\t" + util.cvf2s(mnD1,3);
-           sR += "\t" + util.cvf2s(mnD2,3);
-           sR += "\t" + util.cvf2s(mnDB1,3);
-           sR += "\t" + util.cvf2s(mnDB2,3);
-         } /* use the mean spot list normalzations */
-         
-         sR += "\n";
-       } /* find matching spot in spot list 2 */
-     } /* Check image 1 spots */
-     
-     if(foundPairsInSpotLists>0)
-     { /* build output string */
-       sR= sFields + sR;
-     }
-     else
-     { /* error */
-       sR= null;
-     }
-     
-     return(sR);
-  } /* listPairedSpotListDataTabDelim */
+    return(sp);
+  } /* pairSpotLists */
+  
+  
+  /**
+   * writePairedSpotListDataTabDelim() - write a tab-delimited table
+   * of the paired spots in the left and right spot lists to a Writer.
+   * The writer may stream it to a file or to the report window.
+   * Both spot lists must have the same calibration abbreviation units.
+   * @param w is the writer
+   * @param normByMeanSpotListFlag normalize by the mean spot value of spots 
+   *          in each of the corresponding spot lists.
+   * @param pairMode is SpotPairing.PAIR_BY_ID to pair by annotation id's 
+   *        or SpotPairing.PAIR_BY_NEAREST to pair by nearest neighbor of
+   *        the landmark-warped left spot coordinates.
+   * @return # of pairs written, 0 if none, -1 if bad data or failed,
+   *         SpotPairing.ZERO_NORM_MEAN if can't normalize by a 0 mean
+   */
+  public static int writePairedSpotListDataTabDelim(Writer w,
+                                              boolean normByMeanSpotListFlag,
+                                                    int pairMode)
+  { /* writePairedSpotListDataTabDelim */ 
+    SpotPairing sp= pairSpotLists(pairMode);
+    if(sp==null)
+      return(-1);                 /* no data */
+    return(writePairedSpotListDataTabDelim(w, sp, normByMeanSpotListFlag));
+  } /* writePairedSpotListDataTabDelim */
+  
+  
+  /**
+   * writePairedSpotListDataTabDelim() - write a tab-delimited table
+   * of the spots paired by pairSpotLists() to a Writer. If the write
+   * fails, the error is reported in the message area.
+   * @param w is the writer
+   * @param sp is the spot pairing from pairSpotLists()
+   * @param normByMeanSpotListFlag normalize by the mean spot value of spots 
+   *          in each of the corresponding spot lists.
+   * @return # of pairs written, 0 if none, -1 if failed, 
+   *         SpotPairing.ZERO_NORM_MEAN if can't normalize by a 0 mean
+   */
+  public static int writePairedSpotListDataTabDelim(Writer w, 
+                                                    SpotPairing sp,
+                                              boolean normByMeanSpotListFlag)
+  { /* writePairedSpotListDataTabDelim */ 
+    if(sp.nPairs==0)
+      return(0);
+    
+    ImageData
+      iData1= flk.iData1,
+      iData2= flk.iData2;
+    try
+    {
+      return(sp.writeReport(w,
+                            flk.util.getFileNameFromPath(iData1.imageFile),
+                            flk.util.getFileNameFromPath(iData2.imageFile),
+                            iData1.calib.unitsAbbrev, 
+                            normByMeanSpotListFlag));
+    }
+    catch(IOException e)
+    {
+      flk.util.showMsg("Problem writing the paired spots table - "+
+                       e.getMessage(), Color.red);
+      return(-1);
+    }
+  } /* writePairedSpotListDataTabDelim */
     
   
   /**
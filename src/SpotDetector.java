@@ -0,0 +1,736 @@
+/* File: SpotDetector.java */
+
+import java.util.*;
+import java.lang.*;
+
+/**
+ * SpotDetector class automatically detects and measures the spots in 
+ * an image (restricted to the computing window if it is set) and 
+ * returns them as Spot instances that may be merged into the spot list
+ * with ImageDataSpotList.addSpotsToSpotList().
+ *<P>
+ * The steps are:
+ *<PRE>
+ * 1. Map the iPix[] gray values in the window to density (OD if the 
+ *    image is calibrated) with ImageDataMeas.getDensityLUT(), the same
+ *    map used for the circle mask measurements.
+ * 2. Smooth the density with two passes of a (2*SMOOTH_RADIUS+1)
+ *    box filter (approximately Gaussian).
+ * 3. Estimate the local background as the BKGRD_PERCENTILE of the 
+ *    smoothed density in BKGRD_TILE_SIZE square tiles, interpolated
+ *    bilinearly between tile centers.
+ * 4. Find the local maxima whose height above the background is at
+ *    least minPeakHeight. These are the watershed markers.
+ * 5. Flood from the markers in decreasing smoothed density order 
+ *    (marker-based watershed). A spot stops where its density falls
+ *    below SPOT_EDGE_FRACTION of its peak height above background or 
+ *    at MAX_SPOT_RADIUS from its peak, and where it meets another spot.
+ * 6. Measure each spot with MIN_SPOT_AREA or more pixels: area, 
+ *    density weighted centroid, total and mean density, min and max 
+ *    density and the mean background under the peak.
+ *</PRE>
+ * Each step runs in parallel bands of rows with ParallelBands. The 
+ * watershed floods FLOOD_BAND_ROWS bands of rows, each extended by a 
+ * halo of rows with the peaks in it, and each spot is measured by the
+ * band holding its peak. This is an approximation of flooding the 
+ * window in one pass: where spots compete in a chain reaching beyond 
+ * the halo, a band may split a boundary differently. Since the band 
+ * size is fixed, the result does not depend on the # of processors.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class SpotDetector
+{ /* SpotDetector */
+  
+  /** Radius of the box filter applied twice to smooth the image */
+  public static int
+    SMOOTH_RADIUS= 1;
+  /** Size of the square tiles used to estimate the background */
+  public static int
+    BKGRD_TILE_SIZE= 64;
+  /** Percentile [0:1] of the smoothed density in a tile used as 
+   * the background of the tile 
+   */
+  public static float
+    BKGRD_PERCENTILE= 0.10F;
+  /** A spot ends where its density falls below this fraction of
+   * its peak height above the background
+   */
+  public static float
+    SPOT_EDGE_FRACTION= 0.5F;
+  /** Default minimum peak height as a fraction of the density range */
+  public static float
+    DEFAULT_MIN_PEAK_FRACTION= 0.05F;
+  /** Minimum area of a spot in pixels */
+  public static int
+    MIN_SPOT_AREA= 5;
+  /** Maximum radius of a spot in pixels */
+  public static int
+    MAX_SPOT_RADIUS= 30;
+  /** # of rows in a watershed flooding band (without its halo) */
+  public static int
+    FLOOD_BAND_ROWS= 512;
+  /** # of quantized density levels in the watershed priority queue */
+  private final static int
+    N_LEVELS= 4096;
+  /** The box filter column sums are restarted every this many rows, so
+   * the rounding does not depend on where the bands split the rows 
+   */
+  private final static int
+    SUM_RESTART_ROWS= 64;
+  
+  /** Flicker global classes */
+  public static Flicker
+    flk; 
+  
+  /** Image to detect spots in */
+  private ImageData
+    id;
+  
+  /** Window ULHC x in image coordinates */
+  public int
+    x1;
+  /** Window ULHC y in image coordinates */
+  public int
+    y1;
+  /** Window width */
+  public int
+    w;
+  /** Window height */
+  public int
+    h;
+  /** Density of the window [0:w*h-1] */
+  private float
+    dens[];
+  /** Smoothed density of the window [0:w*h-1] */
+  private float
+    smooth[];
+  /** Background of the tiles [0:nTx*nTy-1] */
+  private float
+    bkgrdTile[];
+  /** # of background tiles in x */
+  private int
+    nTx;
+  /** # of background tiles in y */
+  private int
+    nTy;
+  /** Min smoothed density */
+  private float
+    sMin;
+  /** Max smoothed density */
+  private float
+    sMax;
+  /** Peak (marker) window indices [0:nPeaks-1] in raster order */
+  private int
+    peaks[];
+  /** # of peaks */
+  public int
+    nPeaks= 0;
+  
+  /** Minimum peak height above background of the last detection */
+  public float
+    minPeakHeight;
+  /** Run time of the last detection in milliseconds */
+  public long
+    runTimeMsec= 0;
+  
+  
+  /**
+   * SpotDetector() - Constructor
+   * @param id is the image to detect spots in
+   */
+  public SpotDetector(ImageData id)
+  { /* SpotDetector */
+    this.id= id;
+    flk= id.flk;
+  } /* SpotDetector */
+  
+  
+  /**
+   * getDefaultMinPeakHeight() - get the default minimum peak height as
+   * DEFAULT_MIN_PEAK_FRACTION of the range of mapGrayToOD[].
+   * @return default min peak height in density (gray or OD) units
+   */
+  public float getDefaultMinPeakHeight()
+  { /* getDefaultMinPeakHeight */
+    float map[]= id.mapGrayToOD;
+    if(map==null || map.length==0)
+      return(DEFAULT_MIN_PEAK_FRACTION*id.pixelMask);
+    float range= Math.abs(map[map.length-1] - map[0]);
+    return(DEFAULT_MIN_PEAK_FRACTION*range);
+  } /* getDefaultMinPeakHeight */
+  
+  
+  /**
+   * detectSpots() - detect and measure the spots in the computing
+   * window if it is valid, else in the whole image.
+   * @param minPeakHeight is the min height of a spot peak above the 
+   *        background in density (gray or OD) units
+   * @return list of spots (with nbr 0) in raster order of their peaks,
+   *         null if there is no image data.
+   */
+  public Spot[] detectSpots(float minPeakHeight)
+  { /* detectSpots */
+    long startTime= System.currentTimeMillis();
+    
+    this.minPeakHeight= minPeakHeight;
+    if(id.iPix==null && !id.checkAndMakeIpix(true))
+      return(null);
+    float lut[]= id.idM.getDensityLUT();
+    if(lut==null)
+      return(null);
+    
+    /* [1] Get the window */
+    setWindow();
+    if(w<3 || h<3)
+      return(new Spot[0]);
+    
+    /* [2] Map to density and smooth it */
+    loadWindow(lut);
+    smooth= new float[w*h];
+    boxFilter(dens, smooth, SMOOTH_RADIUS);
+    boxFilter(smooth, smooth, SMOOTH_RADIUS);
+    calcSmoothRange();
+    
+    /* [3] Estimate the background and find the peaks */
+    estimateBackground();
+    findPeaks();
+    
+    /* [4] Segment and measure the spots */
+    Spot sR[]= floodAndMeasure();
+    
+    dens= null;                         /* free the work arrays */
+    smooth= null;
+    peaks= null;
+    runTimeMsec= System.currentTimeMillis() - startTime;
+    
+    return(sR);
+  } /* detectSpots */
+  
+  
+  /**
+   * setWindow() - set the window [x1:x1+w-1, y1:y1+h-1] to the 
+   * computing window clipped to the image if it is valid, else to 
+   * the whole image.
+   */
+  private void setWindow()
+  { /* setWindow */
+    ImageDataROI idROI= id.idROI;
+    int
+      wx1= 0,
+      wy1= 0,
+      wx2= id.iWidth-1,
+      wy2= id.iHeight-1;
+    
+    if(idROI!=null && idROI.isValidCW())
+    { /* use the computing window */
+      wx1= Math.max(wx1, idROI.cwx1);
+      wy1= Math.max(wy1, idROI.cwy1);
+      wx2= Math.min(wx2, idROI.cwx2);
+      wy2= Math.min(wy2, idROI.cwy2);
+    }
+    
+    x1= wx1;
+    y1= wy1;
+    w= Math.max(0, wx2-wx1+1);
+    h= Math.max(0, wy2-wy1+1);
+  } /* setWindow */
+  
+  
+  /**
+   * loadWindow() - map the window's iPix[] gray values to density 
+   * in dens[] with the ImageDataMeas density LUT. 
+   * @param lut is the density map from getDensityLUT()
+   */
+  private void loadWindow(final float lut[])
+  { /* loadWindow */
+    final int
+      iPix[]= id.iPix,
+      iWidth= id.iWidth,
+      pixelMask= id.pixelMask;
+    
+    dens= new float[w*h];
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* map a band */
+          for(int y=by1;y<by2;y++)
+          { /* map a row */
+            int
+              src= (y+y1)*iWidth + x1,
+              dst= y*w;
+            for(int x=0;x<w;x++)
+              dens[dst+x]= lut[iPix[src+x] & pixelMask];
+          }
+        } /* map a band */
+      }.run(h);
+  } /* loadWindow */
+  
+  
+  /**
+   * boxFilter() - apply a (2r+1)x(2r+1) box filter to src[] into dst[]
+   * as separable running sums replicating the window edges. src[] and
+   * dst[] may be the same array. The column sums restart at multiples
+   * of SUM_RESTART_ROWS so the result is the same for any bands.
+   * @param src is the input window [0:w*h-1]
+   * @param dst is the output window [0:w*h-1]
+   * @param r is the radius of the box
+   */
+  private void boxFilter(final float src[], final float dst[], final int r)
+  { /* boxFilter */
+    final float
+      tmp[]= new float[w*h];
+    final double
+      norm= 1.0/(2*r+1);
+    
+    /* [1] Horizontal pass src[] to tmp[] */
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* filter rows */
+          for(int y=by1;y<by2;y++)
+          { /* filter a row */
+            int row= y*w;
+            double sum= 0.0;
+            for(int k=-r;k<=r;k++)
+              sum += src[row + Math.max(0, Math.min(k, w-1))];
+            for(int x=0;x<w;x++)
+            {
+              tmp[row+x]= (float)(sum*norm);
+              sum += src[row + Math.min(x+r+1, w-1)] - 
+                     src[row + Math.max(x-r, 0)];
+            }
+          }
+        } /* filter rows */
+      }.run(h);
+    
+    /* [2] Vertical pass tmp[] to dst[] */
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* filter columns of the band */
+          double colSum[]= new double[w];
+          for(int y=(by1/SUM_RESTART_ROWS)*SUM_RESTART_ROWS;y<by2;y++)
+          { /* output a row */
+            if((y % SUM_RESTART_ROWS)==0)
+            { /* restart the column sums */
+              Arrays.fill(colSum, 0.0);
+              for(int k=-r;k<=r;k++)
+              {
+                int row= Math.max(0, Math.min(y+k, h-1))*w;
+                for(int x=0;x<w;x++)
+                  colSum[x] += tmp[row+x];
+              }
+            }
+            int
+              row= y*w,
+              rowAdd= Math.min(y+r+1, h-1)*w,
+              rowSub= Math.max(y-r, 0)*w;
+            for(int x=0;x<w;x++)
+            {
+              if(y>=by1)
+                dst[row+x]= (float)(colSum[x]*norm);
+              colSum[x] += tmp[rowAdd+x] - tmp[rowSub+x];
+            }
+          }
+        } /* filter columns of the band */
+      }.run(h);
+  } /* boxFilter */
+  
+  
+  /**
+   * calcSmoothRange() - compute [sMin:sMax] of smooth[]
+   */
+  private void calcSmoothRange()
+  { /* calcSmoothRange */
+    final int nBands= ParallelBands.getNbrBands(h);
+    final float
+      bandMin[]= new float[nBands],
+      bandMax[]= new float[nBands];
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* range of a band */
+          float
+            mn= Float.MAX_VALUE,
+            mx= -Float.MAX_VALUE,
+            v;
+          for(int i=by1*w;i<by2*w;i++)
+          {
+            v= smooth[i];
+            if(v<mn)
+              mn= v;
+            if(v>mx)
+              mx= v;
+          }
+          bandMin[band]= mn;
+          bandMax[band]= mx;
+        } /* range of a band */
+      }.run(h);
+    
+    sMin= bandMin[0];
+    sMax= bandMax[0];
+    for(int b=1;b<nBands;b++)
+    {
+      sMin= Math.min(sMin, bandMin[b]);
+      sMax= Math.max(sMax, bandMax[b]);
+    }
+  } /* calcSmoothRange */
+  
+  
+  /**
+   * estimateBackground() - set bkgrdTile[] to the BKGRD_PERCENTILE of
+   * smooth[] in each BKGRD_TILE_SIZE square tile of the window.
+   */
+  private void estimateBackground()
+  { /* estimateBackground */
+    final int tSize= BKGRD_TILE_SIZE;
+    
+    nTx= (w+tSize-1)/tSize;
+    nTy= (h+tSize-1)/tSize;
+    bkgrdTile= new float[nTx*nTy];
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* do the tile rows starting in the band */
+          float vals[]= new float[tSize*tSize];
+          for(int ty=(by1+tSize-1)/tSize; ty*tSize<by2; ty++)
+            for(int tx=0;tx<nTx;tx++)
+            { /* do a tile */
+              int
+                n= 0,
+                xEnd= Math.min(tx*tSize+tSize, w),
+                yEnd= Math.min(ty*tSize+tSize, h);
+              for(int y=ty*tSize;y<yEnd;y++)
+                for(int x=tx*tSize;x<xEnd;x++)
+                  vals[n++]= smooth[y*w+x];
+              Arrays.sort(vals, 0, n);
+              bkgrdTile[ty*nTx+tx]= vals[(int)(BKGRD_PERCENTILE*(n-1))];
+            } /* do a tile */
+        } /* do the tile rows starting in the band */
+      }.run(h);
+  } /* estimateBackground */
+  
+  
+  /**
+   * getBkgrd() - get the background at (x,y) in window coordinates
+   * interpolated bilinearly between the tile centers.
+   * @param x coordinate in the window
+   * @param y coordinate in the window
+   * @return background density
+   */
+  private float getBkgrd(int x, int y)
+  { /* getBkgrd */
+    float
+      fx= (x+0.5F)/BKGRD_TILE_SIZE - 0.5F,
+      fy= (y+0.5F)/BKGRD_TILE_SIZE - 0.5F;
+    int
+      tx0= (int)Math.floor(fx),
+      ty0= (int)Math.floor(fy);
+    float
+      ax= fx - tx0,
+      ay= fy - ty0;
+    int
+      txA= Math.max(0, Math.min(tx0, nTx-1)),
+      txB= Math.max(0, Math.min(tx0+1, nTx-1)),
+      tyA= Math.max(0, Math.min(ty0, nTy-1))*nTx,
+      tyB= Math.max(0, Math.min(ty0+1, nTy-1))*nTx;
+    float
+      bA= (1-ax)*bkgrdTile[tyA+txA] + ax*bkgrdTile[tyA+txB],
+      bB= (1-ax)*bkgrdTile[tyB+txA] + ax*bkgrdTile[tyB+txB];
+    
+    return((1-ay)*bA + ay*bB);
+  } /* getBkgrd */
+  
+  
+  /**
+   * findPeaks() - find the local maxima of smooth[] (ignoring the 
+   * window border) at least minPeakHeight above the background and 
+   * save them in peaks[0:nPeaks-1] in raster order. A pixel must be 
+   * greater than its neighbors before it in raster order and at least
+   * as great as those after it, so a plateau gives one peak.
+   */
+  private void findPeaks()
+  { /* findPeaks */
+    final int
+      nBands= ParallelBands.getNbrBands(h),
+      bandPeaks[][]= new int[nBands][],
+      bandN[]= new int[nBands];
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* find the peaks in a band */
+          int
+            n= 0,
+            p[]= new int[256];
+          for(int y=Math.max(by1,1);y<Math.min(by2,h-1);y++)
+            for(int x=1;x<w-1;x++)
+            { /* test a pixel */
+              int i= y*w+x;
+              float v= smooth[i];
+              if(v<=smooth[i-w-1] || v<=smooth[i-w] || v<=smooth[i-w+1] ||
+                 v<=smooth[i-1] || v<smooth[i+1] ||
+                 v<smooth[i+w-1] || v<smooth[i+w] || v<smooth[i+w+1])
+                continue;
+              if((v - getBkgrd(x,y)) < minPeakHeight)
+                continue;
+              if(n==p.length)
+              { /* grow it */
+                int tmp[]= new int[2*n];
+                System.arraycopy(p, 0, tmp, 0, n);
+                p= tmp;
+              }
+              p[n++]= i;
+            } /* test a pixel */
+          bandPeaks[band]= p;
+          bandN[band]= n;
+        } /* find the peaks in a band */
+      }.run(h);
+    
+    /* Concatenate the bands in order */
+    nPeaks= 0;
+    for(int b=0;b<nBands;b++)
+      nPeaks += bandN[b];
+    peaks= new int[nPeaks];
+    for(int b=0, k=0;b<nBands;k += bandN[b], b++)
+      System.arraycopy(bandPeaks[b], 0, peaks, k, bandN[b]);
+  } /* findPeaks */
+  
+  
+  /**
+   * findFirstPeakInRow() - find the first peak in peaks[] whose row
+   * is y or greater.
+   * @param y is window row
+   * @return index in peaks[], nPeaks if none
+   */
+  private int findFirstPeakInRow(int y)
+  { /* findFirstPeakInRow */
+    int
+      lo= 0,
+      hi= nPeaks,
+      iY= y*w;
+    while(lo<hi)
+    { /* binary search */
+      int mid= (lo+hi) >>> 1;
+      if(peaks[mid]<iY)
+        lo= mid+1;
+      else
+        hi= mid;
+    }
+    return(lo);
+  } /* findFirstPeakInRow */
+  
+  
+  /**
+   * floodAndMeasure() - segment the spots by marker-based watershed 
+   * flooding from the peaks and measure them. Each FLOOD_BAND_ROWS 
+   * band floods its rows plus a halo of rows using all of the peaks in
+   * that range, then measures the spots whose peaks are in its rows.
+   * @return list of spots with MIN_SPOT_AREA or more pixels
+   */
+  private Spot[] floodAndMeasure()
+  { /* floodAndMeasure */
+    final int
+      halo= 2*MAX_SPOT_RADIUS+2,
+      maxR2= MAX_SPOT_RADIUS*MAX_SPOT_RADIUS,
+      nGel= (id==flk.iData1) ? 1 : 2;
+    final float
+      cut[]= new float[nPeaks],
+      pkBkgrd[]= new float[nPeaks],
+      levelScale= (sMax>sMin) ? (N_LEVELS-1)/(sMax-sMin) : 0.0F;
+    final Spot
+      allSpots[]= new Spot[nPeaks];
+    final boolean
+      isCalibFlag= id.hasODmapFlag,
+      useTotDensityFlag= flk.useTotDensityFlag;
+    
+    /* [1] Get the background and edge cutoff of each peak */
+    for(int k=0;k<nPeaks;k++)
+    {
+      int p= peaks[k];
+      pkBkgrd[k]= getBkgrd(p%w, p/w);
+      cut[k]= pkBkgrd[k] + SPOT_EDGE_FRACTION*(smooth[p] - pkBkgrd[k]);
+    }
+    
+    /* [2] Flood and measure by bands */
+    new ParallelBands()
+      {
+        public void doBand(int band, int by1, int by2)
+        { /* flood and measure a band */
+          int
+            ey1= Math.max(0, by1-halo),
+            ey2= Math.min(h, by2+halo),
+            eOff= ey1*w,
+            eSize= (ey2-ey1)*w,
+            k1= findFirstPeakInRow(ey1),
+            k2= findFirstPeakInRow(ey2),
+            c1= findFirstPeakInRow(by1),
+            c2= findFirstPeakInRow(by2),
+            lab[]= new int[eSize],       /* peak # + 1, 0 if unlabeled */
+            qNext[]= new int[eSize],     /* next in the level's queue */
+            head[]= new int[N_LEVELS],   /* head of each level's queue */
+            cur= -1,
+            i, j, q, L, k, x, y, nx, ny, px, py, dx, dy;
+          float
+            v, 
+            cutL;
+          
+          /* [2.1] Queue the markers */
+          Arrays.fill(head, -1);
+          for(k=k1;k<k2;k++)
+          {
+            i= peaks[k]-eOff;
+            lab[i]= k+1;
+            q= (int)((smooth[peaks[k]]-sMin)*levelScale);
+            qNext[i]= head[q];
+            head[q]= i;
+            cur= Math.max(cur, q);
+          }
+          
+          /* [2.2] Flood from the highest level down. Pixels are labeled
+           * when queued, so each pixel is queued at most once.
+           */
+          while(cur>=0)
+          { /* flood */
+            i= head[cur];
+            if(i<0)
+            {
+              cur--;
+              continue;
+            }
+            head[cur]= qNext[i];
+            L= lab[i]-1;
+            cutL= cut[L];
+            px= peaks[L]%w;
+            py= peaks[L]/w;
+            x= i%w;
+            y= i/w + ey1;
+            for(int n=0;n<4;n++)
+            { /* test 4-neighbors */
+              nx= (n==0) ? x-1 : ((n==1) ? x+1 : x);
+              ny= (n==2) ? y-1 : ((n==3) ? y+1 : y);
+              if(nx<0 || nx>=w || ny<ey1 || ny>=ey2)
+                continue;
+              j= (ny-ey1)*w + nx;
+              if(lab[j]!=0)
+                continue;
+              v= smooth[eOff+j];
+              if(v<cutL)
+                continue;
+              dx= nx-px;
+              dy= ny-py;
+              if((dx*dx + dy*dy)>maxR2)
+                continue;
+              lab[j]= L+1;
+              q= Math.min((int)((v-sMin)*levelScale), cur);
+              qNext[j]= head[q];
+              head[q]= j;
+            } /* test 4-neighbors */
+          } /* flood */
+          
+          /* [2.3] Measure the spots with peaks in this band */
+          int
+            nC= c2-c1,
+            area[]= new int[nC];
+          double
+            sumD[]= new double[nC],
+            sumW[]= new double[nC],
+            sumWx[]= new double[nC],
+            sumWy[]= new double[nC];
+          float
+            dMax[]= new float[nC],
+            dMin[]= new float[nC];
+          
+          for(i=0;i<eSize;i++)
+          { /* accumulate a pixel */
+            L= lab[i]-1;
+            if(L<c1 || L>=c2)
+              continue;
+            k= L-c1;
+            v= dens[eOff+i];
+            if(area[k]==0)
+            {
+              dMax[k]= v;
+              dMin[k]= v;
+            }
+            else
+            {
+              dMax[k]= Math.max(dMax[k], v);
+              dMin[k]= Math.min(dMin[k], v);
+            }
+            area[k]++;
+            sumD[k] += v;
+            double wt= Math.max(0.0F, v - pkBkgrd[L]);
+            sumW[k] += wt;
+            sumWx[k] += wt*(i%w);
+            sumWy[k] += wt*(i/w + ey1);
+          } /* accumulate a pixel */
+          
+          for(k=0;k<nC;k++)
+          { /* make the spots */
+            if(area[k]<MIN_SPOT_AREA)
+              continue;
+            L= k+c1;
+            int
+              xC,
+              yC,
+              radius= (int)Math.round(Math.sqrt(area[k]/Math.PI));
+            if(sumW[k]>0.0)
+            {
+              xC= x1 + (int)Math.round(sumWx[k]/sumW[k]);
+              yC= y1 + (int)Math.round(sumWy[k]/sumW[k]);
+            }
+            else
+            {
+              xC= x1 + peaks[L]%w;
+              yC= y1 + peaks[L]/w;
+            }
+            radius= Math.max(0, Math.min(radius, Flicker.MAX_CIRCLE_RADIUS));
+            float
+              totDens= (float)sumD[k],
+              mnDens= (float)(sumD[k]/area[k]),
+              mnBkgrd= pkBkgrd[L],
+              bkgrd= (useTotDensityFlag) ? mnBkgrd*area[k] : mnBkgrd,
+              density= (useTotDensityFlag) ? totDens : mnDens;
+            allSpots[L]= new Spot(nGel, 0, null, null, radius, radius,
+                                  xC, yC, xC, yC, (float)area[k],
+                                  isCalibFlag, useTotDensityFlag,
+                                  density, (density - bkgrd), bkgrd,
+                                  mnDens, totDens, (mnDens - mnBkgrd),
+                                  mnBkgrd, dMax[k], dMin[k], 
+                                  mnBkgrd, mnBkgrd);
+          } /* make the spots */
+        } /* flood and measure a band */
+      }.run(h, (h+FLOOD_BAND_ROWS-1)/FLOOD_BAND_ROWS);
+    
+    /* [3] Compact the list */
+    int nSpots= 0;
+    for(int k=0;k<nPeaks;k++)
+      if(allSpots[k]!=null)
+        nSpots++;
+    Spot sR[]= new Spot[nSpots];
+    for(int k=0, n=0;k<nPeaks;k++)
+      if(allSpots[k]!=null)
+        sR[n++]= allSpots[k];
+    
+    return(sR);
+  } /* floodAndMeasure */
+  
+  
+} /* End of class SpotDetector */
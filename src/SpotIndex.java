@@ -0,0 +1,383 @@
+/* File: SpotIndex.java */
+
+import java.util.*;
+import java.lang.*;
+
+/**
+ * SpotIndex class is a spatial index of spots by (x,y) position for 
+ * fast lookup of the spot at a position, the nearest spot and the spots
+ * within a radius. It is used by ImageDataSpotList along with its 
+ * spotList[] and for pairing spots between spot lists.
+ *<P>
+ * The index is a uniform grid of CELL_SIZE square cells kept in a hash
+ * table of buckets so it does not depend on the image size. Each entry 
+ * is (x, y, list index, Spot) and the entries of a bucket are chained
+ * through next[]. The entry arrays and the bucket table both grow by
+ * doubling so adding spots is amortized O(1). Lookups only search the
+ * cells overlapping the query square.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class SpotIndex
+{ /* SpotIndex */
+  
+  /** Default size of the square grid cells in pixels */
+  public static int
+    CELL_SIZE= 16;
+  
+  /** size of the square grid cells in pixels */
+  private int
+    cellSize;
+  /** # of entries in the index */
+  public int
+    nEntries= 0;
+  /** entry x coordinates [0:nEntries-1] */
+  private int
+    entX[];
+  /** entry y coordinates [0:nEntries-1] */
+  private int
+    entY[];
+  /** entry list indices (e.g., index in spotList[]) [0:nEntries-1] */
+  private int
+    entIdx[];
+  /** entry spots [0:nEntries-1] */
+  private Spot
+    entSpot[];
+  /** next entry in the same bucket, -1 if end of chain [0:nEntries-1] */
+  private int
+    next[];
+  /** first entry of each bucket, -1 if empty. Size is a power of 2 */
+  private int
+    bucketHead[];
+  
+  
+  /**
+   * SpotIndex() - Constructor
+   * @param cellSize is the size of the grid cells in pixels
+   * @param estSize is the estimated # of entries
+   */
+  public SpotIndex(int cellSize, int estSize)
+  { /* SpotIndex */
+    this.cellSize= Math.max(1, cellSize);
+    int size= 64;
+    while(size<estSize)
+      size *= 2;
+    entX= new int[size];
+    entY= new int[size];
+    entIdx= new int[size];
+    entSpot= new Spot[size];
+    next= new int[size];
+    makeBuckets(size/2);
+  } /* SpotIndex */
+  
+  
+  /**
+   * SpotIndex() - Constructor to index spotList[0:nSpots-1] by (xC,yC)
+   * @param spotList is the list of spots
+   * @param nSpots is the # of spots in the list
+   */
+  public SpotIndex(Spot spotList[], int nSpots)
+  { /* SpotIndex */
+    this(CELL_SIZE, nSpots);
+    for(int i=0;i<nSpots;i++)
+      if(spotList[i]!=null)
+        add(spotList[i], spotList[i].xC, spotList[i].yC, i);
+  } /* SpotIndex */
+  
+  
+  /**
+   * makeBuckets() - make a new empty bucket table and rehash the entries
+   * @param nBuckets is the # of buckets, a power of 2
+   */
+  private void makeBuckets(int nBuckets)
+  { /* makeBuckets */
+    bucketHead= new int[nBuckets];
+    for(int b=0;b<nBuckets;b++)
+      bucketHead[b]= -1;
+    for(int e=0;e<nEntries;e++)
+      link(e);
+  } /* makeBuckets */
+  
+  
+  /**
+   * getBucket() - get the bucket of the grid cell (cx,cy)
+   * @param cx is the cell column
+   * @param cy is the cell row
+   * @return bucket index
+   */
+  private int getBucket(int cx, int cy)
+  { return(((cx*73856093) ^ (cy*19349663)) & (bucketHead.length-1)); }
+  
+  
+  /**
+   * getCellCoord() - get the cell row or column of a coordinate. 
+   * Negative coordinates round down.
+   * @param v is the x or y coordinate
+   * @return cell column or row
+   */
+  private int getCellCoord(int v)
+  { return((v>=0) ? v/cellSize : -((cellSize-1-v)/cellSize)); }
+  
+  
+  /**
+   * link() - link entry e into the head of its bucket chain
+   * @param e is the entry
+   */
+  private void link(int e)
+  { /* link */
+    int b= getBucket(getCellCoord(entX[e]), getCellCoord(entY[e]));
+    next[e]= bucketHead[b];
+    bucketHead[b]= e;
+  } /* link */
+  
+  
+  /**
+   * unlink() - unlink entry e from its bucket chain
+   * @param e is the entry
+   */
+  private void unlink(int e)
+  { /* unlink */
+    int b= getBucket(getCellCoord(entX[e]), getCellCoord(entY[e]));
+    if(bucketHead[b]==e)
+    {
+      bucketHead[b]= next[e];
+      return;
+    }
+    for(int k=bucketHead[b]; k!=-1; k=next[k])
+      if(next[k]==e)
+      {
+        next[k]= next[e];
+        return;
+      }
+  } /* unlink */
+  
+  
+  /**
+   * add() - add a spot to the index. The entry arrays and the bucket
+   * table are doubled when full.
+   * @param s is the spot
+   * @param x coordinate to index it by
+   * @param y coordinate to index it by
+   * @param idx is the list index of the spot
+   */
+  public void add(Spot s, int x, int y, int idx)
+  { /* add */
+    if(nEntries==entX.length)
+    { /* grow the entry arrays */
+      int newSize= 2*entX.length;
+      entX= growArray(entX, newSize);
+      entY= growArray(entY, newSize);
+      entIdx= growArray(entIdx, newSize);
+      next= growArray(next, newSize);
+      Spot sNew[]= new Spot[newSize];
+      System.arraycopy(entSpot, 0, sNew, 0, nEntries);
+      entSpot= sNew;
+    }
+    int e= nEntries++;
+    entX[e]= x;
+    entY[e]= y;
+    entIdx[e]= idx;
+    entSpot[e]= s;
+    link(e);
+    
+    if(nEntries>2*bucketHead.length)
+      makeBuckets(2*bucketHead.length);
+  } /* add */
+  
+  
+  /**
+   * growArray() - copy an int array into a larger array
+   * @param a is the array to grow
+   * @param newSize is the new size
+   * @return new array
+   */
+  private int[] growArray(int a[], int newSize)
+  { /* growArray */
+    int aNew[]= new int[newSize];
+    System.arraycopy(a, 0, aNew, 0, nEntries);
+    return(aNew);
+  } /* growArray */
+  
+  
+  /**
+   * move() - move the entry for the spot with list index idx to (x,y)
+   * @param idx is the list index of the spot
+   * @param x is the new x coordinate
+   * @param y is the new y coordinate
+   * @param xOld is the old x coordinate it was indexed by
+   * @param yOld is the old y coordinate it was indexed by
+   * @return true if found and moved it
+   */
+  public boolean move(int idx, int x, int y, int xOld, int yOld)
+  { /* move */
+    int b= getBucket(getCellCoord(xOld), getCellCoord(yOld));
+    for(int e=bucketHead[b]; e!=-1; e=next[e])
+      if(entIdx[e]==idx && entX[e]==xOld && entY[e]==yOld)
+      { /* found it */
+        unlink(e);
+        entX[e]= x;
+        entY[e]= y;
+        link(e);
+        return(true);
+      }
+    return(false);
+  } /* move */
+  
+  
+  /**
+   * lookupInBox() - find the spot with the smallest list index 
+   * within +-maxDist pixels of (x,y) in both x and y.
+   * @param x coordinate
+   * @param y coordinate
+   * @param maxDist is the max distance in x and in y
+   * @return entry, else -1 if not found
+   */
+  public int lookupInBox(int x, int y, int maxDist)
+  { /* lookupInBox */
+    int
+      bestE= -1,
+      cx1= getCellCoord(x-maxDist),
+      cx2= getCellCoord(x+maxDist),
+      cy1= getCellCoord(y-maxDist),
+      cy2= getCellCoord(y+maxDist);
+    
+    for(int cy=cy1;cy<=cy2;cy++)
+      for(int cx=cx1;cx<=cx2;cx++)
+        for(int e=bucketHead[getBucket(cx,cy)]; e!=-1; e=next[e])
+          if(Math.abs(entX[e]-x)<=maxDist && Math.abs(entY[e]-y)<=maxDist &&
+             (bestE==-1 || entIdx[e]<entIdx[bestE]))
+            bestE= e;
+    
+    return(bestE);
+  } /* lookupInBox */
+  
+  
+  /**
+   * lookupNearest() - find the nearest spot within maxDist pixels of 
+   * (x,y). Ties are broken by the smallest list index.
+   * @param x coordinate
+   * @param y coordinate
+   * @param maxDist is the max Euclidean distance
+   * @return entry, else -1 if not found
+   */
+  public int lookupNearest(int x, int y, int maxDist)
+  { /* lookupNearest */
+    int
+      bestE= -1,
+      bestDist2= 0,
+      maxDist2= maxDist*maxDist,
+      cx1= getCellCoord(x-maxDist),
+      cx2= getCellCoord(x+maxDist),
+      cy1= getCellCoord(y-maxDist),
+      cy2= getCellCoord(y+maxDist);
+    
+    for(int cy=cy1;cy<=cy2;cy++)
+      for(int cx=cx1;cx<=cx2;cx++)
+        for(int e=bucketHead[getBucket(cx,cy)]; e!=-1; e=next[e])
+        { /* test the entry */
+          int
+            dx= entX[e]-x,
+            dy= entY[e]-y,
+            dist2= dx*dx + dy*dy;
+          if(dist2<=maxDist2 &&
+             (bestE==-1 || dist2<bestDist2 ||
+              (dist2==bestDist2 && entIdx[e]<entIdx[bestE])))
+          {
+            bestE= e;
+            bestDist2= dist2;
+          }
+        } /* test the entry */
+    
+    return(bestE);
+  } /* lookupNearest */
+  
+  
+  /**
+   * lookupRadius() - find all spots within radius pixels of (x,y)
+   * @param x coordinate
+   * @param y coordinate
+   * @param radius is the max Euclidean distance
+   * @return vector of Spots, sorted by list index
+   */
+  public Vector lookupRadius(int x, int y, int radius)
+  { /* lookupRadius */
+    int
+      radius2= radius*radius,
+      cx1= getCellCoord(x-radius),
+      cx2= getCellCoord(x+radius),
+      cy1= getCellCoord(y-radius),
+      cy2= getCellCoord(y+radius),
+      nFound= 0,
+      found[]= new int[16];
+    
+    for(int cy=cy1;cy<=cy2;cy++)
+      for(int cx=cx1;cx<=cx2;cx++)
+        for(int e=bucketHead[getBucket(cx,cy)]; e!=-1; e=next[e])
+        { /* test the entry */
+          int
+            dx= entX[e]-x,
+            dy= entY[e]-y;
+          if(dx*dx + dy*dy<=radius2)
+          {
+            if(nFound==found.length)
+            {
+              int tmp[]= new int[2*nFound];
+              System.arraycopy(found, 0, tmp, 0, nFound);
+              found= tmp;
+            }
+            found[nFound++]= e;
+          }
+        } /* test the entry */
+    
+    /* Hash collisions may visit a bucket more than once, so sort the
+     * entries by list index and drop the duplicates.
+     */
+    for(int i=1;i<nFound;i++)
+    { /* insertion sort by list index */
+      int e= found[i], j= i-1;
+      while(j>=0 && entIdx[found[j]]>entIdx[e])
+      {
+        found[j+1]= found[j];
+        j--;
+      }
+      found[j+1]= e;
+    }
+    Vector v= new Vector(nFound);
+    for(int i=0;i<nFound;i++)
+      if(i==0 || found[i]!=found[i-1])
+        v.addElement(entSpot[found[i]]);
+    
+    return(v);
+  } /* lookupRadius */
+  
+  
+  /**
+   * getSpot() - get the spot of an entry
+   * @param e is the entry
+   * @return spot, null if e is -1
+   */
+  public Spot getSpot(int e)
+  { return((e==-1) ? null : entSpot[e]); }
+  
+  
+  /**
+   * getIdx() - get the list index of an entry
+   * @param e is the entry
+   * @return list index, -1 if e is -1
+   */
+  public int getIdx(int e)
+  { return((e==-1) ? -1 : entIdx[e]); }
+  
+} /* End of class SpotIndex */
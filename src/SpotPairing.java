@@ -0,0 +1,461 @@
+/* File: SpotPairing.java */
+
+import java.awt.*;
+import java.util.*;
+import java.lang.*;
+import java.io.*;
+import java.text.NumberFormat;
+
+/**
+ * SpotPairing class pairs the spots in the left and right spot lists
+ * and writes the paired spot list report. Spots may be paired:
+ *<PRE>
+ * PAIR_BY_ID      - by matching spot annotation id's. The right list 
+ *                   is hashed by id so pairing is O(nSpots1+nSpots2).
+ *                   Each left spot is paired with every right spot with
+ *                   the same id, in spot list order.
+ * PAIR_BY_NEAREST - by nearest neighbor after warping the left spot
+ *                   coordinates into the right gel with the least
+ *                   squares affine transform of all of the landmarks.
+ *                   Only mutual nearest neighbors within maxPairDist
+ *                   pixels are paired, so pairs are one-to-one.
+ *</PRE>
+ * Both paired spots must be measured with either Total or Mean densities.
+ * The tab-delimited report is written through a Writer so it may be 
+ * streamed to a file or to the report window (see ReportWriter) without 
+ * building the whole report as a String.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class SpotPairing
+{ /* SpotPairing */
+  
+  /** Pair spots by matching annotation id's */
+  final public static int
+    PAIR_BY_ID= 1;
+  /** Pair spots by nearest neighbor of warped coordinates */
+  final public static int
+    PAIR_BY_NEAREST= 2;
+  /** Default max distance in pixels for nearest neighbor pairing */
+  public static int
+    DEFAULT_MAX_PAIR_DIST= 15;
+  /** writeReport() status if a spot list mean used to normalize is 0 */
+  final public static int
+    ZERO_NORM_MEAN= -2;
+  
+  /** left spot list */
+  private Spot
+    spotList1[];
+  /** right spot list */
+  private Spot
+    spotList2[];
+  /** # of spots in left spot list */
+  private int
+    nSpots1;
+  /** # of spots in right spot list */
+  private int
+    nSpots2;
+  
+  /** # of pairs found */
+  public int
+    nPairs= 0;
+  /** left spot of each pair [0:nPairs-1] */
+  public Spot
+    pair1[]= new Spot[64];
+  /** right spot of each pair [0:nPairs-1] */
+  public Spot
+    pair2[]= new Spot[64];
+  /** pairing mode used, PAIR_BY_ID or PAIR_BY_NEAREST */
+  public int
+    pairMode= PAIR_BY_ID;
+  /** affine coefficients {a,b,c,d,e,f} mapping left (x,y) to right 
+   * (a*x+b*y+c, d*x+e*y+f) used by PAIR_BY_NEAREST 
+   */
+  public double
+    warpCoef[]= {1.0, 0.0, 0.0, 0.0, 1.0, 0.0};
+  
+  
+  /**
+   * SpotPairing() - Constructor
+   * @param spotList1 is the left spot list
+   * @param nSpots1 is the # of spots in the left spot list
+   * @param spotList2 is the right spot list
+   * @param nSpots2 is the # of spots in the right spot list
+   */
+  public SpotPairing(Spot spotList1[], int nSpots1, 
+                     Spot spotList2[], int nSpots2)
+  { /* SpotPairing */
+    this.spotList1= spotList1;
+    this.spotList2= spotList2;
+    this.nSpots1= (spotList1==null) ? 0 : nSpots1;
+    this.nSpots2= (spotList2==null) ? 0 : nSpots2;
+  } /* SpotPairing */
+  
+  
+  /**
+   * addPair() - add a pair. The pair lists are doubled when full.
+   * @param s1 is the left spot
+   * @param s2 is the right spot
+   */
+  private void addPair(Spot s1, Spot s2)
+  { /* addPair */
+    if(nPairs==pair1.length)
+    { /* grow the lists */
+      Spot
+        tmp1[]= new Spot[2*nPairs],
+        tmp2[]= new Spot[2*nPairs];
+      System.arraycopy(pair1, 0, tmp1, 0, nPairs);
+      System.arraycopy(pair2, 0, tmp2, 0, nPairs);
+      pair1= tmp1;
+      pair2= tmp2;
+    }
+    pair1[nPairs]= s1;
+    pair2[nPairs]= s2;
+    nPairs++;
+  } /* addPair */
+  
+  
+  /**
+   * pairById() - pair spots with the same annotation id by a hash join
+   * of the right spot list id's.
+   * @return # of pairs
+   */
+  public int pairById()
+  { /* pairById */
+    pairMode= PAIR_BY_ID;
+    nPairs= 0;
+    
+    /* [1] Hash the right spots by id. Each entry is a Vector of the
+     * spots with that id in spot list order.
+     */
+    Hashtable idHT= new Hashtable(2*nSpots2+1);
+    for(int j=0;j<nSpots2;j++)
+    {
+      Spot s2= spotList2[j];
+      if(s2==null || s2.id==null)
+        continue;
+      Vector v= (Vector)idHT.get(s2.id);
+      if(v==null)
+      {
+        v= new Vector(1);
+        idHT.put(s2.id, v);
+      }
+      v.addElement(s2);
+    }
+    
+    /* [2] Probe the hash table with each left spot */
+    for(int i=0;i<nSpots1;i++)
+    { /* pair left spot */
+      Spot s1= spotList1[i];
+      if(s1==null || s1.id==null)
+        continue;
+      Vector v= (Vector)idHT.get(s1.id);
+      if(v==null)
+        continue;
+      for(int k=0;k<v.size();k++)
+      {
+        Spot s2= (Spot)v.elementAt(k);
+        if(s1.useTotDensityFlag==s2.useTotDensityFlag)
+          addPair(s1, s2);          /* must both be either Total or Mean */
+      }
+    } /* pair left spot */
+    
+    return(nPairs);
+  } /* pairById */
+  
+  
+  /**
+   * setWarpFromLandmarks() - compute the least squares affine transform
+   * mapping the left landmarks to the right landmarks. If there are
+   * fewer than 3 landmarks or they are co-linear, then use the identity.
+   * @return true if computed from the landmarks, false if identity
+   */
+  public boolean setWarpFromLandmarks()
+  { /* setWarpFromLandmarks */
+    int nLM= Landmark.nLM;
+    double coef[]= {1.0, 0.0, 0.0, 0.0, 1.0, 0.0};
+    warpCoef= coef;
+    if(nLM<3 || Landmark.x1==null || Landmark.x2==null)
+      return(false);
+    
+    /* Normal equations: M [a b c]' = [Sxu Syu Su]' and
+     * M [d e f]' = [Sxv Syv Sv]' where M= [Sxx Sxy Sx; Sxy Syy Sy; Sx Sy n]
+     */
+    double
+      m[][]= new double[3][3],
+      ru[]= new double[3],
+      rv[]= new double[3];
+    for(int k=0;k<nLM;k++)
+    {
+      double
+        p[]= {Landmark.x1[k], Landmark.y1[k], 1.0},
+        u= Landmark.x2[k],
+        v= Landmark.y2[k];
+      for(int r=0;r<3;r++)
+      {
+        for(int c=0;c<3;c++)
+          m[r][c] += p[r]*p[c];
+        ru[r] += p[r]*u;
+        rv[r] += p[r]*v;
+      }
+    }
+    double
+      abc[]= solve3x3(m, ru),
+      def[]= solve3x3(m, rv);
+    if(abc==null || def==null)
+      return(false);              /* co-linear landmarks */
+    
+    coef[0]= abc[0];
+    coef[1]= abc[1];
+    coef[2]= abc[2];
+    coef[3]= def[0];
+    coef[4]= def[1];
+    coef[5]= def[2];
+    return(true);
+  } /* setWarpFromLandmarks */
+  
+  
+  /**
+   * solve3x3() - solve the 3x3 linear system m*x= r by Cramer's rule
+   * @param m is the matrix
+   * @param r is the right hand side
+   * @return x, null if singular
+   */
+  private static double[] solve3x3(double m[][], double r[])
+  { /* solve3x3 */
+    double det= det3x3(m[0][0],m[0][1],m[0][2],
+                       m[1][0],m[1][1],m[1][2],
+                       m[2][0],m[2][1],m[2][2]);
+    if(Math.abs(det)<1.0E-9)
+      return(null);
+    double x[]= new double[3];
+    x[0]= det3x3(r[0],m[0][1],m[0][2], r[1],m[1][1],m[1][2],
+                 r[2],m[2][1],m[2][2])/det;
+    x[1]= det3x3(m[0][0],r[0],m[0][2], m[1][0],r[1],m[1][2],
+                 m[2][0],r[2],m[2][2])/det;
+    x[2]= det3x3(m[0][0],m[0][1],r[0], m[1][0],m[1][1],r[1],
+                 m[2][0],m[2][1],r[2])/det;
+    return(x);
+  } /* solve3x3 */
+  
+  
+  /**
+   * det3x3() - determinant of a 3x3 matrix by rows
+   */
+  private static double det3x3(double a, double b, double c,
+                               double d, double e, double f,
+                               double g, double h, double i)
+  { return(a*(e*i - f*h) - b*(d*i - f*g) + c*(d*h - e*g)); }
+  
+  
+  /**
+   * pairByNearest() - pair spots by mutual nearest neighbor after 
+   * warping the left spot coordinates into the right gel with 
+   * warpCoef[]. Both spot lists are indexed with SpotIndex so pairing
+   * is about O(nSpots1+nSpots2).
+   * @param maxPairDist is the max distance in pixels between the
+   *        warped left spot and the right spot
+   * @return # of pairs
+   */
+  public int pairByNearest(int maxPairDist)
+  { /* pairByNearest */
+    pairMode= PAIR_BY_NEAREST;
+    nPairs= 0;
+    
+    /* [1] Warp the left spots and index them */
+    double w[]= warpCoef;
+    int
+      xW[]= new int[nSpots1],
+      yW[]= new int[nSpots1];
+    SpotIndex idx1= new SpotIndex(SpotIndex.CELL_SIZE, nSpots1);
+    for(int i=0;i<nSpots1;i++)
+    {
+      Spot s1= spotList1[i];
+      if(s1==null)
+        continue;
+      xW[i]= (int)Math.round(w[0]*s1.xC + w[1]*s1.yC + w[2]);
+      yW[i]= (int)Math.round(w[3]*s1.xC + w[4]*s1.yC + w[5]);
+      idx1.add(s1, xW[i], yW[i], i);
+    }
+    SpotIndex idx2= new SpotIndex(spotList2, nSpots2);
+    
+    /* [2] Pair if the nearest right spot of the warped left spot has
+     * it as its nearest warped left spot.
+     */
+    for(int i=0;i<nSpots1;i++)
+    { /* pair left spot */
+      Spot s1= spotList1[i];
+      if(s1==null)
+        continue;
+      Spot s2= idx2.getSpot(idx2.lookupNearest(xW[i], yW[i], maxPairDist));
+      if(s2==null || s1.useTotDensityFlag!=s2.useTotDensityFlag)
+        continue;
+      int e1= idx1.lookupNearest(s2.xC, s2.yC, maxPairDist);
+      if(idx1.getIdx(e1)==i)
+        addPair(s1, s2);
+    } /* pair left spot */
+    
+    return(nPairs);
+  } /* pairByNearest */
+  
+  
+  /**
+   * getNormMeans() - get the mean density and mean background 
+   * corrected density of all of the spots in each spot list, used to
+   * normalize the report.
+   * @return {mnD1, mnD2, mnDB1, mnDB2}, else null if any is 0
+   */
+  public float[] getNormMeans()
+  { /* getNormMeans */
+    float
+      sumD1= 0.0F,
+      sumD2= 0.0F,
+      sumDB1= 0.0F,
+      sumDB2= 0.0F;
+    for(int i=0;i<nSpots1;i++)
+    {
+      sumD1 += spotList1[i].density;
+      sumDB1 += spotList1[i].densPrime;
+    }
+    for(int j=0;j<nSpots2;j++)
+    {
+      sumD2 += spotList2[j].density;
+      sumDB2 += spotList2[j].densPrime;
+    }
+    float mn[]= { sumD1/nSpots1, sumD2/nSpots2, 
+                  sumDB1/nSpots1, sumDB2/nSpots2 };
+    for(int k=0;k<4;k++)
+      if(mn[k]==0.0F)
+        return(null);                       /* Bad data */
+    return(mn);
+  } /* getNormMeans */
+  
+  
+  /**
+   * writeReport() - write the tab-delimited table of the paired spots.
+   * @param w is the writer
+   * @param imageName1 is the left image name
+   * @param imageName2 is the right image name
+   * @param unitsAbbrev is the calibration units abbreviation
+   * @param normByMeanSpotListFlag normalize by the mean spot value of 
+   *        the spots in each of the corresponding spot lists.
+   * @return # of pairs written, ZERO_NORM_MEAN if normalizing and a
+   *         spot list mean is 0 (nothing is written)
+   * @throws IOException if the writer fails
+   */
+  public int writeReport(Writer w, String imageName1, String imageName2,
+                         String unitsAbbrev, boolean normByMeanSpotListFlag)
+    throws IOException
+  { /* writeReport */
+    float
+      mnD1= 1.0F,
+      mnD2= 1.0F,
+      mnDB1= 1.0F,
+      mnDB2= 1.0F,
+      v;
+    
+    /* Compute mean spotList spot density for all spots in each list */
+    if(normByMeanSpotListFlag)
+    { /* use the mean spot list normalzations */
+      float mn[]= getNormMeans();
+      if(mn==null)
+        return(ZERO_NORM_MEAN);
+      mnD1= mn[0];
+      mnD2= mn[1];
+      mnDB1= mn[2];
+      mnDB2= mn[3];
+    }  /* use the mean spot list normalzations */
+    
+    String 
+      sDm= (normByMeanSpotListFlag) ? "m" : "",
+      sID= (pairMode==PAIR_BY_ID) ? "\tID\tName" : "\tID1\tName1\tID2\tName2",
+      sXY= (pairMode==PAIR_BY_NEAREST) ? "\txC1\tyC1\txC2\tyC2" : "";
+    w.write("Image1\tImage2\tSpotNbr1\tSpotNbr2" + sID +
+            "\tDensityMode\tUnits" +
+            "\tD"+sDm+"1\tD"+sDm+"2\t(D"+sDm+"1/D"+sDm+"2)" +
+            "\t(D"+sDm+"1-B"+sDm+"1)\t(D"+sDm+"2-B"+sDm+"2)"+
+            "\t(D"+sDm+"1-B"+sDm+"1)/(D"+sDm+"2-B"+sDm+"2)" +
+            "\tCircleMask1\tCircleMask2" + sXY +
+            ((normByMeanSpotListFlag)
+               ? "\tMnDspotList1\tMnDspotList2\tMnDBspotList1\tMnDBspotList2"
+               : "") +
+            "\n");
+    
+    /* Format the values as Util.cvf2s(v,3) with one NumberFormat */
+    NumberFormat nf= NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(3);
+    nf.setMinimumFractionDigits(3);
+    nf.setGroupingUsed(false);
+    
+    StringBuffer sBuf= new StringBuffer(256);
+    for(int k=0;k<nPairs;k++)
+    { /* write the pair */
+      Spot
+        s1= pair1[k],
+        s2= pair2[k];
+      sBuf.setLength(0);
+      sBuf.append(imageName1);
+      sBuf.append("\t").append(imageName2);
+      sBuf.append("\t").append(s1.nbr);
+      sBuf.append("\t").append(s2.nbr);
+      sBuf.append("\t").append((s1.id==null) ? "" : s1.id);
+      sBuf.append("\t").append((s1.name==null) ? "" : s1.name);
+      if(pairMode!=PAIR_BY_ID)
+      {
+        sBuf.append("\t").append((s2.id==null) ? "" : s2.id);
+        sBuf.append("\t").append((s2.name==null) ? "" : s2.name);
+      }
+      
+      sBuf.append("\t").append((s1.useTotDensityFlag) ? "Total" : "Mean");
+      sBuf.append("\t").append(unitsAbbrev);
+      
+      sBuf.append("\t").append(nf.format(s1.density/mnD1));
+      sBuf.append("\t").append(nf.format(s2.density/mnD2));
+      v= (s2.density==0.0F)
+            ? 0.0F : ((s1.density/mnD1)/(s2.density/mnD2));
+      sBuf.append("\t").append(nf.format(v));
+      
+      sBuf.append("\t").append(nf.format(s1.densPrime/mnDB1));
+      sBuf.append("\t").append(nf.format(s2.densPrime/mnDB2));
+      v= (s2.densPrime==0.0F)
+            ? 0.0F : ((s1.densPrime/mnDB1)/(s2.densPrime/mnDB2));
+      sBuf.append("\t").append(nf.format(v));
+      
+      sBuf.append("\t").append(s1.nCirMask).append("X").append(s1.nCirMask);
+      sBuf.append("\t").append(s2.nCirMask).append("X").append(s2.nCirMask);
+      
+      if(pairMode==PAIR_BY_NEAREST)
+      {
+        sBuf.append("\t").append(s1.xC).append("\t").append(s1.yC);
+        sBuf.append("\t").append(s2.xC).append("\t").append(s2.yC);
+      }
+      
+      if(normByMeanSpotListFlag)
+      { /* use the mean spot list normalzations */
+        sBuf.append("\t").append(nf.format(mnD1));
+        sBuf.append("\t").append(nf.format(mnD2));
+        sBuf.append("\t").append(nf.format(mnDB1));
+        sBuf.append("\t").append(nf.format(mnDB2));
+      } /* use the mean spot list normalzations */
+      
+      sBuf.append("\n");
+      w.write(sBuf.toString());
+    } /* write the pair */
+    
+    w.flush();
+    return(nPairs);
+  } /* writeReport */
+  
+} /* End of class SpotPairing */
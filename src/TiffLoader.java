@@ -45,10 +45,24 @@ import javax.media.jai.PixelAccessor;
  * extract the information needed to directly manipulate pixels in the 
  * DataBuffer.
  *
- * There is an option useLogInputFlag to add Log(grayscale) to take scaled
- * log of grayscale data for maxBits>8-bits (e.g., 10-bits or 16-bits) for
- * TIFF images prior to reading them. Scale log((2**nBitsPerPixel)-1) to 255:
- *   f'(g) = 255*log(g+1)/log((2**nBitsPerPixel)-1).
+ * Grayscale data with maxBits>8-bits (e.g., 10-bits or 16-bits) is 
+ * mapped to 8-bits with a (2**nBitsPerPixel) entry lookup table made 
+ * for the grayMapMode. The table is applied to bands of rows in parallel.
+ * With maxG= (2**nBitsPerPixel)-1, the modes are:
+ *   GRAY_MAP_LINEAR  f'(g) = 255*g/maxG
+ *   GRAY_MAP_LOG     f'(g) = 255*log(g+1)/log(maxG)
+ *   GRAY_MAP_GAMMA   f'(g) = 255*(g/maxG)**grayGamma
+ *   GRAY_MAP_WINDOW  f'(g) = 255*(g-gLow)/(gHigh-gLow) clipped to [0:255]
+ *                    where gLow and gHigh are the windowLowPercentile and 
+ *                    windowHighPercentile of the gray values.
+ * The older useLogInputFlag option selects GRAY_MAP_LOG.
+ *
+ * Very large TIFF pages (at least TIFF_STREAM_MIN_PIXELS pixels) may 
+ * be streamed if the streaming flag is set. The full page raster is then
+ * never materialized. Instead, the display image is made from a 
+ * subsampled pass over the page tiles (or strips) using 
+ * RenderedImage.getTile(), one tile at a time, and full resolution 
+ * tiles are only decoded later for the regions that need them.
  *
  * This requires two JAI jar files: jai_core.jar and jai_codec.jar
  * for TiffLoader.java to compile. These should be in the same class path
@@ -95,13 +109,26 @@ public class TiffLoader
   /** filename path of image file */
   public String
     fileName= null;
+  /** page # [0:numPages-1] of the TIFF file loaded by doTiffLoad() */
+  public int
+    page= 0;
+  /** TiffPageCache.getFileStamp() of the file when it was loaded */
+  public String
+    fileStamp= "";
+  /** Seekable stream for the open TIFF file, else null if closed */
+  private SeekableStream
+    ss= null;
   /** Tiff sample model name */
   public SampleModel
     sampleModel= null;
-  /** List of Rendered images that was read in the tiff file */
+  /** List of Rendered images that was read in the tiff file. Pages are
+   * decoded lazily by getRenderedPage() so entries may be null.
+   */
   public RenderedImage
     ri[]= null;
-  /** List of PixelAccessors from the RenderedImages' */
+  /** List of PixelAccessors from the RenderedImages'. Entries may be null
+   * if the page was not decoded.
+   */
   public PixelAccessor
     pi[]= null;
   /** Raster image read */
@@ -206,6 +233,75 @@ public class TiffLoader
   /** "Use log of pixels if > 8-bits grayscale image" */
   public boolean
     useLogInputFlag= false;
+  
+  /** Mapping of > 8-bits grayscale to 8-bits: linear */
+  final public static int
+    GRAY_MAP_LINEAR= 0;
+  /** Mapping of > 8-bits grayscale to 8-bits: log */
+  final public static int
+    GRAY_MAP_LOG= 1;
+  /** Mapping of > 8-bits grayscale to 8-bits: gamma */
+  final public static int
+    GRAY_MAP_GAMMA= 2;
+  /** Mapping of > 8-bits grayscale to 8-bits: window/level from the
+   * [windowLowPercentile:windowHighPercentile] of the gray values 
+   */
+  final public static int
+    GRAY_MAP_WINDOW= 3;
+  /** Low percentile of gray values for GRAY_MAP_WINDOW */
+  public static float
+    windowLowPercentile= 0.5F;
+  /** High percentile of gray values for GRAY_MAP_WINDOW */
+  public static float
+    windowHighPercentile= 99.5F;
+  /** Mapping of > 8-bits grayscale to 8-bits, GRAY_MAP_xxxx */
+  public int
+    grayMapMode= GRAY_MAP_LINEAR;
+  /** gamma for GRAY_MAP_GAMMA */
+  public float
+    grayGamma= 0.5F;
+  /** gray value low and high limits used by GRAY_MAP_WINDOW */
+  public int
+    windowLow= 0,
+    windowHigh= 0;
+  /** Packed ARGB lookup table [0:(2**nBitsPerPixel)-1] for mapping 
+   * > 8-bits grayscale, else null if not made yet 
+   */
+  public int
+    grayLUT[]= null;
+    
+  /** Min # of pixels/page at which a TIFF page is streamed by tiles 
+   * if useStreamingFlag is set.
+   */
+  public static int
+    TIFF_STREAM_MIN_PIXELS= 4096*4096;
+  /** Max width or height of the subsampled streamed display image */
+  public static int
+    MAX_STREAM_DISPLAY_SIZE= 2048;
+  /** "Stream large TIFF files by tiles" */
+  public boolean
+    useStreamingFlag= false;
+  /** set if the image was made by a streaming load */
+  public boolean
+    isStreamedFlag= false;
+  /** # of owners of this loader (TiffPageCache, PrefetchedImage, 
+   * ImageData). The streamed file is closed when the last one releases
+   * it. See retain() and release().
+   */
+  private int
+    nOwners= 0;
+  /** Lazily decoded page being streamed, else null */
+  public RenderedImage
+    streamImage= null;
+  /** subsample factor of the streamed display image */
+  public int
+    streamSubsample= 1;
+  /** width of the streamed display image */
+  public int
+    streamCols= 0;
+  /** height of the streamed display image */
+  public int
+    streamRows= 0;
     
   /** Msg why failed if not null */
   public String
@@ -244,13 +340,61 @@ public class TiffLoader
    * 255*log(10**nBits-1) to 0
    */
   public void setUseLogFlag(boolean flag)
-  { useLogInputFlag= flag; }
+  { setGrayMap(((flag) ? GRAY_MAP_LOG : GRAY_MAP_LINEAR), grayGamma); }
   
   
   /**
-   * readTiff() - read a tiff image file
+   * setGrayMap() - set the mapping of > 8-bits grayscale to 8-bits
+   * @param mode is the GRAY_MAP_xxxx mapping
+   * @param gamma is the gamma used for GRAY_MAP_GAMMA
+   */
+  public void setGrayMap(int mode, float gamma)
+  { /* setGrayMap */
+    if(mode<GRAY_MAP_LINEAR || mode>GRAY_MAP_WINDOW)
+      mode= GRAY_MAP_LINEAR;
+    grayMapMode= mode;
+    grayGamma= (gamma>0.0F) ? gamma : 1.0F;
+    useLogInputFlag= (mode==GRAY_MAP_LOG);
+    grayLUT= null;
+  } /* setGrayMap */
+  
+  
+  /**
+   * getGrayMapName() - get the name of the mapping of > 8-bits grayscale
+   * @param mode is the GRAY_MAP_xxxx mapping
+   * @return name of the mapping
+   */
+  public static String getGrayMapName(int mode)
+  { /* getGrayMapName */
+    switch(mode)
+    {
+      case GRAY_MAP_LOG:
+        return("log");
+      case GRAY_MAP_GAMMA:
+        return("gamma");
+      case GRAY_MAP_WINDOW:
+        return("window/level");
+      default:
+        return("linear");
+    }
+  } /* getGrayMapName */
+  
+  
+  /**
+   * setStreamingFlag() - flag to stream TIFF pages that have at least 
+   * TIFF_STREAM_MIN_PIXELS pixels by tiles rather than reading the 
+   * whole raster.
+   */
+  public void setStreamingFlag(boolean flag)
+  { useStreamingFlag= flag; }
+  
+  
+  /**
+   * readTiff() - open a tiff image file and get the # of pages. The
+   * pages are not decoded here. Use getRenderedPage() to decode a page.
+   * The file stays open until closeTiff() is called.
    * @param fileName is the file to be read
-   * @return image rendered raster instance that may be an array of images
+   * @return list of rendered pages [0:numPages-1] that are all null
    */
   public RenderedImage[] readTiff(String fileName) throws IOException
   { /* readTiff */
@@ -258,21 +402,14 @@ public class TiffLoader
     
     try
     {
+      closeTiff();
       File file= new File(fileName);
-      SeekableStream ss= new FileSeekableStream(file);
+      ss= new FileSeekableStream(file);
       decoder= ImageCodec.createImageDecoder("tiff", ss, null);
       numPages= decoder.getNumPages();
       RenderedImage rImage[]= new RenderedImage[numPages];
       
       pi= new PixelAccessor[numPages];
-      
-      for(int i=0;i<numPages;i++)
-      { /* get each of the rendered images */
-        rImage[i]= decoder.decodeAsRenderedImage(i);
-        /* Setup the pixel accessor */
-        if(rImage[i]!=null)
-          pi[i]= new PixelAccessor(rImage[i]);
-      } /* get each of the rendered images */
       return(rImage);
     }
     
@@ -285,6 +422,74 @@ public class TiffLoader
   } /* readTiff */
   
   
+  /**
+   * getRenderedPage() - lazily decode a page of the open TIFF file as a
+   * RenderedImage and set up its PixelAccessor. This does not decode 
+   * the pixels of the page.
+   * @param pageNbr is the page # [0:numPages-1]
+   * @return rendered page, else null if error
+   */
+  public RenderedImage getRenderedPage(int pageNbr) throws IOException
+  { /* getRenderedPage */
+    if(ri==null || decoder==null || pageNbr<0 || pageNbr>=numPages)
+      return(null);
+    if(ri[pageNbr]==null)
+    { /* decode the page */
+      ri[pageNbr]= decoder.decodeAsRenderedImage(pageNbr);
+      if(ri[pageNbr]!=null)
+        pi[pageNbr]= new PixelAccessor(ri[pageNbr]);
+    }
+    return(ri[pageNbr]);
+  } /* getRenderedPage */
+  
+  
+  /**
+   * retain() - add an owner of this loader. Each owner must call 
+   * release() when it drops the loader.
+   */
+  public synchronized void retain()
+  { nOwners++; }
+  
+  
+  /**
+   * release() - remove an owner of this loader. When there are no more
+   * owners, the TIFF file is closed and the decoded pages are released.
+   */
+  public synchronized void release()
+  { /* release */
+    if(--nOwners<=0)
+    {
+      nOwners= 0;
+      closeTiff();
+    }
+  } /* release */
+  
+  
+  /**
+   * closeTiff() - close the TIFF file and release the decoded pages.
+   * Streamed pages need the file to stay open, so a closed loader is
+   * no longer streamed and sampleStreamRegion() and getStreamGrayRows()
+   * return null.
+   */
+  public void closeTiff()
+  { /* closeTiff */
+    if(ss!=null)
+    {
+      try
+      { ss.close(); }
+      catch(IOException e)
+      { }
+    }
+    ss= null;
+    decoder= null;
+    ri= null;
+    pi= null;
+    ras= null;
+    streamImage= null;
+    isStreamedFlag= false;
+  } /* closeTiff */
+  
+  
   /**
    * getTiffPixels() - get pixels from the raster
    * @param r is the image raster instance
@@ -313,7 +518,8 @@ public class TiffLoader
      
   
   /**
-   * getTiffProperties() - get properties of the Tiff image
+   * getTiffProperties() - get properties of the Tiff image for the 
+   * current page.
    * @param r is the image raster instance
    */
   public void getTiffProperties(Raster r)
@@ -330,12 +536,43 @@ public class TiffLoader
     this.sampleSizes= sampleModel.getSampleSize();
     this.nBitsPerPixel= sampleSizes[0];
         
-    this.isPackedFlag= pi[0].isPacked;
-    this.isPackedCMflag= pi[0].isPackedCM;
-    this.isComponentCMflag= pi[0].isComponentCM;
-    this.isComponentSMflag= pi[0].isComponentSM;
-    this.isSinglePixelPackedSMflag= pi[0].isSinglePixelPackedSM;
-    this.isMultiplePixelPackedSMflag= pi[0].isMultiPixelPackedSM;
+    this.isPackedFlag= pi[page].isPacked;
+    this.isPackedCMflag= pi[page].isPackedCM;
+    this.isComponentCMflag= pi[page].isComponentCM;
+    this.isComponentSMflag= pi[page].isComponentSM;
+    this.isSinglePixelPackedSMflag= pi[page].isSinglePixelPackedSM;
+    this.isMultiplePixelPackedSMflag= pi[page].isMultiPixelPackedSM;
+    
+    this.nPixels= nRows*nCols;    
+  } /* getTiffProperties */
+  
+  
+  /**
+   * getTiffProperties() - get properties of a lazily decoded Tiff page 
+   * without decoding its raster.
+   * @param r is the rendered image page
+   * @param pa is the PixelAccessor for the page
+   */
+  public void getTiffProperties(RenderedImage r, PixelAccessor pa)
+  { /* getTiffProperties */  
+    this.nCols= r.getWidth();
+    this.nRows= r.getHeight();
+    this.minX= r.getMinX();
+    this.minY= r.getMinY();
+    
+    this.sampleModel= r.getSampleModel();
+    this.nBands= sampleModel.getNumBands();
+    this.numDataElements= sampleModel.getNumDataElements();
+    this.dataType= sampleModel.getDataType();    
+    this.sampleSizes= sampleModel.getSampleSize();
+    this.nBitsPerPixel= sampleSizes[0];
+        
+    this.isPackedFlag= pa.isPacked;
+    this.isPackedCMflag= pa.isPackedCM;
+    this.isComponentCMflag= pa.isComponentCM;
+    this.isComponentSMflag= pa.isComponentSM;
+    this.isSinglePixelPackedSMflag= pa.isSinglePixelPackedSM;
+    this.isMultiplePixelPackedSMflag= pa.isMultiPixelPackedSM;
     
     this.nPixels= nRows*nCols;    
   } /* getTiffProperties */
@@ -353,24 +590,50 @@ public class TiffLoader
       
 
   /**
-   * doTiffLoad() - load the image and array grab of TIFF files
+   * doTiffLoad() - load the image and array grab of the first page
+   * of TIFF files
    * @param path of the image
    * @param checkCacheFlag to see if pixels data exists, then return it
    * @return null if succeed, else error message
    */
   public String doTiffLoad(String path, boolean checkCacheFlag)
+  { return(doTiffLoad(path, 0, checkCacheFlag)); }
+  
+  
+  /**
+   * doTiffLoad() - load the image and array grab of a page of TIFF files.
+   * Only the requested page is decoded. The file is closed when done
+   * unless the page is streamed.
+   * @param path of the image
+   * @param pageNbr is the page # [0:numPages-1] to load
+   * @param checkCacheFlag to see if pixels data exists, then return it
+   * @return null if succeed, else error message
+   */
+  public String doTiffLoad(String path, int pageNbr, boolean checkCacheFlag)
   { /* doTiffLoad */
     count++;
     if(dbugFlag)
-      System.out.println("---doTiffLoad ["+count+"]---\n");
+      System.out.println("---doTiffLoad ["+count+"] page "+pageNbr+"---\n");
       
     try
     {
       ri= readTiff(path);
       if(ri==null)
         return(fatalMsg);         /* problems ... */
+      if(pageNbr<0 || pageNbr>=numPages)
+      {
+        fatalMsg= "TIFF page "+pageNbr+" is not in [0:"+(numPages-1)+"]";
+        closeTiff();
+        return(fatalMsg);
+      }
+      page= pageNbr;
+      RenderedImage rPage= getRenderedPage(page);
+      
+      if(useStreamingFlag && rPage!=null &&
+         ((long)rPage.getWidth()*rPage.getHeight())>=TIFF_STREAM_MIN_PIXELS)
+        return(doTiffStreamLoad(rPage, pi[page]));  /* never get all data */
       
-      ras= ri[0].getData();
+      ras= rPage.getData();
       getTiffProperties(ras);
             
       int
@@ -387,7 +650,7 @@ public class TiffLoader
           green,
           red;
         Rectangle rect= new Rectangle(nCols,nRows);
-        UnpackedImageData uid= pi[0].getComponentsRGB(ras,rect);
+        UnpackedImageData uid= pi[page].getComponentsRGB(ras,rect);
         int type= uid.type;
         
         /* Unpack it from byte arrays */
@@ -422,7 +685,6 @@ public class TiffLoader
                   
       else if(nBands==1 && nBitsPerPixel==8)
       { /* single channel 8 bit - make a  3 channels the same*/
-        ras= ri[0].getData();
         pixels= getTiffPixels(ras, checkCacheFlag); /* just one channel */ 
         for(int i=0;i<nPixels;i++)
         {
@@ -433,40 +695,12 @@ public class TiffLoader
       
       else if(nBands==1 && nBitsPerPixel>8)
       { /* single channel > 8 bits - scale copy to 8-bits/channels the same*/
-        /* There is an option useLogInputFlag to add Log(grayscale) to take
-         * scaled log of grayscale data for maxBits>8-bits (e.g., 10-bits or 
-         * 16-bits) for TIFF  images prior to reading them. 
-         * Scale log((2**maxBitesPerPixel)-1) to 255:
-         *   f'(g) = 255*log(g+1)/log((2**nBitsPerPixel)-1).
+        /* Map the grayscale data for maxBits>8-bits (e.g., 10-bits or 
+         * 16-bits) to 8-bits with the grayMapMode lookup table.
          */
-        int pixelMask= (1<<nBitsPerPixel)-1;
-        double 
-          log255= 255.0/Math.log(pixelMask),
-          logG,
-          fG;
-        ras= ri[0].getData();
         pixels= getTiffPixels(ras, checkCacheFlag); /* just one channel */ 
-        int gH, g8;
-        for(int i=0;i<nPixels;i++)
-        {
-          gH= (pixels[i] & pixelMask);
-          if(useLogInputFlag)
-          { /* Scale to 8-bits linearly */
-            g8= (gH >> (nBitsPerPixel-8));
-            g= (g8 & 255);
-          }
-          else
-          { /* use log transform  */
-            logG= Math.log(gH+1);
-            fG= log255*logG;
-            g= (int)fG;
-            if(g<0)
-              g= 0;
-            else if(g>255)
-              g= 255;
-          }
-          pixels[i]= (alpha | (g<<16) | (g<<8) | g);
-        }
+        grayLUT= makeGrayLUT(pixels, nCols, nRows);
+        applyGrayLUT(pixels, nCols, nRows, grayLUT);
       } /* single channel > 8 bits - scale copy to 8-bits/channels the same*/
             
       /* Construct the Image form a 24-bit+alpha (R,G,B) pixel array */
@@ -477,6 +711,7 @@ public class TiffLoader
       
       if(dbugFlag)
         System.out.println(this.toString());
+      closeTiff();                 /* the Image has all of the data */
       System.gc();
       return(null);
     }
@@ -484,6 +719,7 @@ public class TiffLoader
     {
       fatalMsg= e.toString();
       img= null;
+      closeTiff();
       if(dbugFlag)
         e.printStackTrace();
       return(fatalMsg);
@@ -491,6 +727,366 @@ public class TiffLoader
   } /* doTiffLoad */
   
   
+  /**
+   * doTiffStreamLoad() - make the display image for a large Tiff page 
+   * from a subsampled pass over its tiles. The page is kept as
+   * streamImage so full resolution tiles may be decoded later with 
+   * sampleStreamRegion(). Only one tile is decoded at a time.
+   * @param page is the lazily decoded page to stream
+   * @param pa is the PixelAccessor for the page
+   * @return null if succeed, else error message
+   */
+  public String doTiffStreamLoad(RenderedImage page, PixelAccessor pa)
+  { /* doTiffStreamLoad */
+    try
+    {
+      streamImage= page;
+      getTiffProperties(page, pa);
+      
+      if(nBands!=1 && nBands<3)
+      {
+        streamImage= null;
+        fatalMsg= "Can't stream TIFF image with "+nBands+" bands";
+        return(fatalMsg);
+      }
+      
+      /* Subsample so the display image fits MAX_STREAM_DISPLAY_SIZE */
+      int maxSize= Math.max(nCols, nRows);
+      streamSubsample= (maxSize+MAX_STREAM_DISPLAY_SIZE-1)/
+                       MAX_STREAM_DISPLAY_SIZE;
+      streamSubsample= Math.max(1, streamSubsample);
+      streamCols= (nCols+streamSubsample-1)/streamSubsample;
+      streamRows= (nRows+streamSubsample-1)/streamSubsample;
+      
+      pixels= sampleStreamRegion(null, streamCols, streamRows);
+      if(pixels==null)
+        return(fatalMsg);
+      
+      Toolkit dtk= Toolkit.getDefaultToolkit();
+      img= dtk.createImage(new MemoryImageSource(streamCols, streamRows, 
+                                                 pixels, 0, streamCols));
+      pixels= null;                /* set this so can be G.C.ed */
+      isStreamedFlag= true;
+      
+      if(dbugFlag)
+        System.out.println(this.toString());
+      return(null);
+    }
+    catch (Exception e)
+    {
+      fatalMsg= e.toString();
+      img= null;
+      streamImage= null;
+      if(dbugFlag)
+        e.printStackTrace();
+      return(fatalMsg);
+    }
+  } /* doTiffStreamLoad */
+  
+  
+  /**
+   * sampleStreamRegion() - sample a region of the streamed page into an
+   * (outW X outH) packed ARGB pixel array using nearest neighbor sampling.
+   * Only the tiles that contain sampled pixels are decoded and they are
+   * decoded one at a time. If (outW,outH) is the region size, then this
+   * returns the full resolution pixels for the region.
+   * @param region in page coordinates to sample, null for the whole page
+   * @param outW is the width of the output pixel array
+   * @param outH is the height of the output pixel array
+   * @return packed ARGB pixels [0:outW*outH-1], null if error
+   */
+  public int[] sampleStreamRegion(Rectangle region, int outW, int outH)
+  { /* sampleStreamRegion */
+    RenderedImage page= streamImage;
+    if(page==null || outW<=0 || outH<=0)
+      return(null);
+    
+    Rectangle bounds= new Rectangle(minX, minY, nCols, nRows);
+    Rectangle r= (region==null) ? bounds : region.intersection(bounds);
+    if(r.isEmpty())
+      return(null);
+    
+    /* Map output pixels to page coordinates (monotone increasing) */
+    int
+      srcX[]= new int[outW],
+      srcY[]= new int[outH];
+    for(int x=0;x<outW;x++)
+      srcX[x]= r.x + (int)(((long)x*r.width)/outW);
+    for(int y=0;y<outH;y++)
+      srcY[y]= r.y + (int)(((long)y*r.height)/outH);
+    
+    int
+      tw= page.getTileWidth(),
+      th= page.getTileHeight(),
+      txOff= page.getTileGridXOffset(),
+      tyOff= page.getTileGridYOffset(),
+      tx1= Math.floorDiv(r.x-txOff, tw),
+      tx2= Math.floorDiv(r.x+r.width-1-txOff, tw),
+      ty1= Math.floorDiv(r.y-tyOff, th),
+      ty2= Math.floorDiv(r.y+r.height-1-tyOff, th),
+      out[]= new int[outW*outH],
+      yS= 0;
+    boolean deepGrayFlag= (nBands<3 && nBitsPerPixel>8);
+    
+    for(int ty=ty1; ty<=ty2; ty++)
+    { /* process a row of tiles */
+      int
+        tileY2= tyOff + (ty+1)*th,
+        yE= yS;
+      while(yE<outH && srcY[yE]<tileY2)
+        yE++;                      /* output rows [yS:yE-1] are in tile row */
+      if(yE==yS)
+        continue;                  /* no samples - don't decode the tiles */
+      
+      int xS= 0;
+      for(int tx=tx1; tx<=tx2; tx++)
+      { /* process a tile */
+        int
+          tileX2= txOff + (tx+1)*tw,
+          xE= xS;
+        while(xE<outW && srcX[xE]<tileX2)
+          xE++;
+        if(xE==xS)
+          continue;
+        
+        Raster t= page.getTile(tx, ty);    /* decode just this tile */
+        for(int y=yS; y<yE; y++)
+        {
+          int
+            sy= srcY[y],
+            yOut= y*outW;
+          for(int x=xS; x<xE; x++)
+            out[yOut+x]= cvtTileSampleToARGB(t, srcX[x], sy);
+        }
+        t= null;
+        xS= xE;
+      } /* process a tile */
+      
+      yS= yE;
+    } /* process a row of tiles */
+    
+    if(deepGrayFlag)
+    { /* map the > 8-bits gray values to 8-bits */
+      if(grayLUT==null)
+        grayLUT= makeGrayLUT(out, outW, outH);  /* same for all regions */
+      applyGrayLUT(out, outW, outH, grayLUT);
+    }
+    
+    return(out);
+  } /* sampleStreamRegion */
+  
+  
+  /**
+   * getStreamGrayRows() - get the full resolution and full depth gray 
+   * values of rows [y1:y2-1] of the streamed page. Only the tiles
+   * that contain the rows are decoded. Unlike sampleStreamRegion(),
+   * gray values > 8-bits are not mapped to 8-bits.
+   * @param y1 is the first row [0:nRows-1]
+   * @param y2 is one past the last row
+   * @param buf is the buffer to use [nCols*(y2-y1)] else null
+   * @return the gray values [0:nCols*(y2-y1)-1], null if error
+   */
+  public int[] getStreamGrayRows(int y1, int y2, int buf[])
+  { /* getStreamGrayRows */
+    RenderedImage page= streamImage;
+    if(page==null || nBands!=1 || y1<0 || y2>nRows || y1>=y2)
+      return(null);
+    
+    try
+    {
+      Rectangle r= new Rectangle(minX, minY+y1, nCols, y2-y1);
+      Raster ras= page.getData(r);     /* decodes just these tiles */
+      return(ras.getSamples(r.x, r.y, r.width, r.height, 0, buf));
+    }
+    catch (Exception e)
+    {
+      fatalMsg= e.toString();
+      return(null);
+    }
+  } /* getStreamGrayRows */
+  
+  
+  /**
+   * cvtTileSampleToARGB() - convert a tile pixel to a packed ARGB pixel.
+   * RGB pixels keep their colors. Grayscale pixels > 8-bits are returned
+   * as the raw gray value to be mapped later by applyGrayLUT().
+   * @param t is the tile raster
+   * @param x is the page x coordinate in the tile
+   * @param y is the page y coordinate in the tile
+   * @return packed ARGB pixel, or raw gray value if > 8-bits grayscale
+   */
+  private int cvtTileSampleToARGB(Raster t, int x, int y)
+  { /* cvtTileSampleToARGB */
+    int
+      g,
+      alpha= (255<<24);
+    
+    if(nBands>=3)
+    { /* RGB channels */
+      int
+        shift= Math.max(0, nBitsPerPixel-8),
+        red= ((t.getSample(x, y, 0) >> shift) & 255),
+        green= ((t.getSample(x, y, 1) >> shift) & 255),
+        blue= ((t.getSample(x, y, 2) >> shift) & 255);
+      return(alpha | (red<<16) | (green<<8) | blue);
+    }
+    
+    int gH= t.getSample(x, y, 0);
+    if(nBitsPerPixel>8)
+      return(gH & ((1<<nBitsPerPixel)-1));    /* map later by grayLUT */
+    g= (gH & 255);
+    
+    return(alpha | (g<<16) | (g<<8) | g);
+  } /* cvtTileSampleToARGB */
+  
+  
+  /**
+   * makeGrayHistogram() - compute the histogram of the > 8-bits gray 
+   * values [0:(2**nBitsPerPixel)-1] of pixels[] by bands of rows in 
+   * parallel. Each band fills its own histogram which are then summed.
+   * @param pix is the gray value pixel array [0:w*h-1]
+   * @param w is the width of the pixel array
+   * @param h is the height of the pixel array
+   * @return histogram [0:(2**nBitsPerPixel)-1]
+   */
+  public int[] makeGrayHistogram(final int pix[], final int w, final int h)
+  { /* makeGrayHistogram */
+    final int 
+      pixelMask= (1<<nBitsPerPixel)-1,
+      nBandHist= ParallelBands.getNbrBands(h),
+      bandHist[][]= new int[nBandHist][];
+    
+    ParallelBands pb= new ParallelBands()
+      {
+        public void doBand(int band, int y1, int y2)
+        { /* doBand */
+          int 
+            hist[]= new int[pixelMask+1],
+            iEnd= y2*w;
+          for(int i=y1*w;i<iEnd;i++)
+            hist[pix[i] & pixelMask]++;
+          bandHist[band]= hist;
+        } /* doBand */
+      };
+    pb.run(h);
+    
+    int hist[]= bandHist[0];
+    for(int b=1;b<nBandHist;b++)
+      for(int g=0;g<=pixelMask;g++)
+        hist[g] += bandHist[b][g];
+    
+    return(hist);
+  } /* makeGrayHistogram */
+  
+  
+  /**
+   * makeGrayLUT() - make the packed ARGB lookup table that maps the 
+   * > 8-bits gray values [0:(2**nBitsPerPixel)-1] to 8-bits for the
+   * grayMapMode. If the mode is GRAY_MAP_WINDOW, then the window 
+   * [windowLow:windowHigh] is computed from the percentiles of the
+   * gray value histogram of pix[].
+   * @param pix is the gray value pixel array [0:w*h-1]
+   * @param w is the width of the pixel array
+   * @param h is the height of the pixel array
+   * @return lookup table [0:(2**nBitsPerPixel)-1]
+   */
+  public int[] makeGrayLUT(int pix[], int w, int h)
+  { /* makeGrayLUT */
+    int 
+      alpha= (255<<24),
+      maxG= (1<<nBitsPerPixel)-1,
+      lut[]= new int[maxG+1],
+      g;
+    double 
+      log255= 255.0/Math.log(maxG),
+      fG;
+    
+    windowLow= 0;
+    windowHigh= maxG;
+    if(grayMapMode==GRAY_MAP_WINDOW)
+    { /* find the window from the percentiles of the histogram */
+      int hist[]= makeGrayHistogram(pix, w, h);
+      long 
+        nTot= (long)w*h,
+        lowCnt= (long)(nTot*windowLowPercentile/100.0),
+        highCnt= (long)(nTot*windowHighPercentile/100.0),
+        cum= 0;
+      windowLow= -1;
+      for(int i=0;i<=maxG;i++)
+      {
+        cum += hist[i];
+        if(windowLow==-1 && cum>lowCnt)
+          windowLow= i;
+        if(cum>=highCnt)
+        {
+          windowHigh= i;
+          break;
+        }
+      }
+      if(windowLow<0)
+        windowLow= 0;
+      if(windowHigh<=windowLow)
+        windowHigh= Math.min(maxG, windowLow+1);
+    } /* find the window from the percentiles of the histogram */
+    
+    double 
+      windowScale= 255.0/Math.max(1, (windowHigh-windowLow));
+    for(int i=0;i<=maxG;i++)
+    { /* make the lookup table */
+      switch(grayMapMode)
+      {
+        case GRAY_MAP_LOG:
+          fG= log255*Math.log(i+1);
+          break;
+        case GRAY_MAP_GAMMA:
+          fG= 255.0*Math.pow(((double)i/maxG), grayGamma);
+          break;
+        case GRAY_MAP_WINDOW:
+          fG= windowScale*(i-windowLow);
+          break;
+        default:
+          fG= (i >> (nBitsPerPixel-8));          /* Scale to 8-bits linearly */
+          break;
+      }
+      g= (int)fG;
+      if(g<0)
+        g= 0;
+      else if(g>255)
+        g= 255;
+      lut[i]= (alpha | (g<<16) | (g<<8) | g);
+    } /* make the lookup table */
+    
+    return(lut);
+  } /* makeGrayLUT */
+  
+  
+  /**
+   * applyGrayLUT() - map the > 8-bits gray values of pixels[] in place
+   * to packed ARGB pixels with the lookup table by bands of rows in 
+   * parallel.
+   * @param pix is the gray value pixel array [0:w*h-1]
+   * @param w is the width of the pixel array
+   * @param h is the height of the pixel array
+   * @param lut is the lookup table made by makeGrayLUT()
+   */
+  public void applyGrayLUT(final int pix[], final int w, final int h,
+                           final int lut[])
+  { /* applyGrayLUT */
+    final int pixelMask= lut.length-1;
+    
+    ParallelBands pb= new ParallelBands()
+      {
+        public void doBand(int band, int y1, int y2)
+        { /* doBand */
+          int iEnd= y2*w;
+          for(int i=y1*w;i<iEnd;i++)
+            pix[i]= lut[pix[i] & pixelMask];
+        } /* doBand */
+      };
+    pb.run(h);
+  } /* applyGrayLUT */
+  
+  
   /**
    * getNbrRGBpixels() - test if red==green==blue for all pixels
    * @return # of color pixels. 0 means gray value image
@@ -543,7 +1139,13 @@ public class TiffLoader
     sR += "\nnBands="+nBands+" nBitsPerPixel="+nBitsPerPixel;
     sR += "\npixels.length="+
           ((pixels==null) ? "pixels is null" : (""+pixels.length));
-    sR += "\nTiff number pages=" + numPages;
+    sR += "\nTiff number pages=" + numPages+" page="+page;
+    sR += "\ngrayMapMode="+getGrayMapName(grayMapMode)+
+          " grayGamma="+grayGamma+
+          " window=["+windowLow+":"+windowHigh+"]";
+    if(isStreamedFlag)
+      sR += "\nstreamed subsample="+streamSubsample+
+            " display=("+streamCols+"x"+streamRows+")";
     sR += "\nsampleModel.dataType="+
            ((sampleModel==null)
                 ? "sampleModel is null": (""+dataType));
@@ -0,0 +1,351 @@
+/* File: TiffPageCache.java */
+
+import java.awt.*;
+import java.util.*;
+import java.lang.*;
+import java.io.*;
+
+/**
+ * TiffPageCache class keeps a bounded least recently used (LRU) cache of
+ * decoded TIFF pages so that switching between the pages (channels) of 
+ * multi-page TIFF files, or between gels, does not decode the file again.
+ * Each page is decoded lazily by its own TiffLoader the first time it is
+ * requested. The cache is bounded by both the # of pages and the total
+ * # of display pixels held.
+ *<P>
+ * A page of a multi-page TIFF file is specified as an image "file spec"
+ * by appending "#<page>" to the file name, where page is [0:numPages-1].
+ * E.g., "Images/gel-A.tif#2". A file name without a page is page 0.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class TiffPageCache
+{ /* TiffPageCache */
+  
+  /** Separator between the TIFF file name and the page # in a spec */
+  final public static String
+    PAGE_SEPARATOR= "#";
+  /** Max # of decoded pages kept in the cache */
+  public static int
+    MAX_CACHED_PAGES= 8;
+  /** Max total # of display pixels kept in the cache */
+  public static long
+    MAX_CACHED_PIXELS= 32L*1024L*1024L;
+  
+  /** Cached TiffLoader pages in LRU order, most recently used last */
+  private Vector
+    pageList= new Vector();
+  /** Total # of display pixels in pageList */
+  private long
+    nCachedPixels= 0;
+  /** # of pages in TIFF files that were looked up. This is a 
+   * Hashtable of (file name, Integer # of pages).
+   */
+  private Hashtable
+    numPagesTable= new Hashtable();
+  /** Keys of the pages being decoded by getPage(). Other threads 
+   * asking for the same page wait for it instead of decoding it again.
+   */
+  private Hashtable
+    pendingTable= new Hashtable();
+  
+  
+  /**
+   * TiffPageCache() - Constructor
+   */
+  public TiffPageCache()
+  { /* TiffPageCache */
+  } /* TiffPageCache */
+  
+  
+  /**
+   * getFileFromSpec() - get the file name from the image file spec
+   * by removing the "#<page>" suffix if any.
+   * @param spec is the image file spec
+   * @return file name
+   */
+  public static String getFileFromSpec(String spec)
+  { /* getFileFromSpec */
+    if(spec==null)
+      return(null);
+    int idx= spec.lastIndexOf(PAGE_SEPARATOR);
+    if(idx<=0 || idx==spec.length()-1)
+      return(spec);
+    for(int i=idx+1;i<spec.length();i++)
+      if(!Character.isDigit(spec.charAt(i)))
+        return(spec);               /* not a page # */
+    return(spec.substring(0,idx));
+  } /* getFileFromSpec */
+  
+  
+  /**
+   * getPageFromSpec() - get the page # from the image file spec.
+   * @param spec is the image file spec
+   * @return page #, 0 if there is no "#<page>" suffix
+   */
+  public static int getPageFromSpec(String spec)
+  { /* getPageFromSpec */
+    String fileName= getFileFromSpec(spec);
+    if(fileName==null || fileName.length()==spec.length())
+      return(0);
+    return(Util.cvs2i(spec.substring(fileName.length()+1), 0));
+  } /* getPageFromSpec */
+  
+  
+  /**
+   * makePageSpec() - make an image file spec for page of a TIFF file.
+   * Page 0 is specified by just the file name.
+   * @param fileName is the TIFF file
+   * @param page is the page #
+   * @return image file spec
+   */
+  public static String makePageSpec(String fileName, int page)
+  { /* makePageSpec */
+    String baseName= getFileFromSpec(fileName);
+    return((page<=0) ? baseName : (baseName+PAGE_SEPARATOR+page));
+  } /* makePageSpec */
+  
+  
+  /**
+   * getFileStamp() - get a stamp of the file's last modified time and
+   * length, so a file that was changed on disk is not taken from a cache
+   * that decoded the old one. URLs are revalidated by the UrlCache and 
+   * have no stamp.
+   * @param fileName is the file name or image file spec
+   * @return "lastModified:length", else "" if a URL or not a file
+   */
+  public static String getFileStamp(String fileName)
+  { /* getFileStamp */
+    String baseName= getFileFromSpec(fileName);
+    if(baseName==null || baseName.indexOf("://")>0)
+      return("");
+    File file= new File(baseName);
+    if(!file.isFile())
+      return("");
+    return(file.lastModified()+":"+file.length());
+  } /* getFileStamp */
+  
+  
+  /**
+   * getNbrPixels() - get the # of display pixels held by a loaded page
+   * @param tr is the TiffLoader for the page
+   * @return # of pixels
+   */
+  private static long getNbrPixels(TiffLoader tr)
+  { /* getNbrPixels */
+    if(tr.isStreamedFlag)
+      return((long)tr.streamCols*tr.streamRows);
+    return((long)tr.nCols*tr.nRows);
+  } /* getNbrPixels */
+  
+  
+  /**
+   * lookup() - lookup a decoded page in the cache and make it the most
+   * recently used. The page must have been decoded with the same 
+   * gray scale mapping and streaming flag from the same version of the
+   * file. A page of a file that was changed since is removed.
+   * @param fileName is the TIFF file
+   * @param page is the page #
+   * @param grayMapMode is the TiffLoader.grayMapMode required
+   * @param grayGamma is the TiffLoader.grayGamma required
+   * @param streamFlag is the TiffLoader.useStreamingFlag required
+   * @param fileStamp is the getFileStamp() of the file now
+   * @return TiffLoader for the page, else null if not in the cache
+   */
+  public synchronized TiffLoader lookup(String fileName, int page,
+                                        int grayMapMode, float grayGamma,
+                                        boolean streamFlag, 
+                                        String fileStamp)
+  { /* lookup */
+    for(int i=pageList.size()-1; i>=0; i--)
+    { /* search from most recent */
+      TiffLoader tr= (TiffLoader)pageList.elementAt(i);
+      if(tr.page==page && fileName.equals(tr.fileName) &&
+         tr.grayMapMode==grayMapMode && tr.grayGamma==grayGamma &&
+         tr.useStreamingFlag==streamFlag)
+      {
+        if(!fileStamp.equals(tr.fileStamp))
+        { /* stale, the file changed on disk */
+          pageList.removeElementAt(i);
+          nCachedPixels -= getNbrPixels(tr);
+          tr.release();
+          continue;
+        }
+        pageList.removeElementAt(i);
+        pageList.addElement(tr);                   /* most recently used */
+        return(tr);
+      }
+    } /* search from most recent */
+    
+    return(null);
+  } /* lookup */
+  
+  
+  /**
+   * add() - add a decoded page to the cache. Pages that are least 
+   * recently used are removed until the cache is within its bounds.
+   * The newly added page is always kept. The cache is an owner of the 
+   * pages it holds, so a removed streamed page is closed unless it is
+   * still used elsewhere.
+   * @param tr is the TiffLoader for the page
+   */
+  public synchronized void add(TiffLoader tr)
+  { /* add */
+    if(tr==null || tr.getImage()==null)
+      return;
+    tr.retain();
+    pageList.addElement(tr);
+    nCachedPixels += getNbrPixels(tr);
+    numPagesTable.put(tr.fileName, Integer.valueOf(tr.numPages));
+    
+    while(pageList.size()>1 &&
+          (pageList.size()>MAX_CACHED_PAGES || 
+           nCachedPixels>MAX_CACHED_PIXELS))
+    { /* remove least recently used */
+      TiffLoader trOld= (TiffLoader)pageList.elementAt(0);
+      pageList.removeElementAt(0);
+      nCachedPixels -= getNbrPixels(trOld);
+      trOld.release();
+    }
+  } /* add */
+  
+  
+  /**
+   * getPage() - get a decoded page from the cache, else decode it and 
+   * add it to the cache. The lookup and the marking of the page as 
+   * being decoded are done under the cache lock, so if another thread
+   * is decoding the same page we wait for it rather than decoding it
+   * twice. The decode itself is done outside of the lock. The page is
+   * retained for the caller under the cache lock, so it can not be 
+   * closed by an eviction before the caller uses it. The caller must
+   * release() it, or hand it to an owner, when done.
+   * @param fileName is the TIFF file
+   * @param page is the page # [0:numPages-1]
+   * @param grayMapMode is the TiffLoader.grayMapMode to use
+   * @param grayGamma is the TiffLoader.grayGamma to use
+   * @param streamFlag is the TiffLoader.useStreamingFlag to use
+   * @param dbugFlag is the TiffLoader debug flag
+   * @return TiffLoader with the page. If it failed, then getImage() is
+   *         null and fatalMsg has the reason.
+   */
+  public TiffLoader getPage(String fileName, int page, int grayMapMode,
+                            float grayGamma, boolean streamFlag, 
+                            boolean dbugFlag)
+  { /* getPage */
+    TiffLoader tr;
+    String 
+      fileStamp= getFileStamp(fileName),
+      key= fileName+PAGE_SEPARATOR+page+"|"+grayMapMode+":"+
+           grayGamma+":"+streamFlag;
+    
+    synchronized(this)
+    { /* lookup or claim the page */
+      while(true)
+      {
+        tr= lookup(fileName, page, grayMapMode, grayGamma, streamFlag,
+                   fileStamp);
+        if(tr!=null)
+        {
+          tr.retain();              /* for the caller */
+          return(tr);
+        }
+        if(pendingTable.get(key)==null)
+          break;
+        try
+        { wait(); }                 /* another thread is decoding it */
+        catch(InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      pendingTable.put(key, key);
+    } /* lookup or claim the page */
+    
+    tr= new TiffLoader(dbugFlag);
+    tr.fileStamp= fileStamp;
+    try
+    { /* decode it */
+      tr.setGrayMap(grayMapMode, grayGamma);
+      tr.setStreamingFlag(streamFlag);
+      String fatalMsg= tr.doTiffLoad(fileName, page, true);
+      if(fatalMsg!=null)
+      {
+        tr.fatalMsg= fatalMsg;
+        tr.img= null;
+      }
+    } /* decode it */
+    finally
+    {
+      synchronized(this)
+      {
+        pendingTable.remove(key);
+        tr.retain();                /* for the caller */
+        if(tr.img!=null)
+          add(tr);
+        notifyAll();
+      }
+    }
+    
+    return(tr);
+  } /* getPage */
+  
+  
+  /**
+   * getNumPages() - get the # of pages in a TIFF file. This is only 
+   * known for files that have been loaded.
+   * @param fileName is the TIFF file or image file spec
+   * @return # of pages, 0 if not known
+   */
+  public synchronized int getNumPages(String fileName)
+  { /* getNumPages */
+    if(fileName==null)
+      return(0);
+    Integer nPages= (Integer)numPagesTable.get(getFileFromSpec(fileName));
+    return((nPages==null) ? 0 : nPages.intValue());
+  } /* getNumPages */
+  
+  
+  /**
+   * clear() - remove all pages from the cache. E.g., when the gray scale
+   * options change.
+   */
+  public synchronized void clear()
+  { /* clear */
+    for(int i=0;i<pageList.size();i++)
+      ((TiffLoader)pageList.elementAt(i)).release();
+    pageList.removeAllElements();
+    nCachedPixels= 0;
+  } /* clear */
+  
+  
+  /**
+   * toString() - return string representation of this instance
+   * @return string instance
+   */
+  public synchronized String toString()
+  { /* toString */
+    String sR= "TiffPageCache nPages="+pageList.size()+
+               " nCachedPixels="+nCachedPixels;
+    for(int i=0;i<pageList.size();i++)
+    {
+      TiffLoader tr= (TiffLoader)pageList.elementAt(i);
+      sR += "\n  "+makePageSpec(tr.fileName, tr.page);
+    }
+    sR += "\n";
+    return(sR);
+  } /* toString */
+  
+} /* End of class TiffPageCache */
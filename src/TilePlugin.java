@@ -0,0 +1,108 @@
+/* File: TilePlugin.java */
+
+import java.lang.*;
+
+/**
+ * TilePlugin interface is the contract for image transform plugins that
+ * are found at startup in the jar files in the Flicker "plugins/" 
+ * directory using java.util.ServiceLoader. A plugin jar lists its 
+ * implementation classes in the file
+ * "META-INF/services/TilePlugin". The plugins are added to the
+ * (Transform | Plugins) menu and are run by PluginMgr.
+ *<P>
+ * A plugin transforms one tile at a time. A tile is a band of output
+ * rows [y1:y2-1] of the image together with the input rows 
+ * [hy1:hy2-1], which is the band plus getHaloSize() rows above and below
+ * it clipped to the image. PluginMgr runs the tiles in parallel on all
+ * of the processors, so processTile() must only read the input rows of
+ * its tile, only write the output rows of its tile, and must not change
+ * any shared state. Global information the plugin needs (e.g. histogram
+ * statistics) should be computed in init() which is called once per 
+ * image before the tiles are run. Pixels are packed ARGB as in 
+ * ImageData.iPix[]. E.g., a minimal plugin is
+ *<PRE>
+ *  public class MyInvert implements TilePlugin
+ *  {
+ *    public String getName() { return("MyInvert"); }
+ *    public String getMenuName() { return("Invert gray values"); }
+ *    public String getInfo() { return("g'= 255-g"); }
+ *    public int getHaloSize() { return(0); }
+ *    public boolean init(Flicker flk, ImageData iData) { return(true); }
+ *    public void processTile(PluginTile t)
+ *    {
+ *      for(int y=t.y1;y<t.y2;y++)
+ *        for(int x=0;x<t.width;x++)
+ *          t.setOut(x, y, 0xff000000 | (~t.getIn(x,y) & 0xffffff));
+ *    }
+ *  }
+ *</PRE>
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ * @see PluginMgr
+ * @see PluginTile
+ */
+
+public interface TilePlugin
+{ /* TilePlugin */
+  
+  /**
+   * getName() - get the short name of the transform. This is used
+   * for the transform name in status messages.
+   * @return name
+   */
+  public String getName();
+  
+  
+  /**
+   * getMenuName() - get the name that appears in the menu
+   * @return menu name
+   */
+  public String getMenuName();
+  
+  
+  /**
+   * getInfo() - get optional help message for the transform
+   * @return info, may be null
+   */
+  public String getInfo();
+  
+  
+  /**
+   * getHaloSize() - get the # of input rows needed above and below an
+   * output row to compute it, e.g. 1 for a 3x3 filter and 0 for a point
+   * transform.
+   * @return halo size >= 0
+   */
+  public int getHaloSize();
+  
+  
+  /**
+   * init() - prepare to transform an image. This is called once per
+   * image before processTile() is called for its tiles.
+   * @param flk is instance of flicker
+   * @param iData is the image data to process
+   * @return false if failed and the transform should be aborted
+   */
+  public boolean init(Flicker flk, ImageData iData);
+  
+  
+  /**
+   * processTile() - transform the input rows [t.hy1:t.hy2-1] of the 
+   * tile into its output rows [t.y1:t.y2-1]. This is called in 
+   * parallel for different tiles.
+   * @param t is the tile
+   */
+  public void processTile(PluginTile t);
+  
+} /* End of interface TilePlugin */
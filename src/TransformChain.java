@@ -0,0 +1,548 @@
+/* File: TransformChain.java */
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * TransformChain class runs a user defined chain of transforms, e.g. 
+ * "Median, Max 3x3, Threshold, Plugin4", as one transform. The stages
+ * may be builtin transforms that work on a 3x3 neighborhood or a single
+ * pixel (see BuiltinTileXform) and TilePlugins. Rather than making a 
+ * full size output image for each stage, the chain streams the image 
+ * tile by tile through all of the stages. Each stage only computes the
+ * rows its following stages need, i.e. the tile plus the sum of their
+ * halos, into small buffers. Only the final output oPix[] is full size.
+ * Tiles are run in parallel using ParallelBands and the chain may be 
+ * cancelled with PluginMgr.cancel() between tiles.
+ *<P>
+ * Stages that need whole image statistics (ContrastEnhance and 
+ * HistEqualize) must be the first stage since they are computed from 
+ * the input image. TilePlugin.init() is called with the input image for
+ * all stages.
+ *<P>
+ * A chain is run by ImageXform when its transform name is 
+ * CHAIN_PREFIX+spec, so "Repeat last transform" repeats the chain.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ * @see TilePlugin
+ * @see PluginMgr
+ */
+
+public class TransformChain
+{ /* TransformChain */
+  
+  /** prefix of the transform name of a chain */
+  final public static String
+    CHAIN_PREFIX= "Chain:";
+  /** last chain spec entered, used as the default */
+  public static String
+    lastChainSpec= "Median, Max 3x3, Threshold";
+  
+  /** global instance */
+  private Flicker
+    flk;
+  /** stages of the chain [0:nStages-1] */
+  public TilePlugin
+    stages[];
+  /** # of stages */
+  public int
+    nStages= 0;
+  /** # of rows beyond the tile that stage k must output [0:nStages-1].
+   * It is the sum of the halos of stages k+1 to nStages-1. */
+  private int
+    outHalo[];
+  
+  /** error message, else null */
+  public String
+    errMsg= null;
+  /** run time of the last run in msec */
+  public long
+    lastRunMsec= 0;
+  /** # of tiles in the last run */
+  public int
+    lastNbrTiles= 0;
+  /** # of threads used in the last run */
+  public int
+    lastNbrThreads= 0;
+  
+  
+  /**
+   * TransformChain() - Constructor
+   * @param flk is instance of Flicker
+   */
+  public TransformChain(Flicker flk)
+  { /* TransformChain */
+    this.flk= flk;
+  } /* TransformChain */
+  
+  
+  /**
+   * isChainName() - test if a transform name is a chain
+   * @param xformName is the transform name
+   * @return true if it is CHAIN_PREFIX+spec
+   */
+  public static boolean isChainName(String xformName)
+  { return(xformName!=null && xformName.startsWith(CHAIN_PREFIX)); }
+  
+  
+  /**
+   * parse() - parse the chain spec. The stages are separated by ','
+   * or '>'. Each stage is a builtin transform name (e.g. "Median")
+   * or a TilePlugin command name ("Plugin<n>"), name or menu name.
+   * If the spec starts with CHAIN_PREFIX it is ignored.
+   * @param spec is the chain spec
+   * @return false if there is an error, errMsg has the reason.
+   */
+  public boolean parse(String spec)
+  { /* parse */
+    errMsg= null;
+    nStages= 0;
+    if(spec==null)
+      spec= "";
+    if(isChainName(spec))
+      spec= spec.substring(CHAIN_PREFIX.length());
+    
+    StringTokenizer st= new StringTokenizer(spec, ",>");
+    stages= new TilePlugin[st.countTokens()];
+    while(st.hasMoreTokens())
+    { /* parse stage */
+      String name= st.nextToken().trim();
+      if(name.length()==0)
+        continue;
+      TilePlugin tp= null;
+      if(BuiltinTileXform.isBuiltin(name))
+      { /* builtin */
+        BuiltinTileXform bx= new BuiltinTileXform(flk, name);
+        if(bx.needsGlobalStatsFlag && nStages>0)
+        {
+          errMsg= "["+name+"] must be the first transform in a chain";
+          return(false);
+        }
+        tp= bx;
+      }
+      else
+        tp= lookupTilePlugin(name);
+      
+      if(tp==null)
+      {
+        errMsg= "Transform ["+name+"] can't be used in a chain";
+        return(false);
+      }
+      stages[nStages++]= tp;
+    } /* parse stage */
+    
+    if(nStages==0)
+    {
+      errMsg= "No transforms in the chain";
+      return(false);
+    }
+    
+    /* Compute the output halo of each stage */
+    outHalo= new int[nStages];
+    for(int k=nStages-2;k>=0;k--)
+      outHalo[k]= outHalo[k+1] + Math.max(0, stages[k+1].getHaloSize());
+    
+    return(true);
+  } /* parse */
+  
+  
+  /**
+   * lookupTilePlugin() - lookup a TilePlugin by its command name, 
+   * name or menu name
+   * @param name to lookup
+   * @return TilePlugin, else null if not found
+   */
+  private static TilePlugin lookupTilePlugin(String name)
+  { /* lookupTilePlugin */
+    for(int i=1;i<=PluginMgr.nExtFcts;i++)
+    {
+      TilePlugin tp= PluginMgr.getTilePlugin(i);
+      if(tp!=null && (name.equals(PluginMgr.efName[i]) ||
+                      name.equalsIgnoreCase(tp.getName()) ||
+                      name.equalsIgnoreCase(tp.getMenuName())))
+        return(tp);
+    }
+    return(null);
+  } /* lookupTilePlugin */
+  
+  
+  /**
+   * run() - run the chain on iData.iPix[] into oPix[]. Each band of 
+   * rows is done as a sequence of PluginMgr.ROWS_PER_TILE row tiles. 
+   * For a tile, stage k computes the tile rows +- outHalo[k] rows from 
+   * the previous stage's rows, using two buffers per band, and the last
+   * stage writes the tile rows into oPix[].
+   * @param iData image data to process
+   * @param oPix is output pixel array to put results
+   * @return false if failed or cancelled, errMsg has the reason.
+   */
+  public boolean run(ImageData iData, final int oPix[])
+  { /* run */
+    final int
+      width= iData.iWidth,
+      height= iData.iHeight,
+      iPix[]= iData.iPix,
+      rowsPerTile= Math.max(1, PluginMgr.ROWS_PER_TILE),
+      nBands= ParallelBands.getNbrBands(height),
+      bandTiles[]= new int[nBands];
+    long startTime= System.currentTimeMillis();
+    
+    errMsg= null;
+    lastNbrTiles= 0;
+    lastNbrThreads= 0;
+    lastRunMsec= 0;
+    PluginMgr.cancelFlag= false;
+    if(nStages==0 || iPix==null || oPix==null || 
+       iPix.length<width*height || oPix.length<width*height)
+    {
+      errMsg= "No image data or transforms for the chain";
+      return(false);
+    }
+    
+    try
+    {
+      for(int k=0;k<nStages;k++)
+        if(!stages[k].init(flk, iData))
+        {
+          errMsg= "Transform ["+stages[k].getName()+"] failed to initialize";
+          return(false);
+        }
+      
+      lastNbrThreads= new ParallelBands()
+        {
+          public void doBand(int band, int y1, int y2)
+          { /* doBand */
+            int
+              bufSize= (nStages>1)
+                         ? Math.min(height, rowsPerTile+2*outHalo[0])*width
+                         : 0,
+              bufA[]= new int[bufSize],
+              bufB[]= new int[bufSize];
+            
+            for(int ty1= y1; ty1<y2 && !PluginMgr.cancelFlag; 
+                ty1+= rowsPerTile)
+            { /* process tile through all stages */
+              int
+                ty2= Math.min(y2, ty1+rowsPerTile),
+                inBuf[]= iPix,
+                inY0= 0;
+              for(int k=0;k<nStages;k++)
+              { /* run stage k */
+                int
+                  oy1= Math.max(0, ty1-outHalo[k]),
+                  oy2= Math.min(height, ty2+outHalo[k]),
+                  outBuf[]= (k==nStages-1) ? oPix : (((k&1)==0) ? bufA : bufB),
+                  outY0= (k==nStages-1) ? 0 : oy1;
+                stages[k].processTile(new PluginTile(width, height, oy1, oy2,
+                                           Math.max(0, stages[k].getHaloSize()),
+                                           inBuf, inY0, outBuf, outY0));
+                inBuf= outBuf;
+                inY0= outY0;
+              } /* run stage k */
+              bandTiles[band]++;
+            } /* process tile through all stages */
+          } /* doBand */
+        }.run(height);
+    }
+    catch(Throwable e)
+    { /* error in a stage */
+      errMsg= "Transform chain failed - "+e;
+      return(false);
+    }
+    
+    for(int b=0;b<nBands;b++)
+      lastNbrTiles+= bandTiles[b];
+    lastRunMsec= System.currentTimeMillis() - startTime;
+    
+    if(PluginMgr.cancelFlag)
+    {
+      errMsg= "Transform chain was cancelled";
+      PluginMgr.cancelFlag= false;
+      return(false);
+    }
+    
+    return(true);
+  } /* run */
+  
+} /* End of class TransformChain */
+
+
+
+/* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
+/*                  Class BuiltinTileXform                               */
+/* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
+
+/**
+ * BuiltinTileXform class implements the builtin 8-bit grayscale 3x3 
+ * neighborhood and point transforms of ImageXform as a TilePlugin so
+ * they can be used in a TransformChain. They compute the same pixels as
+ * the ImageXform methods of the same name including the zero 
+ * neighborhood at the image edges. The state (eScale, thresholds) is
+ * copied from Flicker when it is created.
+ */
+class BuiltinTileXform implements TilePlugin
+{ /* BuiltinTileXform */
+  
+  /** builtin transform names that may be used in a chain */
+  final static String
+    chainXfCmds[]= {"SharpenGrad",
+                    "SharpenLapl",
+                    "Gradient",
+                    "Laplacian",
+                    "Average",
+                    "Median",
+                    "Max 3x3",
+                    "Min 3x3",
+                    "Complement",
+                    "Threshold",
+                    "ContrastEnhance",
+                    "HistEqualize",
+                    "PseudoColor"
+                   };
+  
+  /** transform name */
+  String
+    name;
+  /** ImageXform transform number */
+  int
+    op;
+  /** set if needs the 3x3 neighborhood */
+  boolean
+    nghFlag;
+  /** set if needs the whole image statistics */
+  boolean
+    needsGlobalStatsFlag;
+  /** state copy: scale factor for sharpening xform */
+  int
+    eScale;
+  /** state copy: threshold range [threshold1:threshold2] */
+  int
+    threshold1,
+    threshold2;
+  /** state copy: threshold inside else outside [t1:t2] */
+  boolean
+    useThresholdInsideFlag;
+  /** g'=mCE*g+bCE for ContrastEnhance */
+  float
+    mCE,
+    bCE;
+  /** histogram equalization LUT[256] for HistEqualize */
+  int
+    histEq[];
+  
+  
+  /**
+   * BuiltinTileXform() - Constructor
+   * @param flk is instance of Flicker
+   * @param name is the builtin transform name
+   */
+  BuiltinTileXform(Flicker flk, String name)
+  { /* BuiltinTileXform */
+    this.name= name;
+    op= -1;
+    for(int i=0;i<ImageXform.nxfCmds;i++)
+      if(ImageXform.xfCmd[i].equalsIgnoreCase(name))
+        op= i;
+    
+    nghFlag= (op==ImageXform.SHARPENGRAD || op==ImageXform.SHARPENLAPL ||
+              op==ImageXform.GRAD || op==ImageXform.LAPLACIAN ||
+              op==ImageXform.AVG8 || op==ImageXform.MEDIAN ||
+              op==ImageXform.MAX8 || op==ImageXform.MIN8);
+    needsGlobalStatsFlag= (op==ImageXform.CONTR_ENHANCE ||
+                           op==ImageXform.HIST_EQUAL);
+    
+    eScale= flk.curState.eScale;
+    threshold1= flk.curState.threshold1;
+    threshold2= flk.curState.threshold2;
+    useThresholdInsideFlag= flk.useThresholdInsideFlag;
+  } /* BuiltinTileXform */
+  
+  
+  /**
+   * isBuiltin() - test if name is a builtin transform usable in a chain
+   * @param name of transform
+   * @return true if it is
+   */
+  static boolean isBuiltin(String name)
+  { /* isBuiltin */
+    for(int i=0;i<chainXfCmds.length;i++)
+      if(chainXfCmds[i].equalsIgnoreCase(name))
+        return(true);
+    return(false);
+  } /* isBuiltin */
+  
+  
+  public String getName()
+  { return(name); }
+  
+  public String getMenuName()
+  { return(name); }
+  
+  public String getInfo()
+  { return(null); }
+  
+  public int getHaloSize()
+  { return((nghFlag) ? 1 : 0); }
+  
+  
+  /**
+   * init() - compute the histogram statistics if needed as 
+   * ImageXform.computeGrayHistStatistics() does.
+   * @param flk is instance of flicker
+   * @param iData is the image data to process
+   * @return true
+   */
+  public boolean init(Flicker flk, ImageData iData)
+  { /* init */
+    if(!needsGlobalStatsFlag)
+      return(true);
+    
+    ImageStats st= (iData.pixelMask==0Xff) ? iData.getStats() : null;
+    if(st==null)
+      st= ImageStats.computeStats(iData.iPix, iData.iWidth, iData.iHeight,
+                                  0Xff);
+    histEq= st.getEqualizationLUT(255);
+    int
+      gMax= Math.max(st.maxG, 0),
+      gMin= Math.max(st.minG, 0);
+    float gRange= (float)Math.max(1, (gMax - gMin));
+    mCE= 255.0F / gRange;
+    bCE= - 255.0F*gMin / gRange;
+    
+    return(true);
+  } /* init */
+  
+  
+  /**
+   * processTile() - transform the tile rows
+   * @param t is the tile
+   */
+  public void processTile(PluginTile t)
+  { /* processTile */
+    int
+      width= t.width,
+      height= t.height,
+      inPix[]= t.inPix,
+      outPix[]= t.outPix,
+      values[]= new int[9],
+      i0, i1, i2, i3, i4, i5, i6, i7, i8,
+      d0, d45, d90, d135,
+      diff, gI, gC, gO, p, q,
+      ywMw, yw, ywPw;
+    
+    for(int y= t.y1; y<t.y2; y++)
+    { /* process row */
+      q= t.outOffset(y);
+      yw= t.inOffset(y);
+      ywMw= yw-width;
+      ywPw= yw+width;
+      boolean rowInRange= (y>1 && y<(height-1));
+      
+      for(int x= 0; x<width; x++, q++)
+      { /* process column */
+        if(!nghFlag)
+        { /* point transform */
+          gI= (inPix[yw+x] & 0Xff);
+          if(op==ImageXform.COMPLEMENT)
+            gO= (255 - gI);
+          else if(op==ImageXform.THRESHOLD)
+          {
+            gC= (255-gI);
+            if(useThresholdInsideFlag)
+              gO= (gC>=threshold1 && gC<=threshold2) ? gI : 255;
+            else
+              gO= (gC<=threshold1 || gC>=threshold2) ? gI : 255;
+          }
+          else if(op==ImageXform.CONTR_ENHANCE)
+            gO= (int)(mCE*gI + bCE);
+          else if(op==ImageXform.HIST_EQUAL)
+            gO= histEq[gI];
+          else
+          { /* PSEUDOCOLOR */
+            outPix[q]= (0Xff000000 | ((255-gI)<<16) | 
+                        (Math.max(0,(gI-128))<<8) | gI);
+            continue;
+          }
+        } /* point transform */
+        
+        else
+        { /* 3x3 neighborhood transform */
+          if(rowInRange && x>1 && x<(width-1))
+          {
+            p= ywMw+x;
+            i3= (inPix[p-1] & 0Xff);
+            i2= (inPix[p] & 0Xff);
+            i1= (inPix[p+1] & 0Xff);
+            p= yw+x;
+            i4= (inPix[p-1] & 0Xff);
+            i8= (inPix[p] & 0Xff);
+            i0= (inPix[p+1] & 0Xff);
+            p= ywPw+x;
+            i5= (inPix[p-1] & 0Xff);
+            i6= (inPix[p] & 0Xff);
+            i7= (inPix[p+1] & 0Xff);
+          }
+          else
+            i0= i1= i2= i3= i4= i5= i6= i7= i8= 0;
+          
+          if(op==ImageXform.SHARPENGRAD || op==ImageXform.GRAD)
+          { /* 4-neighbor gradient */
+            d0= Math.abs(i3+i2+i2+i1 -i5-i6-i6-i7);
+            d45= Math.abs(i1+i1+i0 -i4-i5-i5-i6);
+            d90= Math.abs(i0+i0+i7 -i3-i4-i4-i5);
+            d135= Math.abs(i4+i3+i3+i2 -i0-i7-i7-i6);
+            gO= Math.max(Math.max(d0, d45), Math.max(d90, d135));
+            if(op==ImageXform.SHARPENGRAD)
+              gO= ((100-eScale)*i8 + eScale*gO)/100;
+          }
+          else if(op==ImageXform.SHARPENLAPL || op==ImageXform.LAPLACIAN)
+          { /* 8-neighbor laplacian */
+            diff= Math.abs(8*i8 - (i0+i1+i2+i3+i4+i5+i6+i7));
+            gO= (255 - diff);
+            if(op==ImageXform.SHARPENLAPL)
+              gO= ((100-eScale)*i8 + eScale*gO)/100;
+          }
+          else if(op==ImageXform.AVG8)
+            gO= (i0+i1+i2+i3+i4+i5+i6+i7+i8)/9;
+          else if(op==ImageXform.MEDIAN)
+          { /* median is the 5th largest of 9 */
+            values[0]= i0; values[1]= i1; values[2]= i2;
+            values[3]= i3; values[4]= i4; values[5]= i5;
+            values[6]= i6; values[7]= i7; values[8]= i8;
+            Arrays.sort(values);
+            gO= values[4];
+          }
+          else if(op==ImageXform.MAX8)
+            gO= Math.max(Math.max(Math.max(i0,i1), Math.max(i2,i3)),
+                         Math.max(Math.max(i4,i5), 
+                                  Math.max(Math.max(i6,i7), i8)));
+          else
+          { /* MIN8 */
+            gO= Math.min(Math.min(Math.min(i0,i1), Math.min(i2,i3)),
+                         Math.min(Math.min(i4,i5), 
+                                  Math.min(Math.min(i6,i7), i8)));
+          }
+        } /* 3x3 neighborhood transform */
+        
+        /* Clip it */
+        if(gO<0)
+          gO= 0;
+        else if(gO>255)
+          gO= 255;
+        outPix[q]= (0Xff000000 | (gO<<16) | (gO<<8) | gO);
+      } /* process column */
+    } /* process row */
+  } /* processTile */
+  
+} /* End of class BuiltinTileXform */
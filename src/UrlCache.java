@@ -0,0 +1,615 @@
+/* File: UrlCache.java */
+
+import java.awt.*;
+import java.util.*;
+import java.net.*;
+import java.lang.*;
+import java.io.*;
+import java.security.MessageDigest;
+
+/**
+ * UrlCache class is a persistent on-disk cache of data read from http://
+ * URLs. It is used for URL gel images (GIF, JPEG, PPX), the active map
+ * protein queries and the DB file updates so that reopening a reference
+ * map or re-annotating a gel costs no network round-trips.
+ *<P>
+ * The cache is kept in the "cache/" directory under the user directory.
+ * The data is content-addressed: each data file is named by the SHA-1
+ * hash of its contents (e.g., "cache/3f7a...c2.dat"), so URLs with the
+ * same contents share one file. The index file "cache/UrlCacheIndex.txt"
+ * maps each URL to its data file and has one tab-delimited line per URL:
+ *<PRE>
+ *   URL  SHA-1  size  ETag  Last-Modified  fetchTime  lastAccessTime
+ *</PRE>
+ * An entry younger than MAX_AGE_MSEC is used without any network access.
+ * An older entry is revalidated with a conditional GET (If-None-Match and
+ * If-Modified-Since) so that an unchanged URL only costs a 304 response.
+ * If the server can't be reached, then the cached data is used. The total
+ * size of the data files is bounded by maxCacheBytes by removing the least
+ * recently used entries. In offline mode, only the cached data is used.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class UrlCache
+{ /* UrlCache */
+  
+  /** Name of the index file in the cache directory */
+  final public static String
+    INDEX_FILE= "UrlCacheIndex.txt";
+  /** Age after which an entry is revalidated with the server (msec) */
+  public static long
+    MAX_AGE_MSEC= 24L*60L*60L*1000L;
+  /** Default max total size of the cached data files */
+  public static long
+    DEFAULT_MAX_CACHE_BYTES= 256L*1024L*1024L;
+  /** # of new entries after which the index is saved. It is also 
+   * saved when Flicker exits. */
+  public static int
+    SAVE_INDEX_BATCH= 16;
+  /** Default connect and read timeout (msec) */
+  public static int
+    DEFAULT_TIMEOUT_MSEC= 30000;
+  
+  /** Flicker instance */
+  private Flicker
+    flk;
+  /** cache directory path ending in the file separator */
+  private String
+    cacheDir;
+  /** Max total size of the cached data files */
+  public long
+    maxCacheBytes= DEFAULT_MAX_CACHE_BYTES;
+  /** Index of (URL, UrlCacheEntry) */
+  private Hashtable
+    index= new Hashtable();
+  /** # of index entries using each data file (SHA-1, Integer) */
+  private Hashtable
+    nUsers= new Hashtable();
+  /** # of entries added since the index was saved */
+  private int
+    nPutsSinceSave= 0;
+  /** Total size of the data files */
+  private long
+    totCacheBytes= 0;
+  /** set if the index changed since it was saved */
+  private boolean
+    indexChangedFlag= false;
+  /** # of requests served from the cache without network access */
+  private int
+    nHits= 0;
+  /** # of requests revalidated as not modified */
+  private int
+    nRevalidated= 0;
+  /** # of requests that read the data from the network */
+  private int
+    nFetched= 0;
+  
+  
+  /**
+   * UrlCache() - Constructor. Read the index if it exists.
+   * @param flk is the Flicker instance
+   * @param cacheDir is the cache directory
+   */
+  public UrlCache(Flicker flk, String cacheDir)
+  { /* UrlCache */
+    this.flk= flk;
+    this.cacheDir= (cacheDir.endsWith(File.separator)) 
+                      ? cacheDir : (cacheDir+File.separator);
+    new File(this.cacheDir).mkdirs();
+    readIndex();
+  } /* UrlCache */
+  
+  
+  /**
+   * isCacheableURL() - test if the spec is a URL that is cached
+   * @param spec is file or URL spec
+   * @return true if an http:// URL
+   */
+  public static boolean isCacheableURL(String spec)
+  { return(spec!=null && spec.startsWith("http://")); }
+  
+  
+  /**
+   * mapToLocalFile() - map an image file spec that is an http:// URL
+   * to the local cached data file, reading it into the cache if needed.
+   * Other specs are returned unchanged.
+   * @param spec is file or URL spec
+   * @return local cached file path, else the spec if not a URL or 
+   *         the URL could not be read
+   */
+  public String mapToLocalFile(String spec)
+  { /* mapToLocalFile */
+    if(!isCacheableURL(spec))
+      return(spec);
+    String localFile= getFile(spec, false, DEFAULT_TIMEOUT_MSEC);
+    return((localFile==null) ? spec : localFile);
+  } /* mapToLocalFile */
+  
+  
+  /**
+   * getBytes() - get the data for the URL from the cache, revalidating
+   * or reading it from the network as needed.
+   * @param url is the http:// URL
+   * @param timeoutMsec is the connect and read timeout, 0 for none
+   * @return data, else null if it could not be read and is not cached
+   */
+  public byte[] getBytes(String url, int timeoutMsec)
+  { /* getBytes */
+    String localFile= getFile(url, false, timeoutMsec);
+    if(localFile==null)
+      return(null);
+    return(readDataFile(localFile));
+  } /* getBytes */
+  
+  
+  /**
+   * getFile() - get the local cached data file for the URL, revalidating
+   * or reading it from the network as needed.
+   * @param url is the http:// URL
+   * @param revalidateFlag to always revalidate with the server, e.g.,
+   *        when updating the DB files
+   * @param timeoutMsec is the connect and read timeout, 0 for none
+   * @return local data file path, else null if it could not be read 
+   *         and is not cached
+   */
+  public String getFile(String url, boolean revalidateFlag, int timeoutMsec)
+  { /* getFile */
+    UrlCacheEntry e;
+    long now= System.currentTimeMillis();
+    synchronized(this)
+    { /* check the cache */
+      e= (UrlCacheEntry)index.get(url);
+      if(e!=null && !new File(getDataFile(e.sha1)).exists())
+      { /* data file was removed */
+        removeEntry(e);
+        e= null;
+      }
+      if(e!=null && 
+         (flk.offlineModeFlag ||
+          (!revalidateFlag && (now-e.fetchTime)<MAX_AGE_MSEC)))
+      { /* use it without network access */
+        e.lastAccessTime= now;
+        indexChangedFlag= true;
+        nHits++;
+        return(getDataFile(e.sha1));
+      }
+      if(e==null && flk.offlineModeFlag)
+        return(null);
+    } /* check the cache */
+    
+    /* Read or revalidate it from the network */
+    HttpURLConnection urlC= null;
+    InputStream urlIS= null;
+    try
+    { /* conditional GET */
+      urlC= (HttpURLConnection)new URL(url).openConnection();
+      if(timeoutMsec>0)
+      {
+        urlC.setConnectTimeout(timeoutMsec);
+        urlC.setReadTimeout(timeoutMsec);
+      }
+      if(e!=null && e.eTag.length()>0)
+        urlC.setRequestProperty("If-None-Match", e.eTag);
+      if(e!=null && e.lastModified.length()>0)
+        urlC.setRequestProperty("If-Modified-Since", e.lastModified);
+      int code= urlC.getResponseCode();
+      
+      if(code==HttpURLConnection.HTTP_NOT_MODIFIED && e!=null)
+      { /* still valid */
+        synchronized(this)
+        {
+          e.fetchTime= now;
+          e.lastAccessTime= now;
+          indexChangedFlag= true;
+          nRevalidated++;
+        }
+        return(getDataFile(e.sha1));
+      }
+      if(code!=HttpURLConnection.HTTP_OK)
+        return((e!=null) ? getDataFile(e.sha1) : null);
+      
+      /* Read the new data */
+      urlIS= urlC.getInputStream();
+      ByteArrayOutputStream oBuf= new ByteArrayOutputStream(20000);
+      byte buf[]= new byte[20000];
+      int nBytesRead;
+      while((nBytesRead= urlIS.read(buf))!=-1)
+        oBuf.write(buf, 0, nBytesRead);
+      byte data[]= oBuf.toByteArray();
+      
+      String 
+        eTag= urlC.getHeaderField("ETag"),
+        lastModified= urlC.getHeaderField("Last-Modified");
+      return(put(url, data, eTag, lastModified, now));
+    } /* conditional GET */
+    
+    catch(Exception ex)
+    { /* can't reach server - use the old data if we have it */
+      System.out.println("UrlCache.getFile("+url+") e="+ex);
+      return((e!=null) ? getDataFile(e.sha1) : null);
+    }
+    
+    finally
+    {
+      if(urlIS!=null)
+      {
+        try
+        { urlIS.close(); }
+        catch(IOException ex)
+        { }
+      }
+    }
+  } /* getFile */
+  
+  
+  /**
+   * put() - put the data for the URL into the cache. The data file is
+   * named by the SHA-1 of the data. If the URL was cached before, the
+   * new entry replaces it and the old data file is only deleted if it
+   * is not the same data. The least recently used entries are then 
+   * removed until the cache is within maxCacheBytes. The index is 
+   * saved every SAVE_INDEX_BATCH new entries.
+   * @param url is the URL
+   * @param data is the data read from the URL
+   * @param eTag is the ETag header, null if none
+   * @param lastModified is the Last-Modified header, null if none
+   * @param fetchTime is the time the data was read
+   * @return local data file path, null if failed
+   */
+  private synchronized String put(String url, byte data[], String eTag,
+                                  String lastModified, long fetchTime)
+  { /* put */
+    String sha1= sha1Hex(data);
+    if(sha1==null)
+      return(null);
+    String dataFile= getDataFile(sha1);
+    
+    if(!new File(dataFile).exists())
+    { /* write new data file, then rename so it is never partial */
+      File tmpFile= new File(dataFile+".tmp");
+      try
+      {
+        FileOutputStream fos= new FileOutputStream(tmpFile);
+        fos.write(data);
+        fos.close();
+        if(!tmpFile.renameTo(new File(dataFile)))
+        {
+          tmpFile.delete();
+          return(null);
+        }
+      }
+      catch(IOException ex)
+      {
+        tmpFile.delete();
+        return(null);
+      }
+    } /* write new data file, then rename so it is never partial */
+    
+    UrlCacheEntry e= new UrlCacheEntry(url, sha1, data.length,
+                                       ((eTag==null) ? "" : eTag),
+                                       ((lastModified==null) 
+                                          ? "" : lastModified),
+                                       fetchTime, fetchTime);
+    addEntry(e);
+    nFetched++;
+    evictLRU(e);
+    if(++nPutsSinceSave>=SAVE_INDEX_BATCH)
+      saveIndex();
+    
+    return(dataFile);
+  } /* put */
+  
+  
+  /**
+   * addEntry() - add an entry to the index, replacing the entry for the
+   * same URL if any. The data file size is only counted once for all of
+   * the URLs that share it. The new entry is counted before the old one
+   * is released so a shared data file is not deleted.
+   * @param e is the entry
+   */
+  private void addEntry(UrlCacheEntry e)
+  { /* addEntry */
+    if(addUsers(e.sha1, 1)==1)
+      totCacheBytes += e.size;
+    UrlCacheEntry eOld= (UrlCacheEntry)index.put(e.url, e);
+    if(eOld!=null)
+      releaseDataFile(eOld);
+    indexChangedFlag= true;
+  } /* addEntry */
+  
+  
+  /**
+   * removeEntry() - remove an entry from the index. The data file is 
+   * deleted if no other URL uses it.
+   * @param e is the entry
+   */
+  private void removeEntry(UrlCacheEntry e)
+  { /* removeEntry */
+    index.remove(e.url);
+    indexChangedFlag= true;
+    releaseDataFile(e);
+  } /* removeEntry */
+  
+  
+  /**
+   * releaseDataFile() - release the entry's use of its data file and
+   * delete the file if no other entry uses it.
+   * @param e is the entry
+   */
+  private void releaseDataFile(UrlCacheEntry e)
+  { /* releaseDataFile */
+    if(addUsers(e.sha1, -1)==0)
+    {
+      totCacheBytes -= e.size;
+      new File(getDataFile(e.sha1)).delete();
+    }
+  } /* releaseDataFile */
+  
+  
+  /**
+   * addUsers() - add to the # of index entries using the data file
+   * @param sha1 is the data file hash
+   * @param n is the # to add, may be negative
+   * @return new # of index entries with this hash
+   */
+  private int addUsers(String sha1, int n)
+  { /* addUsers */
+    Integer nOld= (Integer)nUsers.get(sha1);
+    n += (nOld==null) ? 0 : nOld.intValue();
+    if(n<=0)
+      nUsers.remove(sha1);
+    else
+      nUsers.put(sha1, Integer.valueOf(n));
+    return(Math.max(0, n));
+  } /* addUsers */
+  
+  
+  /**
+   * evictLRU() - remove the least recently used entries until the cache
+   * is within maxCacheBytes. 
+   * @param keep is the entry to keep, null if none
+   */
+  private void evictLRU(UrlCacheEntry keep)
+  { /* evictLRU */
+    while(totCacheBytes>maxCacheBytes && index.size()>1)
+    { /* remove the oldest */
+      UrlCacheEntry eOld= null;
+      for(Enumeration en= index.elements(); en.hasMoreElements();)
+      {
+        UrlCacheEntry e= (UrlCacheEntry)en.nextElement();
+        if(e!=keep && (eOld==null || e.lastAccessTime<eOld.lastAccessTime))
+          eOld= e;
+      }
+      if(eOld==null)
+        break;
+      removeEntry(eOld);
+    }
+  } /* evictLRU */
+  
+  
+  /**
+   * clear() - remove all entries and data files from the cache
+   */
+  public synchronized void clear()
+  { /* clear */
+    Vector entries= new Vector();
+    for(Enumeration en= index.elements(); en.hasMoreElements();)
+      entries.addElement(en.nextElement());
+    for(int i=0;i<entries.size();i++)
+      removeEntry((UrlCacheEntry)entries.elementAt(i));
+    nUsers.clear();
+    totCacheBytes= 0;
+    saveIndex();
+  } /* clear */
+  
+  
+  /**
+   * getDataFile() - get the data file path for the SHA-1 hash
+   * @param sha1 is the data hash
+   * @return path
+   */
+  private String getDataFile(String sha1)
+  { return(cacheDir + sha1 + ".dat"); }
+  
+  
+  /**
+   * readDataFile() - read the data file
+   * @param dataFile is the path
+   * @return data, null if failed
+   */
+  private static byte[] readDataFile(String dataFile)
+  { /* readDataFile */
+    try
+    {
+      File f= new File(dataFile);
+      byte data[]= new byte[(int)f.length()];
+      DataInputStream dis= new DataInputStream(new FileInputStream(f));
+      dis.readFully(data);
+      dis.close();
+      return(data);
+    }
+    catch(IOException e)
+    { return(null); }
+  } /* readDataFile */
+  
+  
+  /**
+   * sha1Hex() - compute the SHA-1 hash of the data as a hex string
+   * @param data to hash
+   * @return hex string, null if failed
+   */
+  public static String sha1Hex(byte data[])
+  { /* sha1Hex */
+    try
+    {
+      MessageDigest md= MessageDigest.getInstance("SHA-1");
+      byte hash[]= md.digest(data);
+      StringBuffer sBuf= new StringBuffer(2*hash.length);
+      for(int i=0;i<hash.length;i++)
+      {
+        int b= (hash[i] & 0377);
+        sBuf.append(Character.forDigit(b>>4, 16));
+        sBuf.append(Character.forDigit(b & 017, 16));
+      }
+      return(sBuf.toString());
+    }
+    catch(Exception e)
+    { return(null); }
+  } /* sha1Hex */
+  
+  
+  /**
+   * readIndex() - read the index file if it exists. Entries whose data
+   * files are missing are ignored.
+   */
+  private synchronized void readIndex()
+  { /* readIndex */
+    File f= new File(cacheDir+INDEX_FILE);
+    if(!f.exists())
+      return;
+    try
+    {
+      BufferedReader br= new BufferedReader(new FileReader(f));
+      String line;
+      while((line= br.readLine())!=null)
+      { /* parse an entry */
+        String tok[]= Util.cvs2Array(line, 7, "\t");
+        if(tok==null || tok.length<7 || tok[0].startsWith("#"))
+          continue;
+        UrlCacheEntry e= new UrlCacheEntry(tok[0], tok[1], 
+                                           Util.cvs2l(tok[2], 0),
+                                           tok[3], tok[4],
+                                           Util.cvs2l(tok[5], 0),
+                                           Util.cvs2l(tok[6], 0));
+        if(new File(getDataFile(e.sha1)).exists())
+          addEntry(e);
+      } /* parse an entry */
+      br.close();
+    }
+    catch(IOException e)
+    {
+      System.out.println("UrlCache.readIndex() e="+e);
+    }
+    indexChangedFlag= false;
+  } /* readIndex */
+  
+  
+  /**
+   * saveIndex() - write the index file if it changed
+   * @return true if succeed
+   */
+  public synchronized boolean saveIndex()
+  { /* saveIndex */
+    if(!indexChangedFlag)
+      return(true);
+    StringBuffer sBuf= new StringBuffer();
+    sBuf.append("# URL\tSHA-1\tsize\tETag\tLast-Modified\tfetchTime"+
+                "\tlastAccessTime\n");
+    for(Enumeration en= index.elements(); en.hasMoreElements();)
+    {
+      UrlCacheEntry e= (UrlCacheEntry)en.nextElement();
+      sBuf.append(e.url+"\t"+e.sha1+"\t"+e.size+"\t"+
+                  e.eTag+"\t"+e.lastModified+"\t"+
+                  e.fetchTime+"\t"+e.lastAccessTime+"\n");
+    }
+    try
+    {
+      File tmpFile= new File(cacheDir+INDEX_FILE+".tmp");
+      FileWriter fw= new FileWriter(tmpFile);
+      fw.write(sBuf.toString());
+      fw.close();
+      File f= new File(cacheDir+INDEX_FILE);
+      f.delete();
+      if(!tmpFile.renameTo(f))
+        return(false);
+    }
+    catch(IOException e)
+    {
+      System.out.println("UrlCache.saveIndex() e="+e);
+      return(false);
+    }
+    indexChangedFlag= false;
+    nPutsSinceSave= 0;
+    return(true);
+  } /* saveIndex */
+  
+  
+  /**
+   * toString() - return string representation of this instance
+   * @return string instance
+   */
+  public synchronized String toString()
+  { /* toString */
+    String sR= "UrlCache dir="+cacheDir+" nEntries="+index.size()+
+               " totCacheBytes="+totCacheBytes+
+               " maxCacheBytes="+maxCacheBytes+
+               " offline="+flk.offlineModeFlag+
+               "\n nHits="+nHits+" nRevalidated="+nRevalidated+
+               " nFetched="+nFetched+"\n";
+    return(sR);
+  } /* toString */
+  
+} /* End of class UrlCache */
+
+
+
+/* ====================================================================== */
+/*                  C L A S S      U r l C a c h e E n t r y              */
+/* ====================================================================== */
+/**
+ * UrlCacheEntry class is an index entry of the UrlCache.
+ */
+class UrlCacheEntry
+{ /* UrlCacheEntry */
+  
+  /** URL */
+  String
+    url;
+  /** SHA-1 hash of the data that names the data file */
+  String
+    sha1;
+  /** size of the data */
+  long
+    size;
+  /** ETag header from the server, "" if none */
+  String
+    eTag;
+  /** Last-Modified header from the server, "" if none */
+  String
+    lastModified;
+  /** time the data was read or last revalidated */
+  long
+    fetchTime;
+  /** time the entry was last used */
+  long
+    lastAccessTime;
+  
+  
+  /**
+   * UrlCacheEntry() - Constructor
+   */
+  UrlCacheEntry(String url, String sha1, long size, String eTag,
+                String lastModified, long fetchTime, long lastAccessTime)
+  { /* UrlCacheEntry */
+    this.url= url;
+    this.sha1= sha1;
+    this.size= size;
+    this.eTag= eTag;
+    this.lastModified= lastModified;
+    this.fetchTime= fetchTime;
+    this.lastAccessTime= lastAccessTime;
+  } /* UrlCacheEntry */
+  
+} /* End of class UrlCacheEntry */
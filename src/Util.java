@@ -1094,8 +1094,8 @@ public class Util
                                             s.xC,s.yC,
                                             "Reading spot #"+s.nbr+
                                             " annotation from active protein DB");
-    if(pData==null)
-    { /* problem */
+    if(pData!=null)
+    { /* found it */
       s.id= pData[0];
       s.name= pData[1];
       return(true);
@@ -1107,7 +1107,8 @@ public class Util
           
   /**
    * getProteinIDdataByXYurl() - read data from protein web site
-   * and parse {Swiss-Prot-id, protein-name} if found.
+   * and parse {Swiss-Prot-id, protein-name} if found. If the active
+   * map has a local AnnotationIndex, then look it up there instead.
    * @param clickCGIbaseURL is web site to get protein data
    * @param x is x coordinate in active gel image 
    * @param y is y coordinate in active gel image 
@@ -1121,6 +1122,11 @@ public class Util
        clickCGIbaseURL.length()==0 )
       return(null);
     
+    /* Use the local spot annotation index for the map if it exists */
+    AnnotationIndex ai= AnnotationIndex.getIndex(flk, clickCGIbaseURL);
+    if(ai!=null)
+      return(ai.lookup(x,y));
+    
     String dataURL= clickCGIbaseURL + x + "," + y;
     
     /* Now read the data*/
@@ -1134,6 +1140,18 @@ public class Util
       return(null);                   /* can't read file */
     String sData= new String(uBuf);
     
+    return(parseProteinIDdata(sData));
+  } /* getProteinIDdataByXYurl */
+  
+  
+  /**
+   * parseProteinIDdata() - parse {Swiss-Prot-id, protein-name} from the
+   * active map protein web page data if found.
+   * @param sData is the protein web page data
+   * @return {Swiss-Prot-id, protein-name} if succeed, null if fail
+   */
+  public static String[] parseProteinIDdata(String sData)
+  { /* parseProteinIDdata */
     if(sData==null)
       return(null);
     
@@ -1176,7 +1194,7 @@ public class Util
     sR[1]= name;
    
     return(sR);
-  } /* getProteinIDdataByXYurl */
+  } /* parseProteinIDdata */
      
   
   /**
@@ -1224,7 +1242,7 @@ public class Util
      */    
     if(!imageFile1.startsWith("http://"))
     { /* make sure the files exist */
-      fdTst= new File(imageFile1);
+      fdTst= new File(TiffPageCache.getFileFromSpec(imageFile1));
       if(!fdTst.exists())
       { /* problem - image file not found */
         fatalReportMsg(
@@ -1238,7 +1256,7 @@ public class Util
     
     if(!imageFile2.startsWith("http://"))
     { /* make sure the files exist */
-     fdTst= new File(imageFile2);
+     fdTst= new File(TiffPageCache.getFileFromSpec(imageFile2));
       if(!fdTst.exists())
       { /* problem - image file not found */
         fatalReportMsg(
@@ -1294,7 +1312,8 @@ public class Util
       if(tmpSpotList==null)
         flk.iData1.idSL.measCtr= 0;                 /* reset it */
       flk.iData1.idSL.nSpots= (tmpSpotList==null) ? 0 : tmpSpotList.length;
-      flk.iData1.idSL.spotList= new Spot[flk.MAX_SPOTS];  /* copy to state list */
+      flk.iData1.idSL.spotList= 
+        new Spot[Math.max(flk.MAX_SPOTS,flk.iData1.idSL.nSpots)];  /* copy to state list */
       for(int i=0;i<flk.iData1.idSL.nSpots;i++)
         flk.iData1.idSL.spotList[i]= tmpSpotList[i];
       
@@ -1302,7 +1321,8 @@ public class Util
       if(tmpSpotList==null)
         flk.iData2.idSL.measCtr= 0;                 /* reset it */
       flk.iData2.idSL.nSpots= (tmpSpotList==null) ? 0 : tmpSpotList.length;
-      flk.iData2.idSL.spotList= new Spot[flk.MAX_SPOTS];  /* copy to state list */
+      flk.iData2.idSL.spotList= 
+        new Spot[Math.max(flk.MAX_SPOTS,flk.iData2.idSL.nSpots)];  /* copy to state list */
       for(int i=0;i<flk.iData2.idSL.nSpots;i++)
         flk.iData2.idSL.spotList[i]= tmpSpotList[i];
     } /* read the spt*.spt files */
@@ -1330,6 +1350,16 @@ public class Util
     flk.useMeasCtrFlag= getStateValue("useMeasCtrFlag", true);     
     
     flk.useLogInputFlag= getStateValue("useLogInputFlag", false); 
+    flk.tiffGrayMapMode= getStateValue("tiffGrayMapMode",
+                                       ((flk.useLogInputFlag)
+                                          ? TiffLoader.GRAY_MAP_LOG
+                                          : TiffLoader.GRAY_MAP_LINEAR));
+    flk.useLogInputFlag= (flk.tiffGrayMapMode==TiffLoader.GRAY_MAP_LOG);
+    flk.tiffGrayGamma= getStateValue("tiffGrayGamma", 0.5F); 
+    flk.useTiffStreamingFlag= getStateValue("useTiffStreamingFlag", true); 
+    flk.usePrefetchImagesFlag= getStateValue("usePrefetchImagesFlag", true); 
+    flk.useSplineCalibFitFlag= getStateValue("useSplineCalibFitFlag", false); 
+    flk.offlineModeFlag= getStateValue("offlineModeFlag", false); 
       
     flk.viewLMSflag= getStateValue("viewLMSflag", false);   
     flk.viewTargetFlag= getStateValue("viewTargetFlag", false);   
@@ -1481,6 +1511,8 @@ public class Util
     
     /* Now write out the state file */
     boolean flag= flk.fio.writeFileToDisk(calFile, sData);
+    if(flag)
+      iData.calib.cacheCalibration(iData);  /* share with same wedge */
     
     return(flag);
   } /* writeCalibrationFile */
@@ -1552,6 +1584,12 @@ public class Util
     sBuf.append("useTotDensityFlag\t"+flk.useTotDensityFlag+"\n"); 
     sBuf.append("useMeasCtrFlag\t"+flk.useMeasCtrFlag+"\n");     
     sBuf.append("useLogInputFlag\t"+flk.useLogInputFlag+"\n");
+    sBuf.append("tiffGrayMapMode\t"+flk.tiffGrayMapMode+"\n");
+    sBuf.append("tiffGrayGamma\t"+flk.tiffGrayGamma+"\n");
+    sBuf.append("useTiffStreamingFlag\t"+flk.useTiffStreamingFlag+"\n");
+    sBuf.append("usePrefetchImagesFlag\t"+flk.usePrefetchImagesFlag+"\n");
+    sBuf.append("useSplineCalibFitFlag\t"+flk.useSplineCalibFitFlag+"\n");
+    sBuf.append("offlineModeFlag\t"+flk.offlineModeFlag+"\n");
     
     sBuf.append("viewLMSflag\t"+flk.viewLMSflag+"\n");
     sBuf.append("viewTargetFlag\t"+flk.viewTargetFlag+"\n");
@@ -1750,6 +1788,21 @@ public class Util
       byte buf[]= new byte[bufSize];
       
       boolean isURL= (srcName.startsWith("http://"));
+      if(isURL && flk.urlCache!=null)
+      { /* always revalidate the cached copy, then copy it locally */
+        if(optUpdateMsg!=null)
+          showMsg(optUpdateMsg, Color.white);
+        String cachedFile= flk.urlCache.getFile(srcName, true, 0);
+        if(optUpdateMsg!=null)
+          showMsg("", Color.black);
+        if(cachedFile==null)
+        {
+          dstFOS.close();
+          return(false);
+        }
+        srcName= cachedFile;
+        isURL= false;
+      }
       if(isURL)
       { /* Copy the file from Web site */
         if(optUpdateMsg!=null)
@@ -1824,29 +1877,49 @@ public class Util
    * @return a byte[] if succeed, else null.
    */
   public byte[] readBytesFromURL(String srcName, String optUpdateMsg)
+  { return(readBytesFromURL(srcName, optUpdateMsg, 0)); }
+  
+  
+  /**
+   * readBytesFromURL() - read binary data from URL with a timeout.
+   * The response is read completely and the stream closed so the
+   * HTTP connection can be reused.
+   * @param srcName is either a full path local file name or
+   *        a http:// prefixed URL string of the source file.
+   * @param optUpdateMsg (opt) will display message in showMsg() and
+   *        increasing ... in showMsg2(). One '.' for every 10K bytes read.
+   *        This only is used when reading a URL. Set to null if not used.
+   * @param timeoutMsec is the connect and read timeout, 0 for none
+   * @return a byte[] if succeed, else null.
+   */
+  public byte[] readBytesFromURL(String srcName, String optUpdateMsg,
+                                 int timeoutMsec)
   { /* readBytesFromURL */
     if(!srcName.startsWith("http://"))
       return(null);
+    if(flk.urlCache!=null)
+      return(flk.urlCache.getBytes(srcName, timeoutMsec));
     int
       bufSize= 20000,
-      nBytesRead= 0,
-      nBytesWritten= 0,
-      oByteSize= bufSize;
-    byte
-      buf[]= null,
-      oBuf[]= null;
+      nBytesRead= 0;
+    byte buf[]= new byte[bufSize];
+    ByteArrayOutputStream oBuf= new ByteArrayOutputStream(bufSize);
+    InputStream urlIS= null;
     
     try
-    { /* copy data from input to output file */
-      buf= new byte[bufSize];
-      oBuf= new byte[bufSize];
-      
+    { /* copy data from input to output buffer */
       /* Copy the file from Web site */
       if(optUpdateMsg!=null)
         showMsg(optUpdateMsg, Color.black);
       String sDots= "";
       URL url= new URL(srcName);
-      InputStream urlIS= url.openStream();
+      URLConnection urlC= url.openConnection();
+      if(timeoutMsec>0)
+      {
+        urlC.setConnectTimeout(timeoutMsec);
+        urlC.setReadTimeout(timeoutMsec);
+      }
+      urlIS= urlC.getInputStream();
       while(true)
       { /* read-write loop */
         if(optUpdateMsg!=null)
@@ -1859,33 +1932,14 @@ public class Util
         nBytesRead= urlIS.read(buf);
         if(nBytesRead==-1)
           break;         /* end of data */
-        else
-        { /* copy buf to end of oBuf */
-          if(nBytesRead+nBytesWritten >= oByteSize)
-          { /* regrow oBuf by bufSize */
-            byte tmp[]= new byte[oByteSize+bufSize];
-            for(int i=0;i<nBytesWritten;i++)
-              tmp[i]= oBuf[i];
-            oBuf= tmp;
-            oByteSize += bufSize;
-          }
-          for(int i=0;i<nBytesRead;i++)
-            oBuf[nBytesWritten++]= buf[i];
-          //nBytesWritten += nBytesRead;  /* append bytes to end of list */
-        }
+        oBuf.write(buf, 0, nBytesRead);  /* append bytes to end of list */
       } /* read-write loop */
       
-      /* shrink oBuf to exact size needed */
-      byte tmp[]= new byte[nBytesWritten];
-      for(int i=0;i<nBytesWritten;i++)
-        tmp[i]= oBuf[i];
-      oBuf= tmp;
-      
       if(optUpdateMsg!=null)
       {
         showMsg("",Color.black);
       }
-    } /* copy data from input to output file */
+    } /* copy data from input to output buffer */
     
     catch(Exception e)
     { /* just fail if any problems at all! */
@@ -1893,7 +1947,18 @@ public class Util
       return(null);
     }
     
-    return(oBuf);
+    finally
+    {
+      if(urlIS!=null)
+      {
+        try
+        { urlIS.close(); }
+        catch(IOException e)
+        { }
+      }
+    }
+    
+    return(oBuf.toByteArray());
   } /* readBytesFromURL */
   
   
@@ -2486,6 +2551,25 @@ public class Util
   } /* cvs2i */
   
   
+  /**
+   * cvs2l() - convert String to long with default value
+   * @param str to convert
+   * @param defaultValue if bad numeric string
+   * @return numeric value
+   */
+  static long cvs2l(String str, long defaultValue)
+  { /* cvs2l */
+    long l;
+    try
+    {
+      l= java.lang.Long.parseLong(str);
+    }
+    catch(NumberFormatException e)
+    {l= defaultValue;}
+    return(l);
+  } /* cvs2l */
+  
+  
   /**
    * cvByteToInt() - convert signed byte [-128:+127] to unsigned int
    * in range [0:255]
@@ -0,0 +1,550 @@
+/* File: WedgeLocator.java */
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * WedgeLocator class finds the neutral density (ND) step wedge in an
+ * image so the ND wedge ROI need not be drawn by hand before calibrating.
+ *<P>
+ * The image is cut into vertical and horizontal slabs SLAB_WIDTH pixels
+ * wide and each slab is projected (averaged) across its width, in one 
+ * parallel pass over the pixels. A step wedge lying along a slab shows 
+ * up in its projection as a staircase: a monotonic run of plateaus 
+ * separated by edges at a regular spacing. Each projection is scored in
+ * O(n) using running sums for smoothing and edges and a one pass edge 
+ * peak finder. The best scoring slab is then grown across into the
+ * neighboring slabs with the same staircase to get the width of the
+ * wedge. The ROI is inset from the wedge borders so background pixels
+ * do not add false peaks to the wedge histogram.
+ *<P>
+ * This work was produced by Peter Lemkin of the National Cancer
+ * Institute, an agency of the United States Government.  As a work of
+ * the United States Government there is no associated copyright.  It is
+ * offered as open source software under the Mozilla Public License
+ * (version 1.1) subject to the limitations noted in the accompanying
+ * LEGAL file. This notice must be included with the code. The Flicker 
+ * Mozilla and Legal files are available on 
+ * http://open2dprot.sourceforge.net/Flicker
+ *<P>
+ * @author P. Lemkin (LECB/NCI), Frederick, MD
+ * @version $Date$   $Revision$
+ * @see <A HREF="http://open2dprot.sourceforge.net/Flicker">Flicker Home</A>
+ */
+
+public class WedgeLocator
+{ /* WedgeLocator */
+  
+  /** Width of the slabs that are projected */
+  public static int
+    SLAB_WIDTH= 16;
+  /** Smoothing radius of the projections */
+  public static int
+    SMOOTH_RADIUS= 2;
+  /** Half width of the edge (derivative) operator */
+  public static int
+    EDGE_RADIUS= 2;
+  /** Minimum # of steps for a staircase to be a wedge */
+  public static int
+    MIN_STEPS= 5;
+  /** Minimum step size in pixels */
+  public static int
+    MIN_STEP_SIZE= 5;
+  /** Step spacings must be within this fraction of the median spacing */
+  public static float
+    STEP_SPACING_TOLERANCE= 0.5F;
+  /** Min correlation of a neighboring slab to be part of the wedge */
+  public static float
+    MIN_SLAB_CORRELATION= 0.9F;
+  
+  /** Image to search */
+  private ImageData
+    id;
+  
+  /** Found wedge ROI [x1:x2, y1:y2] (inclusive) in image coordinates */
+  public int
+    x1= -1,
+    y1= -1,
+    x2= -1,
+    y2= -1;
+  /** Set if the steps are along y (vertical wedge), else along x */
+  public boolean
+    verticalFlag;
+  /** # of steps found in the wedge */
+  public int
+    nSteps= 0;
+  /** median step size in pixels */
+  public int
+    stepSize= 0;
+  /** score of the wedge found */
+  public float
+    score= 0.0F;
+  /** time in msec to locate the wedge */
+  public long
+    runTimeMsec= 0;
+  
+  /** projections of the vertical slabs [slab][y] */
+  private float
+    vProj[][];
+  /** projections of the horizontal slabs [slab][x] */
+  private float
+    hProj[][];
+  
+  
+  /**
+   * WedgeLocator() - Constructor
+   * @param id is the image to search
+   */
+  public WedgeLocator(ImageData id)
+  { /* WedgeLocator */
+    this.id= id;
+  } /* WedgeLocator */
+  
+  
+  /**
+   * locate() - find the step wedge in the image and set the ROI
+   * (x1,y1,x2,y2), verticalFlag, nSteps, stepSize and score.
+   * @return true if a step wedge was found
+   */
+  public boolean locate()
+  { /* locate */
+    long startTime= System.currentTimeMillis();
+    nSteps= 0;
+    if(id.iPix==null || id.iPix.length<(id.iWidth*id.iHeight) ||
+       id.iWidth<SLAB_WIDTH || id.iHeight<SLAB_WIDTH)
+      return(false);
+    
+    /* [1] Project all slabs in one pass over the pixels */
+    projectSlabs();
+    
+    /* [2] Score the staircase in every projection in parallel */
+    final int
+      nV= vProj.length,
+      nH= hProj.length;
+    final Staircase stairs[]= new Staircase[nV+nH];
+    new ParallelBands()
+      {
+        public void doBand(int band, int p1, int p2)
+        { /* score a band of projections */
+          for(int p=p1;p<p2;p++)
+            stairs[p]= findStaircase((p<nV) ? vProj[p] : hProj[p-nV]);
+        }
+      }.run(nV+nH);
+    
+    int best= -1;
+    for(int p=0;p<stairs.length;p++)
+      if(stairs[p]!=null && (best==-1 || stairs[p].score>stairs[best].score))
+        best= p;
+    if(best==-1)
+    { /* no wedge */
+      runTimeMsec= System.currentTimeMillis() - startTime;
+      return(false);
+    }
+    
+    /* [3] Grow the wedge across into neighboring slabs */
+    Staircase sc= stairs[best];
+    verticalFlag= (best<nV);
+    float proj[][]= (verticalFlag) ? vProj : hProj;
+    int
+      slab= (verticalFlag) ? best : best-nV,
+      s1= slab,
+      s2= slab;
+    while(s1>0 && isSameStaircase(proj[slab], proj[s1-1], sc))
+      s1--;
+    while(s2<proj.length-1 && isSameStaircase(proj[slab], proj[s2+1], sc))
+      s2++;
+    
+    /* [4] Make the ROI, inset from the wedge borders */
+    int
+      inset= SLAB_WIDTH/4,
+      a1= s1*SLAB_WIDTH + inset,
+      a2= Math.min((s2+1)*SLAB_WIDTH, 
+                   (verticalFlag) ? id.iWidth : id.iHeight) - 1 - inset,
+      b1= sc.start,
+      b2= sc.end;
+    if(verticalFlag)
+    {
+      x1= a1;
+      x2= a2;
+      y1= b1;
+      y2= b2;
+    }
+    else
+    {
+      x1= b1;
+      x2= b2;
+      y1= a1;
+      y2= a2;
+    }
+    nSteps= sc.nSteps;
+    stepSize= sc.stepSize;
+    score= sc.score;
+    
+    vProj= null;                        /* GC */
+    hProj= null;
+    runTimeMsec= System.currentTimeMillis() - startTime;
+    
+    return(x1<x2 && y1<y2);
+  } /* locate */
+  
+  
+  /**
+   * projectSlabs() - compute the mean gray value projections of the 
+   * vertical slabs vProj[slab][y] and horizontal slabs hProj[slab][x].
+   * Bands are made of whole horizontal slabs so each band only writes 
+   * its own rows of vProj[][] and its own hProj[][] slabs.
+   */
+  private void projectSlabs()
+  { /* projectSlabs */
+    final int
+      pix[]= id.iPix,
+      width= id.iWidth,
+      height= id.iHeight,
+      pixelMask= id.pixelMask,
+      nVslabs= (width + SLAB_WIDTH-1)/SLAB_WIDTH,
+      nHslabs= (height + SLAB_WIDTH-1)/SLAB_WIDTH;
+    
+    vProj= new float[nVslabs][height];
+    hProj= new float[nHslabs][width];
+    
+    new ParallelBands()
+      {
+        public void doBand(int band, int t1, int t2)
+        { /* project a band of horizontal slabs */
+          int
+            colSum[]= new int[width],
+            rowSum[]= new int[nVslabs];
+          for(int t=t1;t<t2;t++)
+          { /* do horizontal slab t */
+            int
+              ys= t*SLAB_WIDTH,
+              ye= Math.min(ys+SLAB_WIDTH, height);
+            Arrays.fill(colSum, 0);
+            for(int y=ys;y<ye;y++)
+            { /* do a row */
+              Arrays.fill(rowSum, 0);
+              int yw= y*width;
+              for(int x=0;x<width;x++)
+              {
+                int g= pix[yw+x] & pixelMask;
+                colSum[x] += g;
+                rowSum[x/SLAB_WIDTH] += g;
+              }
+              for(int s=0;s<nVslabs;s++)
+              {
+                int n= Math.min(SLAB_WIDTH, width - s*SLAB_WIDTH);
+                vProj[s][y]= (float)rowSum[s]/n;
+              }
+            } /* do a row */
+            float n= (float)(ye-ys);
+            for(int x=0;x<width;x++)
+              hProj[t][x]= colSum[x]/n;
+          } /* do horizontal slab t */
+        } /* project a band of horizontal slabs */
+      }.run(nHslabs);
+  } /* projectSlabs */
+  
+  
+  /**
+   * findStaircase() - find the best staircase in a projection. The 
+   * projection is smoothed with a running sum, split into monotonic
+   * runs (allowing dips up to the noise tolerance) and the edges in 
+   * each run are found in one pass over a running sum derivative. The
+   * longest chain of regularly spaced edges is the staircase.
+   * @param p is the projection
+   * @return the best staircase, null if none.
+   */
+  static Staircase findStaircase(float p[])
+  { /* findStaircase */
+    int n= p.length;
+    if(n<MIN_STEPS*MIN_STEP_SIZE)
+      return(null);
+    
+    /* [1] Smooth with a box filter using running sums */
+    float
+      s[]= boxSmooth(p, SMOOTH_RADIUS),
+      noise= 0.0F;
+    for(int i=1;i<n;i++)
+      noise += Math.abs(p[i]-p[i-1]);
+    float tol= Math.max(1.0F, 2.0F*noise/(n-1));
+    
+    /* [2] Edge strength d[i]= s[i+r]-s[i-r] */
+    float d[]= new float[n];
+    for(int i=EDGE_RADIUS;i<n-EDGE_RADIUS;i++)
+      d[i]= s[i+EDGE_RADIUS] - s[i-EDGE_RADIUS];
+    
+    /* [3] Check the increasing and the decreasing runs */
+    Staircase
+      best= null,
+      sc;
+    for(int dir=1;dir>=-1;dir-=2)
+    { /* do a direction */
+      int 
+        start= 0,
+        peak= 0;
+      for(int i=1;i<=n;i++)
+      { /* scan for monotonic runs */
+        if(i<n && dir*(s[i]-s[peak])>=0)
+          peak= i;                                /* still climbing */
+        else if(i<n && dir*(s[peak]-s[i])<=tol)
+          continue;                               /* dip within noise */
+        else
+        { /* end of the run [start:i-1] */
+          if(i-start>=MIN_STEPS*MIN_STEP_SIZE)
+          {
+            sc= findEdgeChain(s, d, dir, start, i-1, tol);
+            if(sc!=null && (best==null || sc.score>best.score))
+              best= sc;
+          }
+          start= i;                               /* next run */
+          peak= i;
+        }
+      } /* scan for monotonic runs */
+    } /* do a direction */
+    
+    return(best);
+  } /* findStaircase */
+  
+  
+  /**
+   * findEdgeChain() - find the edges in a monotonic run [i1:i2] in one
+   * pass as the local maxima of dir*d[] above the edge threshold, 
+   * keeping the stronger of two edges closer than MIN_STEP_SIZE. Then
+   * find the longest chain of edges spaced within STEP_SPACING_TOLERANCE
+   * of the median spacing.
+   * @return the staircase, null if too few steps.
+   */
+  private static Staircase findEdgeChain(float s[], float d[], int dir,
+                                         int i1, int i2, float tol)
+  { /* findEdgeChain */
+    int
+      n= s.length,
+      maxEdges= (i2-i1+1)/MIN_STEP_SIZE + 1,
+      edge[]= new int[maxEdges],
+      nEdges= 0;
+    float
+      v,
+      thr= 2.0F*tol;
+    
+    /* [1] One pass edge peak finder with non-maximum suppression */
+    for(int i=Math.max(i1,EDGE_RADIUS);i<=Math.min(i2,n-EDGE_RADIUS-1);i++)
+    { /* scan */
+      v= dir*d[i];
+      if(v<thr || v<dir*d[i-1] || v<=dir*d[i+1])
+        continue;
+      if(nEdges>0 && (i-edge[nEdges-1])<MIN_STEP_SIZE)
+      { /* too close, keep the stronger edge */
+        if(v>dir*d[edge[nEdges-1]])
+          edge[nEdges-1]= i;
+      }
+      else if(nEdges<maxEdges)
+        edge[nEdges++]= i;
+    } /* scan */
+    if(nEdges+1<MIN_STEPS)
+      return(null);
+    
+    /* [2] Median edge spacing */
+    int spacing[]= new int[nEdges-1];
+    for(int k=1;k<nEdges;k++)
+      spacing[k-1]= edge[k]-edge[k-1];
+    int sorted[]= spacing.clone();
+    Arrays.sort(sorted);
+    int median= sorted[sorted.length/2];
+    float
+      lo= (1.0F-STEP_SPACING_TOLERANCE)*median,
+      hi= (1.0F+STEP_SPACING_TOLERANCE)*median;
+    
+    /* [3] Longest chain of regularly spaced edges */
+    int
+      bestK1= 0,
+      bestK2= 0,
+      k1= 0;
+    for(int k=1;k<nEdges;k++)
+    {
+      if(spacing[k-1]<lo || spacing[k-1]>hi)
+        k1= k;                                   /* break the chain */
+      else if(k-k1>bestK2-bestK1)
+      {
+        bestK1= k1;
+        bestK2= k;
+      }
+    }
+    int steps= bestK2-bestK1+2;
+    if(steps<MIN_STEPS)
+      return(null);
+    
+    /* [4] The wedge extends about a step beyond the end edges unless
+     * the plateau there is much longer than a step, in which case it is
+     * background (or a saturated step) and is left out.
+     */
+    Staircase sc= new Staircase();
+    int 
+      inset= median/4,
+      e1= edge[bestK1],
+      e2= edge[bestK2];
+    sc.nSteps= steps-2;
+    if(median/2 + getPlateauLength(s, e1-median/2, -1, tol) < (3*median)/2)
+    { /* first plateau is a step */
+      sc.start= Math.max(0, e1 - median + inset);
+      sc.nSteps++;
+    }
+    else
+      sc.start= e1 + inset;
+    if(median/2 + getPlateauLength(s, e2+median/2, 1, tol) < (3*median)/2)
+    { /* last plateau is a step */
+      sc.end= Math.min(n-1, e2 + median - inset);
+      sc.nSteps++;
+    }
+    else
+      sc.end= e2 - inset;
+    sc.stepSize= median;
+    float
+      contrast= Math.abs(s[Math.min(n-1,e2+median/2)] - 
+                         s[Math.max(0,e1-median/2)]),
+      sum= 0.0F,
+      sumSq= 0.0F;
+    for(int k=bestK1+1;k<=bestK2;k++)
+    {
+      sum += spacing[k-1];
+      sumSq += spacing[k-1]*spacing[k-1];
+    }
+    float
+      mean= sum/(steps-1),
+      cv= (float)Math.sqrt(Math.max(0.0F, sumSq/(steps-1) - mean*mean))/mean;
+    sc.contrast= contrast;
+    sc.score= steps*(contrast/tol)/(1.0F+cv);
+    
+    return(sc);
+  } /* findEdgeChain */
+  
+  
+  /**
+   * getPlateauLength() - get the length of the plateau in s[] around
+   * index i0 by walking from i0 in direction dir while the values stay 
+   * within tol of s[i0].
+   * @param s is the smoothed projection
+   * @param i0 is the index in the middle of the plateau
+   * @param dir is -1 to walk down, 1 to walk up
+   * @param tol is the noise tolerance
+   * @return length of the plateau beyond i0
+   */
+  private static int getPlateauLength(float s[], int i0, int dir, 
+                                      float tol)
+  { /* getPlateauLength */
+    int n= s.length;
+    if(i0<0 || i0>=n)
+      return(0);
+    int i= i0;
+    float ref= s[i0];
+    while(i+dir>=0 && i+dir<n && Math.abs(s[i+dir]-ref)<=tol)
+      i += dir;
+    return(Math.abs(i-i0));
+  } /* getPlateauLength */
+  
+  
+  /**
+   * isSameStaircase() - test if a neighboring slab projection has the 
+   * same staircase over [sc.start:sc.end] as the wedge slab. It must be
+   * highly correlated with it and have most of its contrast.
+   * @return true if it is part of the wedge
+   */
+  private static boolean isSameStaircase(float pA[], float pB[], 
+                                         Staircase sc)
+  { /* isSameStaircase */
+    double
+      n= sc.end-sc.start+1,
+      sA= 0.0, sB= 0.0, sAA= 0.0, sBB= 0.0, sAB= 0.0;
+    float
+      minB= Float.MAX_VALUE,
+      maxB= -Float.MAX_VALUE;
+    for(int i=sc.start;i<=sc.end;i++)
+    {
+      float
+        a= pA[i],
+        b= pB[i];
+      sA += a;
+      sB += b;
+      sAA += a*a;
+      sBB += b*b;
+      sAB += a*b;
+      minB= Math.min(minB, b);
+      maxB= Math.max(maxB, b);
+    }
+    double
+      cov= sAB - sA*sB/n,
+      vA= sAA - sA*sA/n,
+      vB= sBB - sB*sB/n;
+    if(vA<=0.0 || vB<=0.0)
+      return(false);
+    double r= cov/Math.sqrt(vA*vB);
+    
+    return(r>=MIN_SLAB_CORRELATION && (maxB-minB)>=0.75F*sc.contrast);
+  } /* isSameStaircase */
+  
+  
+  /**
+   * boxSmooth() - smooth data with a box filter of radius r using a 
+   * running sum so it is O(n) for any r. The ends are replicated.
+   * @param p is the data
+   * @param r is the radius
+   * @return smoothed copy
+   */
+  static float[] boxSmooth(float p[], int r)
+  { /* boxSmooth */
+    int n= p.length;
+    float s[]= new float[n];
+    double sum= 0.0;
+    for(int j=-r;j<=r;j++)
+      sum += p[Math.max(0, Math.min(n-1, j))];
+    for(int i=0;i<n;i++)
+    {
+      s[i]= (float)(sum/(2*r+1));
+      sum += p[Math.min(n-1, i+r+1)] - p[Math.max(0, i-r)];
+    }
+    return(s);
+  } /* boxSmooth */
+  
+  
+  /**
+   * toString() - summary of the wedge found
+   */
+  public String toString()
+  { /* toString */
+    String s= "Wedge ROI ["+x1+":"+x2+", "+y1+":"+y2+"] "+
+              ((verticalFlag) ? "vertical" : "horizontal")+
+              " nSteps="+nSteps+" stepSize="+stepSize+
+              " score="+Util.cvf2s(score,1)+" "+runTimeMsec+" msec";
+    return(s);
+  } /* toString */
+  
+  
+} /* End of class WedgeLocator */
+
+
+
+/* ====================================================================== */
+/*               C L A S S      S t a i r c a s e                         */
+/* ====================================================================== */
+
+/**
+ * Staircase class holds a staircase found in a slab projection.
+ */
+class Staircase
+{ /* Staircase */
+  /** first and last index of the staircase in the projection */
+  int
+    start,
+    end;
+  /** # of steps */
+  int
+    nSteps;
+  /** median step size */
+  int
+    stepSize;
+  /** gray value difference from the first to the last step */
+  float
+    contrast;
+  /** score, larger is a better wedge */
+  float
+    score;
+} /* End of class Staircase */
@@ -3,6 +3,7 @@
 import java.awt.*;
 import java.util.*;
 import java.io.*;
+import java.nio.channels.*;
 import java.awt.Image;
 import java.awt.image.*;
 
@@ -73,6 +74,9 @@ public class WriteGifEncoder
       EOF= -1,
       BITS= 12,
       HSIZE= 5003;	           	/** 80% occupancy */
+    /** size of the file output buffer */
+    private static final int
+      OUT_BUFFER_SIZE= 65536;
   
     private boolean 
       ok= false,                /** was successful in writing file*/
@@ -153,8 +157,10 @@ public class WriteGifEncoder
      * WriteGifEncoder() - Constructs using 24-bit Image.
      * After creating the class, use writeFile() to actually write the file.
      * The image is assumed to be fully loaded.
-     * It converts the 24-bit image into an 8-bit image with
-     * (r,g,b)LUT[] data using the MedianCut algorithm.
+     * If the image has at most 256 colors (e.g., gray scale gels), 
+     * its exact colors are used as the (r,g,b)LUT[]s. Otherwise it 
+     * converts the 24-bit image into an 8-bit image with (r,g,b)LUT[]
+     * data using the MedianCut algorithm.
      * @param img is the RGB image
      */
     public WriteGifEncoder(Image img /* RGB image */)
@@ -174,8 +180,20 @@ public class WriteGifEncoder
         System.err.println(e);
       };
       int iPixels[]= (int[])pg24.getPixels();
+      interlace= false;
+      pixelIndex= 0;
+      numPixels= width*height;
+      
+      /* [2] If there are at most 256 colors, there is no need to
+       * quantize. Map the pixels to the exact color table.
+       */
+      if(makeExactColorImage(iPixels))
+      {
+        ok= true;
+        return;
+      }
       
-      /* [2] Convert the 24-bit image to 8-bit IndexColorModel
+      /* [3] Convert the 24-bit image to 8-bit IndexColorModel
        * but keep in pixels[], r[], g[], b[] data structures.
        */
       MedianCut mc= new MedianCut(iPixels, width, height);
@@ -187,22 +205,131 @@ public class WriteGifEncoder
         return;
       }
       
-      /* [3] Get the 8-bit pixel data and(r,g,b)LUT[]s */
+      /* [4] Get the 8-bit pixel data and(r,g,b)LUT[]s */
       pixels= mc.pixels8;
       r= mc.rLUT;
       g= mc.gLUT;
       b= mc.bLUT;
       
       mc= null;                 /* can G.C. now */
-      
-      interlace= false;
-      pixelIndex= 0;
-      numPixels= width*height;
     } /* WriteGifEncoder */
     
     
     /**
-     * writeFile() - write the Gif encoded image to output file
+     * makeExactColorImage() - if the 24-bit image has at most 
+     * GifColorTable.MAX_COLORS distinct colors, make the 8-bit pixels[]
+     * and (r,g,b)[] LUTs from the exact colors. The colors are collected
+     * and the pixels mapped by bands of rows in parallel. The LUTs are
+     * sorted by RGB value so the result does not depend on the # of bands.
+     * @param iPixels is the 24-bit image [width*height]
+     * @return true if succeed, false if too many colors.
+     */
+    private boolean makeExactColorImage(final int iPixels[])
+    { /* makeExactColorImage */
+      if(iPixels==null || width<=0 || height<=0)
+        return(false);
+      
+      final int
+        w= width,
+        nBands= ParallelBands.getNbrBands(height);
+      final GifColorTable bandTable[]= new GifColorTable[nBands];
+      final boolean tooManyColorsFlag[]= new boolean[1];
+      
+      /* [1] Collect the distinct colors of each band. All bands give
+       * up as soon as any band has too many colors.
+       */
+      new ParallelBands()
+        {
+          public void doBand(int band, int y1, int y2)
+          { /* doBand */
+            GifColorTable ct= new GifColorTable();
+            int
+              rgb,
+              lastRGB= -1,
+              i, iEnd;
+            for(int y=y1;y<y2;y++)
+            { /* process row */
+              if(tooManyColorsFlag[0])
+                return;                    /* another band gave up */
+              iEnd= (y+1)*w;
+              for(i=y*w;i<iEnd;i++)
+              { /* add colors */
+                rgb= (iPixels[i] & 0xffffff);
+                if(rgb==lastRGB)
+                  continue;
+                lastRGB= rgb;
+                if(ct.add(rgb)==-1)
+                { /* too many colors */
+                  tooManyColorsFlag[0]= true;
+                  return;
+                }
+              } /* add colors */
+            } /* process row */
+            bandTable[band]= ct;
+          } /* doBand */
+        }.run(height);
+      
+      /* [2] Merge the band colors into sorted color table */
+      GifColorTable merged= new GifColorTable();
+      for(int band=0;band<nBands;band++)
+      { /* merge band */
+        if(bandTable[band]==null)
+          return(false);
+        for(int k=0;k<bandTable[band].nColors;k++)
+          if(merged.add(bandTable[band].colors[k])==-1)
+            return(false);
+      } /* merge band */
+      
+      int nColors= merged.nColors;
+      int colors[]= new int[nColors];
+      System.arraycopy(merged.colors,0, colors,0, nColors);
+      Arrays.sort(colors);
+      
+      final GifColorTable ct= new GifColorTable();
+      r= new byte[nColors];
+      g= new byte[nColors];
+      b= new byte[nColors];
+      for(int k=0;k<nColors;k++)
+      { /* make LUTs */
+        ct.add(colors[k]);
+        r[k]= (byte)((colors[k] >> 16) & 0xff);
+        g[k]= (byte)((colors[k] >> 8) & 0xff);
+        b[k]= (byte)(colors[k] & 0xff);
+      }
+      
+      /* [3] Map 24-bit pixels to 8-bit pixels in parallel */
+      final byte pix8[]= new byte[w*height];
+      new ParallelBands()
+        {
+          public void doBand(int band, int y1, int y2)
+          { /* doBand */
+            int
+              rgb,
+              lastRGB= -1,
+              idx= 0,
+              iEnd= y2*w;
+            for(int i=y1*w;i<iEnd;i++)
+            { /* map pixels */
+              rgb= (iPixels[i] & 0xffffff);
+              if(rgb!=lastRGB)
+              {
+                lastRGB= rgb;
+                idx= ct.lookup(rgb);
+              }
+              pix8[i]= (byte)idx;
+            }
+          } /* doBand */
+        }.run(height);
+      pixels= pix8;
+      
+      return(true);
+    } /* makeExactColorImage */
+    
+    
+    /**
+     * writeFile() - write the Gif encoded image to output file.
+     * The GIF stream is buffered and written through the file's channel
+     * in large blocks rather than a write per byte or packet.
      * @param oGifFileName is full path of file name to be written
      * @return true if succeed
      */
@@ -212,14 +339,27 @@ public class WriteGifEncoder
         return(false);
       
       /* Write it into GIF image */
+      FileOutputStream fos= null;
       try
       { /* do it */
-        FileOutputStream fos= new FileOutputStream(oGifFileName);
-        writeGif(fos);       /* write 8-bit data to GIF file */
+        fos= new FileOutputStream(oGifFileName);
+        OutputStream out= new BufferedOutputStream(
+                                Channels.newOutputStream(fos.getChannel()),
+                                OUT_BUFFER_SIZE);
+        writeGif(out);       /* write 8-bit data to GIF file */
+        out.flush();
         fos.close();
       } /* do it */
       catch (Exception e)
       {
+        try
+        {
+          if(fos!=null)
+            fos.close();
+        }
+        catch (IOException e2)
+        {
+        }
         return(false);
       }
       
@@ -231,7 +371,7 @@ public class WriteGifEncoder
      * writeGif() -  Saves the image as a GIF file.
      * @param out is file output stream
      */
-    private void writeGif(FileOutputStream out) throws IOException
+    private void writeGif(OutputStream out) throws IOException
     { /* writeGif */
       /* Figure out how many bits to use. */
       int
@@ -269,7 +409,7 @@ public class WriteGifEncoder
      * @param out is file output stream
      * @param str is string to write
      */
-    private static void writeString(FileOutputStream out, String str)
+    private static void writeString(OutputStream out, String str)
     throws IOException
     { /* writeString */
       byte[] buf= str.getBytes();
@@ -293,7 +433,7 @@ public class WriteGifEncoder
      * @param Green byte array of data
      * @param Blue is byte array of data
      */
-    private void GIFEncode(FileOutputStream outs, int Width, int Height,
+    private void GIFEncode(OutputStream outs, int Width, int Height,
                            boolean Interlace, byte Background,
                            int Transparent, int BitsPerPixel,
                            byte[] Red, byte[] Green, byte[] Blue)
@@ -411,7 +551,7 @@ public class WriteGifEncoder
     /**
      * Putword() - Write out a word to the GIF file
      */
-    private void Putword(int w, FileOutputStream outs) throws IOException
+    private void Putword(int w, OutputStream outs) throws IOException
     { /* Putword */
       Putbyte((byte) (w & 0xff), outs);
       Putbyte((byte) ((w >> 8) & 0xff), outs);
@@ -421,7 +561,7 @@ public class WriteGifEncoder
     /**
      * Putbyte() -  Write out a byte to the GIF file
      */
-    private void Putbyte(byte b, FileOutputStream outs) throws IOException
+    private void Putbyte(byte b, OutputStream outs) throws IOException
     { /* Putbyte */
       outs.write(b);
     } /* Putbyte */
@@ -470,7 +610,7 @@ public class WriteGifEncoder
      * Block compression parameters -- after all codes are used up,
      * and compression rate changes, start over.
      */
-    private void compress(int init_bits, FileOutputStream outs)
+    private void compress(int init_bits, OutputStream outs)
     throws IOException
     { /* compress */
       int
@@ -570,7 +710,7 @@ public class WriteGifEncoder
      * code in turn.  When the buffer fills up empty it and start over.
      */
     
-    private void output(int code, FileOutputStream outs) throws IOException
+    private void output(int code, OutputStream outs) throws IOException
     { /* output */
       cur_accum &= masks[cur_bits];
       
@@ -625,7 +765,7 @@ public class WriteGifEncoder
      * cl_block() - table clear for block compress
      * Clear out the hash table.
      */
-    private void cl_block(FileOutputStream outs) throws IOException
+    private void cl_block(OutputStream outs) throws IOException
     { /* cl_block */
       cl_hash(hsize);
       free_ent= ClearCode + 2;
@@ -660,7 +800,7 @@ public class WriteGifEncoder
      * char_out() - add char to end of current packet, and if it is 254
      * characters, flush the packet to disk.
      */
-    void char_out(byte c, FileOutputStream outs) throws IOException
+    void char_out(byte c, OutputStream outs) throws IOException
     { /* char_out */
       accum[a_count++]= c;
       if (a_count >= 254)
@@ -671,7 +811,7 @@ public class WriteGifEncoder
     /**
      * flush_char() - flush packet to disk, and reset the accumulator
      */
-    void flush_char(FileOutputStream outs) throws IOException
+    void flush_char(OutputStream outs) throws IOException
     { /*  flush_char */
       if (a_count > 0)
       {
@@ -713,6 +853,97 @@ class WriteGifEncoderHashitem
 
 
 
+/* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
+/*           Class GifColorTable                                           */
+/* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
+
+/**
+ * GifColorTable is a small open addressing hash table that maps 24-bit
+ * RGB colors to color indices [0:MAX_COLORS-1] in the order they were
+ * added. It is used to find if an image fits in a GIF color table
+ * without quantization.
+ */
+class GifColorTable
+{ /* GifColorTable */
+  /** maximum # of colors in the table */
+  static final int
+    MAX_COLORS= 256;
+  /** size of hash table, power of 2 > 2*MAX_COLORS */
+  private static final int
+    TBL_SIZE= 1024;
+  
+  /** [0:TBL_SIZE-1] hash table of RGB colors, -1 if empty */
+  private int
+    keys[];
+  /** [0:TBL_SIZE-1] color index of keys[] entries */
+  private int
+    index[];
+  /** [0:nColors-1] RGB colors in the order they were added */
+  int
+    colors[];
+  /** # of colors in the table */
+  int
+    nColors;
+  
+  
+  /**
+   * GifColorTable() - constructor
+   */
+  GifColorTable()
+  { /* GifColorTable */
+    keys= new int[TBL_SIZE];
+    index= new int[TBL_SIZE];
+    colors= new int[MAX_COLORS];
+    nColors= 0;
+    for(int i=0;i<TBL_SIZE;i++)
+      keys[i]= -1;
+  } /* GifColorTable */
+  
+  
+  /**
+   * lookup() - get the color index of a RGB color
+   * @param rgb is 24-bit color
+   * @return color index, else -1 if not in table
+   */
+  final int lookup(int rgb)
+  { /* lookup */
+    int h= ((rgb * 0x9E3779B1) >>> 22);     /* 10-bit multiplicative hash */
+    while(keys[h]!=-1)
+    { /* probe */
+      if(keys[h]==rgb)
+        return(index[h]);
+      h= (h+1) & (TBL_SIZE-1);
+    }
+    return(-1);
+  } /* lookup */
+  
+  
+  /**
+   * add() - add a RGB color if it is not already in the table
+   * @param rgb is 24-bit color
+   * @return color index, else -1 if the table is full
+   */
+  final int add(int rgb)
+  { /* add */
+    int h= ((rgb * 0x9E3779B1) >>> 22);     /* 10-bit multiplicative hash */
+    while(keys[h]!=-1)
+    { /* probe */
+      if(keys[h]==rgb)
+        return(index[h]);
+      h= (h+1) & (TBL_SIZE-1);
+    }
+    if(nColors==MAX_COLORS)
+      return(-1);                           /* too many colors */
+    keys[h]= rgb;
+    index[h]= nColors;
+    colors[nColors]= rgb;
+    return(nColors++);
+  } /* add */
+  
+}  /* end of class GifColorTable */
+
+
+
 /* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
 /*           Class MedianCut                                               */
 /* @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@ */
@@ -806,10 +1037,11 @@ class MedianCut
    */
   MedianCut(int pixels[], int width, int height)
   { /*  MedianCut */
-    int
-      size= width*height,
-      color15,
-      p32;
+    final int
+      w= width,
+      nBands= ParallelBands.getNbrBands(height);
+    final int
+      bandHist15[][]= new int[nBands][];
     
     pixels32= pixels;
     this.width= width;
@@ -820,15 +1052,28 @@ class MedianCut
     bLUT= new byte[256];
     pixels8= null;       /* will alloc [width*height] in makeImage */
     
-    /* Build 32x32x32 RGB histogram */
-    hist15= new int[HSIZE];
+    /* Build 32x32x32 RGB histogram. Each band of rows builds its
+     * own histogram in parallel and they are then summed.
+     */
+    new ParallelBands()
+      {
+        public void doBand(int band, int y1, int y2)
+        { /* doBand */
+          int
+            h[]= new int[HSIZE],
+            iEnd= y2*w;
+          for (int i=y1*w; i<iEnd; i++)
+            h[rgb15(pixels32[i])]++;   /* compute initial hist15[] */
+          bandHist15[band]= h;
+        } /* doBand */
+      }.run(height);
     
-    for (int i=0; i<size; i++)
-    { /* compute initial hist15[] */
-      p32= pixels32[i];
-      color15= rgb15(p32);
-      hist15[color15]++;
-    } /* compute initial hist15[] */    
+    hist15= bandHist15[0];
+    if(hist15==null)
+      hist15= new int[HSIZE];        /* empty image */
+    for (int band=1; band<nBands; band++)
+      for (int i=0; i<HSIZE; i++)
+        hist15[i] += bandHist15[band][i];
   } /* MedianCut */
   
   
@@ -1278,19 +1523,24 @@ class MedianCut
   
   /**
    * make8BitImage() - Generate 8-bit image from interla 15-bit image.
+   * The bands of rows are mapped in parallel.
    */
   void make8BitImage()
   { /* make8BitImage */
-    int
-      color15,
-      size= width*height;
+    final int w= width;
     
     pixels8= new byte[width*height];
-    for (int i=0; i<size; i++)
-    { /* map 15-bit pixels to 8-bit pixels */
-      color15= rgb15(pixels32[i]);
-      pixels8[i]= (byte)(hist15[color15] & 0Xff );
-    }
+    new ParallelBands()
+      {
+        public void doBand(int band, int y1, int y2)
+        { /* doBand */
+          int iEnd= y2*w;
+          for (int i=y1*w; i<iEnd; i++)
+          { /* map 15-bit pixels to 8-bit pixels */
+            pixels8[i]= (byte)(hist15[rgb15(pixels32[i])] & 0Xff );
+          }
+        } /* doBand */
+      }.run(height);
   } /* make8BitImage */
   
   